@@ -9,12 +9,18 @@ import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
 import com.sun.jna.ptr.IntByReference;
+import org.valhalla.openal.asset.PcmData;
+import org.valhalla.openal.asset.PcmDiskCache;
+import org.valhalla.openal.asset.SoundBank;
+import org.valhalla.openal.asset.SoundBankBuilder;
 import org.valhalla.openal.intermediate.Buffer;
 import org.valhalla.openal.intermediate.Context;
 import org.valhalla.openal.intermediate.Device;
 import org.valhalla.openal.intermediate.Source;
+import org.valhalla.openal.intermediate.StaticBuffer;
 import org.valhalla.openal.jna.AL;
 import org.valhalla.openal.factory.ALFactory;
+import org.valhalla.openal.util.Resampler;
 import org.valhalla.openal.util.Util;
 import org.valhalla.openal.util.ALException;
 
@@ -107,6 +113,14 @@ public class OpenAL {
 	    return context;
     }
 
+    /**
+     * Returns the factory that provides OpenAL access
+     * @return the ALFactory used by OpenAL
+     */
+    public ALFactory getFactory() {
+	    return factory;
+    }
+
     /**
      * Creates a new OpenAL source and returns it.
      * @return the created OpenAL source
@@ -177,6 +191,22 @@ public class OpenAL {
 	    return createBuffer(AudioSystem.getAudioInputStream(waveFile));
     }
 
+    /**
+     * Creates a buffer and loads the given wave file input that buffer.<br>
+     * When resampling is requested, the audio data is converted to the output rate of the device at load time,
+     * so that the OpenAL mixer does not have to resample the buffer every time it is played.
+     * @param waveFile The file to load into the new buffer
+     * @param resampleToDevice if the data should be converted to the sample rate of the device
+     * @return A new buffer preloaded with the given audio file contents
+     * @throws ALException when there is an error related to OpenAL
+     * @throws IOException when there is an error reading the file
+     * @throws UnsupportedAudioFileException when file type of the file is in an unsupported format
+     * @see Device#getFrequency()
+     */
+    public Buffer createBuffer(File waveFile, boolean resampleToDevice) throws ALException, IOException, UnsupportedAudioFileException {
+	    return createBuffer(AudioSystem.getAudioInputStream(waveFile), resampleToDevice);
+    }
+
     /**
      * Creates a buffer and fills it with data from the given audio input stream
      * @param audioStream The audio input stream to load into the new buffer
@@ -189,4 +219,83 @@ public class OpenAL {
 	    result.addBufferData(audioStream.getFormat(), Util.readStreamContents(audioStream));
 	    return result;
     }
+
+    /**
+     * Creates a static buffer and decodes the given wave file directly into its native memory.
+     * @param waveFile The file to load into the new buffer
+     * @return A new static buffer preloaded with the given audio file contents
+     * @throws ALException when there is an error related to OpenAL
+     * @throws IOException when there is an error reading the file
+     * @throws UnsupportedAudioFileException when file type of the file is in an unsupported format
+     * @see StaticBuffer
+     */
+    public StaticBuffer createStaticBuffer(File waveFile) throws ALException, IOException, UnsupportedAudioFileException {
+	    return createStaticBuffer(AudioSystem.getAudioInputStream(waveFile));
+    }
+
+    /**
+     * Creates a static buffer and decodes the given audio input stream directly into its native memory.
+     * @param audioStream The audio input stream to load into the new buffer
+     * @return A new static buffer preloaded with the given audio contents
+     * @throws ALException when there is an error related to OpenAL
+     * @throws IOException when there is an error reading the stream
+     * @see StaticBuffer
+     */
+    public StaticBuffer createStaticBuffer(AudioInputStream audioStream) throws ALException, IOException {
+	    StaticBuffer result = new StaticBuffer(factory);
+	    try {
+	        result.setData(audioStream);
+	    } catch (ALException | IOException e) {
+	        result.close();
+	        throw e;
+	    }
+	    return result;
+    }
+
+    /**
+     * Opens a sound bank created by {@link SoundBankBuilder}.<br>
+     * Only the index is read, buffers are created when a sound is requested for the first time.
+     * @param bankFile The sound bank file
+     * @return the opened sound bank
+     * @throws IOException when the file could not be mapped or is not a sound bank
+     * @see SoundBank
+     */
+    public SoundBank openSoundBank(File bankFile) throws IOException {
+	    return new SoundBank(factory, bankFile);
+    }
+
+    /**
+     * Creates a buffer and fills it with data from the given audio input stream.<br>
+     * When resampling is requested, the audio data is converted to the output rate of the device at load time,
+     * so that the OpenAL mixer does not have to resample the buffer every time it is played.
+     * @param audioStream The audio input stream to load into the new buffer
+     * @param resampleToDevice if the data should be converted to the sample rate of the device
+     * @return A new OpenAL buffer preloaded with the given audio file contents
+     * @throws ALException when there is an error related to OpenAL
+     * @throws IOException when there is an error reading the file
+     * @see Resampler
+     */
+    public Buffer createBuffer(AudioInputStream audioStream, boolean resampleToDevice) throws ALException, IOException {
+	    if (!resampleToDevice) {
+	        return createBuffer(audioStream);
+	    }
+
+	    return PcmData.decode(audioStream, device.getFrequency()).createBuffer(factory);
+    }
+
+    /**
+     * Creates a buffer holding the given wave file, converted to the output rate of the device.<br>
+     * The converted data is taken from the cache when the file has been loaded before,
+     * otherwise the file is decoded and the result is stored in the cache.
+     * @param waveFile The file to load into the new buffer
+     * @param cache The cache holding decoded audio files
+     * @return A new OpenAL buffer preloaded with the given audio file contents
+     * @throws ALException when there is an error related to OpenAL
+     * @throws IOException when there is an error reading the file
+     * @throws UnsupportedAudioFileException when file type of the file is in an unsupported format
+     * @see PcmDiskCache
+     */
+    public Buffer createBuffer(File waveFile, PcmDiskCache cache) throws ALException, IOException, UnsupportedAudioFileException {
+	    return cache.createBuffer(factory, waveFile, device.getFrequency());
+    }
 }
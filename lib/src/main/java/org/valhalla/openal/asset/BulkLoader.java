@@ -0,0 +1,319 @@
+package org.valhalla.openal.asset;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.valhalla.openal.factory.ALFactory;
+import org.valhalla.openal.intermediate.Buffer;
+import org.valhalla.openal.util.ALException;
+
+/**
+ * Loads many audio files at once, such as all sounds of a level.<br>
+ * <br>
+ * Loading happens in two phases. First all files are decoded in parallel on a fork/join pool, using every core.
+ * Then all buffers are created with a single {@code alGenBuffers} call and filled back to back on the calling thread,
+ * which should be the thread that owns the OpenAL context. Files that fail to decode are reported in the result
+ * and do not stop the other files from loading.<br>
+ * <br>
+ * All decoded data is held in memory until the upload phase, so very large manifests should be loaded in parts.
+ */
+public class BulkLoader {
+
+	/**
+	 * The phases of a bulk load.
+	 */
+	public enum Phase {
+		DECODE,
+		UPLOAD
+	}
+
+	/**
+	 * Receives progress reports during a bulk load.
+	 */
+	@FunctionalInterface
+	public interface ProgressListener {
+
+		/**
+		 * Called after every file that finished a phase.<br>
+		 * During the decode phase this is called from the worker threads of the pool, possibly concurrently.
+		 * @param phase the current phase
+		 * @param done the amount of files that finished the phase
+		 * @param total the amount of files in the phase
+		 */
+		void progress(Phase phase, int done, int total);
+	}
+
+	/**
+	 * The factory that provides an OpenAL context.
+	 */
+	private final ALFactory factory;
+
+	/**
+	 * The pool that decodes the files.
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * The cache that decoded data is taken from and stored in, or null.
+	 */
+	private PcmDiskCache cache;
+
+	/**
+	 * The sample rate to convert to, or 0 to keep the rate of every file.
+	 */
+	private int targetRate = 0;
+
+	/**
+	 * Creates a bulk loader that decodes on the common fork/join pool.
+	 * @param factory the factory that provides an OpenAL context
+	 */
+	public BulkLoader(ALFactory factory) {
+		this(factory, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a bulk loader.
+	 * @param factory the factory that provides an OpenAL context
+	 * @param pool the pool that decodes the files
+	 */
+	public BulkLoader(ALFactory factory, ForkJoinPool pool) {
+		this.factory = factory;
+		this.pool = pool;
+	}
+
+	/**
+	 * Sets the sample rate all files are converted to, usually the output rate of the device.
+	 * @param targetRate the sample rate, or 0 to keep the rate of every file
+	 * @return this loader
+	 */
+	public BulkLoader setTargetRate(int targetRate) {
+		this.targetRate = targetRate;
+		return this;
+	}
+
+	/**
+	 * Sets a cache that decoded data is taken from and stored in.
+	 * @param cache the cache, or null to always decode
+	 * @return this loader
+	 */
+	public BulkLoader setCache(PcmDiskCache cache) {
+		this.cache = cache;
+		return this;
+	}
+
+	/**
+	 * Reads a manifest file and loads the files it lists.<br>
+	 * Every non-empty line that does not start with '#' names one file, either as {@code path} or as {@code name=path}.
+	 * Without a name, the path is used as name. Relative paths are resolved against the directory of the manifest.
+	 * @param manifest the manifest file
+	 * @param listener the listener that receives progress reports, or null
+	 * @return the result of the load
+	 * @throws IOException when the manifest could not be read
+	 * @throws ALException when the buffers could not be created
+	 */
+	public Result load(File manifest, ProgressListener listener) throws IOException, ALException {
+		Map<String, File> files = new LinkedHashMap<>();
+		File directory = manifest.getAbsoluteFile().getParentFile();
+		for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			int separator = line.indexOf('=');
+			String name = separator < 0 ? line : line.substring(0, separator).trim();
+			String path = separator < 0 ? line : line.substring(separator + 1).trim();
+			File file = new File(path);
+			files.put(name, file.isAbsolute() ? file : new File(directory, path));
+		}
+		return load(files, listener);
+	}
+
+	/**
+	 * Loads a list of files, using their paths as names.
+	 * @param files the files to load
+	 * @param listener the listener that receives progress reports, or null
+	 * @return the result of the load
+	 * @throws ALException when the buffers could not be created
+	 */
+	public Result load(List<File> files, ProgressListener listener) throws ALException {
+		Map<String, File> named = new LinkedHashMap<>();
+		for (File file : files) {
+			named.put(file.getPath(), file);
+		}
+		return load(named, listener);
+	}
+
+	/**
+	 * Loads named files.
+	 * @param files the files to load, by name
+	 * @param listener the listener that receives progress reports, or null
+	 * @return the result of the load
+	 * @throws ALException when the buffers could not be created
+	 */
+	public Result load(Map<String, File> files, ProgressListener listener) throws ALException {
+		List<String> names = new ArrayList<>(files.keySet());
+		int total = names.size();
+		PcmData[] decoded = new PcmData[total];
+		Exception[] errors = new Exception[total];
+
+		long decodeStart = System.nanoTime();
+		AtomicInteger decodedCount = new AtomicInteger();
+		try {
+			pool.submit(() -> IntStream.range(0, total).parallel().forEach(i -> {
+				File file = files.get(names.get(i));
+				try {
+					decoded[i] = cache != null ? cache.load(file, targetRate) : PcmData.decode(file, targetRate);
+				} catch (Exception e) {
+					errors[i] = e;
+				}
+				if (listener != null) {
+					listener.progress(Phase.DECODE, decodedCount.incrementAndGet(), total);
+				}
+			})).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ALException("Bulk load interrupted");
+		} catch (ExecutionException e) {
+			throw new ALException("Bulk load failed: " + e.getCause());
+		}
+		long decodeNanos = System.nanoTime() - decodeStart;
+
+		Map<String, Exception> failures = new LinkedHashMap<>();
+		int uploads = 0;
+		for (int i = 0; i < total; i++) {
+			if (decoded[i] != null) {
+				uploads++;
+			} else {
+				failures.put(names.get(i), errors[i]);
+			}
+		}
+
+		long uploadStart = System.nanoTime();
+		Buffer[] buffers = Buffer.createBuffers(factory, uploads);
+		Map<String, Buffer> loaded = new LinkedHashMap<>();
+		long bytes = 0;
+		int next = 0;
+		for (int i = 0; i < total; i++) {
+			if (decoded[i] == null) {
+				continue;
+			}
+			Buffer buffer = buffers[next++];
+			try {
+				decoded[i].upload(buffer);
+				loaded.put(names.get(i), buffer);
+				bytes += decoded[i].getSize();
+			} catch (ALException e) {
+				buffer.close();
+				failures.put(names.get(i), e);
+			}
+			decoded[i] = null;
+			if (listener != null) {
+				listener.progress(Phase.UPLOAD, next, uploads);
+			}
+		}
+		long uploadNanos = System.nanoTime() - uploadStart;
+
+		return new Result(loaded, failures, bytes, decodeNanos, uploadNanos);
+	}
+
+	/**
+	 * The outcome of a bulk load.
+	 */
+	public static final class Result {
+
+		/**
+		 * The loaded buffers, by name, in manifest order.
+		 */
+		private final Map<String, Buffer> buffers;
+
+		/**
+		 * The reason every file failed to load, by name.
+		 */
+		private final Map<String, Exception> failures;
+
+		/**
+		 * The amount of bytes uploaded.
+		 */
+		private final long bytesUploaded;
+
+		/**
+		 * The wall-clock time of the decode phase.
+		 */
+		private final long decodeNanos;
+
+		/**
+		 * The wall-clock time of the upload phase.
+		 */
+		private final long uploadNanos;
+
+		private Result(Map<String, Buffer> buffers, Map<String, Exception> failures, long bytesUploaded, long decodeNanos, long uploadNanos) {
+			this.buffers = Collections.unmodifiableMap(buffers);
+			this.failures = Collections.unmodifiableMap(failures);
+			this.bytesUploaded = bytesUploaded;
+			this.decodeNanos = decodeNanos;
+			this.uploadNanos = uploadNanos;
+		}
+
+		/**
+		 * Gets the loaded buffers. The caller owns the buffers and has to close them.
+		 * @return the buffers by name, in manifest order
+		 */
+		public Map<String, Buffer> getBuffers() {
+			return buffers;
+		}
+
+		/**
+		 * Gets the files that could not be loaded.
+		 * @return the reason of every failure, by name
+		 */
+		public Map<String, Exception> getFailures() {
+			return failures;
+		}
+
+		/**
+		 * Gets the amount of audio data uploaded.
+		 * @return the size in bytes
+		 */
+		public long getBytesUploaded() {
+			return bytesUploaded;
+		}
+
+		/**
+		 * Gets the time spent decoding all files in parallel.
+		 * @return the wall-clock time in nanoseconds
+		 */
+		public long getDecodeNanos() {
+			return decodeNanos;
+		}
+
+		/**
+		 * Gets the time spent creating and filling all buffers.
+		 * @return the wall-clock time in nanoseconds
+		 */
+		public long getUploadNanos() {
+			return uploadNanos;
+		}
+
+		/**
+		 * Returns a String representation of the result
+		 * @return a String with the load statistics
+		 * @see Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "BulkLoad[" + buffers.size() + " loaded, " + failures.size() + " failed, " + bytesUploaded + " bytes, decode "
+					+ decodeNanos / 1_000_000 + " ms, upload " + uploadNanos / 1_000_000 + " ms]";
+		}
+	}
+}
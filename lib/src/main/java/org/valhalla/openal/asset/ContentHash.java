@@ -0,0 +1,174 @@
+package org.valhalla.openal.asset;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.stream.IntStream;
+
+import org.valhalla.openal.util.ALException;
+
+/**
+ * A 128-bit fingerprint of decoded audio data, used to find byte-identical sounds.<br>
+ * <br>
+ * The data is split into fixed-size chunks that are hashed independently, in parallel for large sounds,
+ * after which the chunk hashes are combined in order. Each chunk is hashed with four independent
+ * multiply-rotate lanes over 64-bit words, in the style of xxHash, so hashing runs at memory speed.
+ * The hash is not cryptographic; it only has to make accidental collisions between different sounds negligible.
+ */
+public final class ContentHash {
+
+	/**
+	 * The size of the chunks that are hashed independently.
+	 */
+	private static final int CHUNK_SIZE = 1 << 20;
+
+	/**
+	 * The minimum amount of chunks before hashing is spread across cores.
+	 */
+	private static final int PARALLEL_CHUNKS = 4;
+
+	private static final long PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME3 = 0x165667B19E3779F9L;
+	private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+
+	/**
+	 * The upper half of the hash.
+	 */
+	private final long high;
+
+	/**
+	 * The lower half of the hash.
+	 */
+	private final long low;
+
+	/**
+	 * Creates a hash.
+	 * @param high the upper half of the hash
+	 * @param low the lower half of the hash
+	 */
+	private ContentHash(long high, long low) {
+		this.high = high;
+		this.low = low;
+	}
+
+	/**
+	 * Hashes decoded audio data, including its format, so equal samples in different formats hash differently.
+	 * @param data the decoded data
+	 * @return the hash
+	 * @throws ALException never for decoded data
+	 */
+	public static ContentHash of(PcmData data) throws ALException {
+		ByteBuffer samples = data.getData().order(ByteOrder.LITTLE_ENDIAN);
+		int size = samples.remaining();
+		int chunks = Math.max(1, (size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+
+		long[] hashes = new long[chunks * 2];
+		IntStream indices = IntStream.range(0, chunks);
+		if (chunks >= PARALLEL_CHUNKS) {
+			indices = indices.parallel();
+		}
+		indices.forEach(chunk -> hashChunk(samples, chunk, size, hashes));
+
+		long high = data.getALFormat() * PRIME1 ^ size;
+		long low = data.getSampleRate() * PRIME2 ^ size;
+		for (int i = 0; i < chunks; i++) {
+			high = Long.rotateLeft(high ^ hashes[i * 2], 27) * PRIME1 + PRIME4;
+			low = Long.rotateLeft(low ^ hashes[i * 2 + 1], 31) * PRIME2 + PRIME3;
+		}
+		return new ContentHash(avalanche(high), avalanche(low ^ high));
+	}
+
+	/**
+	 * Hashes one chunk into two 64-bit values.
+	 * @param samples the data, with its position at the start of the data
+	 * @param chunk the index of the chunk
+	 * @param size the size of the data
+	 * @param hashes the array that receives the two values of every chunk
+	 */
+	private static void hashChunk(ByteBuffer samples, int chunk, int size, long[] hashes) {
+		int start = samples.position() + chunk * CHUNK_SIZE;
+		int end = samples.position() + Math.min(size, (chunk + 1) * CHUNK_SIZE);
+		long v1 = PRIME1 + PRIME2;
+		long v2 = PRIME2;
+		long v3 = 0;
+		long v4 = -PRIME1;
+
+		int i = start;
+		for (; i + 32 <= end; i += 32) {
+			v1 = round(v1, samples.getLong(i));
+			v2 = round(v2, samples.getLong(i + 8));
+			v3 = round(v3, samples.getLong(i + 16));
+			v4 = round(v4, samples.getLong(i + 24));
+		}
+		long tail = 0;
+		for (int shift = 0; i < end; i++, shift = (shift + 8) & 63) {
+			tail ^= (samples.get(i) & 0xFFL) << shift;
+			if (shift == 56) {
+				v1 = round(v1, tail);
+				tail = 0;
+			}
+		}
+		v4 = round(v4, tail ^ (end - start));
+
+		hashes[chunk * 2] = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+		hashes[chunk * 2 + 1] = Long.rotateLeft(v4, 1) + Long.rotateLeft(v3, 7) + Long.rotateLeft(v2, 12) + Long.rotateLeft(v1, 18);
+	}
+
+	/**
+	 * Mixes a 64-bit word into a lane.
+	 * @param accumulator the lane
+	 * @param input the word
+	 * @return the new lane value
+	 */
+	private static long round(long accumulator, long input) {
+		return Long.rotateLeft(accumulator + input * PRIME2, 31) * PRIME1;
+	}
+
+	/**
+	 * Spreads every input bit over all output bits.
+	 * @param hash the hash
+	 * @return the mixed hash
+	 */
+	private static long avalanche(long hash) {
+		hash ^= hash >>> 33;
+		hash *= PRIME2;
+		hash ^= hash >>> 29;
+		hash *= PRIME3;
+		hash ^= hash >>> 32;
+		return hash;
+	}
+
+	/**
+	 * Check if 2 hashes are equal
+	 * @param other the other hash
+	 * @return if the hashes are equal
+	 */
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof ContentHash)) {
+			return false;
+		}
+		ContentHash hash = (ContentHash) other;
+		return hash.high == high && hash.low == low;
+	}
+
+	/**
+	 * Gets the hashcode of the hash
+	 * @return the hashcode
+	 * @see Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return (int) low;
+	}
+
+	/**
+	 * Returns the hash as 32 hexadecimal digits
+	 * @return a String representation of the hash
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("%016x%016x", high, low);
+	}
+}
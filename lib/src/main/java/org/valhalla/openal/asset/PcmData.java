@@ -0,0 +1,149 @@
+package org.valhalla.openal.asset;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.valhalla.openal.factory.ALFactory;
+import org.valhalla.openal.intermediate.Buffer;
+import org.valhalla.openal.util.ALException;
+import org.valhalla.openal.util.PcmConverter;
+import org.valhalla.openal.util.Resampler;
+import org.valhalla.openal.util.Util;
+
+/**
+ * Decoded audio data in a format OpenAL plays natively, ready to be uploaded into a buffer.<br>
+ * <br>
+ * Decoding and uploading are separate steps, so that decoding can happen on any thread,
+ * or be skipped entirely when the data comes from a cache.
+ */
+public final class PcmData {
+
+	/**
+	 * The OpenAL compatible format of the data.
+	 */
+	private final AudioFormat format;
+
+	/**
+	 * The samples, between position and limit.
+	 */
+	private final ByteBuffer data;
+
+	/**
+	 * Creates decoded audio data.
+	 * @param format the format of the data, which must be an OpenAL compatible format
+	 * @param data the samples, between position and limit
+	 */
+	public PcmData(AudioFormat format, ByteBuffer data) {
+		this.format = format;
+		this.data = data;
+	}
+
+	/**
+	 * Decodes an audio file.
+	 * @param file the audio file
+	 * @param targetRate the sample rate to convert to, or 0 to keep the rate of the file
+	 * @return the decoded data
+	 * @throws IOException when the file could not be read
+	 * @throws UnsupportedAudioFileException when the file has an unsupported format
+	 * @throws ALException when the data cannot be converted to an OpenAL format
+	 */
+	public static PcmData decode(File file, int targetRate) throws IOException, UnsupportedAudioFileException, ALException {
+		try (AudioInputStream stream = AudioSystem.getAudioInputStream(file)) {
+			return decode(stream, targetRate);
+		}
+	}
+
+	/**
+	 * Decodes an audio stream.
+	 * @param stream the audio stream, which is read to its end
+	 * @param targetRate the sample rate to convert to, or 0 to keep the rate of the stream
+	 * @return the decoded data
+	 * @throws IOException when the stream could not be read
+	 * @throws ALException when the data cannot be converted to an OpenAL format
+	 * @see Resampler
+	 */
+	public static PcmData decode(AudioInputStream stream, int targetRate) throws IOException, ALException {
+		AudioFormat format = PcmConverter.getTargetFormat(stream.getFormat());
+		byte[] data = Util.readStreamContents(stream);
+		data = PcmConverter.normalize(stream.getFormat(), data, 0, data.length);
+
+		if (targetRate > 0 && (int) format.getSampleRate() != targetRate) {
+			data = Resampler.resample(format, data, targetRate);
+			format = Resampler.getTargetFormat(format, targetRate);
+		}
+		return new PcmData(format, ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Gets the format of the data.
+	 * @return an OpenAL compatible audio format
+	 */
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * Gets the format of the data.
+	 * @return the OpenAL format enum
+	 * @throws ALException never for data created by this class
+	 */
+	public int getALFormat() throws ALException {
+		return PcmConverter.getALFormat(format);
+	}
+
+	/**
+	 * Gets the sample rate of the data.
+	 * @return the sample rate in Hz
+	 */
+	public int getSampleRate() {
+		return (int) format.getSampleRate();
+	}
+
+	/**
+	 * Gets the samples.
+	 * @return a new view on the samples, which can be read without affecting this object
+	 */
+	public ByteBuffer getData() {
+		return data.duplicate();
+	}
+
+	/**
+	 * Gets the size of the samples.
+	 * @return the size in bytes
+	 */
+	public int getSize() {
+		return data.remaining();
+	}
+
+	/**
+	 * Uploads the data into a buffer.
+	 * @param buffer the buffer to fill
+	 * @throws ALException when the data could not be uploaded
+	 */
+	public void upload(Buffer buffer) throws ALException {
+		buffer.addBufferData(getALFormat(), getData(), getSampleRate());
+	}
+
+	/**
+	 * Creates a new buffer holding the data.
+	 * @param factory the factory that provides an OpenAL context
+	 * @return the new buffer
+	 * @throws ALException when the buffer could not be created or filled
+	 */
+	public Buffer createBuffer(ALFactory factory) throws ALException {
+		Buffer buffer = new Buffer(factory);
+		try {
+			upload(buffer);
+		} catch (ALException e) {
+			buffer.close();
+			throw e;
+		}
+		return buffer;
+	}
+}
@@ -0,0 +1,375 @@
+package org.valhalla.openal.asset;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.valhalla.openal.factory.ALFactory;
+import org.valhalla.openal.intermediate.Buffer;
+import org.valhalla.openal.jna.AL;
+import org.valhalla.openal.util.ALException;
+
+/**
+ * A directory of decoded audio files, so that audio only has to be decoded the first time it is loaded.<br>
+ * <br>
+ * A cache file holds the final OpenAL ready samples, after format conversion and resampling, behind a small header.
+ * It is identified by the path, size and modification time of the source file plus the target rate,
+ * so editing a source file invalidates its cache entry. On a hit the cache file is mapped into memory
+ * and uploaded straight from the mapping, without passing through {@code AudioSystem} or the Java heap.<br>
+ * <br>
+ * The total size of the cache is limited; the least recently used files are deleted when the limit is exceeded.
+ * The hit, miss and timing counters can be used to compare cold and warm startups.<br>
+ * <br>
+ * A cache file has the following little-endian layout:
+ * <pre>
+ * int   magic        "VPCM"
+ * int   version      1
+ * int   OpenAL format
+ * int   sample rate
+ * int   data offset
+ * short key length, UTF-8 key
+ * </pre>
+ * followed by the samples, starting at the data offset.
+ */
+public class PcmDiskCache {
+
+	/**
+	 * The magic number that starts every cache file, "VPCM" in little-endian byte order.
+	 */
+	private static final int MAGIC = 0x4D435056;
+
+	/**
+	 * The version of the file format.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * The alignment of the samples inside a cache file.
+	 */
+	private static final int DATA_ALIGNMENT = 64;
+
+	/**
+	 * The extension of cache files.
+	 */
+	private static final String EXTENSION = ".pcm";
+
+	/**
+	 * The directory holding the cache files.
+	 */
+	private final Path directory;
+
+	/**
+	 * The maximum total size of the cache files.
+	 */
+	private final long maxBytes;
+
+	/**
+	 * The size of every cache file, by file name, from least to most recently used.
+	 */
+	private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * The total size of the cache files.
+	 */
+	private long totalBytes = 0;
+
+	/**
+	 * The amount of loads served from a cache file.
+	 */
+	private final AtomicLong hits = new AtomicLong();
+
+	/**
+	 * The amount of loads that decoded the audio file.
+	 */
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * The total time spent on hits.
+	 */
+	private final AtomicLong hitNanos = new AtomicLong();
+
+	/**
+	 * The total time spent on misses.
+	 */
+	private final AtomicLong missNanos = new AtomicLong();
+
+	/**
+	 * Opens a cache directory, creating it if needed.
+	 * @param directory the cache directory
+	 * @param maxBytes the maximum total size of the cache files
+	 * @throws IOException when the directory could not be created or listed
+	 */
+	public PcmDiskCache(File directory, long maxBytes) throws IOException {
+		this.directory = directory.toPath();
+		this.maxBytes = maxBytes;
+		Files.createDirectories(this.directory);
+
+		File[] existing = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+		if (existing != null) {
+			Arrays.sort(existing, Comparator.comparingLong(File::lastModified));
+			for (File file : existing) {
+				files.put(file.getName(), file.length());
+				totalBytes += file.length();
+			}
+		}
+		evict(null);
+	}
+
+	/**
+	 * Gets the decoded data of an audio file, decoding and storing it on a miss.
+	 * @param source the audio file
+	 * @param targetRate the sample rate to convert to, or 0 to keep the rate of the file
+	 * @return the decoded data, mapped from the cache file on a hit
+	 * @throws IOException when the audio file could not be read
+	 * @throws UnsupportedAudioFileException when the audio file has an unsupported format
+	 * @throws ALException when the data cannot be converted to an OpenAL format
+	 */
+	public PcmData load(File source, int targetRate) throws IOException, UnsupportedAudioFileException, ALException {
+		long start = System.nanoTime();
+		String key = source.getCanonicalPath() + '|' + source.length() + '|' + source.lastModified() + '|' + targetRate;
+		String name = fileName(key);
+
+		PcmData cached = read(name, key);
+		if (cached != null) {
+			hits.incrementAndGet();
+			hitNanos.addAndGet(System.nanoTime() - start);
+			return cached;
+		}
+
+		PcmData decoded = PcmData.decode(source, targetRate);
+		write(name, key, decoded);
+		misses.incrementAndGet();
+		missNanos.addAndGet(System.nanoTime() - start);
+		return decoded;
+	}
+
+	/**
+	 * Creates a new buffer holding the decoded data of an audio file.
+	 * @param factory the factory that provides an OpenAL context
+	 * @param source the audio file
+	 * @param targetRate the sample rate to convert to, or 0 to keep the rate of the file
+	 * @return the new buffer
+	 * @throws IOException when the audio file could not be read
+	 * @throws UnsupportedAudioFileException when the audio file has an unsupported format
+	 * @throws ALException when the data cannot be converted or uploaded
+	 */
+	public Buffer createBuffer(ALFactory factory, File source, int targetRate) throws IOException, UnsupportedAudioFileException, ALException {
+		return load(source, targetRate).createBuffer(factory);
+	}
+
+	/**
+	 * Maps a cache file.
+	 * @param name the name of the cache file
+	 * @param key the key the file must have been written for
+	 * @return the mapped data, or null when there is no valid cache file
+	 */
+	private PcmData read(String name, String key) {
+		synchronized (this) {
+			if (files.get(name) == null) {
+				return null;
+			}
+		}
+
+		Path path = directory.resolve(name);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			mapped.order(ByteOrder.LITTLE_ENDIAN);
+			if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+				return null;
+			}
+			int alFormat = mapped.getInt(8);
+			int sampleRate = mapped.getInt(12);
+			int dataOffset = mapped.getInt(16);
+			byte[] storedKey = new byte[mapped.getShort(20) & 0xFFFF];
+			mapped.get(22, storedKey);
+			if (!key.equals(new String(storedKey, StandardCharsets.UTF_8)) || dataOffset > mapped.limit()) {
+				return null;
+			}
+			path.toFile().setLastModified(System.currentTimeMillis());
+			return new PcmData(getFormat(alFormat, sampleRate), mapped.position(dataOffset).slice());
+		} catch (IOException | RuntimeException e) {
+			// A damaged or concurrently deleted cache file is simply a miss
+			return null;
+		}
+	}
+
+	/**
+	 * Stores decoded data and evicts old cache files when the size limit is exceeded.<br>
+	 * The file is written under a temporary name first, so a crash never leaves a truncated cache file behind.
+	 * @param name the name of the cache file
+	 * @param key the key the data belongs to
+	 * @param data the decoded data
+	 * @throws ALException when the data is not in an OpenAL format
+	 */
+	private void write(String name, String key, PcmData data) throws ALException {
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		int dataOffset = (22 + keyBytes.length + DATA_ALIGNMENT - 1) & -DATA_ALIGNMENT;
+		ByteBuffer header = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(VERSION).putInt(data.getALFormat()).putInt(data.getSampleRate()).putInt(dataOffset)
+				.putShort((short) keyBytes.length).put(keyBytes);
+		header.clear();
+
+		Path path = directory.resolve(name);
+		try {
+			Path temporary = Files.createTempFile(directory, name, ".tmp");
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				ByteBuffer samples = data.getData();
+				while (header.hasRemaining() || samples.hasRemaining()) {
+					channel.write(new ByteBuffer[]{header, samples});
+				}
+			}
+			try {
+				Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			// The cache is an optimisation, failing to store data must not fail the load
+			return;
+		}
+
+		synchronized (this) {
+			Long previous = files.put(name, (long) dataOffset + data.getSize());
+			totalBytes += dataOffset + data.getSize() - (previous == null ? 0 : previous);
+			evict(name);
+		}
+	}
+
+	/**
+	 * Deletes the least recently used cache files until the cache fits its size limit.
+	 * @param keep the name of the file that has just been written, or null
+	 */
+	private void evict(String keep) {
+		Iterator<Map.Entry<String, Long>> iterator = files.entrySet().iterator();
+		while (totalBytes > maxBytes && iterator.hasNext()) {
+			Map.Entry<String, Long> file = iterator.next();
+			if (file.getKey().equals(keep)) {
+				continue;
+			}
+			try {
+				Files.deleteIfExists(directory.resolve(file.getKey()));
+			} catch (IOException e) {
+				// The file is still mapped somewhere, it will be deleted on a later eviction
+				continue;
+			}
+			totalBytes -= file.getValue();
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Deletes all cache files.
+	 */
+	public synchronized void clear() {
+		files.keySet().removeIf(name -> directory.resolve(name).toFile().delete());
+		totalBytes = files.values().stream().mapToLong(Long::longValue).sum();
+	}
+
+	/**
+	 * Derives the name of a cache file from its key.
+	 * @param key the key
+	 * @return the file name
+	 */
+	private static String fileName(String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+			StringBuilder name = new StringBuilder(32 + EXTENSION.length());
+			for (int i = 0; i < 16; i++) {
+				name.append(Character.forDigit((digest[i] >> 4) & 0xF, 16)).append(Character.forDigit(digest[i] & 0xF, 16));
+			}
+			return name.append(EXTENSION).toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	/**
+	 * Gets the audio format of an OpenAL format enum.
+	 * @param alFormat the OpenAL format
+	 * @param sampleRate the sample rate
+	 * @return the audio format
+	 * @throws IOException when the format is not one of the PCM formats written by this cache
+	 */
+	private static AudioFormat getFormat(int alFormat, int sampleRate) throws IOException {
+		switch (alFormat) {
+			case AL.AL_FORMAT_MONO8:
+				return new AudioFormat(sampleRate, 8, 1, false, false);
+			case AL.AL_FORMAT_STEREO8:
+				return new AudioFormat(sampleRate, 8, 2, false, false);
+			case AL.AL_FORMAT_MONO16:
+				return new AudioFormat(sampleRate, 16, 1, true, false);
+			case AL.AL_FORMAT_STEREO16:
+				return new AudioFormat(sampleRate, 16, 2, true, false);
+			default:
+				throw new IOException("Unknown format in cache file: " + alFormat);
+		}
+	}
+
+	/**
+	 * Gets the total size of the cache files.
+	 * @return the size in bytes
+	 */
+	public synchronized long getSize() {
+		return totalBytes;
+	}
+
+	/**
+	 * Gets the maximum total size of the cache files.
+	 * @return the size limit in bytes
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Gets the amount of loads that were served from a cache file.
+	 * @return the amount of hits
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Gets the amount of loads that had to decode the audio file.
+	 * @return the amount of misses
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Gets the total time spent on loads that were served from a cache file.
+	 * @return the time in nanoseconds
+	 */
+	public long getHitNanos() {
+		return hitNanos.get();
+	}
+
+	/**
+	 * Gets the total time spent on loads that had to decode and store the audio file.
+	 * @return the time in nanoseconds
+	 */
+	public long getMissNanos() {
+		return missNanos.get();
+	}
+}
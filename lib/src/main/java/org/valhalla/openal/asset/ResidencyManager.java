@@ -0,0 +1,579 @@
+package org.valhalla.openal.asset;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.valhalla.openal.factory.ALFactory;
+import org.valhalla.openal.intermediate.Buffer;
+import org.valhalla.openal.intermediate.Source;
+import org.valhalla.openal.jna.AL;
+import org.valhalla.openal.stream.ServicedOutputStream;
+import org.valhalla.openal.stream.StreamingService;
+import org.valhalla.openal.util.ALException;
+import org.valhalla.openal.util.PcmConverter;
+import org.valhalla.openal.util.SourceState;
+import org.valhalla.openal.util.Util;
+
+/**
+ * Decides which audio assets are held in OpenAL buffers, within a memory budget.<br>
+ * <br>
+ * Assets are registered by name and category, without loading anything. An asset is uploaded when it is played
+ * for the first time and stays resident until the budget is exceeded, at which point the least recently played
+ * assets are evicted. Assets that are still attached to a playing or paused source are never evicted.<br>
+ * <br>
+ * Assets whose decoded size exceeds the streaming threshold are never loaded as a whole. They are streamed
+ * through a {@link StreamingService} by a background thread instead, so only the streaming buffers count
+ * towards the budget.
+ */
+public class ResidencyManager {
+
+	/**
+	 * The default decoded size above which assets are streamed.
+	 */
+	public static final long DEFAULT_STREAMING_THRESHOLD = 2L << 20;
+
+	/**
+	 * The amount of buffers queued on a streaming source.
+	 */
+	private static final int STREAM_BUFFERS = 4;
+
+	/**
+	 * The size of each buffer queued on a streaming source.
+	 */
+	private static final int STREAM_BUFFER_SIZE = 32 * 1024;
+
+	/**
+	 * The factory that provides an OpenAL context.
+	 */
+	private final ALFactory factory;
+
+	/**
+	 * All registered assets, by name.
+	 */
+	private final Map<String, Asset> assets = new HashMap<>();
+
+	/**
+	 * The resident static assets, from least to most recently played.
+	 */
+	private final LinkedHashMap<String, Asset> resident = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * The resident bytes per category.
+	 */
+	private final Map<String, Long> categoryBytes = new HashMap<>();
+
+	/**
+	 * The streams of the streamed assets, by the source they stream to.
+	 */
+	private final Map<Source, ServicedOutputStream> streams = new HashMap<>();
+
+	/**
+	 * The service that keeps the queues of the streamed assets filled, created when the first asset is streamed.
+	 */
+	private StreamingService streaming;
+
+	/**
+	 * The maximum amount of resident bytes.
+	 */
+	private long budget;
+
+	/**
+	 * The decoded size above which assets are streamed.
+	 */
+	private long streamingThreshold = DEFAULT_STREAMING_THRESHOLD;
+
+	/**
+	 * The amount of bytes currently resident.
+	 */
+	private long residentBytes = 0;
+
+	/**
+	 * The amount of assets that have been evicted.
+	 */
+	private long evictions = 0;
+
+	/**
+	 * Creates a new residency manager.
+	 * @param factory the factory that provides an OpenAL context
+	 * @param budget the maximum amount of bytes held in buffers
+	 */
+	public ResidencyManager(ALFactory factory, long budget) {
+		this.factory = factory;
+		this.budget = budget;
+	}
+
+	/**
+	 * Registers an audio file. Only the header of the file is read.
+	 * @param name the name under which the asset is played
+	 * @param category the category the memory of the asset is accounted to
+	 * @param file the audio file
+	 * @throws IOException when the header of the file could not be read
+	 * @throws UnsupportedAudioFileException when the file has an unsupported format
+	 * @throws ALException when the audio format cannot be played by OpenAL
+	 */
+	public synchronized void register(String name, String category, File file) throws IOException, UnsupportedAudioFileException, ALException {
+		AudioFileFormat fileFormat = AudioSystem.getAudioFileFormat(file);
+		AudioFormat target = PcmConverter.getTargetFormat(fileFormat.getFormat());
+		long frames = fileFormat.getFrameLength();
+		long size = frames == AudioSystem.NOT_SPECIFIED ? -1 : frames * target.getFrameSize();
+		addAsset(new Asset(name, category, size, file, null, null));
+	}
+
+	/**
+	 * Registers a sound of a sound bank.
+	 * @param name the name under which the asset is played
+	 * @param category the category the memory of the asset is accounted to
+	 * @param bank the sound bank
+	 * @param sound the name of the sound inside the bank
+	 * @throws ALException when the bank does not contain the sound
+	 */
+	public synchronized void register(String name, String category, SoundBank bank, String sound) throws ALException {
+		SoundBankEntry entry = bank.getEntry(sound);
+		if (entry == null) {
+			throw new ALException("Sound bank does not contain " + sound);
+		}
+		addAsset(new Asset(name, category, entry.getSize(), null, bank, entry));
+	}
+
+	/**
+	 * Adds a registered asset.
+	 * @param asset the asset
+	 */
+	private void addAsset(Asset asset) {
+		if (assets.containsKey(asset.name)) {
+			throw new IllegalArgumentException("Asset " + asset.name + " is already registered");
+		}
+		asset.streamed = asset.size > streamingThreshold && (asset.entry == null || !asset.entry.isCompressed());
+		assets.put(asset.name, asset);
+	}
+
+	/**
+	 * Plays an asset on a source.<br>
+	 * Static assets are uploaded if needed and attached to the source, which does not take ownership of the buffer.
+	 * Streamed assets are fed to the source by a background thread until they end or {@link #stop(Source)} is called.
+	 * @param name the name of the asset
+	 * @param source the source to play the asset on
+	 * @throws ALException when the asset is unknown or could not be uploaded or played
+	 * @throws IOException when the asset could not be read
+	 */
+	public synchronized void play(String name, Source source) throws ALException, IOException {
+		Asset asset = assets.get(name);
+		if (asset == null) {
+			throw new ALException("Unknown asset " + name);
+		}
+		stop(source);
+
+		if (asset.streamed) {
+			startStream(asset, source);
+			return;
+		}
+
+		if (asset.buffer == null) {
+			upload(asset);
+		}
+		// Marks the asset as most recently played
+		resident.get(name);
+		source.setBuffer(asset.buffer, false);
+		asset.users.add(source);
+		source.play();
+		enforceBudget(asset);
+	}
+
+	/**
+	 * Stops a source, and the stream to it if there is one.
+	 * @param source the source to stop
+	 * @throws ALException when the source could not be stopped
+	 */
+	public synchronized void stop(Source source) throws ALException {
+		ServicedOutputStream stream = streams.remove(source);
+		if (stream != null) {
+			// The service detaches its buffers when it releases the stream, which must not hit the next sound
+			try {
+				stream.abortAndWait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		source.stop();
+	}
+
+	/**
+	 * Uploads a static asset and accounts its memory.
+	 * @param asset the asset
+	 * @throws ALException when the asset could not be uploaded
+	 * @throws IOException when the asset could not be read
+	 */
+	private void upload(Asset asset) throws ALException, IOException {
+		Buffer buffer;
+		long size;
+		if (asset.bank != null) {
+			buffer = asset.bank.createBuffer(asset.entry);
+			size = asset.entry.getSize();
+		} else {
+			byte[] data;
+			AudioFormat format;
+			try (AudioInputStream stream = AudioSystem.getAudioInputStream(asset.file)) {
+				format = stream.getFormat();
+				data = Util.readStreamContents(stream);
+				data = PcmConverter.normalize(format, data, 0, data.length);
+			} catch (UnsupportedAudioFileException e) {
+				throw new IOException(e);
+			}
+			buffer = new Buffer(factory);
+			try {
+				buffer.addBufferData(PcmConverter.getTargetFormat(format), data);
+			} catch (ALException e) {
+				buffer.close();
+				throw e;
+			}
+			size = data.length;
+		}
+		asset.buffer = buffer;
+		asset.residentBytes = size;
+		resident.put(asset.name, asset);
+		account(asset.category, size);
+	}
+
+	/**
+	 * Evicts the least recently played assets until the resident memory fits the budget again.<br>
+	 * Assets in use are skipped, so the budget can be exceeded while many assets are playing.
+	 * @param keep the asset that is being played and must not be evicted
+	 */
+	private void enforceBudget(Asset keep) {
+		Iterator<Asset> iterator = resident.values().iterator();
+		while (residentBytes > budget && iterator.hasNext()) {
+			Asset asset = iterator.next();
+			if (asset == keep || isInUse(asset)) {
+				continue;
+			}
+			iterator.remove();
+			release(asset);
+			evictions++;
+		}
+	}
+
+	/**
+	 * Checks if the buffer of an asset is attached to a source that is playing or paused.<br>
+	 * Sources that no longer use the buffer are forgotten.
+	 * @param asset the asset
+	 * @return true when the asset may not be evicted
+	 */
+	private boolean isInUse(Asset asset) {
+		Iterator<Source> iterator = asset.users.iterator();
+		while (iterator.hasNext()) {
+			Source source = iterator.next();
+			try {
+				if (source.getIntParam(AL.AL_BUFFER) != asset.buffer.getBufferId()) {
+					iterator.remove();
+					continue;
+				}
+				SourceState state = source.getSourceState();
+				if (state == SourceState.PLAYING || state == SourceState.PAUSED) {
+					return true;
+				}
+			} catch (ALException e) {
+				// The source has been closed
+				iterator.remove();
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Detaches the buffer of an asset from its idle sources, deletes it and releases its memory.
+	 * @param asset the asset
+	 */
+	private void release(Asset asset) {
+		for (Source source : asset.users) {
+			try {
+				source.setIntParam(AL.AL_BUFFER, 0);
+			} catch (ALException e) {
+				// The source has been closed, nothing to detach
+			}
+		}
+		asset.users.clear();
+		asset.buffer.close();
+		asset.buffer = null;
+		account(asset.category, -asset.residentBytes);
+		asset.residentBytes = 0;
+	}
+
+	/**
+	 * Starts a thread that streams an asset to a source.
+	 * @param asset the asset
+	 * @param source the source
+	 * @throws ALException when the stream could not be created
+	 * @throws IOException when the asset could not be opened
+	 */
+	private void startStream(Asset asset, Source source) throws ALException, IOException {
+		if (streaming == null) {
+			streaming = new StreamingService();
+		}
+		AudioFormat format;
+		InputStream input;
+		if (asset.bank != null) {
+			format = getFormat(asset.entry);
+			input = new ByteBufferInputStream(asset.bank.getData(asset.entry.getName()));
+		} else {
+			try {
+				AudioInputStream audio = AudioSystem.getAudioInputStream(asset.file);
+				format = audio.getFormat();
+				input = audio;
+			} catch (UnsupportedAudioFileException e) {
+				throw new IOException(e);
+			}
+		}
+		ServicedOutputStream out;
+		try {
+			out = streaming.createStream(source, format, STREAM_BUFFERS, STREAM_BUFFER_SIZE);
+		} catch (ALException e) {
+			input.close();
+			throw e;
+		}
+		long streamBytes = (long) STREAM_BUFFERS * STREAM_BUFFER_SIZE;
+		account(asset.category, streamBytes);
+
+		Thread thread = new Thread(() -> {
+			// Closing the stream waits until the service has played and released everything
+			try (InputStream in = input; OutputStream output = out) {
+				copy(in, output);
+			} catch (IOException e) {
+				// The stream has been stopped or the asset could not be read, playback ends either way
+			} finally {
+				synchronized (this) {
+					streams.remove(source, out);
+					account(asset.category, -streamBytes);
+				}
+			}
+		}, "OpenAL stream " + asset.name);
+		thread.setDaemon(true);
+		streams.put(source, out);
+		thread.start();
+	}
+
+	/**
+	 * Copies a stream, one streaming buffer at a time.
+	 * @param input the stream to read
+	 * @param output the stream to write
+	 * @throws IOException when the streams could not be read or written
+	 */
+	private static void copy(InputStream input, OutputStream output) throws IOException {
+		byte[] chunk = new byte[STREAM_BUFFER_SIZE];
+		int read;
+		while ((read = input.read(chunk)) != -1) {
+			output.write(chunk, 0, read);
+		}
+	}
+
+	/**
+	 * Gets the format of the PCM data of a sound bank entry.
+	 * @param entry the entry
+	 * @return the audio format
+	 */
+	private static AudioFormat getFormat(SoundBankEntry entry) {
+		boolean wide = entry.getALFormat() == AL.AL_FORMAT_MONO16 || entry.getALFormat() == AL.AL_FORMAT_STEREO16;
+		return new AudioFormat(entry.getSampleRate(), wide ? 16 : 8, entry.getChannels(), wide, false);
+	}
+
+	/**
+	 * Adds resident memory to a category.
+	 * @param category the category
+	 * @param bytes the amount of bytes, negative when memory is released
+	 */
+	private synchronized void account(String category, long bytes) {
+		residentBytes += bytes;
+		categoryBytes.merge(category, bytes, Long::sum);
+	}
+
+	/**
+	 * Deletes the buffer of an asset, unless it is in use.
+	 * @param name the name of the asset
+	 * @return true when the asset is no longer resident
+	 */
+	public synchronized boolean evict(String name) {
+		Asset asset = resident.get(name);
+		if (asset == null) {
+			return true;
+		}
+		if (isInUse(asset)) {
+			return false;
+		}
+		resident.remove(name);
+		release(asset);
+		return true;
+	}
+
+	/**
+	 * Sets the maximum amount of resident bytes. Lowering the budget evicts idle assets right away.
+	 * @param budget the budget in bytes
+	 */
+	public synchronized void setBudget(long budget) {
+		this.budget = budget;
+		enforceBudget(null);
+	}
+
+	/**
+	 * Gets the maximum amount of resident bytes.
+	 * @return the budget in bytes
+	 */
+	public synchronized long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Sets the decoded size above which newly registered assets are streamed.
+	 * @param streamingThreshold the threshold in bytes
+	 */
+	public synchronized void setStreamingThreshold(long streamingThreshold) {
+		this.streamingThreshold = streamingThreshold;
+	}
+
+	/**
+	 * Gets the decoded size above which newly registered assets are streamed.
+	 * @return the threshold in bytes
+	 */
+	public synchronized long getStreamingThreshold() {
+		return streamingThreshold;
+	}
+
+	/**
+	 * Gets the amount of memory held in buffers, including the buffers of active streams.
+	 * @return the resident bytes
+	 */
+	public synchronized long getResidentBytes() {
+		return residentBytes;
+	}
+
+	/**
+	 * Gets the amount of memory held in buffers for one category.
+	 * @param category the category
+	 * @return the resident bytes of the category
+	 */
+	public synchronized long getResidentBytes(String category) {
+		return categoryBytes.getOrDefault(category, 0L);
+	}
+
+	/**
+	 * Gets the amount of memory held by the buffer of an asset.
+	 * @param name the name of the asset
+	 * @return the resident bytes of the asset, 0 when it is not resident
+	 */
+	public synchronized long getAssetBytes(String name) {
+		Asset asset = assets.get(name);
+		return asset == null ? 0 : asset.residentBytes;
+	}
+
+	/**
+	 * Checks if an asset is held in a buffer.
+	 * @param name the name of the asset
+	 * @return true when the asset is resident
+	 */
+	public synchronized boolean isResident(String name) {
+		return resident.containsKey(name);
+	}
+
+	/**
+	 * Checks if an asset is streamed instead of loaded.
+	 * @param name the name of the asset
+	 * @return true when the asset is streamed
+	 */
+	public synchronized boolean isStreamed(String name) {
+		Asset asset = assets.get(name);
+		return asset != null && asset.streamed;
+	}
+
+	/**
+	 * Gets the amount of assets that have been evicted to stay within the budget.
+	 * @return the amount of evictions
+	 */
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * Stops all streams and deletes all buffers.
+	 */
+	public synchronized void close() {
+		for (ServicedOutputStream stream : streams.values()) {
+			stream.abort();
+		}
+		streams.clear();
+		if (streaming != null) {
+			streaming.close();
+			streaming = null;
+		}
+		for (Asset asset : resident.values()) {
+			asset.users.clear();
+			release(asset);
+		}
+		resident.clear();
+	}
+
+	/**
+	 * A registered asset.
+	 */
+	private static final class Asset {
+
+		private final String name;
+		private final String category;
+		private final long size;
+		private final File file;
+		private final SoundBank bank;
+		private final SoundBankEntry entry;
+		private final Set<Source> users = new HashSet<>();
+		private boolean streamed;
+		private Buffer buffer;
+		private long residentBytes;
+
+		private Asset(String name, String category, long size, File file, SoundBank bank, SoundBankEntry entry) {
+			this.name = name;
+			this.category = category;
+			this.size = size;
+			this.file = file;
+			this.bank = bank;
+			this.entry = entry;
+		}
+	}
+
+	/**
+	 * An input stream that reads a byte buffer, used to stream sounds from a mapped sound bank.
+	 */
+	private static final class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer data;
+
+		private ByteBufferInputStream(ByteBuffer data) {
+			this.data = data;
+		}
+
+		@Override
+		public int read() {
+			return data.hasRemaining() ? data.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (!data.hasRemaining()) {
+				return -1;
+			}
+			int count = Math.min(len, data.remaining());
+			data.get(b, off, count);
+			return count;
+		}
+	}
+}
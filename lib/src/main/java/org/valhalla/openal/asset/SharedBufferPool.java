@@ -0,0 +1,181 @@
+package org.valhalla.openal.asset;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.valhalla.openal.factory.ALFactory;
+import org.valhalla.openal.intermediate.Buffer;
+import org.valhalla.openal.util.ALException;
+
+/**
+ * A content-addressed set of buffers: byte-identical audio data is uploaded only once.<br>
+ * <br>
+ * Every acquired sound is hashed with {@link ContentHash}. When a buffer with the same hash already exists,
+ * that buffer is returned and its reference count is raised instead of uploading another copy.
+ * A buffer is deleted when the last reference is released.<br>
+ * <br>
+ * Buffers returned by the pool are shared, so they must be attached with {@link org.valhalla.openal.intermediate.Source#setBuffer(Buffer, boolean)}
+ * without ownership, and must be given back with {@link #release(Buffer)} instead of being closed.
+ */
+public class SharedBufferPool {
+
+	/**
+	 * The factory that provides an OpenAL context.
+	 */
+	private final ALFactory factory;
+
+	/**
+	 * The shared buffers, by the hash of their data.
+	 */
+	private final Map<ContentHash, Shared> byHash = new HashMap<>();
+
+	/**
+	 * The shared buffers, by buffer id.
+	 */
+	private final Map<Integer, Shared> byId = new HashMap<>();
+
+	/**
+	 * The amount of bytes held by the shared buffers.
+	 */
+	private long uniqueBytes = 0;
+
+	/**
+	 * The amount of bytes that were not uploaded, because identical data was already present.
+	 */
+	private long bytesSaved = 0;
+
+	/**
+	 * Creates a new empty pool.
+	 * @param factory the factory that provides an OpenAL context
+	 */
+	public SharedBufferPool(ALFactory factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * Gets a buffer holding the given data, uploading it only when no identical data is present.
+	 * @param data the decoded data
+	 * @return the shared buffer, which has to be released with {@link #release(Buffer)}
+	 * @throws ALException when the data could not be uploaded
+	 */
+	public Buffer acquire(PcmData data) throws ALException {
+		ContentHash hash = ContentHash.of(data);
+		synchronized (this) {
+			Shared shared = byHash.get(hash);
+			if (shared != null) {
+				shared.references++;
+				bytesSaved += shared.size;
+				return shared.buffer;
+			}
+
+			shared = new Shared(hash, data.createBuffer(factory), data.getSize());
+			byHash.put(hash, shared);
+			byId.put(shared.buffer.getBufferId(), shared);
+			uniqueBytes += shared.size;
+			return shared.buffer;
+		}
+	}
+
+	/**
+	 * Decodes an audio file and gets a buffer holding its data.
+	 * @param file the audio file
+	 * @param targetRate the sample rate to convert to, or 0 to keep the rate of the file
+	 * @return the shared buffer, which has to be released with {@link #release(Buffer)}
+	 * @throws IOException when the file could not be read
+	 * @throws UnsupportedAudioFileException when the file has an unsupported format
+	 * @throws ALException when the data could not be converted or uploaded
+	 * @see #acquire(PcmData)
+	 */
+	public Buffer acquire(File file, int targetRate) throws IOException, UnsupportedAudioFileException, ALException {
+		return acquire(PcmData.decode(file, targetRate));
+	}
+
+	/**
+	 * Gives back a reference to a shared buffer. The buffer is deleted when this was the last reference.<br>
+	 * The caller must make sure the buffer is no longer attached to a source once the last reference is released.
+	 * @param buffer a buffer acquired from this pool
+	 * @throws ALException when the buffer does not belong to this pool
+	 */
+	public synchronized void release(Buffer buffer) throws ALException {
+		Shared shared = byId.get(buffer.getBufferId());
+		if (shared == null) {
+			throw new ALException(buffer + " does not belong to this pool");
+		}
+		if (--shared.references > 0) {
+			bytesSaved -= shared.size;
+			return;
+		}
+		byId.remove(buffer.getBufferId());
+		byHash.remove(shared.hash);
+		uniqueBytes -= shared.size;
+		shared.buffer.close();
+	}
+
+	/**
+	 * Gets the amount of references to a shared buffer.
+	 * @param buffer a buffer acquired from this pool
+	 * @return the reference count, 0 when the buffer does not belong to this pool
+	 */
+	public synchronized int getReferenceCount(Buffer buffer) {
+		Shared shared = byId.get(buffer.getBufferId());
+		return shared == null ? 0 : shared.references;
+	}
+
+	/**
+	 * Gets the amount of distinct buffers in the pool.
+	 * @return the amount of buffers
+	 */
+	public synchronized int getBufferCount() {
+		return byId.size();
+	}
+
+	/**
+	 * Gets the amount of memory held by the buffers of the pool.
+	 * @return the size in bytes
+	 */
+	public synchronized long getUniqueBytes() {
+		return uniqueBytes;
+	}
+
+	/**
+	 * Gets the amount of memory saved by sharing buffers, for the references that are currently held.
+	 * @return the size of the uploads that were avoided, in bytes
+	 */
+	public synchronized long getBytesSaved() {
+		return bytesSaved;
+	}
+
+	/**
+	 * Deletes all buffers of the pool, regardless of their references.
+	 */
+	public synchronized void close() {
+		for (Shared shared : byId.values()) {
+			shared.buffer.close();
+		}
+		byId.clear();
+		byHash.clear();
+		uniqueBytes = 0;
+		bytesSaved = 0;
+	}
+
+	/**
+	 * A buffer shared by all sounds with the same data.
+	 */
+	private static final class Shared {
+
+		private final ContentHash hash;
+		private final Buffer buffer;
+		private final long size;
+		private int references = 1;
+
+		private Shared(ContentHash hash, Buffer buffer, long size) {
+			this.hash = hash;
+			this.buffer = buffer;
+			this.size = size;
+		}
+	}
+}
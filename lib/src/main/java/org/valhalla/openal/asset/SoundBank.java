@@ -0,0 +1,302 @@
+package org.valhalla.openal.asset;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.valhalla.openal.factory.ALFactory;
+import org.valhalla.openal.intermediate.Buffer;
+import org.valhalla.openal.jna.ALExt;
+import org.valhalla.openal.util.ALException;
+
+/**
+ * A read-only collection of named sounds, packed into a single file by {@link SoundBankBuilder}.<br>
+ * <br>
+ * Opening a bank maps the whole file into memory and reads its index, nothing else.
+ * A {@link Buffer} is only created when a sound is requested for the first time, and it is uploaded
+ * straight from the mapped file, so sound data never passes through the Java heap.<br>
+ * <br>
+ * A bank file starts with a little-endian header:
+ * <pre>
+ * int  magic          "VSBK"
+ * int  version        1
+ * int  entry count
+ * int  data alignment in bytes
+ * int  index size in bytes
+ * </pre>
+ * followed by the index, one record per sound:
+ * <pre>
+ * short name length, UTF-8 name
+ * int   OpenAL format
+ * int   sample rate
+ * int   frames per ADPCM block, 0 for PCM
+ * long  frame count
+ * long  data offset
+ * int   data size
+ * </pre>
+ * The sound data follows the index, every blob starting at a multiple of the data alignment.
+ */
+public class SoundBank {
+
+	/**
+	 * The magic number that starts every bank file, "VSBK" in little-endian byte order.
+	 */
+	static final int MAGIC = 0x4B425356;
+
+	/**
+	 * The version of the file format.
+	 */
+	static final int VERSION = 1;
+
+	/**
+	 * The size of the header in bytes.
+	 */
+	static final int HEADER_SIZE = 5 * 4;
+
+	/**
+	 * The factory that provides an OpenAL context.
+	 */
+	private final ALFactory factory;
+
+	/**
+	 * The memory-mapped bank file.
+	 */
+	private final MappedByteBuffer data;
+
+	/**
+	 * The entries of the bank, by name, in file order.
+	 */
+	private final Map<String, SoundBankEntry> entries;
+
+	/**
+	 * The buffers that have been created so far, by name.
+	 */
+	private final Map<String, Buffer> buffers = new HashMap<>();
+
+	/**
+	 * Has the bank been closed?
+	 */
+	private boolean closed = false;
+
+	/**
+	 * Opens a sound bank.
+	 * @param factory the factory that provides an OpenAL context
+	 * @param file the bank file
+	 * @throws IOException when the file could not be mapped or is not a valid sound bank
+	 */
+	public SoundBank(ALFactory factory, File file) throws IOException {
+		this.factory = factory;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Sound bank " + file + " is larger than 2 GiB");
+			}
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		data.order(ByteOrder.LITTLE_ENDIAN);
+		entries = Collections.unmodifiableMap(readIndex(file));
+	}
+
+	/**
+	 * Reads the index from the mapped file.
+	 * @param file the bank file, used in error messages
+	 * @return the entries by name
+	 * @throws IOException when the file is not a valid sound bank
+	 */
+	private Map<String, SoundBankEntry> readIndex(File file) throws IOException {
+		if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+			throw new IOException(file + " is not a sound bank");
+		}
+		int version = data.getInt(4);
+		if (version != VERSION) {
+			throw new IOException("Unsupported sound bank version " + version + " in " + file);
+		}
+		int count = data.getInt(8);
+		int indexSize = data.getInt(16);
+		if (count < 0 || indexSize < 0 || HEADER_SIZE + (long) indexSize > data.limit()) {
+			throw new IOException("Corrupt sound bank index in " + file);
+		}
+
+		ByteBuffer index = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		index.position(HEADER_SIZE).limit(HEADER_SIZE + indexSize);
+		Map<String, SoundBankEntry> result = new LinkedHashMap<>(count * 4 / 3 + 1);
+		byte[] name = new byte[Short.MAX_VALUE];
+		try {
+			for (int i = 0; i < count; i++) {
+				int nameLength = index.getShort() & 0xFFFF;
+				index.get(name, 0, nameLength);
+				SoundBankEntry entry = new SoundBankEntry(new String(name, 0, nameLength, StandardCharsets.UTF_8),
+						index.getInt(), index.getInt(), index.getInt(), index.getLong(), index.getLong(), index.getInt());
+				if (entry.getOffset() < 0 || entry.getSize() < 0 || entry.getOffset() + entry.getSize() > data.limit()) {
+					throw new IOException("Sound " + entry.getName() + " lies outside of " + file);
+				}
+				result.put(entry.getName(), entry);
+			}
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupt sound bank index in " + file, e);
+		}
+		return result;
+	}
+
+	/**
+	 * Gets all sounds in the bank.
+	 * @return the entries, in file order
+	 */
+	public Collection<SoundBankEntry> getEntries() {
+		return entries.values();
+	}
+
+	/**
+	 * Gets the index entry of a sound.
+	 * @param name the name of the sound
+	 * @return the entry, or null when the bank does not contain the sound
+	 */
+	public SoundBankEntry getEntry(String name) {
+		return entries.get(name);
+	}
+
+	/**
+	 * Checks if the bank contains a sound.
+	 * @param name the name of the sound
+	 * @return true when the sound exists
+	 */
+	public boolean contains(String name) {
+		return entries.containsKey(name);
+	}
+
+	/**
+	 * Gets the stored data of a sound, without creating a buffer.<br>
+	 * The returned buffer is a read-only view on the mapped file, no data is copied.
+	 * @param name the name of the sound
+	 * @return the data of the sound, in the format given by its entry
+	 * @throws ALException when the bank does not contain the sound
+	 */
+	public ByteBuffer getData(String name) throws ALException {
+		return slice(requireEntry(name));
+	}
+
+	/**
+	 * Gets the buffer of a sound, creating and uploading it on the first request.<br>
+	 * Later requests return the same buffer until it is released with {@link #unload(String)}.
+	 * @param name the name of the sound
+	 * @return the buffer holding the sound
+	 * @throws ALException when the bank does not contain the sound or the buffer could not be created
+	 */
+	public synchronized Buffer getBuffer(String name) throws ALException {
+		if (closed) {
+			throw new ALException("Sound bank has been closed");
+		}
+		Buffer buffer = buffers.get(name);
+		if (buffer == null) {
+			buffer = createBuffer(requireEntry(name));
+			buffers.put(name, buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Creates a new buffer holding a sound that is not shared with this bank.<br>
+	 * The caller owns the buffer and has to close it.
+	 * @param entry the entry of the sound
+	 * @return a new buffer holding the sound
+	 * @throws ALException when the buffer could not be created
+	 */
+	public Buffer createBuffer(SoundBankEntry entry) throws ALException {
+		Buffer buffer = new Buffer(factory);
+		try {
+			if (entry.isCompressed()) {
+				prepareCompressed(buffer, entry);
+			}
+			buffer.addBufferData(entry.getALFormat(), slice(entry), entry.getSampleRate());
+		} catch (ALException e) {
+			buffer.close();
+			throw e;
+		}
+		return buffer;
+	}
+
+	/**
+	 * Checks that the driver can play an ADPCM sound and sets the block size of the buffer.
+	 * @param buffer the buffer that will receive the data
+	 * @param entry the entry of the sound
+	 * @throws ALException when the driver cannot play the sound
+	 */
+	private void prepareCompressed(Buffer buffer, SoundBankEntry entry) throws ALException {
+		if (!factory.al.alIsExtensionPresent(ALExt.AL_EXT_IMA4_NAME)) {
+			throw new ALException("Sound " + entry.getName() + " requires " + ALExt.AL_EXT_IMA4_NAME);
+		}
+		if (entry.getBlockFrames() == SoundBankEntry.DEFAULT_IMA4_BLOCK_FRAMES) {
+			return;
+		}
+		if (!factory.al.alIsExtensionPresent(ALExt.AL_SOFT_BLOCK_ALIGNMENT_NAME)) {
+			throw new ALException("Sound " + entry.getName() + " uses blocks of " + entry.getBlockFrames()
+					+ " frames, which requires " + ALExt.AL_SOFT_BLOCK_ALIGNMENT_NAME);
+		}
+		buffer.setIntParam(ALExt.AL_UNPACK_BLOCK_ALIGNMENT_SOFT, entry.getBlockFrames());
+	}
+
+	/**
+	 * Checks if the buffer of a sound currently exists.
+	 * @param name the name of the sound
+	 * @return true when the sound has been uploaded
+	 */
+	public synchronized boolean isLoaded(String name) {
+		return buffers.containsKey(name);
+	}
+
+	/**
+	 * Deletes the buffer of a sound. The next request for the sound uploads it again.<br>
+	 * The buffer must no longer be attached to any source.
+	 * @param name the name of the sound
+	 */
+	public synchronized void unload(String name) {
+		Buffer buffer = buffers.remove(name);
+		if (buffer != null) {
+			buffer.close();
+		}
+	}
+
+	/**
+	 * Deletes all buffers created by the bank. The mapping is released once the bank is no longer referenced.
+	 */
+	public synchronized void close() {
+		for (Buffer buffer : buffers.values()) {
+			buffer.close();
+		}
+		buffers.clear();
+		closed = true;
+	}
+
+	/**
+	 * Gets the entry of a sound.
+	 * @param name the name of the sound
+	 * @return the entry
+	 * @throws ALException when the bank does not contain the sound
+	 */
+	private SoundBankEntry requireEntry(String name) throws ALException {
+		SoundBankEntry entry = entries.get(name);
+		if (entry == null) {
+			throw new ALException("Sound bank does not contain " + name);
+		}
+		return entry;
+	}
+
+	/**
+	 * Creates a view on the data of a sound.
+	 * @param entry the entry of the sound
+	 * @return a read-only view on the mapped data
+	 */
+	private ByteBuffer slice(SoundBankEntry entry) {
+		return data.slice((int) entry.getOffset(), entry.getSize()).asReadOnlyBuffer();
+	}
+}
@@ -0,0 +1,345 @@
+package org.valhalla.openal.asset;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.valhalla.openal.jna.ALExt;
+import org.valhalla.openal.util.ALException;
+import org.valhalla.openal.util.PcmConverter;
+import org.valhalla.openal.util.Util;
+
+/**
+ * Packs sounds into a single {@link SoundBank} file.<br>
+ * <br>
+ * PCM sounds are converted to the format OpenAL plays natively, so they can be uploaded without conversion at runtime.
+ * WAV files holding IMA ADPCM data are stored as they are and played through the AL_EXT_IMA4 extension.
+ * Sounds are only decoded while the bank is written, one at a time.
+ */
+public class SoundBankBuilder {
+
+	/**
+	 * The default alignment of sound data inside the bank, in bytes.
+	 */
+	public static final int DEFAULT_ALIGNMENT = 64;
+
+	/**
+	 * The WAV format tag of IMA ADPCM data.
+	 */
+	private static final int WAVE_FORMAT_IMA_ADPCM = 0x0011;
+
+	/**
+	 * The sounds that will be written, in order.
+	 */
+	private final List<Pending> pending = new ArrayList<>();
+
+	/**
+	 * The names that have been added so far.
+	 */
+	private final Set<String> names = new HashSet<>();
+
+	/**
+	 * The alignment of sound data inside the bank.
+	 */
+	private int alignment = DEFAULT_ALIGNMENT;
+
+	/**
+	 * Sets the alignment of the sound data inside the bank.
+	 * @param alignment the alignment in bytes, a power of two
+	 * @return this builder
+	 */
+	public SoundBankBuilder setAlignment(int alignment) {
+		if (alignment < 1 || Integer.bitCount(alignment) != 1) {
+			throw new IllegalArgumentException("Alignment must be a power of two: " + alignment);
+		}
+		this.alignment = alignment;
+		return this;
+	}
+
+	/**
+	 * Adds a sound file to the bank.
+	 * @param name the name under which the sound can be requested
+	 * @param file a WAV file, or any other file AudioSystem can decode
+	 * @return this builder
+	 */
+	public SoundBankBuilder add(String name, File file) {
+		addPending(new Pending(name, file, null, null));
+		return this;
+	}
+
+	/**
+	 * Adds sound data to the bank.
+	 * @param name the name under which the sound can be requested
+	 * @param format the format of the data
+	 * @param data the sound data
+	 * @return this builder
+	 */
+	public SoundBankBuilder add(String name, AudioFormat format, byte[] data) {
+		addPending(new Pending(name, null, format, data));
+		return this;
+	}
+
+	/**
+	 * Adds all WAV files in a directory and its subdirectories to the bank.<br>
+	 * The name of each sound is its path relative to the directory, using '/' as separator and without the file extension.
+	 * @param directory the directory to pack
+	 * @return this builder
+	 * @throws IOException when the directory could not be listed
+	 */
+	public SoundBankBuilder addDirectory(File directory) throws IOException {
+		Path root = directory.toPath();
+		List<Path> files;
+		try (Stream<Path> walk = Files.walk(root)) {
+			files = walk.filter(Files::isRegularFile)
+					.filter(path -> path.getFileName().toString().toLowerCase().endsWith(".wav"))
+					.sorted()
+					.collect(Collectors.toList());
+		}
+		for (Path file : files) {
+			String name = root.relativize(file).toString().replace(File.separatorChar, '/');
+			add(name.substring(0, name.lastIndexOf('.')), file.toFile());
+		}
+		return this;
+	}
+
+	/**
+	 * Registers a sound that will be written.
+	 * @param sound the sound
+	 */
+	private void addPending(Pending sound) {
+		if (sound.name.getBytes(StandardCharsets.UTF_8).length > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("Sound name is too long: " + sound.name);
+		}
+		if (!names.add(sound.name)) {
+			throw new IllegalArgumentException("Duplicate sound name: " + sound.name);
+		}
+		pending.add(sound);
+	}
+
+	/**
+	 * Decodes all added sounds and writes the bank.<br>
+	 * The index is reserved up front and filled in after the data, so every sound is decoded exactly once.
+	 * @param file the bank file to create
+	 * @throws IOException when a sound could not be read or the bank could not be written
+	 * @throws UnsupportedAudioFileException when a sound file has an unsupported format
+	 * @throws ALException when a sound cannot be converted to an OpenAL format
+	 */
+	public void write(File file) throws IOException, UnsupportedAudioFileException, ALException {
+		int indexSize = 0;
+		for (Pending sound : pending) {
+			indexSize += SoundBankEntry.FIXED_SIZE + sound.name.getBytes(StandardCharsets.UTF_8).length;
+		}
+
+		List<SoundBankEntry> entries = new ArrayList<>(pending.size());
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			long position = align(SoundBank.HEADER_SIZE + indexSize);
+			for (Pending sound : pending) {
+				Encoded encoded = sound.encode();
+				writeFully(channel, ByteBuffer.wrap(encoded.data), position);
+				entries.add(new SoundBankEntry(sound.name, encoded.alFormat, encoded.sampleRate, encoded.blockFrames,
+						encoded.frameCount, position, encoded.data.length));
+				position = align(position + encoded.data.length);
+				if (position > Integer.MAX_VALUE) {
+					throw new IOException("Sound bank would be larger than 2 GiB");
+				}
+			}
+
+			ByteBuffer header = ByteBuffer.allocate(SoundBank.HEADER_SIZE + indexSize).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(SoundBank.MAGIC).putInt(SoundBank.VERSION).putInt(entries.size()).putInt(alignment).putInt(indexSize);
+			for (SoundBankEntry entry : entries) {
+				byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+				header.putShort((short) name.length).put(name)
+						.putInt(entry.getALFormat())
+						.putInt(entry.getSampleRate())
+						.putInt(entry.getBlockFrames())
+						.putLong(entry.getFrameCount())
+						.putLong(entry.getOffset())
+						.putInt(entry.getSize());
+			}
+			header.flip();
+			writeFully(channel, header, 0);
+			channel.truncate(position);
+		}
+	}
+
+	/**
+	 * Rounds a position up to the data alignment.
+	 * @param position the position in bytes
+	 * @return the aligned position
+	 */
+	private long align(long position) {
+		return (position + alignment - 1) & -alignment;
+	}
+
+	/**
+	 * Writes all remaining bytes at a position.
+	 * @param channel the channel to write to
+	 * @param data the data
+	 * @param position the position in the file
+	 * @throws IOException when the data could not be written
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer data, long position) throws IOException {
+		while (data.hasRemaining()) {
+			position += channel.write(data, position);
+		}
+	}
+
+	/**
+	 * A sound that has been added, but not yet written.
+	 */
+	private static final class Pending {
+
+		private final String name;
+		private final File file;
+		private final AudioFormat format;
+		private final byte[] data;
+
+		private Pending(String name, File file, AudioFormat format, byte[] data) {
+			this.name = name;
+			this.file = file;
+			this.format = format;
+			this.data = data;
+		}
+
+		/**
+		 * Converts the sound to the form it is stored in.
+		 * @return the encoded sound
+		 * @throws IOException when the file could not be read
+		 * @throws UnsupportedAudioFileException when the file has an unsupported format
+		 * @throws ALException when the sound cannot be converted to an OpenAL format
+		 */
+		private Encoded encode() throws IOException, UnsupportedAudioFileException, ALException {
+			if (file == null) {
+				return Encoded.fromPcm(format, data);
+			}
+			byte[] contents = Files.readAllBytes(file.toPath());
+			Encoded adpcm = Encoded.fromImaAdpcm(contents);
+			if (adpcm != null) {
+				return adpcm;
+			}
+			try (AudioInputStream stream = AudioSystem.getAudioInputStream(new ByteArrayInputStream(contents))) {
+				return Encoded.fromPcm(stream.getFormat(), Util.readStreamContents(stream));
+			} catch (UnsupportedAudioFileException e) {
+				throw new UnsupportedAudioFileException(file + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * A sound in the form it is stored in the bank.
+	 */
+	private static final class Encoded {
+
+		private final int alFormat;
+		private final int sampleRate;
+		private final int blockFrames;
+		private final long frameCount;
+		private final byte[] data;
+
+		private Encoded(int alFormat, int sampleRate, int blockFrames, long frameCount, byte[] data) {
+			this.alFormat = alFormat;
+			this.sampleRate = sampleRate;
+			this.blockFrames = blockFrames;
+			this.frameCount = frameCount;
+			this.data = data;
+		}
+
+		/**
+		 * Converts PCM data to the format OpenAL plays natively.
+		 * @param format the format of the data
+		 * @param data the data
+		 * @return the encoded sound
+		 * @throws ALException when the data cannot be converted
+		 */
+		private static Encoded fromPcm(AudioFormat format, byte[] data) throws ALException {
+			AudioFormat target = PcmConverter.getTargetFormat(format);
+			byte[] samples = PcmConverter.normalize(format, data, 0, data.length);
+			return new Encoded(PcmConverter.getALFormat(target), (int) format.getSampleRate(), 0,
+					samples.length / target.getFrameSize(), samples);
+		}
+
+		/**
+		 * Extracts the blocks of an IMA ADPCM WAV file.
+		 * @param contents the contents of the file
+		 * @return the encoded sound, or null when the file is not an IMA ADPCM WAV file
+		 * @throws IOException when the file is an IMA ADPCM WAV file that cannot be played
+		 */
+		private static Encoded fromImaAdpcm(byte[] contents) throws IOException {
+			ByteBuffer riff = ByteBuffer.wrap(contents).order(ByteOrder.LITTLE_ENDIAN);
+			if (contents.length < 12 || riff.getInt(0) != 0x46464952 || riff.getInt(8) != 0x45564157) {
+				return null;
+			}
+
+			int channels = 0;
+			int sampleRate = 0;
+			int blockAlign = 0;
+			int blockFrames = 0;
+			long frameCount = -1;
+			int dataOffset = -1;
+			int dataSize = 0;
+			int position = 12;
+			while (position + 8 <= contents.length) {
+				int id = riff.getInt(position);
+				int size = riff.getInt(position + 4);
+				int body = position + 8;
+				if (size < 0 || body + (long) size > contents.length) {
+					size = contents.length - body;
+				}
+				if (id == 0x20746D66) {
+					// "fmt "
+					if (riff.getShort(body) != WAVE_FORMAT_IMA_ADPCM) {
+						return null;
+					}
+					channels = riff.getShort(body + 2);
+					sampleRate = riff.getInt(body + 4);
+					blockAlign = riff.getShort(body + 12) & 0xFFFF;
+					blockFrames = size >= 20 ? riff.getShort(body + 18) & 0xFFFF : 0;
+				} else if (id == 0x74636166) {
+					// "fact"
+					frameCount = riff.getInt(body) & 0xFFFFFFFFL;
+				} else if (id == 0x61746164) {
+					// "data"
+					dataOffset = body;
+					dataSize = size;
+				}
+				position = body + size + (size & 1);
+			}
+			if (channels == 0 || dataOffset < 0) {
+				return null;
+			}
+			if (channels > 2 || blockAlign == 0) {
+				throw new IOException("Unsupported IMA ADPCM layout: " + channels + " channels, block align " + blockAlign);
+			}
+			if (blockFrames == 0) {
+				blockFrames = (blockAlign / channels - 4) * 2 + 1;
+			}
+
+			int blocks = dataSize / blockAlign;
+			byte[] data = new byte[blocks * blockAlign];
+			System.arraycopy(contents, dataOffset, data, 0, data.length);
+			long maxFrames = (long) blocks * blockFrames;
+			frameCount = frameCount < 0 ? maxFrames : Math.min(frameCount, maxFrames);
+			int alFormat = channels == 1 ? ALExt.AL_FORMAT_MONO_IMA4 : ALExt.AL_FORMAT_STEREO_IMA4;
+			return new Encoded(alFormat, sampleRate, blockFrames, frameCount, data);
+		}
+	}
+}
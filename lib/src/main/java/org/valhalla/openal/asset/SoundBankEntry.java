@@ -0,0 +1,169 @@
+package org.valhalla.openal.asset;
+
+import org.valhalla.openal.jna.AL;
+import org.valhalla.openal.jna.ALExt;
+
+/**
+ * A named sound in the index of a {@link SoundBank}.<br>
+ * <br>
+ * An entry describes where the sound data lives inside the bank and the OpenAL format it is stored in.
+ * Entries are immutable and cheap, the sound data itself is only touched when a buffer is created.
+ */
+public final class SoundBankEntry {
+
+	/**
+	 * The size of an entry in the index, without its name.
+	 */
+	static final int FIXED_SIZE = 2 + 4 + 4 + 4 + 8 + 8 + 4;
+
+	/**
+	 * The default amount of sample frames in an IMA4 block.
+	 */
+	static final int DEFAULT_IMA4_BLOCK_FRAMES = 65;
+
+	/**
+	 * The name of the sound.
+	 */
+	private final String name;
+
+	/**
+	 * The OpenAL format enum of the data.
+	 */
+	private final int alFormat;
+
+	/**
+	 * The sample rate of the data.
+	 */
+	private final int sampleRate;
+
+	/**
+	 * The amount of sample frames in an ADPCM block, 0 for PCM data.
+	 */
+	private final int blockFrames;
+
+	/**
+	 * The amount of sample frames in the sound.
+	 */
+	private final long frameCount;
+
+	/**
+	 * The offset of the data from the start of the bank, in bytes.
+	 */
+	private final long offset;
+
+	/**
+	 * The size of the data in bytes.
+	 */
+	private final int size;
+
+	/**
+	 * Creates a new entry.
+	 * @param name the name of the sound
+	 * @param alFormat the OpenAL format enum of the data
+	 * @param sampleRate the sample rate of the data
+	 * @param blockFrames the amount of sample frames in an ADPCM block, 0 for PCM data
+	 * @param frameCount the amount of sample frames in the sound
+	 * @param offset the offset of the data from the start of the bank
+	 * @param size the size of the data in bytes
+	 */
+	SoundBankEntry(String name, int alFormat, int sampleRate, int blockFrames, long frameCount, long offset, int size) {
+		this.name = name;
+		this.alFormat = alFormat;
+		this.sampleRate = sampleRate;
+		this.blockFrames = blockFrames;
+		this.frameCount = frameCount;
+		this.offset = offset;
+		this.size = size;
+	}
+
+	/**
+	 * Gets the name of the sound.
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the format the data is stored in.
+	 * @return the OpenAL format enum, one of the 8 and 16-bit PCM formats or the IMA4 formats
+	 */
+	public int getALFormat() {
+		return alFormat;
+	}
+
+	/**
+	 * Gets the sample rate of the sound.
+	 * @return the sample rate in Hz
+	 */
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Gets the amount of channels of the sound.
+	 * @return 1 for mono, 2 for stereo
+	 */
+	public int getChannels() {
+		return alFormat == AL.AL_FORMAT_STEREO8 || alFormat == AL.AL_FORMAT_STEREO16
+				|| alFormat == ALExt.AL_FORMAT_STEREO_IMA4 ? 2 : 1;
+	}
+
+	/**
+	 * Checks if the data is IMA4 ADPCM compressed.
+	 * @return true for ADPCM data, false for PCM data
+	 */
+	public boolean isCompressed() {
+		return alFormat == ALExt.AL_FORMAT_MONO_IMA4 || alFormat == ALExt.AL_FORMAT_STEREO_IMA4;
+	}
+
+	/**
+	 * Gets the amount of sample frames in an ADPCM block.
+	 * @return the block size in frames, 0 for PCM data
+	 */
+	public int getBlockFrames() {
+		return blockFrames;
+	}
+
+	/**
+	 * Gets the length of the sound.
+	 * @return the amount of sample frames
+	 */
+	public long getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Gets the length of the sound.
+	 * @return the duration in seconds
+	 */
+	public double getDuration() {
+		return (double) frameCount / sampleRate;
+	}
+
+	/**
+	 * Gets the offset of the data inside the bank.
+	 * @return the offset in bytes
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Gets the size of the stored data, which is also the amount of memory an uploaded buffer takes.
+	 * @return the size in bytes
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns a String representation of the entry
+	 * @return a String with details about the entry
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "SoundBankEntry[" + name + ", " + getChannels() + "ch, " + sampleRate + "Hz, " + size + " bytes]";
+	}
+}
@@ -0,0 +1,5 @@
+/**
+ * Package containing classes that manage audio assets.
+ * These classes decide where audio data lives, how it is packed on disk and when it is uploaded to OpenAL.
+ */
+package org.valhalla.openal.asset;
@@ -7,6 +7,9 @@ import com.sun.jna.Native;
 import org.valhalla.openal.jna.AL;
 import org.valhalla.openal.jna.ALC;
 import org.valhalla.openal.jna.ALExt;
+import org.valhalla.openal.jna.EFX;
+import org.valhalla.openal.jna.EFXFunctions;
+import org.valhalla.openal.util.ALException;
 
 public class ALFactory {
     private static final String DEFAULT_DLL_NAME = "openal";
@@ -15,6 +18,8 @@ public class ALFactory {
     public final ALC alc;
     public final ALExt alext;
 
+    private EFXFunctions efx;
+
     public ALFactory() {
         al = Native.load(DEFAULT_DLL_NAME, AL.class);
         alc = Native.load(DEFAULT_DLL_NAME, ALC.class);
@@ -35,4 +40,21 @@ public class ALFactory {
         alc = Native.load(dllName, ALC.class);
         alext = Native.load(dllName, ALExt.class);
     }
+
+    /**
+     * Gets the functions of the EFX extension, resolving them on first use.
+     * A context has to be current, because the function pointers are looked up through it.
+     * @return the EFX functions
+     * @throws ALException when the OpenAL implementation does not support EFX
+     */
+    public synchronized EFXFunctions getEfx() throws ALException {
+        if (efx == null) {
+            try {
+                efx = new EFXFunctions(al);
+            } catch (UnsatisfiedLinkError e) {
+                throw new ALException(EFX.ALC_EXT_EFX_NAME + " is not supported", e);
+            }
+        }
+        return efx;
+    }
 }
@@ -0,0 +1,192 @@
+package org.valhalla.openal.intermediate;
+
+import org.valhalla.openal.factory.ALFactory;
+import org.valhalla.openal.jna.AL;
+import org.valhalla.openal.jna.EFX;
+import org.valhalla.openal.jna.EFXFunctions;
+import org.valhalla.openal.util.ALException;
+import org.valhalla.openal.util.Util;
+
+/**
+ * A class representing an EFX auxiliary effect slot.<br>
+ * <br>
+ * A slot runs one {@link Effect} on the sound of all sources that send to it with
+ * {@link Source#setAuxiliarySend(int, AuxEffectSlot, Filter)}. Implementations only offer a limited amount of slots,
+ * use an {@link EfxPool} to share them.
+ */
+public class AuxEffectSlot {
+
+    /**
+     * Link to the AL interface.
+     */
+    final AL al;
+
+    /**
+     * Link to the EFX functions.
+     */
+    final EFXFunctions efx;
+
+    /**
+     * A unique number given by OpenAL to each slot.
+     */
+    private final int slotId;
+
+    /**
+     * The attached effect, or null.
+     */
+    private Effect effect;
+
+    /**
+     * Has the slot been closed?
+     */
+    private boolean closed = false;
+
+    /**
+     * Deletes the slot when the JVM exits, removed again when the slot is closed earlier.
+     */
+    private final Thread shutdownHook = new Thread(this::close);
+
+    /**
+     * Creates a new auxiliary effect slot.
+     * @param factory the factory that provides an OpenAL context
+     * @throws ALException when EFX is not supported or no more slots are available
+     */
+    public AuxEffectSlot(ALFactory factory) throws ALException {
+	    this(factory.al, factory.getEfx(), generate(factory.al, factory.getEfx(), 1)[0]);
+    }
+
+    /**
+     * Creates a new link to a slot.
+     * @param al the OpenAL interface on which the slot exists
+     * @param efx the EFX functions
+     * @param slotId the slot
+     */
+    AuxEffectSlot(AL al, EFXFunctions efx, int slotId) {
+	    this.al = al;
+	    this.efx = efx;
+	    this.slotId = slotId;
+
+	    Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Generates slot names.
+     * @param al the OpenAL interface
+     * @param efx the EFX functions
+     * @param count the amount of slots
+     * @return the slot names
+     * @throws ALException when the slots could not be created
+     */
+    static int[] generate(AL al, EFXFunctions efx, int count) throws ALException {
+	    int[] slotIds = new int[count];
+	    Util.clearErrors(al);
+	    efx.alGenAuxiliaryEffectSlots(count, slotIds);
+	    Util.checkForALError(al);
+	    return slotIds;
+    }
+
+    /**
+     * Gets the unique slot id of the slot.
+     * @return the slot id
+     */
+    public int getSlotId() {
+	    return slotId;
+    }
+
+    /**
+     * Gets the attached effect.
+     * @return the effect, or null
+     */
+    public Effect getEffect() {
+	    return effect;
+    }
+
+    /**
+     * Attaches an effect to the slot, or attaches it again to apply changed parameters.
+     * @param effect the effect, or null to silence the slot
+     * @throws ALException when the effect could not be attached
+     */
+    public void setEffect(Effect effect) throws ALException {
+	    Util.clearErrors(al);
+	    efx.alAuxiliaryEffectSloti(slotId, EFX.AL_EFFECTSLOT_EFFECT, effect == null ? EFX.AL_EFFECT_NULL : effect.getEffectId());
+	    Util.checkForALError(al);
+	    this.effect = effect;
+    }
+
+    /**
+     * Uploads a reverb preset to the attached effect and applies it to the slot.<br>
+     * <br>
+     * Only the changed parameters are uploaded, followed by a single attach, see {@link Effect#load(EaxReverbProperties)}.
+     * @param properties the preset
+     * @return true when the slot was updated, false when the preset was already applied
+     * @throws ALException when no reverb is attached or the preset could not be applied
+     */
+    public boolean load(EaxReverbProperties properties) throws ALException {
+	    if (effect == null) {
+	        throw new ALException("No effect attached to " + this);
+	    }
+	    if (!effect.load(properties)) {
+	        return false;
+	    }
+	    setEffect(effect);
+	    return true;
+    }
+
+    /**
+     * Gets the output gain of the slot.
+     * @return the gain
+     * @throws ALException when the gain could not be read
+     */
+    public float getGain() throws ALException {
+	    float[] result = {0f};
+	    Util.clearErrors(al);
+	    efx.alGetAuxiliaryEffectSlotf(slotId, EFX.AL_EFFECTSLOT_GAIN, result);
+	    Util.checkForALError(al);
+	    return result[0];
+    }
+
+    /**
+     * Sets the output gain of the slot.
+     * @param gain the gain, from 0 to 1
+     * @throws ALException when the gain could not be set
+     */
+    public void setGain(float gain) throws ALException {
+	    Util.clearErrors(al);
+	    efx.alAuxiliaryEffectSlotf(slotId, EFX.AL_EFFECTSLOT_GAIN, gain);
+	    Util.checkForALError(al);
+    }
+
+    /**
+     * Sets whether the send levels to the slot are adjusted for the distance of each source.
+     * @param auto true to adjust the send levels automatically, which is the default
+     * @throws ALException when the flag could not be set
+     */
+    public void setSendAuto(boolean auto) throws ALException {
+	    Util.clearErrors(al);
+	    efx.alAuxiliaryEffectSloti(slotId, EFX.AL_EFFECTSLOT_AUXILIARY_SEND_AUTO, auto ? AL.AL_TRUE : AL.AL_FALSE);
+	    Util.checkForALError(al);
+    }
+
+    /**
+     * Closes and destroys the slot.
+     * This will happen automatically when the class is no longer needed.
+     */
+    public void close() {
+	    if (!closed) {
+	        efx.alDeleteAuxiliaryEffectSlots(1, new int[] {slotId});
+	        closed = true;
+	        if (Thread.currentThread() != shutdownHook) {
+	    		try {
+	    		    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+	    		} catch (IllegalStateException e) {
+	    		    // The JVM is already shutting down
+	    		}
+	        }
+	    }
+    }
+
+    @Override
+    public String toString() {
+	    return "AuxEffectSlot[" + slotId + "]";
+    }
+}
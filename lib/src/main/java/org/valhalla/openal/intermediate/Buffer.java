@@ -1,10 +1,13 @@
 package org.valhalla.openal.intermediate;
 
+import java.nio.ByteBuffer;
+
 import com.sun.jna.ptr.IntByReference;
 import javax.sound.sampled.AudioFormat;
 
 import org.valhalla.openal.jna.AL;
 import org.valhalla.openal.factory.ALFactory;
+import org.valhalla.openal.util.PcmConverter;
 import org.valhalla.openal.util.Util;
 import org.valhalla.openal.util.ALException;
 
@@ -20,7 +23,7 @@ public class Buffer {
      * Link to the AL interface.<br>
 	 * The AL interface should be the interface on which the Buffer exists.
      */
-    private final AL al;
+    final AL al;
 
     /**
      * A unique number given by OpenAL to each buffer.<br>
@@ -34,6 +37,11 @@ public class Buffer {
      */
     private boolean closed = false;
 
+    /**
+     * Deletes the buffer when the JVM exits, removed again when the buffer is closed earlier.
+     */
+    private final Thread shutdownHook = new Thread(this::close);
+
     /**
      * Creates a new default buffer.<br>
 	 * <br>
@@ -60,7 +68,7 @@ public class Buffer {
 		Util.checkForALError(al);
 		bufferId = bufferIds[0];
 
-		Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
     }
 
     /**
@@ -74,7 +82,29 @@ public class Buffer {
     	this.al = al;
     	this.bufferId = bufferId;
     	
-    	Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    	Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Creates several buffers with a single call into OpenAL.
+     * @param factory the factory that provides an OpenAL context
+     * @param count the amount of buffers to create
+     * @return the new buffers
+     * @throws ALException when there has been a problem creating the buffers
+	 * @see AL#alGenBuffers(int, int[])
+     */
+    public static Buffer[] createBuffers(ALFactory factory, int count) throws ALException {
+		int[] bufferIds = new int[count];
+		if (count > 0) {
+		    Util.clearErrors(factory.al);
+		    factory.al.alGenBuffers(count, bufferIds);
+		    Util.checkForALError(factory.al);
+		}
+		Buffer[] buffers = new Buffer[count];
+		for (int i = 0; i < count; i++) {
+		    buffers[i] = new Buffer(factory.al, bufferIds[i]);
+		}
+		return buffers;
     }
 
     /**
@@ -84,18 +114,36 @@ public class Buffer {
 	 * After a buffer has been deleted, using the buffer will throw an {@link ALException}.
      */
     public void close() {
-		if (!closed) {
-		    int[] bufferIds = {bufferId};
-		    al.alDeleteBuffers(1, bufferIds);
+		if (!closed && delete()) {
 		    closed = true;
+		    // Otherwise every closed buffer stays reachable from the registered hook until the JVM exits
+		    if (Thread.currentThread() != shutdownHook) {
+		    	try {
+		    	    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		    	} catch (IllegalStateException e) {
+		    	    // The JVM is already shutting down
+		    	}
+		    }
 		}
     }
 
+    /**
+     * Deletes the buffer in OpenAL. When this fails, the buffer stays open and the next {@link #close()} tries again.
+     * @return true when the buffer was deleted
+     */
+    boolean delete() {
+		int[] bufferIds = {bufferId};
+		al.alDeleteBuffers(1, bufferIds);
+		return true;
+    }
+
     /**
      * Appends sound data to a buffer.<br>
 	 * <br>
 	 * The audio format is rather important.
 	 * Inputting the wrong format might not throw an error, but it will be audibly wrong.
+	 * Data that OpenAL cannot play directly (big-endian, signed 8-bit, 24-bit, 32-bit or float samples)
+	 * is converted first, see {@link PcmConverter}.
      * @param format format of the data
      * @param data the sound data
      * @throws ALException if there was an error adding data
@@ -104,6 +152,23 @@ public class Buffer {
     	addBufferData(format, data, data.length);
     }
 
+    /**
+     * Appends sound data to a buffer, mixing stereo data down to mono when asked.<br>
+	 * <br>
+	 * OpenAL only positions sources that play mono buffers, so stereo data meant for a 3D source
+	 * has to be mixed down. This happens in the same pass that converts the data, see {@link PcmConverter}.
+     * @param format format of the data
+     * @param data the sound data
+     * @param mono if stereo data is mixed down to mono
+     * @throws ALException if there was an error adding data
+     */
+    public void addBufferData(AudioFormat format, byte[] data, boolean mono) throws ALException {
+		byte[] samples = PcmConverter.normalize(format, data, 0, data.length, mono);
+		int audioFormat = PcmConverter.getALFormat(PcmConverter.getTargetFormat(format, mono));
+
+		addBufferData(audioFormat, samples, samples.length, (int) format.getSampleRate());
+    }
+
     /**
 	 * Appends sound data to a buffer.<br>
 	 * <br>
@@ -116,25 +181,10 @@ public class Buffer {
 	 * @see #addBufferData(AudioFormat, byte[])
      */
     private void addBufferData(AudioFormat format, byte[] data, int size) throws ALException {
-		int audioFormat = AL.AL_FALSE;
-		if (format.getSampleSizeInBits() == 8) {
-		    if (format.getChannels() == 1) {
-			audioFormat = AL.AL_FORMAT_MONO8;
-		    } else if (format.getChannels() == 2) {
-			audioFormat = AL.AL_FORMAT_STEREO8;
-		    }
-		} else if (format.getSampleSizeInBits() == 16) {
-		    if (format.getChannels() == 1) {
-			audioFormat = AL.AL_FORMAT_MONO16;
-		    } else if (format.getChannels() == 2) {
-			audioFormat = AL.AL_FORMAT_STEREO16;
-		    }
-		}
-		if (audioFormat == AL.AL_FALSE) {
-		    throw new ALException("Unsuppported audio format: " + format);
-		}
+		byte[] samples = PcmConverter.normalize(format, data, 0, size);
+		int audioFormat = PcmConverter.getALFormat(PcmConverter.getTargetFormat(format));
 
-		addBufferData(audioFormat, data, size, (int) format.getSampleRate());
+		addBufferData(audioFormat, samples, samples.length, (int) format.getSampleRate());
     }
 
 	/**
@@ -155,6 +205,23 @@ public class Buffer {
     	Util.checkForALError(al);
     }
 
+    /**
+     * Fills the buffer with data that is already in an OpenAL format.<br>
+	 * <br>
+	 * The data is read from the position to the limit of the byte buffer and is not converted.
+	 * Direct and memory-mapped byte buffers are handed to the driver without a copy on the Java side.
+	 * @param format the OpenAL format enum of the data
+	 * @param data the sound data
+	 * @param sampleRate the sample rate of the buffer data
+	 * @throws ALException if there was an error adding data
+	 * @see AL#alBufferData(int, int, ByteBuffer, int, int)
+     */
+    public void addBufferData(int format, ByteBuffer data, int sampleRate) throws ALException {
+    	Util.clearErrors(al);
+    	al.alBufferData(bufferId, format, data, data.remaining(), sampleRate);
+    	Util.checkForALError(al);
+    }
+
     /**
      * Gets the unique buffer id of the buffer
      * @return the unique buffer id
@@ -213,4 +280,17 @@ public class Buffer {
     	Util.checkForALError(al);
     	return result.getValue();
     }
+
+    /**
+     * Sets an internal integer property for a buffer
+     * @param param the integer parameter to be set
+     * @param value the new value of the parameter
+     * @throws ALException if the parameter could not be set
+	 * @see AL#alBufferi(int, int, int)
+     */
+    public void setIntParam(int param, int value) throws ALException {
+    	Util.clearErrors(al);
+    	al.alBufferi(getBufferId(), param, value);
+    	Util.checkForALError(al);
+    }
 }
@@ -0,0 +1,217 @@
+package org.valhalla.openal.intermediate;
+
+import java.io.IOException;
+
+import javax.sound.sampled.AudioFormat;
+
+import com.sun.jna.CallbackThreadInitializer;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import org.valhalla.openal.factory.ALFactory;
+import org.valhalla.openal.jna.AL;
+import org.valhalla.openal.jna.ALExt;
+import org.valhalla.openal.util.ALException;
+import org.valhalla.openal.util.ByteRingBuffer;
+import org.valhalla.openal.util.PcmConverter;
+import org.valhalla.openal.util.Util;
+
+/**
+ * A source whose samples are pulled by the mixer instead of being pushed through buffer queues.<br>
+ * <br>
+ * The source plays a callback buffer, created with {@link ALExt#alBufferCallbackSOFT}.
+ * Whenever the mixer needs more samples it calls back into Java, which copies them straight from a
+ * {@link ByteRingBuffer} into the mixer's memory. A decoder thread keeps the ring filled with {@link #write(byte[], int, int)}.
+ * No buffers are queued, unqueued or polled, so the latency is bounded by the ring size and the mixer period only.<br>
+ * <br>
+ * The callback runs on the mixer thread and therefore never blocks and never allocates in this library.
+ * When the ring runs dry the missing part is filled with silence and counted as an underrun.
+ * Requires the AL_SOFT_callback_buffer extension.
+ */
+public class CallbackSource extends Source {
+
+	/**
+	 * The format of the data written to this source.
+	 */
+	private final AudioFormat format;
+
+	/**
+	 * The byte value that represents silence in the converted format.
+	 */
+	private final byte silence;
+
+	/**
+	 * The samples that are waiting to be pulled by the mixer, in an OpenAL compatible format.
+	 */
+	private final ByteRingBuffer ring;
+
+	/**
+	 * The callback buffer played by this source.
+	 */
+	private final Buffer buffer;
+
+	/**
+	 * The callback called by the mixer.<br>
+	 * Kept in a field, because the native side does not keep a reference and it must never be garbage collected.
+	 */
+	private final ALExt.ALBufferCallbackSOFT callback = this::fill;
+
+	/**
+	 * Bytes of an incomplete frame that have not been written yet.
+	 */
+	private final byte[] partialFrame;
+
+	/**
+	 * The amount of bytes stored in {@link #partialFrame}.
+	 */
+	private int partialLength = 0;
+
+	/**
+	 * The amount of times the mixer found the ring empty.
+	 */
+	private volatile int underruns = 0;
+
+	/**
+	 * Total amount of bytes handed to the mixer, including silence.
+	 */
+	private volatile long bytesPulled = 0;
+
+	/**
+	 * Creates a new callback source.
+	 * @param factory the factory that provides an OpenAL context
+	 * @param format the format of the data that will be written to the source
+	 * @param ringSize the size of the ring in bytes of converted data, this bounds the latency of the source
+	 * @throws ALException when the extension is missing or the source could not be created
+	 */
+	public CallbackSource(ALFactory factory, AudioFormat format, int ringSize) throws ALException {
+		super(factory);
+		AL al = factory.al;
+		if (!al.alIsExtensionPresent(ALExt.AL_SOFT_CALLBACK_BUFFER_NAME)) {
+			close();
+			throw new ALException("Callback sources require " + ALExt.AL_SOFT_CALLBACK_BUFFER_NAME);
+		}
+
+		AudioFormat target = PcmConverter.getTargetFormat(format);
+		this.format = format;
+		this.silence = target.getSampleSizeInBits() == 8 ? (byte) 0x80 : 0;
+		this.ring = new ByteRingBuffer(ringSize);
+		this.partialFrame = new byte[format.getFrameSize()];
+		this.buffer = new Buffer(factory);
+
+		Native.setCallbackThreadInitializer(callback, new CallbackThreadInitializer(true, false, "OpenAL mixer"));
+		Util.clearErrors(al);
+		factory.alext.alBufferCallbackSOFT(buffer.getBufferId(), PcmConverter.getALFormat(target),
+				(int) target.getSampleRate(), callback, null);
+		try {
+			Util.checkForALError(al);
+		} catch (ALException e) {
+			buffer.close();
+			close();
+			throw e;
+		}
+		setBuffer(buffer);
+	}
+
+	/**
+	 * Fills the mixer's memory from the ring. Called on the mixer thread.
+	 * @param userptr the user parameter, unused
+	 * @param sampledata the memory to fill
+	 * @param numbytes the amount of bytes requested
+	 * @return the amount of bytes provided, always all of them
+	 */
+	private int fill(Pointer userptr, Pointer sampledata, int numbytes) {
+		int read = ring.read(sampledata, 0, numbytes);
+		if (read < numbytes) {
+			sampledata.setMemory(read, numbytes - read, silence);
+			if (bytesPulled > 0) {
+				underruns++;
+			}
+		}
+		bytesPulled += numbytes;
+		return numbytes;
+	}
+
+	/**
+	 * Writes audio data to the source, waiting for the mixer when the ring is full.<br>
+	 * Only one thread may write to a callback source. Writes do not need to be aligned to frames.
+	 * @param b the data
+	 * @param off the index of the first byte
+	 * @param len the amount of bytes
+	 * @throws IOException when the data could not be converted or the thread was interrupted
+	 */
+	public void write(byte[] b, int off, int len) throws IOException {
+		int frameSize = partialFrame.length;
+		try {
+			if (partialLength > 0) {
+				int missing = Math.min(frameSize - partialLength, len);
+				System.arraycopy(b, off, partialFrame, partialLength, missing);
+				partialLength += missing;
+				off += missing;
+				len -= missing;
+				if (partialLength < frameSize) {
+					return;
+				}
+				byte[] samples = PcmConverter.normalize(format, partialFrame, 0, frameSize);
+				ring.writeFully(samples, 0, samples.length);
+				partialLength = 0;
+			}
+
+			int whole = (len / frameSize) * frameSize;
+			if (whole > 0) {
+				if (PcmConverter.isNative(format)) {
+					ring.writeFully(b, off, whole);
+				} else {
+					byte[] samples = PcmConverter.normalize(format, b, off, whole);
+					ring.writeFully(samples, 0, samples.length);
+				}
+			}
+			partialLength = len - whole;
+			System.arraycopy(b, off + whole, partialFrame, 0, partialLength);
+		} catch (ALException e) {
+			throw new IOException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("IO Operation interrupted", e);
+		}
+	}
+
+	/**
+	 * Gets the amount of converted bytes that are waiting to be pulled by the mixer.
+	 * @return the amount of buffered bytes
+	 */
+	public int getBufferedBytes() {
+		return ring.available();
+	}
+
+	/**
+	 * Gets the amount of times the mixer found the ring empty after playback had started.
+	 * @return the amount of underruns
+	 */
+	public int getUnderrunCount() {
+		return underruns;
+	}
+
+	/**
+	 * Gets the total amount of bytes handed to the mixer, including silence inserted on underruns.
+	 * @return the amount of pulled bytes
+	 */
+	public long getBytesPulled() {
+		return bytesPulled;
+	}
+
+	/**
+	 * Stops the source, detaches the callback buffer and deletes both.
+	 */
+	@Override
+	public void close() {
+		try {
+			stop();
+			setIntParam(AL.AL_BUFFER, 0);
+		} catch (ALException e) {
+			// The source is already gone, the buffer can be deleted either way
+		}
+		super.close();
+		if (buffer != null) {
+			buffer.close();
+		}
+	}
+}
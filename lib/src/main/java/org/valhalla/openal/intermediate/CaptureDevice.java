@@ -0,0 +1,544 @@
+package org.valhalla.openal.intermediate;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.valhalla.openal.factory.ALFactory;
+import org.valhalla.openal.jna.ALC;
+import org.valhalla.openal.jna.ALCdevice;
+import org.valhalla.openal.jna.ALExt;
+import org.valhalla.openal.util.ALException;
+import org.valhalla.openal.util.PcmConverter;
+import org.valhalla.openal.util.Util;
+
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+
+/**
+ * A class representing an OpenAL capture device, such as a microphone.<br>
+ * <br>
+ * A dedicated thread polls {@link ALC#ALC_CAPTURE_SAMPLES} at a fixed period and copies every complete block
+ * of captured frames straight into a ring of fixed-size blocks in native memory. The ring has exactly one
+ * consumer, which takes the blocks with {@link #take(BlockConsumer)} without locks or allocations.
+ * Each block is stamped with the time its first frame was captured, in nanoseconds of the device clock when
+ * the device answers ALC_SOFT_device_clock queries and of {@link System#nanoTime()} otherwise. Capture devices
+ * often advertise the extension without supporting the query, so the clock is probed once when the device is opened.
+ * When a later query fails, the stamps continue from {@link System#nanoTime()} at the last known offset.<br>
+ * <br>
+ * When the consumer falls behind and the ring is full, new blocks are dropped and counted,
+ * so the device never overflows and the capture thread never waits.
+ */
+public class CaptureDevice {
+
+	/**
+	 * The default time between two polls of the device in microseconds.
+	 */
+	public static final long DEFAULT_POLL_PERIOD = 2000;
+
+	/**
+	 * Receives captured blocks.
+	 */
+	@FunctionalInterface
+	public interface BlockConsumer {
+
+		/**
+		 * Handles a captured block. The buffer may be modified, but may not be used after this method returns.
+		 * @param block the samples of the block, from position 0 to the block size, in little-endian byte order
+		 * @param timeNanos the time at which the first frame of the block was captured
+		 */
+		void accept(ByteBuffer block, long timeNanos);
+	}
+
+	/**
+	 * Link to the OpenALC interface.
+	 */
+	final ALC alc;
+
+	/**
+	 * Link to the AL extension interface.
+	 */
+	private final ALExt alext;
+
+	/**
+	 * The internal capture device.
+	 */
+	final ALCdevice device;
+
+	/**
+	 * The format of the captured samples.
+	 */
+	private final AudioFormat format;
+
+	/**
+	 * The sample rate in Hz.
+	 */
+	private final int sampleRate;
+
+	/**
+	 * The amount of frames in a block.
+	 */
+	private final int blockFrames;
+
+	/**
+	 * The size of a block in bytes.
+	 */
+	private final int blockSize;
+
+	/**
+	 * The blocks as seen by the capture thread.
+	 */
+	private final ByteBuffer[] captureBlocks;
+
+	/**
+	 * The same blocks as seen by the consumer.
+	 */
+	private final ByteBuffer[] consumerBlocks;
+
+	/**
+	 * The capture time of each block.
+	 */
+	private final long[] stamps;
+
+	/**
+	 * Mask that maps a block number onto an index into the blocks.
+	 */
+	private final int mask;
+
+	/**
+	 * The amount of blocks captured into the ring, only modified by the capture thread.
+	 */
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * The amount of blocks taken from the ring, only modified by the consumer.
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Receives blocks that are dropped because the ring is full.
+	 */
+	private final ByteBuffer discard;
+
+	/**
+	 * Does the device answer queries of its clock?
+	 */
+	private volatile boolean deviceClock;
+
+	/**
+	 * The difference between the device clock and {@link System#nanoTime()}, 0 without a device clock.
+	 */
+	private volatile long clockOffset = 0;
+
+	/**
+	 * Receives the amount of available frames, only used by the capture thread.
+	 */
+	private final IntByReference availableFrames = new IntByReference();
+
+	/**
+	 * Receives the device clock, only used by the capture thread.
+	 */
+	private final long[] clock = new long[1];
+
+	/**
+	 * The time between two polls of the device.
+	 */
+	private volatile long pollNanos = TimeUnit.MICROSECONDS.toNanos(DEFAULT_POLL_PERIOD);
+
+	/**
+	 * The amount of dropped blocks.
+	 */
+	private volatile long droppedBlocks = 0;
+
+	/**
+	 * The consumer thread that waits for a block, or null.
+	 */
+	private volatile Thread waitingConsumer;
+
+	/**
+	 * The capture thread, or null when the device is not capturing.
+	 */
+	private Thread thread;
+
+	/**
+	 * Keeps the capture thread running.
+	 */
+	private volatile boolean running = false;
+
+	/**
+	 * Has the device been closed?
+	 */
+	private boolean closed = false;
+
+	/**
+	 * Closes the device when the JVM exits, removed again when the device is closed earlier.
+	 */
+	private final Thread shutdownHook = new Thread(this::close);
+
+	/**
+	 * Opens a capture device.
+	 * @param factory the factory that provides an OpenALC context
+	 * @param name the name of the capture device, or null for the default device
+	 * @param format the format of the samples, 8-bit unsigned or 16-bit signed little-endian PCM in mono or stereo
+	 * @param blockFrames the amount of frames in each delivered block
+	 * @param ringBlocks the amount of blocks the ring holds, rounded up to a power of two
+	 * @throws ALException when the format is not supported or the device could not be opened
+	 * @see #availableDevices(ALFactory)
+	 */
+	public CaptureDevice(ALFactory factory, String name, AudioFormat format, int blockFrames, int ringBlocks) throws ALException {
+		if (!PcmConverter.isNative(format)) {
+			throw new ALException("Capture format not supported: " + format);
+		}
+		if (blockFrames < 1 || ringBlocks < 1 || ringBlocks > (1 << 20)) {
+			throw new IllegalArgumentException("Invalid block layout: " + blockFrames + " frames, " + ringBlocks + " blocks");
+		}
+		this.alc = factory.alc;
+		this.alext = factory.alext;
+		this.format = format;
+		this.sampleRate = (int) format.getSampleRate();
+		this.blockFrames = blockFrames;
+		this.blockSize = blockFrames * format.getFrameSize();
+
+		// the device buffer holds several poll periods, so a late poll does not lose samples
+		int deviceFrames = Math.max(blockFrames * 4, sampleRate / 5);
+		device = alc.alcCaptureOpenDevice(name, sampleRate, PcmConverter.getALFormat(format), deviceFrames);
+		if (device == null) {
+			throw new ALException("Failed to open ALC capture device " + name);
+		}
+		deviceClock = alc.alcIsExtensionPresent(device, ALExt.ALC_SOFT_DEVICE_CLOCK_NAME) && updateClockOffset();
+
+		int count = Integer.highestOneBit(ringBlocks);
+		if (count < ringBlocks) {
+			count <<= 1;
+		}
+		mask = count - 1;
+		ByteBuffer memory = ByteBuffer.allocateDirect(count * blockSize);
+		captureBlocks = new ByteBuffer[count];
+		consumerBlocks = new ByteBuffer[count];
+		stamps = new long[count];
+		for (int i = 0; i < count; i++) {
+			captureBlocks[i] = memory.slice(i * blockSize, blockSize);
+			consumerBlocks[i] = memory.slice(i * blockSize, blockSize).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		discard = ByteBuffer.allocateDirect(blockSize);
+
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * Gets the name of the default capture device.
+	 * @param factory the factory that provides an OpenALC context
+	 * @return the name of the default capture device
+	 */
+	public static String defaultDevice(ALFactory factory) {
+		return Util.getString(factory.alc.alcGetString(null, ALC.ALC_CAPTURE_DEFAULT_DEVICE_SPECIFIER));
+	}
+
+	/**
+	 * Gets the names of all capture devices.
+	 * @param factory the factory that provides an OpenALC context
+	 * @return the names of the devices
+	 * @throws ALException when the devices could not be listed
+	 */
+	public static List<String> availableDevices(ALFactory factory) throws ALException {
+		Pointer stringsPtr = factory.alc.alcGetString(null, ALC.ALC_CAPTURE_DEVICE_SPECIFIER);
+		if (stringsPtr == null) {
+			throw Util.createALCException(factory.alc, null);
+		}
+		return Util.getStrings(stringsPtr);
+	}
+
+	/**
+	 * Starts capturing.
+	 * @throws ALException when the device has been closed or could not be started
+	 */
+	public synchronized void start() throws ALException {
+		if (closed) {
+			throw new ALException("Capture device has been closed");
+		}
+		if (thread != null) {
+			return;
+		}
+		alc.alcGetError(device);
+		alc.alcCaptureStart(device);
+		checkForError();
+		running = true;
+		thread = new Thread(this::run, "OpenAL capture");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Stops capturing. Blocks that are in the ring can still be taken.
+	 */
+	public synchronized void stop() {
+		if (thread == null) {
+			return;
+		}
+		running = false;
+		LockSupport.unpark(thread);
+		boolean interrupted = false;
+		while (thread.isAlive()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		thread = null;
+		alc.alcCaptureStop(device);
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Is the device capturing?
+	 * @return true between {@link #start()} and {@link #stop()}
+	 */
+	public boolean isCapturing() {
+		return running;
+	}
+
+	/**
+	 * Sets the time between two polls of the device.
+	 * Shorter periods lower the latency of the blocks at the cost of more wake-ups.
+	 * @param micros the period in microseconds
+	 */
+	public void setPollPeriod(long micros) {
+		pollNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(100, micros));
+	}
+
+	/**
+	 * Gets the time between two polls of the device.
+	 * @return the period in microseconds
+	 */
+	public long getPollPeriod() {
+		return TimeUnit.NANOSECONDS.toMicros(pollNanos);
+	}
+
+	/**
+	 * Gets the format of the captured samples.
+	 * @return the format
+	 */
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * Gets the amount of frames in a block.
+	 * @return the amount of frames
+	 */
+	public int getBlockFrames() {
+		return blockFrames;
+	}
+
+	/**
+	 * Gets the size of a block.
+	 * @return the size in bytes
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Gets the amount of blocks the ring holds.
+	 * @return the amount of blocks
+	 */
+	public int getRingBlocks() {
+		return stamps.length;
+	}
+
+	/**
+	 * Gets the amount of blocks that can be taken.
+	 * @return the amount of blocks
+	 */
+	public int getAvailableBlocks() {
+		return (int) (head.get() - tail.get());
+	}
+
+	/**
+	 * Gets the amount of blocks that were dropped because the ring was full.
+	 * @return the amount of blocks
+	 */
+	public long getDroppedBlockCount() {
+		return droppedBlocks;
+	}
+
+	/**
+	 * Are the blocks stamped with the device clock?
+	 * @return true while the device answers clock queries, false when the stamps come from {@link System#nanoTime()}
+	 */
+	public boolean hasDeviceClock() {
+		return deviceClock;
+	}
+
+	/**
+	 * Gets the current time of the clock the blocks are stamped with.
+	 * The device is not queried, so this may be called from any thread.
+	 * @return the time in nanoseconds, comparable to the stamps of the blocks
+	 */
+	public long currentTime() {
+		return System.nanoTime() + clockOffset;
+	}
+
+	/**
+	 * Queries the device clock and measures its offset from {@link System#nanoTime()}.
+	 * Only call this from the capture thread, or before it is started.
+	 * @return true when the query succeeded, false when the device raised an error and the offset was kept
+	 */
+	private boolean updateClockOffset() {
+		alc.alcGetError(device);
+		long now = System.nanoTime();
+		alext.alcGetInteger64vSOFT(device, ALExt.ALC_DEVICE_CLOCK_SOFT, 1, clock);
+		if (alc.alcGetError(device) != ALC.ALC_NO_ERROR) {
+			return false;
+		}
+		clockOffset = clock[0] - now;
+		return true;
+	}
+
+	/**
+	 * Hands the oldest block to a consumer and removes it from the ring. Only call this from the consuming thread.
+	 * @param consumer the consumer
+	 * @return true when a block was handed over, false when the ring is empty
+	 */
+	public boolean take(BlockConsumer consumer) {
+		long position = tail.get();
+		if (position == head.get()) {
+			return false;
+		}
+		int index = (int) position & mask;
+		ByteBuffer block = consumerBlocks[index];
+		block.clear();
+		try {
+			consumer.accept(block, stamps[index]);
+		} finally {
+			tail.lazySet(position + 1);
+		}
+		return true;
+	}
+
+	/**
+	 * Hands all blocks in the ring to a consumer. Only call this from the consuming thread.
+	 * @param consumer the consumer
+	 * @return the amount of blocks handed over
+	 */
+	public int drain(BlockConsumer consumer) {
+		int count = 0;
+		while (take(consumer)) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Waits until a block can be taken. Only call this from the consuming thread.
+	 * @param timeout the longest time to wait
+	 * @param unit the unit of the timeout
+	 * @return true when a block can be taken, false when the time ran out
+	 * @throws InterruptedException when the thread is interrupted while waiting
+	 */
+	public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (tail.get() == head.get()) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return false;
+			}
+			waitingConsumer = Thread.currentThread();
+			if (tail.get() == head.get()) {
+				LockSupport.parkNanos(this, remaining);
+			}
+			waitingConsumer = null;
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Polls the device and moves complete blocks into the ring until the device is stopped.
+	 */
+	private void run() {
+		long nanosPerSecond = TimeUnit.SECONDS.toNanos(1);
+		while (running) {
+			availableFrames.setValue(0);
+			alc.alcGetIntegerv(device, ALC.ALC_CAPTURE_SAMPLES, 1, availableFrames);
+			int frames = availableFrames.getValue();
+			if (frames >= blockFrames) {
+				if (deviceClock && !updateClockOffset()) {
+					deviceClock = false;
+				}
+				long now = currentTime();
+				boolean delivered = false;
+				for (; frames >= blockFrames; frames -= blockFrames) {
+					// the newest available frame was captured about now, older frames precede it at the sample rate
+					long stamp = now - frames * nanosPerSecond / sampleRate;
+					long position = head.get();
+					if (position - tail.get() > mask) {
+						alc.alcCaptureSamples(device, discard, blockFrames);
+						droppedBlocks++;
+						continue;
+					}
+					int index = (int) position & mask;
+					alc.alcCaptureSamples(device, captureBlocks[index], blockFrames);
+					stamps[index] = stamp;
+					head.lazySet(position + 1);
+					delivered = true;
+				}
+				Thread consumer = waitingConsumer;
+				if (delivered && consumer != null) {
+					LockSupport.unpark(consumer);
+				}
+			}
+			LockSupport.parkNanos(this, pollNanos);
+		}
+	}
+
+	/**
+	 * Checks if there has been any errors on the capture device since last checking for errors.
+	 * @throws ALException when there has been an error on the device.
+	 */
+	public void checkForError() throws ALException {
+		Util.checkForALCError(alc, device);
+	}
+
+	/**
+	 * Stops capturing and closes the device, this will happen automatically when the class is no longer needed.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		stop();
+		alc.alcCaptureCloseDevice(device);
+		if (Thread.currentThread() != shutdownHook) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException e) {
+				// The JVM is already shutting down
+			}
+		}
+	}
+
+	/**
+	 * Returns a String representation of the capture device
+	 * @return a String with details about the device
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "CaptureDevice[" + device + "]";
+	}
+}
@@ -34,8 +34,20 @@ public class Context {
 	 * @throws ALException when an error creating or making the context current occurs
 	 */
 	public Context(Device device) throws ALException {
+		this(device, null);
+	}
+
+	/**
+	 * Creates a new OpenAL context on a specific device with the given attributes.<br>
+	 * This device will be opened and set as the current context to play sounds on.
+	 * @param device the device for which the context will be created
+	 * @param attributes pairs of ALC attribute tokens and values, for example {@link ALC#ALC_FREQUENCY},
+	 *                   followed by a 0, or null for the defaults of the device
+	 * @throws ALException when an error creating or making the context current occurs
+	 */
+	public Context(Device device, int[] attributes) throws ALException {
 		alc = device.alc;
-		context = alc.alcCreateContext(device.device, null);
+		context = alc.alcCreateContext(device.device, attributes);
 
 		if (context == null) {
 			throw new ALException("Could not create context");
@@ -4,10 +4,12 @@ import java.util.List;
 
 import org.valhalla.openal.jna.ALC;
 import org.valhalla.openal.jna.ALCdevice;
+import org.valhalla.openal.jna.EFX;
 import org.valhalla.openal.factory.ALFactory;
 import org.valhalla.openal.util.Util;
 
 import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
 import org.valhalla.openal.util.ALException;
 
 /**
@@ -60,6 +62,23 @@ public class Device {
 		Runtime.getRuntime().addShutdownHook(new Thread(this::close));
 	}
 
+	/**
+	 * Wraps a device that has already been opened, such as a loopback device.
+	 * @param alc the OpenALC interface the device was opened on
+	 * @param device the opened device
+	 * @throws ALException when the device is null
+	 */
+	Device(ALC alc, ALCdevice device) throws ALException {
+		this.alc = alc;
+		this.device = device;
+
+		if (device == null) {
+			throw new ALException("Failed to open ALC device");
+		}
+
+		Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+	}
+
 	/**
 	 * Closes the OpenALC device, this will happen automatically when the class is no longer needed.
 	 * After a device has been closed, using the device will throw an {@link ALException}.
@@ -98,6 +117,44 @@ public class Device {
 		return Util.getStrings(stringsPtr);
 	}
 
+	/**
+	 * Gets an integer attribute of the device.
+	 * @param param the requested attribute, for example {@link ALC#ALC_FREQUENCY}
+	 * @return the value of the requested attribute
+	 * @throws ALException when the attribute could not be queried
+	 * @see ALC#alcGetIntegerv(ALCdevice, int, int, IntByReference)
+	 */
+	public int getIntParam(int param) throws ALException {
+		IntByReference result = new IntByReference(0);
+		alc.alcGetError(device);
+		alc.alcGetIntegerv(device, param, 1, result);
+		checkForError();
+		return result.getValue();
+	}
+
+	/**
+	 * Gets the output sample rate of the device.
+	 * Buffers with this sample rate do not have to be resampled by the OpenAL mixer.
+	 * @return the output sample rate in Hz
+	 * @throws ALException when the sample rate could not be queried
+	 */
+	public int getFrequency() throws ALException {
+		return getIntParam(ALC.ALC_FREQUENCY);
+	}
+
+	/**
+	 * Gets the amount of auxiliary effect slots each source can send to at the same time.
+	 * @return the amount of auxiliary sends per source
+	 * @throws ALException when the device does not support EFX
+	 * @see EFX#ALC_MAX_AUXILIARY_SENDS
+	 */
+	public int getMaxAuxiliarySends() throws ALException {
+		if (!alc.alcIsExtensionPresent(device, EFX.ALC_EXT_EFX_NAME)) {
+			throw new ALException(EFX.ALC_EXT_EFX_NAME + " is not supported by " + this);
+		}
+		return getIntParam(EFX.ALC_MAX_AUXILIARY_SENDS);
+	}
+
 	/**
 	 * Checks if there has been any errors on the OpenALC device since last checking for errors.
 	 * @throws ALException when there has been an error on the device.
@@ -0,0 +1,250 @@
+package org.valhalla.openal.intermediate;
+
+import java.util.Arrays;
+
+import org.valhalla.openal.jna.EFX;
+
+/**
+ * An immutable set of EAX reverb parameters, as uploaded to an {@link Effect} with {@link Effect#load(EaxReverbProperties)}.<br>
+ * <br>
+ * The parameters are in the order of the AL_EAXREVERB_* constants in {@link EFX}, the presets are those of OpenAL Soft's efx-presets.h.
+ */
+public final class EaxReverbProperties {
+
+    /**
+     * The amount of values, the two pan vectors take 3 values each.
+     */
+    static final int VALUE_COUNT = 27;
+
+    /**
+     * The index of each AL_EAXREVERB_* parameter in the values, indexed by parameter.
+     */
+    static final int[] EAXREVERB_INDEX = {
+	    -1, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 13, 14, 15, 18, 19, 20, 21, 22, 23, 24, 25, 26
+    };
+
+    /**
+     * The index of each AL_REVERB_* parameter in the values, indexed by parameter.
+     * The standard reverb has no low frequency, pan, echo or modulation parameters.
+     */
+    static final int[] REVERB_INDEX = {
+	    -1, 0, 1, 2, 3, 5, 6, 8, 9, 13, 14, 22, 25, 26
+    };
+
+    /**
+     * The generic preset, a medium room without much character.
+     */
+    public static final EaxReverbProperties GENERIC = new EaxReverbProperties(1.0000f, 1.0000f, 0.3162f, 0.8913f, 1.0000f,
+	    1.4900f, 0.8300f, 1.0000f, 0.0500f, 0.0070f, new float[] {0f, 0f, 0f}, 1.2589f, 0.0110f, new float[] {0f, 0f, 0f},
+	    0.2500f, 0.0000f, 0.2500f, 0.0000f, 0.9943f, 5000.0f, 250.0f, 0.0f, true);
+
+    /**
+     * A small room with short, bright reflections.
+     */
+    public static final EaxReverbProperties ROOM = new EaxReverbProperties(0.4287f, 1.0000f, 0.3162f, 0.5929f, 1.0000f,
+	    0.4000f, 0.8300f, 1.0000f, 0.1503f, 0.0020f, new float[] {0f, 0f, 0f}, 1.0629f, 0.0030f, new float[] {0f, 0f, 0f},
+	    0.2500f, 0.0000f, 0.2500f, 0.0000f, 0.9943f, 5000.0f, 250.0f, 0.0f, true);
+
+    /**
+     * A small tiled room with strong, long reflections.
+     */
+    public static final EaxReverbProperties BATHROOM = new EaxReverbProperties(0.1715f, 1.0000f, 0.3162f, 0.2512f, 1.0000f,
+	    1.4900f, 0.5400f, 1.0000f, 0.6531f, 0.0070f, new float[] {0f, 0f, 0f}, 3.2734f, 0.0110f, new float[] {0f, 0f, 0f},
+	    0.2500f, 0.0000f, 0.2500f, 0.0000f, 0.9943f, 5000.0f, 250.0f, 0.0f, true);
+
+    /**
+     * A furnished room that damps the high frequencies.
+     */
+    public static final EaxReverbProperties LIVINGROOM = new EaxReverbProperties(0.9766f, 1.0000f, 0.3162f, 0.0010f, 1.0000f,
+	    0.5000f, 0.1000f, 1.0000f, 0.2051f, 0.0030f, new float[] {0f, 0f, 0f}, 0.2805f, 0.0040f, new float[] {0f, 0f, 0f},
+	    0.2500f, 0.0000f, 0.2500f, 0.0000f, 0.9943f, 5000.0f, 250.0f, 0.0f, true);
+
+    /**
+     * A long corridor with distinct late reverb.
+     */
+    public static final EaxReverbProperties HALLWAY = new EaxReverbProperties(0.3645f, 1.0000f, 0.3162f, 0.7079f, 1.0000f,
+	    1.4900f, 0.5900f, 1.0000f, 0.2458f, 0.0070f, new float[] {0f, 0f, 0f}, 1.6615f, 0.0110f, new float[] {0f, 0f, 0f},
+	    0.2500f, 0.0000f, 0.2500f, 0.0000f, 0.9943f, 5000.0f, 250.0f, 0.0f, true);
+
+    /**
+     * A large stone cave with a long decay that keeps its high frequencies.
+     */
+    public static final EaxReverbProperties CAVE = new EaxReverbProperties(1.0000f, 1.0000f, 0.3162f, 1.0000f, 1.0000f,
+	    2.9100f, 1.3000f, 1.0000f, 0.5000f, 0.0150f, new float[] {0f, 0f, 0f}, 0.7063f, 0.0220f, new float[] {0f, 0f, 0f},
+	    0.2500f, 0.0000f, 0.2500f, 0.0000f, 0.9943f, 5000.0f, 250.0f, 0.0f, false);
+
+    /**
+     * An open forest with faint, distant echoes.
+     */
+    public static final EaxReverbProperties FOREST = new EaxReverbProperties(1.0000f, 0.3000f, 0.3162f, 0.0224f, 1.0000f,
+	    1.4900f, 0.5400f, 1.0000f, 0.0525f, 0.1620f, new float[] {0f, 0f, 0f}, 0.7682f, 0.0880f, new float[] {0f, 0f, 0f},
+	    0.1250f, 1.0000f, 0.2500f, 0.0000f, 0.9943f, 5000.0f, 250.0f, 0.0f, true);
+
+    /**
+     * A muffled underwater environment with heavy modulation.
+     */
+    public static final EaxReverbProperties UNDERWATER = new EaxReverbProperties(0.3645f, 1.0000f, 0.3162f, 0.0100f, 1.0000f,
+	    1.4900f, 0.1000f, 1.0000f, 0.5963f, 0.0070f, new float[] {0f, 0f, 0f}, 7.0795f, 0.0110f, new float[] {0f, 0f, 0f},
+	    0.2500f, 0.0000f, 1.1800f, 0.3480f, 0.9943f, 5000.0f, 250.0f, 0.0f, true);
+
+    /**
+     * The parameters, each pan vector spans 3 values and the decay HF limit is 0 or 1.
+     */
+    private final float[] values;
+
+    /**
+     * Creates a new set of EAX reverb parameters.
+     * @param density see {@link EFX#AL_EAXREVERB_DENSITY}
+     * @param diffusion see {@link EFX#AL_EAXREVERB_DIFFUSION}
+     * @param gain see {@link EFX#AL_EAXREVERB_GAIN}
+     * @param gainHF see {@link EFX#AL_EAXREVERB_GAINHF}
+     * @param gainLF see {@link EFX#AL_EAXREVERB_GAINLF}
+     * @param decayTime see {@link EFX#AL_EAXREVERB_DECAY_TIME}
+     * @param decayHFRatio see {@link EFX#AL_EAXREVERB_DECAY_HFRATIO}
+     * @param decayLFRatio see {@link EFX#AL_EAXREVERB_DECAY_LFRATIO}
+     * @param reflectionsGain see {@link EFX#AL_EAXREVERB_REFLECTIONS_GAIN}
+     * @param reflectionsDelay see {@link EFX#AL_EAXREVERB_REFLECTIONS_DELAY}
+     * @param reflectionsPan see {@link EFX#AL_EAXREVERB_REFLECTIONS_PAN}, 3 values
+     * @param lateReverbGain see {@link EFX#AL_EAXREVERB_LATE_REVERB_GAIN}
+     * @param lateReverbDelay see {@link EFX#AL_EAXREVERB_LATE_REVERB_DELAY}
+     * @param lateReverbPan see {@link EFX#AL_EAXREVERB_LATE_REVERB_PAN}, 3 values
+     * @param echoTime see {@link EFX#AL_EAXREVERB_ECHO_TIME}
+     * @param echoDepth see {@link EFX#AL_EAXREVERB_ECHO_DEPTH}
+     * @param modulationTime see {@link EFX#AL_EAXREVERB_MODULATION_TIME}
+     * @param modulationDepth see {@link EFX#AL_EAXREVERB_MODULATION_DEPTH}
+     * @param airAbsorptionGainHF see {@link EFX#AL_EAXREVERB_AIR_ABSORPTION_GAINHF}
+     * @param hfReference see {@link EFX#AL_EAXREVERB_HFREFERENCE}
+     * @param lfReference see {@link EFX#AL_EAXREVERB_LFREFERENCE}
+     * @param roomRolloffFactor see {@link EFX#AL_EAXREVERB_ROOM_ROLLOFF_FACTOR}
+     * @param decayHFLimit see {@link EFX#AL_EAXREVERB_DECAY_HFLIMIT}
+     */
+    public EaxReverbProperties(float density, float diffusion, float gain, float gainHF, float gainLF,
+	    float decayTime, float decayHFRatio, float decayLFRatio, float reflectionsGain, float reflectionsDelay,
+	    float[] reflectionsPan, float lateReverbGain, float lateReverbDelay, float[] lateReverbPan,
+	    float echoTime, float echoDepth, float modulationTime, float modulationDepth, float airAbsorptionGainHF,
+	    float hfReference, float lfReference, float roomRolloffFactor, boolean decayHFLimit) {
+	    this(new float[] {
+	        density, diffusion, gain, gainHF, gainLF, decayTime, decayHFRatio, decayLFRatio, reflectionsGain, reflectionsDelay,
+	        reflectionsPan[0], reflectionsPan[1], reflectionsPan[2], lateReverbGain, lateReverbDelay,
+	        lateReverbPan[0], lateReverbPan[1], lateReverbPan[2], echoTime, echoDepth, modulationTime, modulationDepth,
+	        airAbsorptionGainHF, hfReference, lfReference, roomRolloffFactor, decayHFLimit ? 1f : 0f
+	    });
+    }
+
+    /**
+     * Creates a new set of parameters from packed values.
+     * @param values the values, which are not copied
+     */
+    EaxReverbProperties(float[] values) {
+	    this.values = values;
+    }
+
+    /**
+     * Gets the packed values, which may not be modified.
+     * @return the values
+     */
+    float[] values() {
+	    return values;
+    }
+
+    /**
+     * Gets a single parameter.
+     * @param param an AL_EAXREVERB_* parameter that is not a pan vector
+     * @return the value, 0 or 1 for {@link EFX#AL_EAXREVERB_DECAY_HFLIMIT}
+     * @throws IllegalArgumentException when the parameter is not a scalar EAX reverb parameter
+     */
+    public float get(int param) {
+	    if (param < EFX.AL_EAXREVERB_DENSITY || param > EFX.AL_EAXREVERB_DECAY_HFLIMIT
+	        || param == EFX.AL_EAXREVERB_REFLECTIONS_PAN || param == EFX.AL_EAXREVERB_LATE_REVERB_PAN) {
+	        throw new IllegalArgumentException("Not a scalar EAX reverb parameter: " + param);
+	    }
+	    return values[EAXREVERB_INDEX[param]];
+    }
+
+    /**
+     * Gets the reflections pan vector.
+     * @return a copy of the 3 values
+     */
+    public float[] getReflectionsPan() {
+	    return Arrays.copyOfRange(values, 10, 13);
+    }
+
+    /**
+     * Gets the late reverb pan vector.
+     * @return a copy of the 3 values
+     */
+    public float[] getLateReverbPan() {
+	    return Arrays.copyOfRange(values, 15, 18);
+    }
+
+    /**
+     * Is the high frequency decay limited by the air absorption?
+     * @return the decay HF limit
+     */
+    public boolean isDecayHFLimit() {
+	    return values[26] != 0f;
+    }
+
+    /**
+     * Blends presets by weight. Each value is the weighted average of the presets, the decay HF limit is enabled
+     * when the presets that enable it carry at least half of the weight.
+     * @param presets the presets
+     * @param weights the weight of each preset, which do not have to add up to 1
+     * @param count the amount of presets to blend
+     * @return the blended preset
+     * @throws IllegalArgumentException when no preset has a positive weight
+     */
+    public static EaxReverbProperties blend(EaxReverbProperties[] presets, float[] weights, int count) {
+	    float total = 0f;
+	    for (int i = 0; i < count; i++) {
+	        total += Math.max(0f, weights[i]);
+	    }
+	    if (total <= 0f) {
+	        throw new IllegalArgumentException("No preset has a positive weight");
+	    }
+	    float[] blended = new float[VALUE_COUNT];
+	    for (int i = 0; i < count; i++) {
+	        float weight = Math.max(0f, weights[i]) / total;
+	        float[] source = presets[i].values;
+	        for (int j = 0; j < VALUE_COUNT; j++) {
+	    		blended[j] += source[j] * weight;
+	        }
+	    }
+	    blended[VALUE_COUNT - 1] = blended[VALUE_COUNT - 1] >= 0.5f ? 1f : 0f;
+	    return new EaxReverbProperties(blended);
+    }
+
+    /**
+     * Measures how much two presets differ, to decide whether an update is worth sending.
+     * Values are compared relative to their size, so a change of 100 Hz in the HF reference
+     * weighs as much as a change of 2 ms in a delay of 100 ms.
+     * @param other the other preset
+     * @return the largest relative difference of any value, 0 when the presets are equal
+     */
+    public float difference(EaxReverbProperties other) {
+	    float largest = 0f;
+	    for (int i = 0; i < VALUE_COUNT; i++) {
+	        float a = values[i];
+	        float b = other.values[i];
+	        // values close to zero are compared absolutely, so tiny delays and pans do not dominate
+	        float scale = Math.max(Math.max(Math.abs(a), Math.abs(b)), 0.01f);
+	        largest = Math.max(largest, Math.abs(a - b) / scale);
+	    }
+	    return largest;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+	    return other instanceof EaxReverbProperties && Arrays.equals(values, ((EaxReverbProperties) other).values);
+    }
+
+    @Override
+    public int hashCode() {
+	    return Arrays.hashCode(values);
+    }
+
+    @Override
+    public String toString() {
+	    return "EaxReverbProperties" + Arrays.toString(values);
+    }
+}
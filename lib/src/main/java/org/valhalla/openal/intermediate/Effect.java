@@ -0,0 +1,288 @@
+package org.valhalla.openal.intermediate;
+
+import java.util.Arrays;
+
+import org.valhalla.openal.factory.ALFactory;
+import org.valhalla.openal.jna.AL;
+import org.valhalla.openal.jna.EFX;
+import org.valhalla.openal.jna.EFXFunctions;
+import org.valhalla.openal.util.ALException;
+import org.valhalla.openal.util.Util;
+
+/**
+ * A class representing an EFX effect, such as a reverb.<br>
+ * <br>
+ * An effect is only a set of parameters. It is heard once it is attached to an {@link AuxEffectSlot},
+ * and changes to its parameters only reach the slot when it is attached again.
+ */
+public class Effect {
+
+    /**
+     * Link to the AL interface.
+     */
+    final AL al;
+
+    /**
+     * Link to the EFX functions.
+     */
+    final EFXFunctions efx;
+
+    /**
+     * A unique number given by OpenAL to each effect.
+     */
+    private final int effectId;
+
+    /**
+     * The effect type, one of the AL_EFFECT_* types.
+     */
+    private int type = EFX.AL_EFFECT_NULL;
+
+    /**
+     * The reverb values last uploaded by {@link #load(EaxReverbProperties)}, NaN when unknown.
+     */
+    private final float[] uploaded = new float[EaxReverbProperties.VALUE_COUNT];
+
+    /**
+     * Holds a pan vector while it is uploaded.
+     */
+    private final float[] vector = new float[3];
+
+    /**
+     * Has the effect been closed?
+     */
+    private boolean closed = false;
+
+    /**
+     * Deletes the effect when the JVM exits, removed again when the effect is closed earlier.
+     */
+    private final Thread shutdownHook = new Thread(this::close);
+
+    /**
+     * Creates a new effect.
+     * @param factory the factory that provides an OpenAL context
+     * @param type the effect type, for example {@link EFX#AL_EFFECT_EAXREVERB}
+     * @throws ALException when EFX is not supported or the effect could not be created
+     */
+    public Effect(ALFactory factory, int type) throws ALException {
+	    this(factory.al, factory.getEfx(), generate(factory.al, factory.getEfx(), 1)[0]);
+	    setType(type);
+    }
+
+    /**
+     * Creates a new link to an effect.
+     * @param al the OpenAL interface on which the effect exists
+     * @param efx the EFX functions
+     * @param effectId the effect
+     */
+    Effect(AL al, EFXFunctions efx, int effectId) {
+	    this.al = al;
+	    this.efx = efx;
+	    this.effectId = effectId;
+	    Arrays.fill(uploaded, Float.NaN);
+
+	    Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Generates effect names.
+     * @param al the OpenAL interface
+     * @param efx the EFX functions
+     * @param count the amount of effects
+     * @return the effect names
+     * @throws ALException when the effects could not be created
+     */
+    static int[] generate(AL al, EFXFunctions efx, int count) throws ALException {
+	    int[] effectIds = new int[count];
+	    Util.clearErrors(al);
+	    efx.alGenEffects(count, effectIds);
+	    Util.checkForALError(al);
+	    return effectIds;
+    }
+
+    /**
+     * Gets the unique effect id of the effect.
+     * @return the effect id
+     */
+    public int getEffectId() {
+	    return effectId;
+    }
+
+    /**
+     * Gets the effect type.
+     * @return one of the AL_EFFECT_* types
+     */
+    public int getType() {
+	    return type;
+    }
+
+    /**
+     * Changes the effect type, which resets all parameters to the defaults of the new type.
+     * @param type one of the AL_EFFECT_* types
+     * @throws ALException when the type is not supported
+     */
+    public void setType(int type) throws ALException {
+	    Util.clearErrors(al);
+	    efx.alEffecti(effectId, EFX.AL_EFFECT_TYPE, type);
+	    Util.checkForALError(al);
+	    this.type = type;
+	    Arrays.fill(uploaded, Float.NaN);
+    }
+
+    /**
+     * Sets an integer parameter of the effect.
+     * @param param the parameter
+     * @param value the value
+     * @throws ALException when the parameter could not be set
+     */
+    public void setIntParam(int param, int value) throws ALException {
+	    Util.clearErrors(al);
+	    efx.alEffecti(effectId, param, value);
+	    Util.checkForALError(al);
+	    Arrays.fill(uploaded, Float.NaN);
+    }
+
+    /**
+     * Sets a floating point parameter of the effect.
+     * @param param the parameter
+     * @param value the value
+     * @throws ALException when the parameter could not be set
+     */
+    public void setFloatParam(int param, float value) throws ALException {
+	    Util.clearErrors(al);
+	    efx.alEffectf(effectId, param, value);
+	    Util.checkForALError(al);
+	    Arrays.fill(uploaded, Float.NaN);
+    }
+
+    /**
+     * Sets a floating point vector parameter of the effect in a single call.
+     * @param param the parameter, for example {@link EFX#AL_EAXREVERB_REFLECTIONS_PAN}
+     * @param values the values
+     * @throws ALException when the parameter could not be set
+     */
+    public void setFloatVectorParam(int param, float[] values) throws ALException {
+	    Util.clearErrors(al);
+	    efx.alEffectfv(effectId, param, values);
+	    Util.checkForALError(al);
+	    Arrays.fill(uploaded, Float.NaN);
+    }
+
+    /**
+     * Gets an integer parameter of the effect.
+     * @param param the parameter
+     * @return the value
+     * @throws ALException when the parameter could not be read
+     */
+    public int getIntParam(int param) throws ALException {
+	    int[] result = {0};
+	    Util.clearErrors(al);
+	    efx.alGetEffecti(effectId, param, result);
+	    Util.checkForALError(al);
+	    return result[0];
+    }
+
+    /**
+     * Gets a floating point parameter of the effect.
+     * @param param the parameter
+     * @return the value
+     * @throws ALException when the parameter could not be read
+     */
+    public float getFloatParam(int param) throws ALException {
+	    float[] result = {0f};
+	    Util.clearErrors(al);
+	    efx.alGetEffectf(effectId, param, result);
+	    Util.checkForALError(al);
+	    return result[0];
+    }
+
+    /**
+     * Gets a floating point vector parameter of the effect.
+     * @param param the parameter
+     * @param values the array that receives the values
+     * @throws ALException when the parameter could not be read
+     */
+    public void getFloatVectorParam(int param, float[] values) throws ALException {
+	    Util.clearErrors(al);
+	    efx.alGetEffectfv(effectId, param, values);
+	    Util.checkForALError(al);
+    }
+
+    /**
+     * Uploads a reverb preset to an {@link EFX#AL_EFFECT_EAXREVERB} or {@link EFX#AL_EFFECT_REVERB} effect.<br>
+     * <br>
+     * Only the parameters that differ from the previous upload are sent, and each pan vector is sent with a single
+     * {@link EFXFunctions#alEffectfv(int, int, float[])} call. Switching between presets that share most of their
+     * values therefore costs a few calls instead of one per parameter. A standard reverb ignores the parameters
+     * it does not have.
+     * @param properties the preset
+     * @return true when any parameter changed, in which case the effect has to be attached to its slot again
+     * @throws ALException when the effect is not a reverb or a parameter could not be set
+     */
+    public boolean load(EaxReverbProperties properties) throws ALException {
+	    int[] index;
+	    int last;
+	    if (type == EFX.AL_EFFECT_EAXREVERB) {
+	        index = EaxReverbProperties.EAXREVERB_INDEX;
+	        last = EFX.AL_EAXREVERB_DECAY_HFLIMIT;
+	    } else if (type == EFX.AL_EFFECT_REVERB) {
+	        index = EaxReverbProperties.REVERB_INDEX;
+	        last = EFX.AL_REVERB_DECAY_HFLIMIT;
+	    } else {
+	        throw new ALException("Effect type " + type + " is not a reverb");
+	    }
+
+	    float[] values = properties.values();
+	    boolean changed = false;
+	    Util.clearErrors(al);
+	    for (int param = 1; param <= last; param++) {
+	        int i = index[param];
+	        boolean isVector = type == EFX.AL_EFFECT_EAXREVERB
+	    		&& (param == EFX.AL_EAXREVERB_REFLECTIONS_PAN || param == EFX.AL_EAXREVERB_LATE_REVERB_PAN);
+	        int width = isVector ? 3 : 1;
+	        if (Arrays.equals(values, i, i + width, uploaded, i, i + width)) {
+	    		continue;
+	        }
+	        if (isVector) {
+	    		System.arraycopy(values, i, vector, 0, 3);
+	    		efx.alEffectfv(effectId, param, vector);
+	        } else if (param == last) {
+	    		// the decay HF limit is the last parameter of both reverbs, and the only integer one
+	    		efx.alEffecti(effectId, param, (int) values[i]);
+	        } else {
+	    		efx.alEffectf(effectId, param, values[i]);
+	        }
+	        System.arraycopy(values, i, uploaded, i, width);
+	        changed = true;
+	    }
+	    try {
+	        Util.checkForALError(al);
+	    } catch (ALException e) {
+	        Arrays.fill(uploaded, Float.NaN);
+	        throw e;
+	    }
+	    return changed;
+    }
+
+    /**
+     * Closes and destroys the effect.
+     * This will happen automatically when the class is no longer needed.
+     */
+    public void close() {
+	    if (!closed) {
+	        efx.alDeleteEffects(1, new int[] {effectId});
+	        closed = true;
+	        if (Thread.currentThread() != shutdownHook) {
+	    		try {
+	    		    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+	    		} catch (IllegalStateException e) {
+	    		    // The JVM is already shutting down
+	    		}
+	        }
+	    }
+    }
+
+    @Override
+    public String toString() {
+	    return "Effect[" + effectId + "]";
+    }
+}
@@ -0,0 +1,239 @@
+package org.valhalla.openal.intermediate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.valhalla.openal.factory.ALFactory;
+import org.valhalla.openal.jna.AL;
+import org.valhalla.openal.jna.EFX;
+import org.valhalla.openal.jna.EFXFunctions;
+import org.valhalla.openal.util.ALException;
+
+/**
+ * A pool of EFX effects, filters and auxiliary effect slots.<br>
+ * <br>
+ * Objects are generated in batches with a single call into OpenAL, and released objects are kept for reuse
+ * instead of being deleted. Auxiliary effect slots are a scarce resource, OpenAL Soft offers 64 per context by default
+ * and hardware implementations far fewer, so the pool hands out at most a fixed amount of them.
+ * Each source can only feed {@link Device#getMaxAuxiliarySends()} of the slots at the same time.
+ */
+public class EfxPool {
+
+    /**
+     * The amount of effects or filters generated at once.
+     */
+    private static final int BATCH_SIZE = 8;
+
+    /**
+     * Link to the AL interface.
+     */
+    private final AL al;
+
+    /**
+     * Link to the EFX functions.
+     */
+    private final EFXFunctions efx;
+
+    /**
+     * The most slots handed out at the same time.
+     */
+    private final int maxSlots;
+
+    /**
+     * Released objects, ready for reuse.
+     */
+    private final ArrayDeque<Effect> freeEffects = new ArrayDeque<>();
+    private final ArrayDeque<Filter> freeFilters = new ArrayDeque<>();
+    private final ArrayDeque<AuxEffectSlot> freeSlots = new ArrayDeque<>();
+
+    /**
+     * Every object generated by the pool, deleted when the pool is closed.
+     */
+    private final List<Effect> effects = new ArrayList<>();
+    private final List<Filter> filters = new ArrayList<>();
+    private final List<AuxEffectSlot> slots = new ArrayList<>();
+
+    /**
+     * The amount of slots that are handed out.
+     */
+    private int slotsInUse = 0;
+
+    /**
+     * Has the pool been closed?
+     */
+    private boolean closed = false;
+
+    /**
+     * Creates a new pool.
+     * @param factory the factory that provides an OpenAL context
+     * @param maxSlots the most auxiliary effect slots handed out at the same time
+     * @throws ALException when EFX is not supported
+     */
+    public EfxPool(ALFactory factory, int maxSlots) throws ALException {
+	    this.al = factory.al;
+	    this.efx = factory.getEfx();
+	    this.maxSlots = maxSlots;
+    }
+
+    /**
+     * Takes an effect from the pool.
+     * @param type the effect type, for example {@link EFX#AL_EFFECT_EAXREVERB}
+     * @return the effect, with the default parameters of the type
+     * @throws ALException when the effect could not be created or the type is not supported
+     */
+    public synchronized Effect acquireEffect(int type) throws ALException {
+	    checkOpen();
+	    if (freeEffects.isEmpty()) {
+	        for (int effectId : Effect.generate(al, efx, BATCH_SIZE)) {
+	    		Effect effect = new Effect(al, efx, effectId);
+	    		effects.add(effect);
+	    		freeEffects.add(effect);
+	        }
+	    }
+	    Effect effect = freeEffects.peek();
+	    // setting the type also resets the parameters left behind by the previous user
+	    effect.setType(type);
+	    return freeEffects.poll();
+    }
+
+    /**
+     * Returns an effect to the pool. The effect may not be attached to a slot anymore.
+     * @param effect an effect taken from this pool
+     */
+    public synchronized void releaseEffect(Effect effect) {
+	    if (!closed && effects.contains(effect) && !freeEffects.contains(effect)) {
+	        freeEffects.push(effect);
+	    }
+    }
+
+    /**
+     * Takes a filter from the pool.
+     * @param type the filter type, for example {@link EFX#AL_FILTER_LOWPASS}
+     * @return the filter, with the default parameters of the type
+     * @throws ALException when the filter could not be created or the type is not supported
+     */
+    public synchronized Filter acquireFilter(int type) throws ALException {
+	    checkOpen();
+	    if (freeFilters.isEmpty()) {
+	        for (int filterId : Filter.generate(al, efx, BATCH_SIZE)) {
+	    		Filter filter = new Filter(al, efx, filterId);
+	    		filters.add(filter);
+	    		freeFilters.add(filter);
+	        }
+	    }
+	    Filter filter = freeFilters.peek();
+	    filter.setType(type);
+	    return freeFilters.poll();
+    }
+
+    /**
+     * Returns a filter to the pool.
+     * @param filter a filter taken from this pool
+     */
+    public synchronized void releaseFilter(Filter filter) {
+	    if (!closed && filters.contains(filter) && !freeFilters.contains(filter)) {
+	        freeFilters.push(filter);
+	    }
+    }
+
+    /**
+     * Takes an auxiliary effect slot from the pool, if one is left.
+     * @return the slot without an effect, or null when all slots are in use
+     * @throws ALException when the pool has been closed
+     */
+    public synchronized AuxEffectSlot tryAcquireSlot() throws ALException {
+	    checkOpen();
+	    if (slotsInUse >= maxSlots) {
+	        return null;
+	    }
+	    AuxEffectSlot slot = freeSlots.poll();
+	    if (slot == null) {
+	        // slots are generated one at a time, the implementation may run out before maxSlots
+	        int[] slotIds;
+	        try {
+	    		slotIds = AuxEffectSlot.generate(al, efx, 1);
+	        } catch (ALException e) {
+	    		return null;
+	        }
+	        slot = new AuxEffectSlot(al, efx, slotIds[0]);
+	        slots.add(slot);
+	    }
+	    slotsInUse++;
+	    return slot;
+    }
+
+    /**
+     * Takes an auxiliary effect slot from the pool.
+     * @return the slot without an effect
+     * @throws ALException when all slots are in use
+     */
+    public AuxEffectSlot acquireSlot() throws ALException {
+	    AuxEffectSlot slot = tryAcquireSlot();
+	    if (slot == null) {
+	        throw new ALException("All " + maxSlots + " auxiliary effect slots are in use");
+	    }
+	    return slot;
+    }
+
+    /**
+     * Returns a slot to the pool. The effect is detached and the gain and send flag are reset.
+     * @param slot a slot taken from this pool
+     * @throws ALException when the slot could not be reset
+     */
+    public synchronized void releaseSlot(AuxEffectSlot slot) throws ALException {
+	    if (closed || !slots.contains(slot) || freeSlots.contains(slot)) {
+	        return;
+	    }
+	    slotsInUse--;
+	    freeSlots.push(slot);
+	    slot.setEffect(null);
+	    slot.setGain(1f);
+	    slot.setSendAuto(true);
+    }
+
+    /**
+     * Gets the most slots handed out at the same time.
+     * @return the amount of slots
+     */
+    public int getMaxSlots() {
+	    return maxSlots;
+    }
+
+    /**
+     * Gets the amount of slots that are handed out.
+     * @return the amount of slots
+     */
+    public synchronized int getSlotsInUse() {
+	    return slotsInUse;
+    }
+
+    /**
+     * Throws when the pool has been closed.
+     * @throws ALException when the pool has been closed
+     */
+    private void checkOpen() throws ALException {
+	    if (closed) {
+	        throw new ALException("EFX pool has been closed");
+	    }
+    }
+
+    /**
+     * Deletes every object generated by the pool, including those that are still in use.
+     * Slots are deleted first, so no slot refers to a deleted effect.
+     */
+    public synchronized void close() {
+	    if (!closed) {
+	        closed = true;
+	        slots.forEach(AuxEffectSlot::close);
+	        effects.forEach(Effect::close);
+	        filters.forEach(Filter::close);
+	        slots.clear();
+	        effects.clear();
+	        filters.clear();
+	        freeSlots.clear();
+	        freeEffects.clear();
+	        freeFilters.clear();
+	    }
+    }
+}
@@ -0,0 +1,206 @@
+package org.valhalla.openal.intermediate;
+
+import org.valhalla.openal.factory.ALFactory;
+import org.valhalla.openal.jna.AL;
+import org.valhalla.openal.jna.EFX;
+import org.valhalla.openal.jna.EFXFunctions;
+import org.valhalla.openal.util.ALException;
+import org.valhalla.openal.util.Util;
+
+/**
+ * A class representing an EFX filter, such as a low-pass filter.<br>
+ * <br>
+ * A filter is applied to the direct path of a source with {@link Source#setDirectFilter(Filter)}, or to one of its
+ * auxiliary sends with {@link Source#setAuxiliarySend(int, AuxEffectSlot, Filter)}. OpenAL copies the parameters
+ * when the filter is attached, so changes only reach the source when it is attached again.
+ */
+public class Filter {
+
+    /**
+     * Link to the AL interface.
+     */
+    final AL al;
+
+    /**
+     * Link to the EFX functions.
+     */
+    final EFXFunctions efx;
+
+    /**
+     * A unique number given by OpenAL to each filter.
+     */
+    private final int filterId;
+
+    /**
+     * The filter type, one of the AL_FILTER_* types.
+     */
+    private int type = EFX.AL_FILTER_NULL;
+
+    /**
+     * Has the filter been closed?
+     */
+    private boolean closed = false;
+
+    /**
+     * Deletes the filter when the JVM exits, removed again when the filter is closed earlier.
+     */
+    private final Thread shutdownHook = new Thread(this::close);
+
+    /**
+     * Creates a new filter.
+     * @param factory the factory that provides an OpenAL context
+     * @param type the filter type, for example {@link EFX#AL_FILTER_LOWPASS}
+     * @throws ALException when EFX is not supported or the filter could not be created
+     */
+    public Filter(ALFactory factory, int type) throws ALException {
+	    this(factory.al, factory.getEfx(), generate(factory.al, factory.getEfx(), 1)[0]);
+	    setType(type);
+    }
+
+    /**
+     * Creates a new link to a filter.
+     * @param al the OpenAL interface on which the filter exists
+     * @param efx the EFX functions
+     * @param filterId the filter
+     */
+    Filter(AL al, EFXFunctions efx, int filterId) {
+	    this.al = al;
+	    this.efx = efx;
+	    this.filterId = filterId;
+
+	    Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Generates filter names.
+     * @param al the OpenAL interface
+     * @param efx the EFX functions
+     * @param count the amount of filters
+     * @return the filter names
+     * @throws ALException when the filters could not be created
+     */
+    static int[] generate(AL al, EFXFunctions efx, int count) throws ALException {
+	    int[] filterIds = new int[count];
+	    Util.clearErrors(al);
+	    efx.alGenFilters(count, filterIds);
+	    Util.checkForALError(al);
+	    return filterIds;
+    }
+
+    /**
+     * Gets the unique filter id of the filter.
+     * @return the filter id
+     */
+    public int getFilterId() {
+	    return filterId;
+    }
+
+    /**
+     * Gets the filter type.
+     * @return one of the AL_FILTER_* types
+     */
+    public int getType() {
+	    return type;
+    }
+
+    /**
+     * Changes the filter type, which resets all parameters to the defaults of the new type.
+     * @param type one of the AL_FILTER_* types
+     * @throws ALException when the type is not supported
+     */
+    public void setType(int type) throws ALException {
+	    Util.clearErrors(al);
+	    efx.alFilteri(filterId, EFX.AL_FILTER_TYPE, type);
+	    Util.checkForALError(al);
+	    this.type = type;
+    }
+
+    /**
+     * Sets an integer parameter of the filter.
+     * @param param the parameter
+     * @param value the value
+     * @throws ALException when the parameter could not be set
+     */
+    public void setIntParam(int param, int value) throws ALException {
+	    Util.clearErrors(al);
+	    efx.alFilteri(filterId, param, value);
+	    Util.checkForALError(al);
+    }
+
+    /**
+     * Sets a floating point parameter of the filter.
+     * @param param the parameter, for example {@link EFX#AL_LOWPASS_GAINHF}
+     * @param value the value
+     * @throws ALException when the parameter could not be set
+     */
+    public void setFloatParam(int param, float value) throws ALException {
+	    Util.clearErrors(al);
+	    efx.alFilterf(filterId, param, value);
+	    Util.checkForALError(al);
+    }
+
+    /**
+     * Sets both gains of a low-pass or high-pass filter.
+     * @param gain the overall gain
+     * @param gainBand the gain of the high frequencies for a low-pass, or of the low frequencies for a high-pass filter
+     * @throws ALException when the filter is no low-pass or high-pass filter or a gain is out of range
+     */
+    public void setGains(float gain, float gainBand) throws ALException {
+	    // AL_LOWPASS_GAIN/AL_HIGHPASS_GAIN and AL_LOWPASS_GAINHF/AL_HIGHPASS_GAINLF share their values
+	    Util.clearErrors(al);
+	    efx.alFilterf(filterId, EFX.AL_LOWPASS_GAIN, gain);
+	    efx.alFilterf(filterId, EFX.AL_LOWPASS_GAINHF, gainBand);
+	    Util.checkForALError(al);
+    }
+
+    /**
+     * Gets an integer parameter of the filter.
+     * @param param the parameter
+     * @return the value
+     * @throws ALException when the parameter could not be read
+     */
+    public int getIntParam(int param) throws ALException {
+	    int[] result = {0};
+	    Util.clearErrors(al);
+	    efx.alGetFilteri(filterId, param, result);
+	    Util.checkForALError(al);
+	    return result[0];
+    }
+
+    /**
+     * Gets a floating point parameter of the filter.
+     * @param param the parameter
+     * @return the value
+     * @throws ALException when the parameter could not be read
+     */
+    public float getFloatParam(int param) throws ALException {
+	    float[] result = {0f};
+	    Util.clearErrors(al);
+	    efx.alGetFilterf(filterId, param, result);
+	    Util.checkForALError(al);
+	    return result[0];
+    }
+
+    /**
+     * Closes and destroys the filter.
+     * This will happen automatically when the class is no longer needed.
+     */
+    public void close() {
+	    if (!closed) {
+	        efx.alDeleteFilters(1, new int[] {filterId});
+	        closed = true;
+	        if (Thread.currentThread() != shutdownHook) {
+	    		try {
+	    		    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+	    		} catch (IllegalStateException e) {
+	    		    // The JVM is already shutting down
+	    		}
+	        }
+	    }
+    }
+
+    @Override
+    public String toString() {
+	    return "Filter[" + filterId + "]";
+    }
+}
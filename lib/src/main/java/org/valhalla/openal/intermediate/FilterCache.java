@@ -0,0 +1,259 @@
+package org.valhalla.openal.intermediate;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.valhalla.openal.jna.EFX;
+import org.valhalla.openal.util.ALException;
+
+/**
+ * Shares filters between sources that use the same settings.<br>
+ * <br>
+ * The gains of a filter are rounded to a fixed step, and all requests that round to the same type and gains get
+ * the same {@link Filter}. Hundreds of sources behind the same wall or under the same water surface then share
+ * a handful of filters, which are configured once when they are created. Each shared filter is reference counted
+ * and goes back to the {@link EfxPool} when its last user releases it.<br>
+ * <br>
+ * Shared filters may not be changed by their users. A source copies the filter parameters when the filter
+ * is attached, so moving a source to another setting means attaching the filter of that setting.
+ */
+public class FilterCache {
+
+    /**
+     * The default rounding step of the gains, fine enough that the steps are not audible.
+     */
+    public static final float DEFAULT_STEP = 1f / 64;
+
+    /**
+     * The finest rounding step, at which a gain still fits in the 16 bits it has in the key of a filter.
+     */
+    public static final float MIN_STEP = 1f / 65535;
+
+    /**
+     * The pool the filters are taken from.
+     */
+    private final EfxPool pool;
+
+    /**
+     * The rounding step of the gains.
+     */
+    private final float step;
+
+    /**
+     * The shared filters by their quantised settings.
+     */
+    private final Map<Long, Shared> byKey = new HashMap<>();
+
+    /**
+     * The shared filters by filter.
+     */
+    private final Map<Filter, Shared> byFilter = new IdentityHashMap<>();
+
+    /**
+     * The amount of requests served by an existing filter.
+     */
+    private long hits = 0;
+
+    /**
+     * The amount of requests that created a filter.
+     */
+    private long misses = 0;
+
+    /**
+     * Creates a new filter cache with the default step.
+     * @param pool the pool the filters are taken from
+     */
+    public FilterCache(EfxPool pool) {
+	    this(pool, DEFAULT_STEP);
+    }
+
+    /**
+     * Creates a new filter cache.
+     * @param pool the pool the filters are taken from
+     * @param step the rounding step of the gains, between {@link #MIN_STEP} and 1
+     * @throws IllegalArgumentException when the step is out of range
+     */
+    public FilterCache(EfxPool pool, float step) {
+	    if (!(step >= MIN_STEP && step <= 1f)) {
+	        throw new IllegalArgumentException("Step out of range: " + step);
+	    }
+	    this.pool = pool;
+	    this.step = step;
+    }
+
+    /**
+     * Gets a shared low-pass filter.
+     * @param gain see {@link EFX#AL_LOWPASS_GAIN}
+     * @param gainHF see {@link EFX#AL_LOWPASS_GAINHF}
+     * @return the filter, to be released with {@link #release(Filter)}
+     * @throws ALException when a filter could not be created
+     */
+    public Filter acquireLowpass(float gain, float gainHF) throws ALException {
+	    return acquire(EFX.AL_FILTER_LOWPASS, gain, 1f, gainHF);
+    }
+
+    /**
+     * Gets a shared high-pass filter.
+     * @param gain see {@link EFX#AL_HIGHPASS_GAIN}
+     * @param gainLF see {@link EFX#AL_HIGHPASS_GAINLF}
+     * @return the filter, to be released with {@link #release(Filter)}
+     * @throws ALException when a filter could not be created
+     */
+    public Filter acquireHighpass(float gain, float gainLF) throws ALException {
+	    return acquire(EFX.AL_FILTER_HIGHPASS, gain, gainLF, 1f);
+    }
+
+    /**
+     * Gets a shared band-pass filter.
+     * @param gain see {@link EFX#AL_BANDPASS_GAIN}
+     * @param gainLF see {@link EFX#AL_BANDPASS_GAINLF}
+     * @param gainHF see {@link EFX#AL_BANDPASS_GAINHF}
+     * @return the filter, to be released with {@link #release(Filter)}
+     * @throws ALException when a filter could not be created
+     */
+    public Filter acquireBandpass(float gain, float gainLF, float gainHF) throws ALException {
+	    return acquire(EFX.AL_FILTER_BANDPASS, gain, gainLF, gainHF);
+    }
+
+    /**
+     * Gets a shared filter, creating it when no filter with the same rounded settings exists.
+     * @param type {@link EFX#AL_FILTER_LOWPASS}, {@link EFX#AL_FILTER_HIGHPASS} or {@link EFX#AL_FILTER_BANDPASS}
+     * @param gain the overall gain
+     * @param gainLF the low frequency gain, ignored by low-pass filters
+     * @param gainHF the high frequency gain, ignored by high-pass filters
+     * @return the filter, to be released with {@link #release(Filter)}
+     * @throws ALException when the type is not supported or a filter could not be created
+     */
+    public synchronized Filter acquire(int type, float gain, float gainLF, float gainHF) throws ALException {
+	    int qGain = quantise(gain);
+	    // parameters the type does not have are ignored, so they do not split the cache
+	    int qGainLF = type == EFX.AL_FILTER_LOWPASS ? 0 : quantise(gainLF);
+	    int qGainHF = type == EFX.AL_FILTER_HIGHPASS ? 0 : quantise(gainHF);
+	    long key = key(type, qGain, qGainLF, qGainHF);
+
+	    Shared shared = byKey.get(key);
+	    if (shared != null) {
+	        shared.references++;
+	        hits++;
+	        return shared.filter;
+	    }
+
+	    Filter filter = pool.acquireFilter(type);
+	    try {
+	        filter.setFloatParam(EFX.AL_LOWPASS_GAIN, value(qGain));
+	        if (type == EFX.AL_FILTER_LOWPASS) {
+	    		filter.setFloatParam(EFX.AL_LOWPASS_GAINHF, value(qGainHF));
+	        } else if (type == EFX.AL_FILTER_HIGHPASS) {
+	    		filter.setFloatParam(EFX.AL_HIGHPASS_GAINLF, value(qGainLF));
+	        } else if (type == EFX.AL_FILTER_BANDPASS) {
+	    		filter.setFloatParam(EFX.AL_BANDPASS_GAINLF, value(qGainLF));
+	    		filter.setFloatParam(EFX.AL_BANDPASS_GAINHF, value(qGainHF));
+	        } else {
+	    		throw new ALException("Filter type " + type + " cannot be shared");
+	        }
+	    } catch (ALException e) {
+	        pool.releaseFilter(filter);
+	        throw e;
+	    }
+	    shared = new Shared(key, filter);
+	    byKey.put(key, shared);
+	    byFilter.put(filter, shared);
+	    misses++;
+	    return filter;
+    }
+
+    /**
+     * Releases a filter acquired from the cache. The filter goes back to the pool when it has no users left.
+     * @param filter the filter, or null
+     */
+    public synchronized void release(Filter filter) {
+	    Shared shared = filter == null ? null : byFilter.get(filter);
+	    if (shared == null) {
+	        return;
+	    }
+	    if (--shared.references == 0) {
+	        byKey.remove(shared.key);
+	        byFilter.remove(filter);
+	        pool.releaseFilter(filter);
+	    }
+    }
+
+    /**
+     * Gets the amount of users of a shared filter.
+     * @param filter the filter
+     * @return the amount of users, 0 when the filter is not in the cache
+     */
+    public synchronized int getReferenceCount(Filter filter) {
+	    Shared shared = byFilter.get(filter);
+	    return shared == null ? 0 : shared.references;
+    }
+
+    /**
+     * Gets the amount of filters that are shared at the moment.
+     * @return the amount of filters
+     */
+    public synchronized int getFilterCount() {
+	    return byKey.size();
+    }
+
+    /**
+     * Gets the amount of requests that were served by an existing filter.
+     * @return the amount of hits
+     */
+    public synchronized long getHitCount() {
+	    return hits;
+    }
+
+    /**
+     * Gets the amount of requests that created a filter.
+     * @return the amount of misses
+     */
+    public synchronized long getMissCount() {
+	    return misses;
+    }
+
+    /**
+     * Packs the type and rounded gains of a filter into the key it is shared under.
+     * @param type the filter type
+     * @param qGain the rounded overall gain
+     * @param qGainLF the rounded low frequency gain
+     * @param qGainHF the rounded high frequency gain
+     * @return the key, with 16 bits for each value
+     */
+    static long key(int type, int qGain, int qGainLF, int qGainHF) {
+	    return (long) type << 48 | (long) qGain << 32 | (long) qGainLF << 16 | qGainHF;
+    }
+
+    /**
+     * Rounds a gain to the step.
+     * @param gain the gain
+     * @return the amount of steps, clamped to the range of 0 to 1
+     */
+    int quantise(float gain) {
+	    return Math.round(Math.max(0f, Math.min(gain, 1f)) / step);
+    }
+
+    /**
+     * Converts steps back to a gain.
+     * @param steps the amount of steps
+     * @return the gain, never above 1
+     */
+    float value(int steps) {
+	    return Math.min(steps * step, 1f);
+    }
+
+    /**
+     * A filter with its settings and users.
+     */
+    private static final class Shared {
+	    final long key;
+	    final Filter filter;
+	    int references = 1;
+
+	    Shared(long key, Filter filter) {
+	        this.key = key;
+	        this.filter = filter;
+	    }
+    }
+}
@@ -0,0 +1,266 @@
+package org.valhalla.openal.intermediate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.valhalla.openal.factory.ALFactory;
+import org.valhalla.openal.jna.ALC;
+import org.valhalla.openal.jna.ALCdevice;
+import org.valhalla.openal.jna.ALExt;
+import org.valhalla.openal.util.ALException;
+import org.valhalla.openal.util.WavHeader;
+
+/**
+ * A device that mixes into memory instead of a sound card, using ALC_SOFT_loopback.<br>
+ * <br>
+ * Nothing is mixed until {@link #render(ByteBuffer, int)} asks for frames, and then the frames are mixed as fast
+ * as the CPU allows. Time on the device only moves as frames are rendered, so sources, streams and effects behave
+ * exactly as they would on a sound card, just faster than real time. This allows baking audio offline, rendering
+ * previews on a server and running the library on machines without any audio hardware.<br>
+ * <br>
+ * The output format is fixed when the device is opened. Create the context with {@link #createContext()},
+ * which passes that format to OpenAL.
+ */
+public class LoopbackDevice extends Device {
+
+	/**
+	 * The amount of frames rendered at once by {@link #render(WritableByteChannel, long, RenderCallback)}.
+	 */
+	public static final int RENDER_BLOCK_FRAMES = 1024;
+
+	/**
+	 * Called before each block is rendered to a file or channel, to move the scene along.
+	 */
+	@FunctionalInterface
+	public interface RenderCallback {
+
+		/**
+		 * Called before a block is rendered.
+		 * @param frame the amount of frames rendered so far by this call
+		 * @throws ALException when the scene could not be updated, which ends the rendering
+		 */
+		void beforeBlock(long frame) throws ALException;
+	}
+
+	/**
+	 * Link to the AL extension interface.
+	 */
+	private final ALExt alext;
+
+	/**
+	 * The format of the rendered samples.
+	 */
+	private final AudioFormat format;
+
+	/**
+	 * The ALC channel configuration of the rendered samples.
+	 */
+	private final int channels;
+
+	/**
+	 * The ALC sample type of the rendered samples.
+	 */
+	private final int type;
+
+	/**
+	 * The amount of frames rendered so far.
+	 */
+	private long renderedFrames = 0;
+
+	/**
+	 * Opens a loopback device.
+	 * @param factory the factory that provides an OpenALC context
+	 * @param format the format to render, 8-bit unsigned, 16 or 32-bit signed or 32-bit float PCM in the native byte order,
+	 *               with 1, 2, 4, 6, 7 or 8 channels
+	 * @throws ALException when ALC_SOFT_loopback is missing or the format is not supported
+	 */
+	public LoopbackDevice(ALFactory factory, AudioFormat format) throws ALException {
+		super(factory.alc, open(factory));
+		this.alext = factory.alext;
+		this.format = format;
+		this.channels = getChannels(format);
+		this.type = getType(format);
+		if (!alext.alcIsRenderFormatSupportedSOFT(device, (int) format.getSampleRate(), channels, type)) {
+			close();
+			throw new ALException("Render format not supported: " + format);
+		}
+	}
+
+	/**
+	 * Opens the loopback device.
+	 * @param factory the factory that provides an OpenALC context
+	 * @return the device
+	 * @throws ALException when ALC_SOFT_loopback is missing or the device could not be opened
+	 */
+	private static ALCdevice open(ALFactory factory) throws ALException {
+		if (!factory.alc.alcIsExtensionPresent(null, ALExt.ALC_SOFT_LOOPBACK_NAME)) {
+			throw new ALException(ALExt.ALC_SOFT_LOOPBACK_NAME + " is not supported");
+		}
+		return factory.alext.alcLoopbackOpenDeviceSOFT(null);
+	}
+
+	/**
+	 * Gets the ALC channel configuration of a format.
+	 * @param format the format
+	 * @return the channel configuration, for example {@link ALExt#ALC_STEREO_SOFT}
+	 * @throws ALException when the amount of channels is not supported
+	 */
+	private static int getChannels(AudioFormat format) throws ALException {
+		switch (format.getChannels()) {
+			case 1:
+				return ALExt.ALC_MONO_SOFT;
+			case 2:
+				return ALExt.ALC_STEREO_SOFT;
+			case 4:
+				return ALExt.ALC_QUAD_SOFT;
+			case 6:
+				return ALExt.ALC_5POINT1_SOFT;
+			case 7:
+				return ALExt.ALC_6POINT1_SOFT;
+			case 8:
+				return ALExt.ALC_7POINT1_SOFT;
+			default:
+				throw new ALException("Unsupported amount of channels: " + format.getChannels());
+		}
+	}
+
+	/**
+	 * Gets the ALC sample type of a format.
+	 * @param format the format
+	 * @return the sample type, for example {@link ALExt#ALC_SHORT_SOFT}
+	 * @throws ALException when the samples are not supported
+	 */
+	private static int getType(AudioFormat format) throws ALException {
+		int bits = format.getSampleSizeInBits();
+		AudioFormat.Encoding encoding = format.getEncoding();
+		boolean nativeOrder = bits == 8 || format.isBigEndian() == (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN);
+		if (nativeOrder && format.getFrameSize() == format.getChannels() * bits / 8) {
+			if (bits == 8 && AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding)) {
+				return ALExt.ALC_UNSIGNED_BYTE_SOFT;
+			}
+			if (bits == 16 && AudioFormat.Encoding.PCM_SIGNED.equals(encoding)) {
+				return ALExt.ALC_SHORT_SOFT;
+			}
+			if (bits == 32 && AudioFormat.Encoding.PCM_SIGNED.equals(encoding)) {
+				return ALExt.ALC_INT_SOFT;
+			}
+			if (bits == 32 && AudioFormat.Encoding.PCM_FLOAT.equals(encoding)) {
+				return ALExt.ALC_FLOAT_SOFT;
+			}
+		}
+		throw new ALException("Unsupported render format: " + format);
+	}
+
+	/**
+	 * Creates a context that renders in the format of the device and makes it current.
+	 * @return the context
+	 * @throws ALException when the context could not be created
+	 */
+	public Context createContext() throws ALException {
+		return new Context(this, new int[] {
+				ALC.ALC_FREQUENCY, (int) format.getSampleRate(),
+				ALExt.ALC_FORMAT_CHANNELS_SOFT, channels,
+				ALExt.ALC_FORMAT_TYPE_SOFT, type,
+				0
+		});
+	}
+
+	/**
+	 * Gets the format of the rendered samples.
+	 * @return the format
+	 */
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * Gets the amount of frames rendered so far, which is the time on the device.
+	 * @return the amount of frames
+	 */
+	public long getRenderedFrames() {
+		return renderedFrames;
+	}
+
+	/**
+	 * Renders frames into a buffer at its position and moves the position past them.
+	 * Direct byte buffers are rendered into without a copy on the Java side.
+	 * @param target the buffer, with room for the frames
+	 * @param frames the amount of frames to render
+	 * @throws ALException when the frames could not be rendered
+	 */
+	public void render(ByteBuffer target, int frames) throws ALException {
+		int length = frames * format.getFrameSize();
+		if (frames < 0 || length > target.remaining()) {
+			throw new IllegalArgumentException("No room for " + frames + " frames in " + target);
+		}
+		alc.alcGetError(device);
+		alext.alcRenderSamplesSOFT(device, target, frames);
+		checkForError();
+		target.position(target.position() + length);
+		renderedFrames += frames;
+	}
+
+	/**
+	 * Renders frames into a channel, one block of {@link #RENDER_BLOCK_FRAMES} at a time.
+	 * @param channel the channel that receives the samples
+	 * @param frames the amount of frames to render
+	 * @param callback called before each block, or null
+	 * @throws ALException when the frames could not be rendered
+	 * @throws IOException when the channel could not be written
+	 */
+	public void render(WritableByteChannel channel, long frames, RenderCallback callback) throws ALException, IOException {
+		ByteBuffer block = ByteBuffer.allocateDirect(RENDER_BLOCK_FRAMES * format.getFrameSize());
+		for (long done = 0; done < frames; ) {
+			if (callback != null) {
+				callback.beforeBlock(done);
+			}
+			int count = (int) Math.min(RENDER_BLOCK_FRAMES, frames - done);
+			block.clear();
+			render(block, count);
+			block.flip();
+			while (block.hasRemaining()) {
+				channel.write(block);
+			}
+			done += count;
+		}
+	}
+
+	/**
+	 * Renders frames into a WAV file.
+	 * @param file the file, which is replaced when it exists
+	 * @param frames the amount of frames to render
+	 * @param callback called before each block, or null
+	 * @throws ALException when the frames could not be rendered
+	 * @throws IOException when the file could not be written or would exceed the size limit of the format
+	 */
+	public void renderToWav(Path file, long frames, RenderCallback callback) throws ALException, IOException {
+		long dataSize = frames * format.getFrameSize();
+		if (frames < 0 || dataSize > WavHeader.MAX_DATA_SIZE) {
+			throw new IOException("Too many frames for a WAV file: " + frames);
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer header = WavHeader.create(format, dataSize);
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+			render(channel, frames, callback);
+		}
+	}
+
+	/**
+	 * Returns a String representation of the device
+	 * @return a String with details about the device
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "LoopbackDevice[" + device + "]";
+	}
+}
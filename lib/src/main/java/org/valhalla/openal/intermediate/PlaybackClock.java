@@ -0,0 +1,249 @@
+package org.valhalla.openal.intermediate;
+
+import java.util.concurrent.TimeUnit;
+
+import org.valhalla.openal.factory.ALFactory;
+import org.valhalla.openal.jna.AL;
+import org.valhalla.openal.jna.ALC;
+import org.valhalla.openal.jna.ALCdevice;
+import org.valhalla.openal.jna.ALExt;
+import org.valhalla.openal.util.ALException;
+import org.valhalla.openal.util.SourceState;
+
+/**
+ * A clock that tells which moment of the audio played by a source is being heard right now.<br>
+ * <br>
+ * The position is made of the frames of the buffers that have been unqueued, the play offset inside the queue
+ * and the output latency of the device. With AL_SOFT_source_latency the offset and latency are read atomically,
+ * with sub-sample precision, in a single call. Without it the integer sample offset is used, together with the
+ * device clock and latency of ALC_SOFT_device_clock when that is available.<br>
+ * <br>
+ * OpenAL only moves the play offset once per mixer update. Between updates the clock is advanced with
+ * {@link System#nanoTime()} while the source is playing, so every query returns a distinct time.
+ * With the device clock, a new mixer update is detected by the device clock moving, otherwise by the play offset moving.
+ * The returned time never goes backwards, which makes it suitable for syncing video frames to the audio.<br>
+ * <br>
+ * A stream that unqueues buffers from another thread reports them with {@link #beginUnqueue()} and
+ * {@link #endUnqueue(long)}. A query that overlaps with an unqueue is retried, so an unqueued buffer
+ * is never counted twice or not at all.
+ */
+public class PlaybackClock {
+
+    /**
+     * The one-over-2^32 scale of a 32.32 fixed point offset.
+     */
+    private static final double FIXED_POINT_SCALE = 1.0 / (1L << 32);
+
+    /**
+     * The longest time the clock is advanced without the play offset moving.
+     */
+    private static final long MAX_EXTRAPOLATION_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /**
+     * The amount of times a query is repeated when it overlapped with an unqueue.
+     */
+    private static final int MAX_ATTEMPTS = 8;
+
+    /**
+     * The source the clock belongs to.
+     */
+    private final Source source;
+
+    /**
+     * The sample rate of the buffers played by the source.
+     */
+    private final int sampleRate;
+
+    /**
+     * Is AL_SOFT_source_latency available?
+     */
+    private final boolean sourceLatency;
+
+    /**
+     * The device queried for its latency when AL_SOFT_source_latency is missing, or null.
+     */
+    private final ALCdevice device;
+
+    /**
+     * Link to the AL extension interface.
+     */
+    private final ALExt alext;
+
+    /**
+     * Receives the values of a query.
+     */
+    private final long[] values = new long[2];
+
+    /**
+     * Odd while an unqueue is in progress, incremented at its start and end.
+     */
+    private volatile int sequence = 0;
+
+    /**
+     * The frames of all buffers that have been unqueued.
+     */
+    private volatile long processedFrames = 0;
+
+    /**
+     * The unqueued frames of the last query.
+     */
+    private long lastFrames = -1;
+
+    /**
+     * The play offset of the last query in 32.32 fixed point frames.
+     */
+    private long lastOffset = -1;
+
+    /**
+     * The value of {@link System#nanoTime()} when the play offset last moved.
+     */
+    private long lastMove = 0;
+
+    /**
+     * The device clock of the last query, or -1 without a device clock.
+     */
+    private long lastDeviceClock = -1;
+
+    /**
+     * The device clock read by the last query.
+     */
+    private long deviceClock = -1;
+
+    /**
+     * The last returned time, which the next time may not go below.
+     */
+    private long lastNanos = 0;
+
+    /**
+     * The latency measured by the last query.
+     */
+    private volatile long latencyNanos = 0;
+
+    /**
+     * Creates a new clock for a source.
+     * @param source the source
+     * @param sampleRate the sample rate of the buffers played by the source
+     */
+    public PlaybackClock(Source source, int sampleRate) {
+	    ALFactory factory = source.getFactory();
+	    this.source = source;
+	    this.sampleRate = sampleRate;
+	    this.alext = factory.alext;
+	    this.sourceLatency = factory.al.alIsExtensionPresent(ALExt.AL_SOFT_SOURCE_LATENCY_NAME);
+
+	    ALCdevice current = null;
+	    if (!sourceLatency) {
+	        ALC alc = factory.alc;
+	        current = alc.alcGetContextsDevice(alc.alcGetCurrentContext());
+	        if (current != null && !alc.alcIsExtensionPresent(current, ALExt.ALC_SOFT_DEVICE_CLOCK_NAME)) {
+	    		current = null;
+	        }
+	    }
+	    this.device = current;
+    }
+
+    /**
+     * Marks the start of an unqueue. Must be called by the thread that unqueues the buffers.
+     */
+    public void beginUnqueue() {
+	    sequence++;
+    }
+
+    /**
+     * Marks the end of an unqueue. Must be called by the thread that unqueues the buffers.
+     * @param processedFrames the frames of all buffers that have been unqueued so far
+     */
+    public void endUnqueue(long processedFrames) {
+	    this.processedFrames = processedFrames;
+	    sequence++;
+    }
+
+    /**
+     * Moves the clock to another position after the queue of a stream was flushed for a seek.
+     * Must be called by the thread that unqueues the buffers, between {@link #beginUnqueue()} and {@link #endUnqueue(long)}.
+     * The next returned time may be lower than the times returned before.
+     * @param processedFrames the frame the stream continues at
+     */
+    public synchronized void reset(long processedFrames) {
+	    this.processedFrames = processedFrames;
+	    lastFrames = -1;
+	    lastOffset = -1;
+	    lastDeviceClock = -1;
+	    lastNanos = 0;
+    }
+
+    /**
+     * Gets the sample rate the clock converts frames with.
+     * @return the sample rate in Hz
+     */
+    public int getSampleRate() {
+	    return sampleRate;
+    }
+
+    /**
+     * Gets the output latency measured by the last call to {@link #getNanos()}.
+     * @return the time in nanoseconds between mixing a frame and hearing it
+     */
+    public long getLatencyNanos() {
+	    return latencyNanos;
+    }
+
+    /**
+     * Gets the moment of the played audio that is being heard right now.
+     * @return the time in nanoseconds since the first frame, never less than a previously returned time unless the clock was reset
+     * @throws ALException when the play offset could not be read
+     */
+    public synchronized long getNanos() throws ALException {
+	    long frames = 0;
+	    long offset = 0;
+	    boolean consistent = false;
+	    for (int attempt = 0; attempt < MAX_ATTEMPTS && !consistent; attempt++) {
+	        int before = sequence;
+	        frames = processedFrames;
+	        offset = queryOffset();
+	        consistent = (before & 1) == 0 && before == sequence;
+	        if (!consistent) {
+	    		Thread.onSpinWait();
+	        }
+	    }
+	    if (!consistent) {
+	        return lastNanos;
+	    }
+
+	    long now = System.nanoTime();
+	    double position = frames + offset * FIXED_POINT_SCALE;
+	    long nanos = (long) (position * TimeUnit.SECONDS.toNanos(1) / sampleRate) - latencyNanos;
+	    // the device clock moves with every mixer update, also when the update left the offset of this source unchanged
+	    boolean mixed = frames != lastFrames || (device != null ? deviceClock != lastDeviceClock : offset != lastOffset);
+	    if (mixed) {
+	        lastFrames = frames;
+	        lastOffset = offset;
+	        lastDeviceClock = deviceClock;
+	        lastMove = now;
+	    } else if (source.getSourceState() == SourceState.PLAYING) {
+	        nanos += Math.min(now - lastMove, MAX_EXTRAPOLATION_NANOS);
+	    }
+	    lastNanos = Math.max(lastNanos, nanos);
+	    return lastNanos;
+    }
+
+    /**
+     * Gets the play offset inside the queue and updates the latency.
+     * @return the offset in 32.32 fixed point frames
+     * @throws ALException when the play offset could not be read
+     */
+    private long queryOffset() throws ALException {
+	    if (sourceLatency) {
+	        source.getInt64Params(ALExt.AL_SAMPLE_OFFSET_LATENCY_SOFT, values);
+	        latencyNanos = values[1];
+	        return values[0];
+	    }
+	    if (device != null) {
+	        // the clock and latency are read as one pair, so they belong to the same mixer update
+	        alext.alcGetInteger64vSOFT(device, ALExt.ALC_DEVICE_CLOCK_LATENCY_SOFT, 2, values);
+	        deviceClock = values[0];
+	        latencyNanos = values[1];
+	    }
+	    return (long) source.getIntParam(AL.AL_SAMPLE_OFFSET) << 32;
+    }
+}
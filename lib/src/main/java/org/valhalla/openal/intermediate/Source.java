@@ -1,10 +1,20 @@
 package org.valhalla.openal.intermediate;
 
+import java.io.File;
+import java.io.IOException;
+
 import javax.sound.sampled.AudioFormat;
 
-import org.valhalla.openal.stream.SourceBufferedOutputStream;
 import org.valhalla.openal.stream.SourceOutputStream;
+import org.valhalla.openal.stream.ServicedOutputStream;
+import org.valhalla.openal.stream.SourceChannel;
+import org.valhalla.openal.stream.StreamPlayer;
+import org.valhalla.openal.stream.SeekTable;
+import org.valhalla.openal.stream.SourceRingOutputStream;
+import org.valhalla.openal.stream.StreamingService;
 import org.valhalla.openal.jna.AL;
+import org.valhalla.openal.jna.ALExt;
+import org.valhalla.openal.jna.EFX;
 import org.valhalla.openal.factory.ALFactory;
 import org.valhalla.openal.util.Util;
 
@@ -33,6 +43,17 @@ public class Source {
      */
     private final AL al;
 
+    /**
+     * Link to the AL extension interface.<br>
+     * Used by streaming modes that depend on OpenAL Soft extensions.
+     */
+    private final ALExt alext;
+
+    /**
+     * The factory that provides the OpenAL context of the source.
+     */
+    private final ALFactory factory;
+
     /**
      * A unique number given by OpenAL to each source.<br>
      * In OpenAL sources are addressed by id.
@@ -45,6 +66,12 @@ public class Source {
      */
     private boolean closed = false;
 
+    /**
+     * Is the buffer attached with {@link #setBuffer(Buffer)} owned by this source?
+     * An owned buffer is deleted together with the source.
+     */
+    private boolean ownsBuffer = true;
+
     /**
      * Creates a new empty source.<br>
      * This source does not have any buffers assigned, so it cannot yet be played.
@@ -54,6 +81,8 @@ public class Source {
      */
     public Source(ALFactory factory) throws ALException {
 		al = factory.al;
+		alext = factory.alext;
+		this.factory = factory;
 		IntByReference sourceIdHolder = new IntByReference(0);
 		
 		clearErrors();
@@ -82,6 +111,14 @@ public class Source {
     	return STREAMING_BUFFER_SIZE;
     }
 
+    /**
+     * Gets the factory that provides the OpenAL context of the source.
+     * @return the factory
+     */
+    public ALFactory getFactory() {
+    	return factory;
+    }
+
     /**
      * Gets the unique source id of the source
      * @return the unique source id
@@ -147,11 +184,10 @@ public class Source {
 
             al.alSourcei(sourceId, AL.AL_BUFFER, 0);
 	        al.alDeleteSources(1, sourceIdHolder);
-            al.alDeleteBuffers(1, new int[] {bufferId.getValue()});
-
-
-			System.out.println("buffer " + bufferId.getValue() + " closed");
-            System.out.println("source " + sourceId + " closed");
+	        if (ownsBuffer) {
+                al.alDeleteBuffers(1, new int[] {bufferId.getValue()});
+	        }
+	        closed = true;
         }
     }
 
@@ -351,6 +387,46 @@ public class Source {
 		checkForError();
     }
 
+    /**
+     * Gets 64-bit integer values of a source, such as {@link ALExt#AL_SAMPLE_OFFSET_LATENCY_SOFT}.
+     * @param param the parameter to be queried
+     * @param values the array that receives the values
+     * @throws ALException when there is an error fetching the values
+     * @see ALExt#alGetSourcei64vSOFT(int, int, long[])
+     */
+    public void getInt64Params(int param, long[] values) throws ALException {
+    	clearErrors();
+		alext.alGetSourcei64vSOFT(sourceId, param, values);
+		checkForError();
+    }
+
+    /**
+     * Applies a filter to the sound that goes from the source straight to the listener.<br>
+     * The parameters of the filter are copied, so this has to be called again after changing them.
+     * @param filter the filter, or null to remove the filter
+     * @throws ALException when the filter could not be applied
+     * @see EFX#AL_DIRECT_FILTER
+     */
+    public void setDirectFilter(Filter filter) throws ALException {
+    	setIntParam(EFX.AL_DIRECT_FILTER, filter == null ? EFX.AL_FILTER_NULL : filter.getFilterId());
+    }
+
+    /**
+     * Sends the sound of the source to an auxiliary effect slot.<br>
+     * The parameters of the filter are copied, so this has to be called again after changing them.
+     * @param send the send, from 0 to {@link Device#getMaxAuxiliarySends()} exclusive
+     * @param slot the slot, or null to disconnect the send
+     * @param filter the filter applied to the send, or null
+     * @throws ALException when the send does not exist or could not be connected
+     * @see EFX#AL_AUXILIARY_SEND_FILTER
+     */
+    public void setAuxiliarySend(int send, AuxEffectSlot slot, Filter filter) throws ALException {
+    	clearErrors();
+		al.alSource3i(sourceId, EFX.AL_AUXILIARY_SEND_FILTER, slot == null ? EFX.AL_EFFECTSLOT_NULL : slot.getSlotId(), send,
+			filter == null ? EFX.AL_FILTER_NULL : filter.getFilterId());
+		checkForError();
+    }
+
     /**
      * Gets the assigned buffer of the source.
      * @return the assigned buffer
@@ -362,12 +438,25 @@ public class Source {
     }
 
     /**
-     * Sets the buffer assigned to the source.
+     * Sets the buffer assigned to the source.<br>
+     * The source takes ownership of the buffer, and deletes it when the source is closed.
      * @param buffer the buffer to be assigned
      * @throws ALException when there is an error assigning the buffer
      */
     public void setBuffer(Buffer buffer) throws ALException {
+    	setBuffer(buffer, true);
+    }
+
+    /**
+     * Sets the buffer assigned to the source.<br>
+     * A buffer that is shared between sources, or managed elsewhere, should not be owned by the source.
+     * @param buffer the buffer to be assigned
+     * @param owned if the buffer should be deleted when the source is closed
+     * @throws ALException when there is an error assigning the buffer
+     */
+    public void setBuffer(Buffer buffer, boolean owned) throws ALException {
     	setIntParam(AL.AL_BUFFER, buffer.getBufferId());
+    	ownsBuffer = owned;
     }
 
     /**
@@ -488,16 +577,112 @@ public class Source {
     }
     
     /**
-     * Creates a buffered output stream that is associated with the source.
+     * Creates an output stream that is associated with the source.
+     * The stream cuts the written data into chunks of the buffer size itself, so it needs no extra buffering.
      * @param format the format of the audio input
      * @param numberOfBuffer the amount of buffers associated with the input
      * @param aBufferSize the size of the buffers
-     * @return a new buffered output source stream
+     * @return a new source output stream
      * @throws ALException when there was an error creating a new output stream
      */
-    public SourceBufferedOutputStream createOutputStream(AudioFormat format, int numberOfBuffer, int aBufferSize) throws ALException {
+    public SourceOutputStream createOutputStream(AudioFormat format, int numberOfBuffer, int aBufferSize) throws ALException {
 		setStreamingBufferSize(aBufferSize);
-		return new SourceBufferedOutputStream(new SourceOutputStream(al, this, format, numberOfBuffer), STREAMING_BUFFER_SIZE);
+		return new SourceOutputStream(this, format, numberOfBuffer);
+    }
+
+    /**
+     * Creates a channel that streams into the source.<br>
+     * <br>
+     * The channel accepts heap and direct byte buffers of any size, and queues the data in chunks of a fixed size.
+     * Whole chunks are uploaded straight from the written byte buffer, without copying them on the Java side.
+     * @param format the format of the audio input
+     * @param numberOfBuffer the amount of buffers queued on the source
+     * @param chunkSize the size of the buffers in bytes
+     * @return a new source channel
+     * @throws ALException when there was an error creating a new channel
+     */
+    public SourceChannel createChannel(AudioFormat format, int numberOfBuffer, int chunkSize) throws ALException {
+		return new SourceChannel(this, format, numberOfBuffer, chunkSize);
+    }
+
+    /**
+     * Creates a clock that tells which moment of the queued audio is being heard right now.<br>
+     * <br>
+     * For a source that plays a single buffer the clock can be used as is.
+     * Streams have their own clock, which also counts the buffers that have been unqueued.
+     * @param sampleRate the sample rate of the buffers played by the source
+     * @return a new playback clock
+     * @see SourceChannel#getClock()
+     */
+    public PlaybackClock createClock(int sampleRate) {
+		return new PlaybackClock(this, sampleRate);
+    }
+
+    /**
+     * Creates a player for a WAV or AIFF file and starts playing it.
+     * The player can seek to any frame of the file, see {@link StreamPlayer#seek(long)}.
+     * @param file the file
+     * @param readAheadChunks the amount of chunks that are decoded ahead of the upload
+     * @param numberOfBuffer the amount of buffers queued on the source
+     * @return the stream player that plays the file
+     * @throws ALException when the format of the file is not supported or the player could not be created
+     * @throws IOException when the file could not be opened
+     */
+    public StreamPlayer streamFile(File file, int readAheadChunks, int numberOfBuffer) throws ALException, IOException {
+		StreamPlayer player = new StreamPlayer(this, SeekTable.forFile(file).getFormat(), getStreamingBufferSize(), readAheadChunks, numberOfBuffer);
+		try {
+			player.start(file);
+		} catch (IOException e) {
+			player.stop();
+			throw e;
+		}
+		return player;
+    }
+
+    /**
+     * Creates a player that reads and converts a stream ahead of playback on its own thread.<br>
+     * <br>
+     * Use this instead of an output stream when the data comes from a disk or network stream,
+     * so a slow read does not cause the source to run out of data.
+     * @param format the format of the audio input
+     * @param readAheadChunks the amount of chunks that are decoded ahead of the upload
+     * @param numberOfBuffer the amount of buffers queued on the source
+     * @return a new stream player, which starts when a stream is passed to it
+     * @throws ALException when there was an error creating the player
+     */
+    public StreamPlayer createPlayer(AudioFormat format, int readAheadChunks, int numberOfBuffer) throws ALException {
+		return new StreamPlayer(this, format, getStreamingBufferSize(), readAheadChunks, numberOfBuffer);
+    }
+
+    /**
+     * Creates an output stream whose buffer queue is kept filled by a streaming service.<br>
+     * <br>
+     * Unlike {@link #createOutputStream(AudioFormat, int, int)}, the writing thread never polls the source.
+     * It blocks only while all buffers are waiting to be played, and is woken up as soon as the service frees one.
+     * @param service the service that fills the buffer queue
+     * @param format the format of the audio input
+     * @param numberOfBuffer the amount of buffers queued on the source
+     * @param aBufferSize the size of the buffers
+     * @return a new serviced output stream
+     * @throws ALException when there was an error creating a new output stream
+     */
+    public ServicedOutputStream createOutputStream(StreamingService service, AudioFormat format, int numberOfBuffer, int aBufferSize) throws ALException {
+		return service.createStream(this, format, numberOfBuffer, aBufferSize);
+    }
+
+    /**
+     * Creates an output stream that streams into a single looping buffer.<br>
+     * <br>
+     * Instead of queueing a new buffer for every chunk, the region of the buffer that has already been played
+     * is overwritten in place. This allows much smaller chunks, and thus a lower latency, than {@link #createOutputStream(AudioFormat, int, int)}.
+     * Requires the AL_SOFT_buffer_sub_data extension.
+     * @param format the format of the audio input
+     * @param ringSize the size of the looping buffer in bytes, this bounds the latency of the stream
+     * @return a new ring buffer output stream
+     * @throws ALException when the extension is missing or the stream could not be created
+     */
+    public SourceRingOutputStream createRingOutputStream(AudioFormat format, int ringSize) throws ALException {
+		return new SourceRingOutputStream(al, alext, this, format, ringSize);
     }
 
     /**
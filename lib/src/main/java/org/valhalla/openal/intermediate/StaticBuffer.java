@@ -0,0 +1,217 @@
+package org.valhalla.openal.intermediate;
+
+import java.io.IOException;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import org.valhalla.openal.factory.ALFactory;
+import org.valhalla.openal.jna.AL;
+import org.valhalla.openal.jna.ALExt;
+import org.valhalla.openal.util.ALException;
+import org.valhalla.openal.util.PcmConverter;
+import org.valhalla.openal.util.Util;
+
+/**
+ * A buffer whose audio data lives in native memory owned by the buffer itself.<br>
+ * <br>
+ * Audio data is decoded straight into a native allocation, which is then handed to the driver with
+ * {@link ALExt#alBufferDataStatic(int, int, Pointer, int, int)}.
+ * The driver plays from that memory instead of keeping its own copy, so every sample exists in memory only once.
+ * The allocation is released when the buffer is closed.<br>
+ * <br>
+ * When the driver does not support AL_EXT_STATIC_BUFFER, the data is uploaded from the native allocation
+ * the regular way and the allocation is released right after the upload.
+ */
+public class StaticBuffer extends Buffer {
+
+	/**
+	 * Size of the chunks that are decoded at once, in frames.
+	 */
+	private static final int DECODE_FRAMES = 16384;
+
+	/**
+	 * Link to the AL extension interface, used for attaching static data.
+	 */
+	private final ALExt alext;
+
+	/**
+	 * Does the driver support AL_EXT_STATIC_BUFFER?
+	 */
+	private final boolean staticSupported;
+
+	/**
+	 * Address of the native allocation that the driver reads from, or 0 when there is none.
+	 */
+	private long memory = 0;
+
+	/**
+	 * Size of the native allocation in bytes.
+	 */
+	private long memorySize = 0;
+
+	/**
+	 * Creates a new empty static buffer.
+	 * @param factory the factory that provides an OpenAL context
+	 * @throws ALException when there has been a problem creating a new buffer
+	 */
+	public StaticBuffer(ALFactory factory) throws ALException {
+		super(factory);
+		this.alext = factory.alext;
+		this.staticSupported = factory.al.alIsExtensionPresent(ALExt.AL_EXT_STATIC_BUFFER_NAME);
+	}
+
+	/**
+	 * Checks if the driver reads directly from the memory of this buffer.
+	 * @return true when AL_EXT_STATIC_BUFFER is used, false when the data has been copied into the driver
+	 */
+	public boolean isStatic() {
+		return staticSupported;
+	}
+
+	/**
+	 * Gets the size of the native memory held by this buffer.
+	 * @return the size in bytes, 0 when the data is held by the driver
+	 */
+	public long getNativeSize() {
+		return memorySize;
+	}
+
+	/**
+	 * Decodes an audio stream into the buffer.<br>
+	 * <br>
+	 * The stream is converted to an OpenAL format chunk by chunk, directly into native memory.
+	 * If the stream does not report its length, it is read into the Java heap first.
+	 * @param audioStream the audio stream to decode
+	 * @throws ALException when the data could not be converted or attached to the buffer
+	 * @throws IOException when the stream could not be read
+	 */
+	public void setData(AudioInputStream audioStream) throws ALException, IOException {
+		AudioFormat format = audioStream.getFormat();
+		AudioFormat target = PcmConverter.getTargetFormat(format);
+		long frames = audioStream.getFrameLength();
+
+		if (frames == AudioSystem.NOT_SPECIFIED) {
+			byte[] data = Util.readStreamContents(audioStream);
+			data = PcmConverter.normalize(format, data, 0, data.length);
+			long address = allocate(data.length);
+			new Pointer(address).write(0, data, 0, data.length);
+			attach(target, address, data.length);
+			return;
+		}
+
+		long size = frames * target.getFrameSize();
+		if (size > Integer.MAX_VALUE) {
+			throw new ALException("Audio data does not fit into a single buffer");
+		}
+		long address = allocate(size);
+		Pointer pointer = new Pointer(address);
+		byte[] chunk = new byte[DECODE_FRAMES * format.getFrameSize()];
+		long written = 0;
+		try {
+			int read;
+			int pending = 0;
+			while (written < size && (read = audioStream.read(chunk, pending, chunk.length - pending)) != -1) {
+				pending += read;
+				int whole = (pending / format.getFrameSize()) * format.getFrameSize();
+				if (whole == 0) {
+					continue;
+				}
+				byte[] samples = PcmConverter.normalize(format, chunk, 0, whole);
+				int length = (int) Math.min(samples.length, size - written);
+				pointer.write(written, samples, 0, length);
+				written += length;
+				pending -= whole;
+				System.arraycopy(chunk, whole, chunk, 0, pending);
+			}
+		} catch (IOException | ALException e) {
+			Native.free(address);
+			throw e;
+		}
+		attach(target, address, (int) written);
+	}
+
+	/**
+	 * Allocates native memory for the buffer data.
+	 * @param size the amount of bytes to allocate
+	 * @return the address of the allocation
+	 * @throws ALException when the memory could not be allocated
+	 */
+	private static long allocate(long size) throws ALException {
+		if (size <= 0) {
+			throw new ALException("Cannot create a static buffer without audio data");
+		}
+		long address = Native.malloc(size);
+		if (address == 0) {
+			throw new ALException("Could not allocate " + size + " bytes of native memory");
+		}
+		return address;
+	}
+
+	/**
+	 * Hands decoded data to the driver and releases the previous allocation.
+	 * @param format the OpenAL compatible format of the data
+	 * @param address the address of the data
+	 * @param size the size of the data in bytes
+	 * @throws ALException when the data could not be attached to the buffer
+	 */
+	private void attach(AudioFormat format, long address, int size) throws ALException {
+		Pointer pointer = new Pointer(address);
+		int alFormat = PcmConverter.getALFormat(format);
+		int sampleRate = (int) format.getSampleRate();
+
+		Util.clearErrors(al);
+		if (staticSupported) {
+			alext.alBufferDataStatic(getBufferId(), alFormat, pointer, size, sampleRate);
+		} else {
+			al.alBufferData(getBufferId(), alFormat, pointer, size, sampleRate);
+		}
+		try {
+			Util.checkForALError(al);
+		} catch (ALException e) {
+			Native.free(address);
+			throw e;
+		}
+
+		releaseMemory();
+		if (staticSupported) {
+			memory = address;
+			memorySize = size;
+		} else {
+			Native.free(address);
+		}
+	}
+
+	/**
+	 * Frees the native allocation that the driver used to read from.
+	 */
+	private void releaseMemory() {
+		if (memory != 0) {
+			Native.free(memory);
+			memory = 0;
+			memorySize = 0;
+		}
+	}
+
+	/**
+	 * Deletes the buffer and releases its native memory.<br>
+	 * If the driver refuses to delete the buffer, because it is still attached to a source,
+	 * the buffer stays open and the memory is kept alive, so the driver never reads from freed memory
+	 * and a later {@link #close()} can try again.
+	 * @return true when the buffer was deleted
+	 */
+	@Override
+	boolean delete() {
+		int[] bufferIds = {getBufferId()};
+		Util.clearErrors(al);
+		al.alDeleteBuffers(1, bufferIds);
+		if (al.alGetError() != AL.AL_NO_ERROR) {
+			return false;
+		}
+		releaseMemory();
+		return true;
+	}
+}
@@ -1,5 +1,7 @@
 package org.valhalla.openal.jna;
 
+import java.nio.ByteBuffer;
+
 import com.sun.jna.Library;
 import com.sun.jna.Native;
 import com.sun.jna.Pointer;
@@ -1480,6 +1482,36 @@ public interface AL extends Library {
 	 */
 	void alBufferData(int buffer, /* ALenum */int format, byte[] data, /* ALsizei */int size, /* ALsizei */int freq);
 
+	/**
+	 * This function fills a buffer with audio data from native memory.<br>
+	 * <br>
+	 * Unlike {@link #alBufferData(int, int, byte[], int, int)}, no temporary copy of the data is made on the Java side.
+	 * The data is copied into the buffer during the call, so the memory can be released afterwards.
+	 * @param buffer buffer name to be filled with data
+	 * @param format (ALenum) format type from among the following<br>
+	 *               [AL_FORMAT_MONO8, AL_FORMAT_MONO16, AL_FORMAT_STEREO8, AL_FORMAT_STEREO16]
+	 * @param data pointer to the audio data
+	 * @param size (ALsizei) the size of the audio data in bytes
+	 * @param freq (ALsizei) the frequency of the audio data
+	 * @see #alBufferData(int, int, byte[], int, int)
+	 */
+	void alBufferData(int buffer, /* ALenum */int format, Pointer data, /* ALsizei */int size, /* ALsizei */int freq);
+
+	/**
+	 * This function fills a buffer with audio data from a byte buffer.<br>
+	 * <br>
+	 * The data is read starting at the position of the byte buffer. Direct and memory-mapped buffers are passed
+	 * to the driver without a temporary copy on the Java side.
+	 * @param buffer buffer name to be filled with data
+	 * @param format (ALenum) format type from among the following<br>
+	 *               [AL_FORMAT_MONO8, AL_FORMAT_MONO16, AL_FORMAT_STEREO8, AL_FORMAT_STEREO16]
+	 * @param data the audio data, starting at the position of the byte buffer
+	 * @param size (ALsizei) the size of the audio data in bytes
+	 * @param freq (ALsizei) the frequency of the audio data
+	 * @see #alBufferData(int, int, byte[], int, int)
+	 */
+	void alBufferData(int buffer, /* ALenum */int format, ByteBuffer data, /* ALsizei */int size, /* ALsizei */int freq);
+
 	/*
 	 * Set Buffer parameters
 	 */
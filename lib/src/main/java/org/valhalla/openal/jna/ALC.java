@@ -1,5 +1,7 @@
 package org.valhalla.openal.jna;
 
+import java.nio.ByteBuffer;
+
 import com.sun.jna.Library;
 import com.sun.jna.Pointer;
 import com.sun.jna.ptr.IntByReference;
@@ -139,6 +141,15 @@ public interface ALC extends Library {
 	 */
 	public ALCcontext alcCreateContext(ALCdevice device, IntByReference attrlist);
 
+	/**
+	 * This function creates a context using a specified device and a zero terminated list of attributes.
+	 * @param device a pointer to a device
+	 * @param attrlist pairs of ALC attribute tokens and requested values, followed by a 0
+	 * @return Returns a pointer to the new context (NULL on failure).
+	 * @see #alcCreateContext(ALCdevice, IntByReference)
+	 */
+	public ALCcontext alcCreateContext(ALCdevice device, int[] attrlist);
+
 	/**
 	 * This function makes a specified context the current context.<br>
 	 * <br>
@@ -377,13 +388,13 @@ public interface ALC extends Library {
 	 * <br>
 	 * alcCaptureStart will begin recording to an internal ring buffer of the size specified when opening the capture device.
 	 * The application can then retrieve the number of samples currently available using the ALC_CAPTURE_SAPMPLES token with {@link #alcGetIntegerv(ALCdevice, int, int, IntByReference)}.
-	 * When the application determines that enough samples are available for processing, then it can obtain them with a call to {@link #alcCaptureSamples(ALCdevice, int, int)}.<br>
+	 * When the application determines that enough samples are available for processing, then it can obtain them with a call to {@link #alcCaptureSamples(ALCdevice, ByteBuffer, int)}.<br>
 	 * <br>
 	 * <b>Possible Error States</b><br>
 	 * ALC_INVALID_DEVICE - The specified device is not a valid capture device.
 	 * @param device a pointer to a capture device
 	 * @see #alcCaptureStop(ALCdevice)    
-	 * @see #alcCaptureSamples(ALCdevice, int, int) 
+	 * @see #alcCaptureSamples(ALCdevice, ByteBuffer, int) 
 	 */
 	public void alcCaptureStart(ALCdevice device);
 
@@ -394,7 +405,7 @@ public interface ALC extends Library {
 	 * ALC_INVALID_DEVICE - The specified device is not a valid capture device.
 	 * @param device a pointer to a capture device
 	 * @see #alcCaptureStart(ALCdevice)    
-	 * @see #alcCaptureSamples(ALCdevice, int, int) 
+	 * @see #alcCaptureSamples(ALCdevice, ByteBuffer, int) 
 	 */
 	public void alcCaptureStop(ALCdevice device);
 
@@ -405,10 +416,19 @@ public interface ALC extends Library {
 	 * ALC_INVALID_VALUE - The specified number of samples is larger than the number of available samples.
 	 * ALC_INVALID_DEVICE - The specified device is not a valid capture device.
 	 * @param device a pointer to a capture device
-	 * @param buffer (ALCvoid) a pointer to a data buffer, which must be large enough to accommodate samples number of samples
-	 * @param samples (ALCsizei) the number of samples to be retrieved
+	 * @param buffer (ALCvoid*) a direct buffer, filled from its position, which must be large enough to accommodate samples number of samples
+	 * @param samples (ALCsizei) the number of sample frames to be retrieved
 	 * @see #alcCaptureStart(ALCdevice)    
 	 * @see #alcCaptureStop(ALCdevice) 
 	 */
-	public void alcCaptureSamples(ALCdevice device, /* ALCvoid* */int buffer, /* ALCsizei */int samples);
+	public void alcCaptureSamples(ALCdevice device, /* ALCvoid* */ByteBuffer buffer, /* ALCsizei */int samples);
+
+	/**
+	 * This function completes a capture operation into native memory, and does not block.
+	 * @param device a pointer to a capture device
+	 * @param buffer (ALCvoid*) a pointer to a data buffer, which must be large enough to accommodate samples number of samples
+	 * @param samples (ALCsizei) the number of sample frames to be retrieved
+	 * @see #alcCaptureSamples(ALCdevice, ByteBuffer, int)
+	 */
+	public void alcCaptureSamples(ALCdevice device, /* ALCvoid* */Pointer buffer, /* ALCsizei */int samples);
 }
@@ -1,6 +1,10 @@
 package org.valhalla.openal.jna;
 
+import java.nio.ByteBuffer;
+
+import com.sun.jna.Callback;
 import com.sun.jna.Library;
+import com.sun.jna.Pointer;
 
 /**
  * interface that defines all the functions and variables present in "al/alext.h"<br>
@@ -53,10 +57,26 @@ public interface ALExt extends Library {
 
 	public static final int AL_FORMAT_MONO_IMA4 = 0x1300;
 	public static final int AL_FORMAT_STEREO_IMA4 = 0x1301;
+	public static final String AL_EXT_IMA4_NAME = "AL_EXT_IMA4";
+
+	public static final String AL_SOFT_BLOCK_ALIGNMENT_NAME = "AL_SOFT_block_alignment";
+	public static final int AL_UNPACK_BLOCK_ALIGNMENT_SOFT = 0x200C;
+	public static final int AL_PACK_BLOCK_ALIGNMENT_SOFT = 0x200D;
+
+	public static final String AL_EXT_STATIC_BUFFER_NAME = "AL_EXT_STATIC_BUFFER";
 
 	// typedef ALvoid (*PFNALBUFFERDATASTATICPROC)(const
 	// ALint,ALenum,ALvoid*,ALsizei,ALsizei);
-	void alBufferDataStatic(int buffer, /* ALenum */int format, byte[] data, /* ALsizei */int len, /* ALsizei */int freq);
+	/**
+	 * Attaches application owned memory to a buffer. The driver keeps reading from this memory instead of copying it,
+	 * so it must stay valid until the buffer is deleted or given other data.
+	 * @param buffer buffer name to be filled with data
+	 * @param format (ALenum) format of the audio data
+	 * @param data pointer to long-lived native memory holding the audio data
+	 * @param len (ALsizei) the size of the audio data in bytes
+	 * @param freq (ALsizei) the frequency of the audio data
+	 */
+	void alBufferDataStatic(int buffer, /* ALenum */int format, Pointer data, /* ALsizei */int len, /* ALsizei */int freq);
 
 	public static final int ALC_CONNECTED = 0x313;
 
@@ -71,13 +91,57 @@ public interface ALExt extends Library {
 	public static final int AL_BYTE_RW_OFFSETS_SOFT = 0x1031;
 	public static final int AL_SAMPLE_RW_OFFSETS_SOFT = 0x1032;
 
+	public static final String AL_SOFT_BUFFER_SUB_DATA_NAME = "AL_SOFT_buffer_sub_data";
+
 	// typedef ALvoid (*PFNALBUFFERSUBDATASOFTPROC)(ALuint,ALenum,const
 	// ALvoid*,ALsizei,ALsizei);
 	void alBufferSubDataSOFT(int buffer,/* ALenum */int format, byte[] data, /* ALsizei */int offset,/* ALsizei */
 			int length);
 
+	/**
+	 * Replaces a region of a buffer's data, also while the buffer is being played.
+	 * @param buffer buffer name to be modified
+	 * @param format (ALenum) the format of the data, must match the format of the buffer
+	 * @param data the new data, starting at the position of the byte buffer
+	 * @param offset (ALsizei) the byte offset inside the buffer at which the data is written
+	 * @param length (ALsizei) the amount of bytes to write
+	 */
+	void alBufferSubDataSOFT(int buffer,/* ALenum */int format, ByteBuffer data, /* ALsizei */int offset,/* ALsizei */
+			int length);
+
 	public static final int AL_LOOP_POINTS_SOFT = 0x2015;
 
+	public static final String AL_SOFT_CALLBACK_BUFFER_NAME = "AL_SOFT_callback_buffer";
+	public static final int AL_BUFFER_CALLBACK_FUNCTION_SOFT = 0x19A0;
+	public static final int AL_BUFFER_CALLBACK_USER_PARAM_SOFT = 0x19A1;
+
+	/**
+	 * Callback that is called by the mixer when a callback buffer needs more sample data.
+	 * typedef ALsizei (*ALBUFFERCALLBACKTYPESOFT)(ALvoid *userptr, ALvoid *sampledata, ALsizei numbytes);
+	 */
+	interface ALBufferCallbackSOFT extends Callback {
+		/**
+		 * Fills the mixer's sample memory.
+		 * This is called from the mixer thread, so it should not block or allocate.
+		 * @param userptr the user pointer given to {@link #alBufferCallbackSOFT(int, int, int, ALBufferCallbackSOFT, Pointer)}
+		 * @param sampledata the memory to fill with sample data
+		 * @param numbytes (ALsizei) the amount of bytes requested
+		 * @return (ALsizei) the amount of bytes written, less than requested ends playback
+		 */
+		int invoke(Pointer userptr, Pointer sampledata, int numbytes);
+	}
+
+	// typedef void (*LPALBUFFERCALLBACKSOFT)(ALuint,ALenum,ALsizei,ALBUFFERCALLBACKTYPESOFT,ALvoid*);
+	/**
+	 * Turns a buffer into a callback buffer. Instead of holding data, the buffer requests it from the callback while playing.
+	 * @param buffer buffer name to be converted
+	 * @param format (ALenum) the format of the data provided by the callback
+	 * @param freq (ALsizei) the frequency of the data provided by the callback
+	 * @param callback the callback that provides the data, must be kept reachable while the buffer exists
+	 * @param userptr a pointer that is passed to the callback
+	 */
+	void alBufferCallbackSOFT(int buffer, /* ALenum */int format, /* ALsizei */int freq, ALBufferCallbackSOFT callback, Pointer userptr);
+
 	public static final String AL_EXT_FOLDBACK_NAME = "AL_EXT_FOLDBACK";
 	public static final int AL_FOLDBACK_EVENT_BLOCK = 0x4112;
 	public static final int AL_FOLDBACK_EVENT_START = 0x4111;
@@ -167,7 +231,42 @@ public interface ALExt extends Library {
 
 	public static final int AL_DIRECT_CHANNELS_SOFT = 0x1033;
 
+	public static final String AL_SOFT_SOURCE_LATENCY_NAME = "AL_SOFT_source_latency";
+	public static final int AL_SAMPLE_OFFSET_LATENCY_SOFT = 0x1200;
+	public static final int AL_SEC_OFFSET_LATENCY_SOFT = 0x1201;
+
+	// typedef void (*LPALGETSOURCEI64VSOFT)(ALuint,ALenum,ALint64SOFT*);
+	/**
+	 * Gets 64-bit integer values of a source.<br>
+	 * For {@link #AL_SAMPLE_OFFSET_LATENCY_SOFT} the first value is the play position in 32.32 fixed point sample frames,
+	 * and the second value the time in nanoseconds until that position is heard.
+	 * @param source source name whose values are retrieved
+	 * @param param (ALenum) the name of the values to retrieve
+	 * @param values array that receives the values
+	 */
+	void alGetSourcei64vSOFT(int source, /* ALenum */int param, long[] values);
+
+	public static final String ALC_SOFT_DEVICE_CLOCK_NAME = "ALC_SOFT_device_clock";
+	public static final int ALC_DEVICE_CLOCK_SOFT = 0x1600;
+	public static final int ALC_DEVICE_LATENCY_SOFT = 0x1601;
+	public static final int ALC_DEVICE_CLOCK_LATENCY_SOFT = 0x1602;
+	public static final int AL_SAMPLE_OFFSET_CLOCK_SOFT = 0x1202;
+	public static final int AL_SEC_OFFSET_CLOCK_SOFT = 0x1203;
+
+	// typedef void (*LPALCGETINTEGER64VSOFT)(ALCdevice*,ALCenum,ALsizei,ALCint64SOFT*);
+	/**
+	 * Gets 64-bit integer attributes of a device, such as its clock and output latency in nanoseconds.
+	 * @param device the device to be queried
+	 * @param param (ALCenum) the attribute to retrieve
+	 * @param size (ALCsizei) the amount of values that fit in the array
+	 * @param values array that receives the values
+	 */
+	void alcGetInteger64vSOFT(ALCdevice device, /* ALCenum */int param, /* ALCsizei */int size, long[] values);
+
 	public static final int ALC_SOFT_loopback = 1;
+	public static final String ALC_SOFT_LOOPBACK_NAME = "ALC_SOFT_loopback";
+	public static final int ALC_FORMAT_CHANNELS_SOFT = 0x1990;
+	public static final int ALC_FORMAT_TYPE_SOFT = 0x1991;
 
 	/* Sample types */
 	public static final int ALC_BYTE_SOFT = 0x1400;
@@ -197,4 +296,21 @@ public interface ALExt extends Library {
 			int type);
 
 	void alcRenderSamplesSOFT(ALCdevice device, byte[] buffer, /* ALCsizei */int samples);
+
+	/**
+	 * Renders sample frames of a loopback device into memory, starting at the position of the buffer.<br>
+	 * Direct byte buffers are rendered into without a copy on the Java side.
+	 * @param device the loopback device
+	 * @param buffer the buffer that receives the samples, in the format the context was created with
+	 * @param samples (ALCsizei) the amount of sample frames to render
+	 */
+	void alcRenderSamplesSOFT(ALCdevice device, ByteBuffer buffer, /* ALCsizei */int samples);
+
+	/**
+	 * Renders sample frames of a loopback device into native memory.
+	 * @param device the loopback device
+	 * @param buffer the memory that receives the samples, in the format the context was created with
+	 * @param samples (ALCsizei) the amount of sample frames to render
+	 */
+	void alcRenderSamplesSOFT(ALCdevice device, Pointer buffer, /* ALCsizei */int samples);
 }
@@ -0,0 +1,318 @@
+package org.valhalla.openal.jna;
+
+import com.sun.jna.Function;
+import com.sun.jna.Pointer;
+
+/**
+ * The functions of the ALC_EXT_EFX extension, which OpenAL only exposes through {@link AL#alGetProcAddress(String)}.<br>
+ * <br>
+ * The function pointers are resolved once when the object is created. The constants of the extension are in {@link EFX}.
+ */
+public final class EFXFunctions {
+
+	private final Function genEffects;
+	private final Function deleteEffects;
+	private final Function isEffect;
+	private final Function effecti;
+	private final Function effectiv;
+	private final Function effectf;
+	private final Function effectfv;
+	private final Function getEffecti;
+	private final Function getEffectf;
+	private final Function getEffectfv;
+
+	private final Function genFilters;
+	private final Function deleteFilters;
+	private final Function isFilter;
+	private final Function filteri;
+	private final Function filterf;
+	private final Function getFilteri;
+	private final Function getFilterf;
+
+	private final Function genAuxiliaryEffectSlots;
+	private final Function deleteAuxiliaryEffectSlots;
+	private final Function isAuxiliaryEffectSlot;
+	private final Function auxiliaryEffectSloti;
+	private final Function auxiliaryEffectSlotf;
+	private final Function getAuxiliaryEffectSloti;
+	private final Function getAuxiliaryEffectSlotf;
+
+	/**
+	 * Resolves the EFX functions of an OpenAL library.
+	 * @param al the OpenAL interface whose functions are resolved
+	 * @throws UnsatisfiedLinkError when the library does not provide the EFX functions
+	 */
+	public EFXFunctions(AL al) {
+		genEffects = load(al, "alGenEffects");
+		deleteEffects = load(al, "alDeleteEffects");
+		isEffect = load(al, "alIsEffect");
+		effecti = load(al, "alEffecti");
+		effectiv = load(al, "alEffectiv");
+		effectf = load(al, "alEffectf");
+		effectfv = load(al, "alEffectfv");
+		getEffecti = load(al, "alGetEffecti");
+		getEffectf = load(al, "alGetEffectf");
+		getEffectfv = load(al, "alGetEffectfv");
+
+		genFilters = load(al, "alGenFilters");
+		deleteFilters = load(al, "alDeleteFilters");
+		isFilter = load(al, "alIsFilter");
+		filteri = load(al, "alFilteri");
+		filterf = load(al, "alFilterf");
+		getFilteri = load(al, "alGetFilteri");
+		getFilterf = load(al, "alGetFilterf");
+
+		genAuxiliaryEffectSlots = load(al, "alGenAuxiliaryEffectSlots");
+		deleteAuxiliaryEffectSlots = load(al, "alDeleteAuxiliaryEffectSlots");
+		isAuxiliaryEffectSlot = load(al, "alIsAuxiliaryEffectSlot");
+		auxiliaryEffectSloti = load(al, "alAuxiliaryEffectSloti");
+		auxiliaryEffectSlotf = load(al, "alAuxiliaryEffectSlotf");
+		getAuxiliaryEffectSloti = load(al, "alGetAuxiliaryEffectSloti");
+		getAuxiliaryEffectSlotf = load(al, "alGetAuxiliaryEffectSlotf");
+	}
+
+	/**
+	 * Resolves a single function.
+	 * @param al the OpenAL interface
+	 * @param name the name of the function
+	 * @return the function
+	 */
+	private static Function load(AL al, String name) {
+		Pointer address = al.alGetProcAddress(name);
+		if (address == null) {
+			throw new UnsatisfiedLinkError("OpenAL does not provide " + name);
+		}
+		return Function.getFunction(address);
+	}
+
+	/**
+	 * Generates one or more effects.
+	 * @param n (ALsizei) the amount of effects to be generated
+	 * @param effects array that receives the effect names
+	 */
+	public void alGenEffects(int n, int[] effects) {
+		genEffects.invokeVoid(new Object[] { n, effects });
+	}
+
+	/**
+	 * Deletes one or more effects.
+	 * @param n (ALsizei) the amount of effects to be deleted
+	 * @param effects the effect names
+	 */
+	public void alDeleteEffects(int n, int[] effects) {
+		deleteEffects.invokeVoid(new Object[] { n, effects });
+	}
+
+	/**
+	 * Tests if an effect name is valid.
+	 * @param effect the effect name
+	 * @return true when the name identifies an effect
+	 */
+	public boolean alIsEffect(int effect) {
+		return isEffect.invokeInt(new Object[] { effect }) != AL.AL_FALSE;
+	}
+
+	/**
+	 * Sets an integer parameter of an effect, such as {@link EFX#AL_EFFECT_TYPE}.
+	 * @param effect the effect name
+	 * @param param (ALenum) the parameter
+	 * @param value the value
+	 */
+	public void alEffecti(int effect, int param, int value) {
+		effecti.invokeVoid(new Object[] { effect, param, value });
+	}
+
+	/**
+	 * Sets an integer vector parameter of an effect.
+	 * @param effect the effect name
+	 * @param param (ALenum) the parameter
+	 * @param values the values
+	 */
+	public void alEffectiv(int effect, int param, int[] values) {
+		effectiv.invokeVoid(new Object[] { effect, param, values });
+	}
+
+	/**
+	 * Sets a floating point parameter of an effect.
+	 * @param effect the effect name
+	 * @param param (ALenum) the parameter
+	 * @param value the value
+	 */
+	public void alEffectf(int effect, int param, float value) {
+		effectf.invokeVoid(new Object[] { effect, param, value });
+	}
+
+	/**
+	 * Sets a floating point vector parameter of an effect, such as {@link EFX#AL_EAXREVERB_REFLECTIONS_PAN}.
+	 * @param effect the effect name
+	 * @param param (ALenum) the parameter
+	 * @param values the values
+	 */
+	public void alEffectfv(int effect, int param, float[] values) {
+		effectfv.invokeVoid(new Object[] { effect, param, values });
+	}
+
+	/**
+	 * Gets an integer parameter of an effect.
+	 * @param effect the effect name
+	 * @param param (ALenum) the parameter
+	 * @param value array that receives the value
+	 */
+	public void alGetEffecti(int effect, int param, int[] value) {
+		getEffecti.invokeVoid(new Object[] { effect, param, value });
+	}
+
+	/**
+	 * Gets a floating point parameter of an effect.
+	 * @param effect the effect name
+	 * @param param (ALenum) the parameter
+	 * @param value array that receives the value
+	 */
+	public void alGetEffectf(int effect, int param, float[] value) {
+		getEffectf.invokeVoid(new Object[] { effect, param, value });
+	}
+
+	/**
+	 * Gets a floating point vector parameter of an effect.
+	 * @param effect the effect name
+	 * @param param (ALenum) the parameter
+	 * @param values array that receives the values
+	 */
+	public void alGetEffectfv(int effect, int param, float[] values) {
+		getEffectfv.invokeVoid(new Object[] { effect, param, values });
+	}
+
+	/**
+	 * Generates one or more filters.
+	 * @param n (ALsizei) the amount of filters to be generated
+	 * @param filters array that receives the filter names
+	 */
+	public void alGenFilters(int n, int[] filters) {
+		genFilters.invokeVoid(new Object[] { n, filters });
+	}
+
+	/**
+	 * Deletes one or more filters.
+	 * @param n (ALsizei) the amount of filters to be deleted
+	 * @param filters the filter names
+	 */
+	public void alDeleteFilters(int n, int[] filters) {
+		deleteFilters.invokeVoid(new Object[] { n, filters });
+	}
+
+	/**
+	 * Tests if a filter name is valid.
+	 * @param filter the filter name
+	 * @return true when the name identifies a filter
+	 */
+	public boolean alIsFilter(int filter) {
+		return isFilter.invokeInt(new Object[] { filter }) != AL.AL_FALSE;
+	}
+
+	/**
+	 * Sets an integer parameter of a filter, such as {@link EFX#AL_FILTER_TYPE}.
+	 * @param filter the filter name
+	 * @param param (ALenum) the parameter
+	 * @param value the value
+	 */
+	public void alFilteri(int filter, int param, int value) {
+		filteri.invokeVoid(new Object[] { filter, param, value });
+	}
+
+	/**
+	 * Sets a floating point parameter of a filter.
+	 * @param filter the filter name
+	 * @param param (ALenum) the parameter
+	 * @param value the value
+	 */
+	public void alFilterf(int filter, int param, float value) {
+		filterf.invokeVoid(new Object[] { filter, param, value });
+	}
+
+	/**
+	 * Gets an integer parameter of a filter.
+	 * @param filter the filter name
+	 * @param param (ALenum) the parameter
+	 * @param value array that receives the value
+	 */
+	public void alGetFilteri(int filter, int param, int[] value) {
+		getFilteri.invokeVoid(new Object[] { filter, param, value });
+	}
+
+	/**
+	 * Gets a floating point parameter of a filter.
+	 * @param filter the filter name
+	 * @param param (ALenum) the parameter
+	 * @param value array that receives the value
+	 */
+	public void alGetFilterf(int filter, int param, float[] value) {
+		getFilterf.invokeVoid(new Object[] { filter, param, value });
+	}
+
+	/**
+	 * Generates one or more auxiliary effect slots.
+	 * @param n (ALsizei) the amount of slots to be generated
+	 * @param slots array that receives the slot names
+	 */
+	public void alGenAuxiliaryEffectSlots(int n, int[] slots) {
+		genAuxiliaryEffectSlots.invokeVoid(new Object[] { n, slots });
+	}
+
+	/**
+	 * Deletes one or more auxiliary effect slots.
+	 * @param n (ALsizei) the amount of slots to be deleted
+	 * @param slots the slot names
+	 */
+	public void alDeleteAuxiliaryEffectSlots(int n, int[] slots) {
+		deleteAuxiliaryEffectSlots.invokeVoid(new Object[] { n, slots });
+	}
+
+	/**
+	 * Tests if an auxiliary effect slot name is valid.
+	 * @param slot the slot name
+	 * @return true when the name identifies an auxiliary effect slot
+	 */
+	public boolean alIsAuxiliaryEffectSlot(int slot) {
+		return isAuxiliaryEffectSlot.invokeInt(new Object[] { slot }) != AL.AL_FALSE;
+	}
+
+	/**
+	 * Sets an integer parameter of an auxiliary effect slot, such as {@link EFX#AL_EFFECTSLOT_EFFECT}.
+	 * @param slot the slot name
+	 * @param param (ALenum) the parameter
+	 * @param value the value
+	 */
+	public void alAuxiliaryEffectSloti(int slot, int param, int value) {
+		auxiliaryEffectSloti.invokeVoid(new Object[] { slot, param, value });
+	}
+
+	/**
+	 * Sets a floating point parameter of an auxiliary effect slot, such as {@link EFX#AL_EFFECTSLOT_GAIN}.
+	 * @param slot the slot name
+	 * @param param (ALenum) the parameter
+	 * @param value the value
+	 */
+	public void alAuxiliaryEffectSlotf(int slot, int param, float value) {
+		auxiliaryEffectSlotf.invokeVoid(new Object[] { slot, param, value });
+	}
+
+	/**
+	 * Gets an integer parameter of an auxiliary effect slot.
+	 * @param slot the slot name
+	 * @param param (ALenum) the parameter
+	 * @param value array that receives the value
+	 */
+	public void alGetAuxiliaryEffectSloti(int slot, int param, int[] value) {
+		getAuxiliaryEffectSloti.invokeVoid(new Object[] { slot, param, value });
+	}
+
+	/**
+	 * Gets a floating point parameter of an auxiliary effect slot.
+	 * @param slot the slot name
+	 * @param param (ALenum) the parameter
+	 * @param value array that receives the value
+	 */
+	public void alGetAuxiliaryEffectSlotf(int slot, int param, float[] value) {
+		getAuxiliaryEffectSlotf.invokeVoid(new Object[] { slot, param, value });
+	}
+}
@@ -0,0 +1,89 @@
+package org.valhalla.openal.spatial;
+
+/**
+ * An immutable axis-aligned bounding box, in the same coordinates as source and listener positions.
+ */
+public final class Aabb {
+
+    public final float minX;
+    public final float minY;
+    public final float minZ;
+    public final float maxX;
+    public final float maxY;
+    public final float maxZ;
+
+    /**
+     * Creates a new box from two corners.
+     * @param minX the lowest x-coordinate
+     * @param minY the lowest y-coordinate
+     * @param minZ the lowest z-coordinate
+     * @param maxX the highest x-coordinate
+     * @param maxY the highest y-coordinate
+     * @param maxZ the highest z-coordinate
+     * @throws IllegalArgumentException when a minimum is above its maximum
+     */
+    public Aabb(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+	    if (minX > maxX || minY > maxY || minZ > maxZ) {
+	        throw new IllegalArgumentException("Minimum corner above maximum corner");
+	    }
+	    this.minX = minX;
+	    this.minY = minY;
+	    this.minZ = minZ;
+	    this.maxX = maxX;
+	    this.maxY = maxY;
+	    this.maxZ = maxZ;
+    }
+
+    /**
+     * Creates a new box around a center.
+     * @param x the x-coordinate of the center
+     * @param y the y-coordinate of the center
+     * @param z the z-coordinate of the center
+     * @param halfX half the size along the x-axis
+     * @param halfY half the size along the y-axis
+     * @param halfZ half the size along the z-axis
+     * @return the box
+     */
+    public static Aabb centered(float x, float y, float z, float halfX, float halfY, float halfZ) {
+	    return new Aabb(x - halfX, y - halfY, z - halfZ, x + halfX, y + halfY, z + halfZ);
+    }
+
+    /**
+     * Grows the box on all sides.
+     * @param margin the distance added to each side
+     * @return the grown box
+     */
+    public Aabb expand(float margin) {
+	    return new Aabb(minX - margin, minY - margin, minZ - margin, maxX + margin, maxY + margin, maxZ + margin);
+    }
+
+    /**
+     * Checks if a point lies inside the box or on its surface.
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     * @return true when the point is inside
+     */
+    public boolean contains(float x, float y, float z) {
+	    return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+    }
+
+    /**
+     * Gets the squared distance from a point to the box.
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     * @return the squared distance, 0 when the point is inside
+     */
+    public float distanceSquared(float x, float y, float z) {
+	    float dx = Math.max(Math.max(minX - x, x - maxX), 0f);
+	    float dy = Math.max(Math.max(minY - y, y - maxY), 0f);
+	    float dz = Math.max(Math.max(minZ - z, z - maxZ), 0f);
+	    return dx * dx + dy * dy + dz * dz;
+    }
+
+    @Override
+    public String toString() {
+	    return "Aabb[" + minX + ", " + minY + ", " + minZ + " - " + maxX + ", " + maxY + ", " + maxZ + "]";
+    }
+}
@@ -0,0 +1,373 @@
+package org.valhalla.openal.spatial;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bounding volume hierarchy of axis-aligned boxes, each carrying an item.<br>
+ * <br>
+ * The tree is built top-down by splitting the items at the median of the longest axis, and stored in flat arrays.
+ * It is rebuilt on the first query after the items changed, so it suits sets that are queried far more often
+ * than they are changed, such as level geometry or reverb zones. Queries may run on several threads at once.
+ * @param <T> the type of the items
+ */
+public class AabbTree<T> {
+
+    /**
+     * The most items in a leaf.
+     */
+    private static final int LEAF_SIZE = 4;
+
+    /**
+     * The boxes of the items.
+     */
+    private final List<Aabb> boxes = new ArrayList<>();
+
+    /**
+     * The items.
+     */
+    private final List<T> items = new ArrayList<>();
+
+    /**
+     * The tree of the current items, or null when it has to be rebuilt.
+     */
+    private volatile Snapshot<T> snapshot;
+
+    /**
+     * Adds an item.
+     * @param box the box of the item
+     * @param item the item
+     */
+    public synchronized void add(Aabb box, T item) {
+	    boxes.add(box);
+	    items.add(item);
+	    snapshot = null;
+    }
+
+    /**
+     * Removes an item.
+     * @param item the item
+     * @return true when the item was in the tree
+     */
+    public synchronized boolean remove(T item) {
+	    int index = items.indexOf(item);
+	    if (index < 0) {
+	        return false;
+	    }
+	    boxes.remove(index);
+	    items.remove(index);
+	    snapshot = null;
+	    return true;
+    }
+
+    /**
+     * Removes all items.
+     */
+    public synchronized void clear() {
+	    boxes.clear();
+	    items.clear();
+	    snapshot = null;
+    }
+
+    /**
+     * Gets the amount of items.
+     * @return the amount of items
+     */
+    public synchronized int size() {
+	    return items.size();
+    }
+
+    /**
+     * Finds the items whose box contains a point.
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     * @param result the list the items are added to
+     */
+    public void query(float x, float y, float z, List<T> result) {
+	    Snapshot<T> tree = getSnapshot();
+	    if (tree.nodeCount == 0) {
+	        return;
+	    }
+	    int[] stack = new int[tree.depth + 1];
+	    int top = 0;
+	    stack[top++] = 0;
+	    while (top > 0) {
+	        int node = stack[--top];
+	        if (!tree.contains(node * 6, x, y, z)) {
+	    		continue;
+	        }
+	        int count = tree.count[node];
+	        if (count > 0) {
+	    		for (int i = tree.first[node]; i < tree.first[node] + count; i++) {
+	    		    if (tree.contains((tree.nodeCount + i) * 6, x, y, z)) {
+	    		        result.add(tree.items[i]);
+	    		    }
+	    		}
+	        } else {
+	    		stack[top++] = tree.first[node];
+	    		stack[top++] = tree.first[node] + 1;
+	        }
+	    }
+    }
+
+    /**
+     * Counts the item boxes that a line segment passes through, such as the walls between a listener and a sound.
+     * @param x0 the x-coordinate of the start
+     * @param y0 the y-coordinate of the start
+     * @param z0 the z-coordinate of the start
+     * @param x1 the x-coordinate of the end
+     * @param y1 the y-coordinate of the end
+     * @param z1 the z-coordinate of the end
+     * @param maxHits the count at which the search stops
+     * @return the amount of boxes hit, at most maxHits
+     */
+    public int countHits(float x0, float y0, float z0, float x1, float y1, float z1, int maxHits) {
+	    Snapshot<T> tree = getSnapshot();
+	    if (tree.nodeCount == 0 || maxHits <= 0) {
+	        return 0;
+	    }
+	    // the reciprocals are infinite for axis-parallel segments, which the slab test handles
+	    float invX = 1f / (x1 - x0);
+	    float invY = 1f / (y1 - y0);
+	    float invZ = 1f / (z1 - z0);
+	    int hits = 0;
+	    int[] stack = new int[tree.depth + 1];
+	    int top = 0;
+	    stack[top++] = 0;
+	    while (top > 0) {
+	        int node = stack[--top];
+	        if (!tree.intersects(node * 6, x0, y0, z0, invX, invY, invZ)) {
+	    		continue;
+	        }
+	        int count = tree.count[node];
+	        if (count > 0) {
+	    		for (int i = tree.first[node]; i < tree.first[node] + count; i++) {
+	    		    if (tree.intersects((tree.nodeCount + i) * 6, x0, y0, z0, invX, invY, invZ) && ++hits >= maxHits) {
+	    		        return hits;
+	    		    }
+	    		}
+	        } else {
+	    		stack[top++] = tree.first[node];
+	    		stack[top++] = tree.first[node] + 1;
+	        }
+	    }
+	    return hits;
+    }
+
+    /**
+     * Gets the tree of the current items, building it when the items changed.
+     * @return the tree
+     */
+    Snapshot<T> getSnapshot() {
+	    Snapshot<T> tree = snapshot;
+	    if (tree == null) {
+	        synchronized (this) {
+	    		tree = snapshot;
+	    		if (tree == null) {
+	    		    tree = new Snapshot<>(boxes, items);
+	    		    snapshot = tree;
+	    		}
+	        }
+	    }
+	    return tree;
+    }
+
+    /**
+     * An immutable tree.<br>
+     * <br>
+     * The bounds hold 6 floats per node followed by 6 floats per item, in tree order.
+     * A leaf has a positive count and the index of its first item, an inner node a count of 0
+     * and the index of its first child, the second child follows directly.
+     * @param <T> the type of the items
+     */
+    static final class Snapshot<T> {
+
+	    final int nodeCount;
+	    final float[] bounds;
+	    final int[] first;
+	    final int[] count;
+	    final T[] items;
+	    final int depth;
+
+	    /**
+	     * The order of the items while building.
+	     */
+	    private int[] order;
+
+	    /**
+	     * The centers of the items while building, 3 floats per item.
+	     */
+	    private float[] centers;
+
+	    /**
+	     * The boxes of the items while building.
+	     */
+	    private List<Aabb> boxes;
+	    private int allocated = 0;
+	    private int maxDepth = 0;
+
+	    @SuppressWarnings("unchecked")
+	    Snapshot(List<Aabb> boxes, List<T> items) {
+	        int n = items.size();
+	        this.boxes = boxes;
+	        int maxNodes = Math.max(1, 2 * n);
+	        float[] nodeBounds = new float[maxNodes * 6];
+	        int[] nodeFirst = new int[maxNodes];
+	        int[] nodeCount = new int[maxNodes];
+	        order = new int[n];
+	        centers = new float[n * 3];
+	        for (int i = 0; i < n; i++) {
+	    		Aabb box = boxes.get(i);
+	    		order[i] = i;
+	    		centers[i * 3] = (box.minX + box.maxX) * 0.5f;
+	    		centers[i * 3 + 1] = (box.minY + box.maxY) * 0.5f;
+	    		centers[i * 3 + 2] = (box.minZ + box.maxZ) * 0.5f;
+	        }
+	        if (n > 0) {
+	    		allocated = 1;
+	    		build(0, 0, n, 1, nodeBounds, nodeFirst, nodeCount);
+	        }
+
+	        this.nodeCount = allocated;
+	        this.first = nodeFirst;
+	        this.count = nodeCount;
+	        this.depth = maxDepth * 2;
+	        this.bounds = new float[(allocated + n) * 6];
+	        System.arraycopy(nodeBounds, 0, bounds, 0, allocated * 6);
+	        this.items = (T[]) new Object[n];
+	        for (int i = 0; i < n; i++) {
+	    		this.items[i] = items.get(order[i]);
+	    		Aabb box = boxes.get(order[i]);
+	    		int b = (allocated + i) * 6;
+	    		bounds[b] = box.minX;
+	    		bounds[b + 1] = box.minY;
+	    		bounds[b + 2] = box.minZ;
+	    		bounds[b + 3] = box.maxX;
+	    		bounds[b + 4] = box.maxY;
+	    		bounds[b + 5] = box.maxZ;
+	        }
+	        this.order = null;
+	        this.centers = null;
+	        this.boxes = null;
+	    }
+
+	    /**
+	     * Builds the node of a range of items.
+	     */
+	    private void build(int node, int start, int end, int level, float[] nodeBounds, int[] nodeFirst, int[] nodeCount) {
+	        maxDepth = Math.max(maxDepth, level);
+	        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+	        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+	        float cMinX = Float.POSITIVE_INFINITY, cMinY = Float.POSITIVE_INFINITY, cMinZ = Float.POSITIVE_INFINITY;
+	        float cMaxX = Float.NEGATIVE_INFINITY, cMaxY = Float.NEGATIVE_INFINITY, cMaxZ = Float.NEGATIVE_INFINITY;
+	        for (int i = start; i < end; i++) {
+	    		Aabb box = boxes.get(order[i]);
+	    		minX = Math.min(minX, box.minX);
+	    		minY = Math.min(minY, box.minY);
+	    		minZ = Math.min(minZ, box.minZ);
+	    		maxX = Math.max(maxX, box.maxX);
+	    		maxY = Math.max(maxY, box.maxY);
+	    		maxZ = Math.max(maxZ, box.maxZ);
+	    		int c = order[i] * 3;
+	    		cMinX = Math.min(cMinX, centers[c]);
+	    		cMinY = Math.min(cMinY, centers[c + 1]);
+	    		cMinZ = Math.min(cMinZ, centers[c + 2]);
+	    		cMaxX = Math.max(cMaxX, centers[c]);
+	    		cMaxY = Math.max(cMaxY, centers[c + 1]);
+	    		cMaxZ = Math.max(cMaxZ, centers[c + 2]);
+	        }
+	        int b = node * 6;
+	        nodeBounds[b] = minX;
+	        nodeBounds[b + 1] = minY;
+	        nodeBounds[b + 2] = minZ;
+	        nodeBounds[b + 3] = maxX;
+	        nodeBounds[b + 4] = maxY;
+	        nodeBounds[b + 5] = maxZ;
+
+	        if (end - start <= LEAF_SIZE) {
+	    		nodeFirst[node] = start;
+	    		nodeCount[node] = end - start;
+	    		return;
+	        }
+	        float spanX = cMaxX - cMinX;
+	        float spanY = cMaxY - cMinY;
+	        float spanZ = cMaxZ - cMinZ;
+	        int axis = spanX >= spanY && spanX >= spanZ ? 0 : spanY >= spanZ ? 1 : 2;
+	        int middle = (start + end) >>> 1;
+	        select(start, end - 1, middle, axis);
+
+	        int left = allocated;
+	        allocated += 2;
+	        nodeFirst[node] = left;
+	        nodeCount[node] = 0;
+	        build(left, start, middle, level + 1, nodeBounds, nodeFirst, nodeCount);
+	        build(left + 1, middle, end, level + 1, nodeBounds, nodeFirst, nodeCount);
+	    }
+
+	    /**
+	     * Partially sorts the order, so the item at index k has the k-th lowest center along an axis.
+	     */
+	    private void select(int low, int high, int k, int axis) {
+	        while (high > low) {
+	    		float pivot = centers[order[(low + high) >>> 1] * 3 + axis];
+	    		int i = low;
+	    		int j = high;
+	    		while (i <= j) {
+	    		    while (centers[order[i] * 3 + axis] < pivot) {
+	    		        i++;
+	    		    }
+	    		    while (centers[order[j] * 3 + axis] > pivot) {
+	    		        j--;
+	    		    }
+	    		    if (i <= j) {
+	    		        int swap = order[i];
+	    		        order[i] = order[j];
+	    		        order[j] = swap;
+	    		        i++;
+	    		        j--;
+	    		    }
+	    		}
+	    		if (k <= j) {
+	    		    high = j;
+	    		} else if (k >= i) {
+	    		    low = i;
+	    		} else {
+	    		    return;
+	    		}
+	        }
+	    }
+
+	    /**
+	     * Checks if the segment from a point, with the reciprocal of its direction, passes through the bounds at an offset.
+	     */
+	    boolean intersects(int b, float x, float y, float z, float invX, float invY, float invZ) {
+	        float near = 0f;
+	        float far = 1f;
+	        for (int axis = 0; axis < 3; axis++) {
+	    		float origin = axis == 0 ? x : axis == 1 ? y : z;
+	    		float inv = axis == 0 ? invX : axis == 1 ? invY : invZ;
+	    		float t1 = (bounds[b + axis] - origin) * inv;
+	    		float t2 = (bounds[b + 3 + axis] - origin) * inv;
+	    		if (Float.isNaN(t1) || Float.isNaN(t2)) {
+	    		    // a segment parallel to the axis that starts on the slab boundary
+	    		    continue;
+	    		}
+	    		near = Math.max(near, Math.min(t1, t2));
+	    		far = Math.min(far, Math.max(t1, t2));
+	    		if (near > far) {
+	    		    return false;
+	    		}
+	        }
+	        return true;
+	    }
+
+	    /**
+	     * Checks if a point lies inside the bounds at an offset.
+	     */
+	    boolean contains(int b, float x, float y, float z) {
+	        return x >= bounds[b] && y >= bounds[b + 1] && z >= bounds[b + 2]
+	    		&& x <= bounds[b + 3] && y <= bounds[b + 4] && z <= bounds[b + 5];
+	    }
+    }
+}
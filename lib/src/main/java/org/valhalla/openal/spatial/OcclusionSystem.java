@@ -0,0 +1,406 @@
+package org.valhalla.openal.spatial;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+
+import org.valhalla.openal.intermediate.Filter;
+import org.valhalla.openal.intermediate.FilterCache;
+import org.valhalla.openal.intermediate.Source;
+import org.valhalla.openal.jna.AL;
+import org.valhalla.openal.jna.EFX;
+import org.valhalla.openal.util.ALException;
+import org.valhalla.openal.util.SourceState;
+import org.valhalla.openal.util.Tuple3F;
+
+/**
+ * Muffles sources that are hidden behind geometry, by ray casts from the listener to each source.<br>
+ * <br>
+ * The geometry is an {@link AabbTree} of solid boxes supplied by the application. Every ray that passes through
+ * boxes on its way to the source is attenuated once per box, and the average of several rays around the source
+ * sets the {@link EFX#AL_LOWPASS_GAIN} and {@link EFX#AL_LOWPASS_GAINHF} of a low-pass filter on its direct path.
+ * A source that is partly hidden, an obstruction, is therefore muffled less than one that is fully hidden.
+ * The filters come from a {@link FilterCache}, so sources with about the same occlusion share a filter
+ * and a source in plain view has no filter at all.<br>
+ * <br>
+ * {@link #update(float, float, float)} is called once per frame on the thread that makes the OpenAL calls.
+ * It only reads the state of the sources that are due and applies finished results, the ray casts run
+ * on a {@link ForkJoinPool} spread across all cores. Close and loud sources are due every frame, distant
+ * and quiet ones every few frames. While the casts of a frame are still running no new ones are started,
+ * so a slow frame delays the occlusion instead of the audio thread.
+ */
+public class OcclusionSystem {
+
+    /**
+     * The directions of the rays besides the one to the center of the source.
+     */
+    private static final float[][] OFFSETS = {
+	    {1f, 0f, 0f}, {-1f, 0f, 0f}, {0f, 1f, 0f}, {0f, -1f, 0f}, {0f, 0f, 1f}, {0f, 0f, -1f}
+    };
+
+    /**
+     * The loss of gain below which a source counts as unoccluded.
+     */
+    private static final float GAIN_EPSILON = 0.01f;
+
+    /**
+     * The solid geometry.
+     */
+    private final AabbTree<?> geometry;
+
+    /**
+     * The shared filters of the sources.
+     */
+    private final FilterCache filters;
+
+    /**
+     * The pool the ray casts run on.
+     */
+    private final ForkJoinPool executor;
+
+    /**
+     * The tracked sources.
+     */
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * The sources that are due in the current frame.
+     */
+    private final List<Entry> due = new ArrayList<>();
+
+    /**
+     * The ray casts in progress, or null.
+     */
+    private Job job;
+
+    /**
+     * The current frame.
+     */
+    private long frame = 0;
+
+    private volatile int raysPerSource = 5;
+    private volatile float sourceRadius = 0.5f;
+    private volatile float gainPerHit = 0.6f;
+    private volatile float gainHFPerHit = 0.25f;
+    private volatile float nearDistance = 5f;
+    private volatile int maxInterval = 16;
+    private volatile int maxSourcesPerFrame = 64;
+
+    /**
+     * Creates a new occlusion system that casts its rays on the common pool.
+     * @param filters the cache that provides the low-pass filters
+     * @param geometry the solid geometry
+     */
+    public OcclusionSystem(FilterCache filters, AabbTree<?> geometry) {
+	    this(filters, geometry, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a new occlusion system.
+     * @param filters the cache that provides the low-pass filters
+     * @param geometry the solid geometry
+     * @param executor the pool the ray casts run on
+     */
+    public OcclusionSystem(FilterCache filters, AabbTree<?> geometry, ForkJoinPool executor) {
+	    this.filters = filters;
+	    this.geometry = geometry;
+	    this.executor = executor;
+    }
+
+    /**
+     * Starts muffling a source. The direct filter of the source is managed by this system from now on.
+     * @param source the source
+     */
+    public void add(Source source) {
+	    for (Entry entry : entries) {
+	        if (entry.source.equals(source)) {
+	    		return;
+	        }
+	    }
+	    Entry entry = new Entry(source);
+	    entry.nextFrame = frame;
+	    entries.add(entry);
+    }
+
+    /**
+     * Stops muffling a source and removes its direct filter.
+     * @param source the source
+     * @throws ALException when the filter could not be removed from the source
+     */
+    public void remove(Source source) throws ALException {
+	    for (int i = 0; i < entries.size(); i++) {
+	        Entry entry = entries.get(i);
+	        if (entry.source.equals(source)) {
+	    		entries.remove(i);
+	    		entry.removed = true;
+	    		if (entry.filter != null) {
+	    		    source.setDirectFilter(null);
+	    		    filters.release(entry.filter);
+	    		}
+	    		return;
+	        }
+	    }
+    }
+
+    /**
+     * Sets the amount of rays cast per source, one to its center and the others around it.
+     * @param rays the amount of rays, from 1 to 7
+     */
+    public void setRaysPerSource(int rays) {
+	    this.raysPerSource = Math.max(1, Math.min(rays, OFFSETS.length + 1));
+    }
+
+    /**
+     * Sets the radius around the center of a source that the extra rays are cast to.
+     * @param radius the radius
+     */
+    public void setSourceRadius(float radius) {
+	    this.sourceRadius = radius;
+    }
+
+    /**
+     * Sets how much each box between the listener and a source attenuates a ray.
+     * @param gain the factor applied to {@link EFX#AL_LOWPASS_GAIN} per box
+     * @param gainHF the factor applied to {@link EFX#AL_LOWPASS_GAINHF} per box
+     */
+    public void setAttenuation(float gain, float gainHF) {
+	    this.gainPerHit = gain;
+	    this.gainHFPerHit = gainHF;
+    }
+
+    /**
+     * Sets how often sources are updated.<br>
+     * A source with gain 1 within the near distance is updated every frame. Its interval grows with
+     * the distance and shrinks with the gain, up to the maximum interval.
+     * @param nearDistance the distance within which a source with gain 1 is updated every frame
+     * @param maxInterval the most frames between two updates of a source
+     * @param maxSourcesPerFrame the most sources updated in a single frame, the most important first
+     */
+    public void setSchedule(float nearDistance, int maxInterval, int maxSourcesPerFrame) {
+	    this.nearDistance = nearDistance;
+	    this.maxInterval = Math.max(1, maxInterval);
+	    this.maxSourcesPerFrame = Math.max(1, maxSourcesPerFrame);
+    }
+
+    /**
+     * Gets the amount of tracked sources.
+     * @return the amount of sources
+     */
+    public int getSourceCount() {
+	    return entries.size();
+    }
+
+    /**
+     * Updates the occlusion for a listener position, see {@link #update(float, float, float)}.
+     * @param listener the position of the listener
+     * @throws ALException when the sources could not be read or the filters could not be applied
+     */
+    public void update(Tuple3F listener) throws ALException {
+	    update(listener.v1, listener.v2, listener.v3);
+    }
+
+    /**
+     * Applies the finished ray casts and starts the casts for the sources that are due.
+     * Must be called once per frame by the thread that makes the OpenAL calls.
+     * @param x the x-coordinate of the listener
+     * @param y the y-coordinate of the listener
+     * @param z the z-coordinate of the listener
+     * @throws ALException when the sources could not be read or the filters could not be applied
+     */
+    public void update(float x, float y, float z) throws ALException {
+	    frame++;
+	    if (job != null) {
+	        if (!job.task.isDone()) {
+	    		return;
+	        }
+	        Job finished = job;
+	        job = null;
+	        if (!finished.task.isCompletedAbnormally()) {
+	    		apply(finished);
+	        }
+	    }
+
+	    due.clear();
+	    for (Entry entry : entries) {
+	        if (entry.nextFrame <= frame) {
+	    		due.add(entry);
+	        }
+	    }
+	    if (due.isEmpty()) {
+	        return;
+	    }
+	    if (due.size() > maxSourcesPerFrame) {
+	        due.sort(Comparator.comparingDouble((Entry entry) -> -entry.importance));
+	    }
+
+	    List<Entry> selected = new ArrayList<>();
+	    List<float[]> positions = new ArrayList<>();
+	    for (Entry entry : due) {
+	        if (selected.size() >= maxSourcesPerFrame) {
+	    		break;
+	        }
+	        if (entry.source.getSourceState() != SourceState.PLAYING) {
+	    		entry.nextFrame = frame + maxInterval;
+	    		continue;
+	        }
+	        Tuple3F position = entry.source.getPosition();
+	        float px = position.v1;
+	        float py = position.v2;
+	        float pz = position.v3;
+	        if (entry.source.getIntParam(AL.AL_SOURCE_RELATIVE) == AL.AL_TRUE) {
+	    		// relative sources move with the listener, assuming an unrotated listener
+	    		px += x;
+	    		py += y;
+	    		pz += z;
+	        }
+	        float dx = px - x;
+	        float dy = py - y;
+	        float dz = pz - z;
+	        float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+	        entry.importance = entry.source.getGain() * nearDistance / Math.max(distance, nearDistance);
+	        int interval = entry.importance > 0f ? (int) Math.ceil(1f / entry.importance) : maxInterval;
+	        entry.nextFrame = frame + Math.max(1, Math.min(interval, maxInterval));
+	        selected.add(entry);
+	        positions.add(new float[] {px, py, pz});
+	    }
+	    if (!selected.isEmpty()) {
+	        Job next = new Job(selected, positions, x, y, z);
+	        next.task = executor.submit(() -> IntStream.range(0, next.size()).parallel().forEach(next::cast));
+	        job = next;
+	    }
+    }
+
+    /**
+     * Applies the results of finished ray casts to the filters of their sources.
+     * @param finished the finished casts
+     * @throws ALException when a filter could not be applied
+     */
+    private void apply(Job finished) throws ALException {
+	    for (int i = 0; i < finished.entries.size(); i++) {
+	        Entry entry = finished.entries.get(i);
+	        if (entry.removed) {
+	    		continue;
+	        }
+	        float gain = finished.gain[i];
+	        float gainHF = finished.gainHF[i];
+	        Filter next = null;
+	        if (gain < 1f - GAIN_EPSILON || gainHF < 1f - GAIN_EPSILON) {
+	    		next = filters.acquireLowpass(gain, gainHF);
+	        }
+	        if (next == entry.filter) {
+	    		// same rounded setting as before, nothing to attach
+	    		filters.release(next);
+	    		continue;
+	        }
+	        // the source copies the filter parameters when the filter is attached
+	        entry.source.setDirectFilter(next);
+	        filters.release(entry.filter);
+	        entry.filter = next;
+	    }
+    }
+
+    /**
+     * Waits for the ray casts in progress and removes the filters from all sources.
+     */
+    public void close() {
+	    if (job != null) {
+	        job.task.quietlyJoin();
+	        job = null;
+	    }
+	    for (Entry entry : entries) {
+	        entry.removed = true;
+	        if (entry.filter == null) {
+	    		continue;
+	        }
+	        try {
+	    		entry.source.setDirectFilter(null);
+	        } catch (ALException e) {
+	    		// the source may already have been closed
+	        }
+	        filters.release(entry.filter);
+	    }
+	    entries.clear();
+    }
+
+    /**
+     * A tracked source. Only used by the thread that calls {@link #update(float, float, float)}.
+     */
+    private static final class Entry {
+	    final Source source;
+	    Filter filter;
+	    long nextFrame;
+	    float importance = 1f;
+	    boolean removed = false;
+
+	    Entry(Source source) {
+	        this.source = source;
+	    }
+    }
+
+    /**
+     * The ray casts of one frame. The positions are copied, so the casts do not touch OpenAL.
+     */
+    private final class Job {
+	    final List<Entry> entries;
+	    final float[] positions;
+	    final float listenerX;
+	    final float listenerY;
+	    final float listenerZ;
+	    final int rays = raysPerSource;
+	    final float radius = sourceRadius;
+	    final float gainFactor = gainPerHit;
+	    final float gainHFFactor = gainHFPerHit;
+	    final float[] gain;
+	    final float[] gainHF;
+	    ForkJoinTask<?> task;
+
+	    Job(List<Entry> entries, List<float[]> positions, float x, float y, float z) {
+	        this.entries = entries;
+	        this.positions = new float[entries.size() * 3];
+	        for (int i = 0; i < entries.size(); i++) {
+	    		System.arraycopy(positions.get(i), 0, this.positions, i * 3, 3);
+	        }
+	        this.listenerX = x;
+	        this.listenerY = y;
+	        this.listenerZ = z;
+	        this.gain = new float[entries.size()];
+	        this.gainHF = new float[entries.size()];
+	    }
+
+	    int size() {
+	        return entries.size();
+	    }
+
+	    /**
+	     * Casts the rays of one source and stores its gains.
+	     */
+	    void cast(int index) {
+	        float px = positions[index * 3];
+	        float py = positions[index * 3 + 1];
+	        float pz = positions[index * 3 + 2];
+	        // beyond this many boxes a ray is silent for all practical purposes
+	        int maxHits = 8;
+	        float sumGain = 0f;
+	        float sumGainHF = 0f;
+	        for (int ray = 0; ray < rays; ray++) {
+	    		float tx = px;
+	    		float ty = py;
+	    		float tz = pz;
+	    		if (ray > 0) {
+	    		    float[] offset = OFFSETS[ray - 1];
+	    		    tx += offset[0] * radius;
+	    		    ty += offset[1] * radius;
+	    		    tz += offset[2] * radius;
+	    		}
+	    		int hits = geometry.countHits(listenerX, listenerY, listenerZ, tx, ty, tz, maxHits);
+	    		sumGain += (float) Math.pow(gainFactor, hits);
+	    		sumGainHF += (float) Math.pow(gainHFFactor, hits);
+	        }
+	        gain[index] = sumGain / rays;
+	        gainHF[index] = sumGainHF / rays;
+	    }
+    }
+}
@@ -0,0 +1,93 @@
+package org.valhalla.openal.spatial;
+
+import org.valhalla.openal.intermediate.EaxReverbProperties;
+
+/**
+ * A volume of the world with its own reverb, such as a room, a tunnel or a cave.<br>
+ * <br>
+ * Inside the box the preset has its full weight. Outside it the weight fades out linearly over the fade distance,
+ * so walking from one zone into another blends their presets instead of switching abruptly.
+ */
+public final class ReverbZone {
+
+    /**
+     * The volume with the full weight.
+     */
+    private final Aabb bounds;
+
+    /**
+     * The reverb of the zone.
+     */
+    private final EaxReverbProperties preset;
+
+    /**
+     * The distance from the box over which the weight fades to 0.
+     */
+    private final float fadeDistance;
+
+    /**
+     * Creates a new zone.
+     * @param bounds the volume with the full weight
+     * @param preset the reverb of the zone
+     * @param fadeDistance the distance from the box over which the weight fades to 0, 0 for a hard edge
+     * @throws IllegalArgumentException when the fade distance is negative
+     */
+    public ReverbZone(Aabb bounds, EaxReverbProperties preset, float fadeDistance) {
+	    if (fadeDistance < 0f) {
+	        throw new IllegalArgumentException("Negative fade distance: " + fadeDistance);
+	    }
+	    this.bounds = bounds;
+	    this.preset = preset;
+	    this.fadeDistance = fadeDistance;
+    }
+
+    /**
+     * Gets the volume with the full weight.
+     * @return the box
+     */
+    public Aabb getBounds() {
+	    return bounds;
+    }
+
+    /**
+     * Gets the volume in which the zone has any weight.
+     * @return the box grown by the fade distance
+     */
+    public Aabb getReach() {
+	    return bounds.expand(fadeDistance);
+    }
+
+    /**
+     * Gets the reverb of the zone.
+     * @return the preset
+     */
+    public EaxReverbProperties getPreset() {
+	    return preset;
+    }
+
+    /**
+     * Gets the distance from the box over which the weight fades to 0.
+     * @return the distance
+     */
+    public float getFadeDistance() {
+	    return fadeDistance;
+    }
+
+    /**
+     * Gets the weight of the zone at a position.
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     * @return 1 inside the box, fading to 0 at the fade distance
+     */
+    public float getWeight(float x, float y, float z) {
+	    float distanceSquared = bounds.distanceSquared(x, y, z);
+	    if (distanceSquared == 0f) {
+	        return 1f;
+	    }
+	    if (fadeDistance == 0f) {
+	        return 0f;
+	    }
+	    return Math.max(0f, 1f - (float) Math.sqrt(distanceSquared) / fadeDistance);
+    }
+}
@@ -0,0 +1,265 @@
+package org.valhalla.openal.spatial;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.valhalla.openal.intermediate.AuxEffectSlot;
+import org.valhalla.openal.intermediate.EaxReverbProperties;
+import org.valhalla.openal.jna.EFX;
+import org.valhalla.openal.util.ALException;
+import org.valhalla.openal.util.Tuple3F;
+
+/**
+ * Drives the reverb of an auxiliary effect slot from the position of the listener.<br>
+ * <br>
+ * Each tick {@link #update(float, float, float)} looks up the zones around the listener in an {@link AabbTree},
+ * so the cost depends on the zones nearby rather than on all zones. The presets of those zones are blended by weight,
+ * and the part of the weight no zone claims goes to the outside preset. The blend is only uploaded when it differs
+ * from the uploaded reverb by more than the threshold, and at most once per update interval. An upload sends only
+ * the changed parameters, see {@link AuxEffectSlot#load(EaxReverbProperties)}.<br>
+ * <br>
+ * The slot needs an {@link EFX#AL_EFFECT_EAXREVERB} or {@link EFX#AL_EFFECT_REVERB} effect attached.
+ * Zones may be added and removed from any thread, updates have to come from a single thread.
+ */
+public class ReverbZones {
+
+    /**
+     * The default relative difference that triggers an upload.
+     */
+    public static final float DEFAULT_THRESHOLD = 0.05f;
+
+    /**
+     * The default shortest time between two uploads in milliseconds.
+     */
+    public static final long DEFAULT_UPDATE_INTERVAL = 50;
+
+    /**
+     * The slot the reverb is uploaded to.
+     */
+    private final AuxEffectSlot slot;
+
+    /**
+     * The reverb where no zone has the full weight.
+     */
+    private final EaxReverbProperties outside;
+
+    /**
+     * The zones by the volume in which they have any weight.
+     */
+    private final AabbTree<ReverbZone> zones = new AabbTree<>();
+
+    /**
+     * Receives the zones found by a lookup.
+     */
+    private final List<ReverbZone> found = new ArrayList<>();
+
+    /**
+     * The presets and weights of the current blend.
+     */
+    private EaxReverbProperties[] presets = new EaxReverbProperties[8];
+    private float[] weights = new float[8];
+
+    /**
+     * The relative difference that triggers an upload.
+     */
+    private volatile float threshold = DEFAULT_THRESHOLD;
+
+    /**
+     * The shortest time between two uploads.
+     */
+    private volatile long updateIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_UPDATE_INTERVAL);
+
+    /**
+     * The blend of the last update.
+     */
+    private volatile EaxReverbProperties target;
+
+    /**
+     * The reverb that was uploaded last, or null before the first upload.
+     */
+    private volatile EaxReverbProperties applied;
+
+    /**
+     * The value of {@link System#nanoTime()} at the last upload.
+     */
+    private long lastUpload = 0;
+
+    /**
+     * The amount of uploads.
+     */
+    private volatile int uploadCount = 0;
+
+    /**
+     * Creates a new reverb zone system.
+     * @param slot the slot the reverb is uploaded to, with a reverb effect attached
+     * @param outside the reverb where no zone has the full weight
+     */
+    public ReverbZones(AuxEffectSlot slot, EaxReverbProperties outside) {
+	    this.slot = slot;
+	    this.outside = outside;
+	    this.target = outside;
+    }
+
+    /**
+     * Adds a zone.
+     * @param zone the zone
+     */
+    public void addZone(ReverbZone zone) {
+	    zones.add(zone.getReach(), zone);
+    }
+
+    /**
+     * Removes a zone.
+     * @param zone the zone
+     * @return true when the zone was added before
+     */
+    public boolean removeZone(ReverbZone zone) {
+	    return zones.remove(zone);
+    }
+
+    /**
+     * Gets the amount of zones.
+     * @return the amount of zones
+     */
+    public int getZoneCount() {
+	    return zones.size();
+    }
+
+    /**
+     * Sets the relative difference between the blend and the uploaded reverb that triggers an upload.
+     * @param threshold the difference, for example 0.05 for 5%, 0 to upload every change
+     * @see EaxReverbProperties#difference(EaxReverbProperties)
+     */
+    public void setThreshold(float threshold) {
+	    this.threshold = Math.max(0f, threshold);
+    }
+
+    /**
+     * Gets the relative difference that triggers an upload.
+     * @return the difference
+     */
+    public float getThreshold() {
+	    return threshold;
+    }
+
+    /**
+     * Sets the shortest time between two uploads.
+     * @param millis the time in milliseconds, 0 to allow an upload every update
+     */
+    public void setUpdateInterval(long millis) {
+	    this.updateIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+    }
+
+    /**
+     * Gets the shortest time between two uploads.
+     * @return the time in milliseconds
+     */
+    public long getUpdateInterval() {
+	    return TimeUnit.NANOSECONDS.toMillis(updateIntervalNanos);
+    }
+
+    /**
+     * Gets the blend of the last update.
+     * @return the blended reverb
+     */
+    public EaxReverbProperties getTarget() {
+	    return target;
+    }
+
+    /**
+     * Gets the reverb that was uploaded last.
+     * @return the reverb, or null before the first upload
+     */
+    public EaxReverbProperties getApplied() {
+	    return applied;
+    }
+
+    /**
+     * Gets the amount of uploads to the slot.
+     * @return the amount of uploads
+     */
+    public int getUploadCount() {
+	    return uploadCount;
+    }
+
+    /**
+     * Updates the reverb for a listener position, see {@link #update(float, float, float)}.
+     * @param position the position of the listener
+     * @return true when the reverb was uploaded
+     * @throws ALException when the reverb could not be uploaded
+     */
+    public boolean update(Tuple3F position) throws ALException {
+	    return update(position.v1, position.v2, position.v3);
+    }
+
+    /**
+     * Updates the reverb for a listener position. Meant to be called once per tick.
+     * @param x the x-coordinate of the listener
+     * @param y the y-coordinate of the listener
+     * @param z the z-coordinate of the listener
+     * @return true when the reverb was uploaded
+     * @throws ALException when the reverb could not be uploaded
+     */
+    public boolean update(float x, float y, float z) throws ALException {
+	    EaxReverbProperties blend = blend(x, y, z);
+	    target = blend;
+
+	    long now = System.nanoTime();
+	    if (applied != null) {
+	        if (now - lastUpload < updateIntervalNanos) {
+	    		return false;
+	        }
+	        if (applied.difference(blend) <= threshold) {
+	    		return false;
+	        }
+	    }
+	    slot.load(blend);
+	    applied = blend;
+	    lastUpload = now;
+	    uploadCount++;
+	    return true;
+    }
+
+    /**
+     * Blends the presets of the zones around a position.
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param z the z-coordinate
+     * @return the blended reverb
+     */
+    private EaxReverbProperties blend(float x, float y, float z) {
+	    found.clear();
+	    zones.query(x, y, z, found);
+
+	    int count = 0;
+	    float strongest = 0f;
+	    for (ReverbZone zone : found) {
+	        float weight = zone.getWeight(x, y, z);
+	        if (weight <= 0f) {
+	    		continue;
+	        }
+	        if (count + 1 >= presets.length) {
+	    		presets = Arrays.copyOf(presets, presets.length * 2);
+	    		weights = Arrays.copyOf(weights, weights.length * 2);
+	        }
+	        presets[count] = zone.getPreset();
+	        weights[count] = weight;
+	        strongest = Math.max(strongest, weight);
+	        count++;
+	    }
+	    if (count == 0) {
+	        return outside;
+	    }
+	    if (count == 1 && strongest == 1f) {
+	        return presets[0];
+	    }
+	    if (strongest < 1f) {
+	        presets[count] = outside;
+	        weights[count] = 1f - strongest;
+	        count++;
+	    }
+	    return EaxReverbProperties.blend(presets, weights, count);
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * Package containing classes that relate sound to the geometry of the world.
+ * These classes decide, from the positions of the listener and the sources, which effects and filters are applied.
+ */
+package org.valhalla.openal.spatial;
@@ -0,0 +1,518 @@
+package org.valhalla.openal.stream;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.valhalla.openal.intermediate.Buffer;
+import org.valhalla.openal.intermediate.CaptureDevice;
+import org.valhalla.openal.intermediate.CaptureDevice.BlockConsumer;
+import org.valhalla.openal.intermediate.PlaybackClock;
+import org.valhalla.openal.intermediate.Source;
+import org.valhalla.openal.jna.AL;
+import org.valhalla.openal.util.ALException;
+import org.valhalla.openal.util.PcmConverter;
+import org.valhalla.openal.util.SourceState;
+
+/**
+ * Plays the audio of a capture device back through a source, for monitoring a microphone or an instrument.<br>
+ * <br>
+ * A dedicated thread waits for each captured block, runs the optional processor on it in place, and uploads it
+ * straight from the ring of the {@link CaptureDevice} into a buffer queued on the source. The queue starts at
+ * two blocks, the least that plays without gaps. After an underrun one more block is allowed in the queue,
+ * and after a long stretch without underruns the queue shrinks again. When the capture ring holds more blocks
+ * than fit in the queue, the oldest are skipped, so a stall never turns into lasting delay.<br>
+ * <br>
+ * The round trip of every block is measured live: the age of the block when it is queued, plus the queued audio
+ * ahead of it, plus the output latency of the device. The age is read from {@link CaptureDevice#currentTime()},
+ * the clock the block was stamped with. With 5 ms blocks this stays well under 30 ms.
+ */
+public class CaptureMonitor {
+
+    /**
+     * The smallest amount of blocks queued on the source.
+     */
+    private static final int MIN_DEPTH = 2;
+
+    /**
+     * The largest amount of blocks the queue may grow to after underruns.
+     */
+    private static final int MAX_DEPTH = 8;
+
+    /**
+     * The amount of seconds that must be played without an underrun before the queue shrinks by one block.
+     */
+    private static final int SHRINK_AFTER_SECONDS = 10;
+
+    /**
+     * The longest time to wait for a captured block before checking the source again.
+     */
+    private static final long WAIT_MILLIS = 5;
+
+    /**
+     * The weight of a new measurement in the average latency.
+     */
+    private static final double AVERAGE_WEIGHT = 1.0 / 16;
+
+    /**
+     * The device the audio is captured from.
+     */
+    private final CaptureDevice capture;
+
+    /**
+     * The source that plays the audio.
+     */
+    private final Source source;
+
+    /**
+     * The OpenAL format enum of the blocks.
+     */
+    private final int alFormat;
+
+    /**
+     * The sample rate of the blocks.
+     */
+    private final int sampleRate;
+
+    /**
+     * The amount of frames in a block.
+     */
+    private final int blockFrames;
+
+    /**
+     * The clock that tells which moment of the queued audio is being heard.
+     */
+    private final PlaybackClock clock;
+
+    /**
+     * The buffers queued on the source, oldest first from {@link #queueTail}.
+     */
+    private final Buffer[] queue = new Buffer[MAX_DEPTH];
+
+    /**
+     * Buffers that are not queued, the first {@link #freeCount} are valid.
+     */
+    private final Buffer[] free = new Buffer[MAX_DEPTH];
+
+    /**
+     * Uploads blocks handed over by the capture device.
+     */
+    private final BlockConsumer player = this::play;
+
+    /**
+     * Throws skipped blocks away.
+     */
+    private final BlockConsumer skipper = (block, timeNanos) -> this.skippedBlocks++;
+
+    /**
+     * Runs on every block before it is played, or null.
+     */
+    private volatile BlockConsumer processor;
+
+    /**
+     * The amount of valid buffers in {@link #free}.
+     */
+    private int freeCount = 0;
+
+    /**
+     * The index of the next queue slot to fill.
+     */
+    private int queueHead = 0;
+
+    /**
+     * The index of the oldest queued buffer.
+     */
+    private int queueTail = 0;
+
+    /**
+     * The amount of queued buffers.
+     */
+    private int queuedCount = 0;
+
+    /**
+     * The amount of buffers that may currently be queued.
+     */
+    private volatile int depth = MIN_DEPTH;
+
+    /**
+     * The amount of frames that have been unqueued.
+     */
+    private long processedFrames = 0;
+
+    /**
+     * The amount of frames played since the last underrun or change of the queue depth.
+     */
+    private long stableFrames = 0;
+
+    /**
+     * Did the source run out of data, and has it not been restarted yet?
+     */
+    private boolean starved = false;
+
+    /**
+     * The failure of the last upload inside {@link #play(ByteBuffer, long)}, or null.
+     */
+    private ALException uploadFailure;
+
+    /**
+     * The failure that stopped the monitor thread, or null.
+     */
+    private volatile ALException failure;
+
+    /**
+     * The amount of times the source ran out of data.
+     */
+    private volatile int underruns = 0;
+
+    /**
+     * The amount of blocks skipped to catch up with the capture device.
+     */
+    private volatile long skippedBlocks = 0;
+
+    /**
+     * The round trip of the last queued block in nanoseconds.
+     */
+    private volatile long latencyNanos = 0;
+
+    /**
+     * The moving average of the round trip in nanoseconds.
+     */
+    private volatile long averageLatencyNanos = 0;
+
+    /**
+     * The longest round trip since the statistics were reset, in nanoseconds.
+     */
+    private volatile long maxLatencyNanos = 0;
+
+    /**
+     * The monitor thread, or null when the monitor is not running.
+     */
+    private Thread thread;
+
+    /**
+     * Keeps the monitor thread running.
+     */
+    private volatile boolean running = false;
+
+    /**
+     * Creates a new monitor. The source is only used by the monitor thread while the monitor runs.
+     * @param capture the device the audio is captured from
+     * @param source the source that plays the audio
+     * @param processor runs on every block before it is played and may change the samples in place, or null
+     * @throws ALException when the format of the capture device cannot be played or the buffers could not be created
+     */
+    public CaptureMonitor(CaptureDevice capture, Source source, BlockConsumer processor) throws ALException {
+	    this.capture = capture;
+	    this.source = source;
+	    this.processor = processor;
+	    this.alFormat = PcmConverter.getALFormat(capture.getFormat());
+	    this.sampleRate = (int) capture.getFormat().getSampleRate();
+	    this.blockFrames = capture.getBlockFrames();
+	    this.clock = new PlaybackClock(source, sampleRate);
+	    for (int i = 0; i < MIN_DEPTH; i++) {
+	        free[freeCount++] = new Buffer(source.getFactory());
+	    }
+    }
+
+    /**
+     * Starts capturing and playing.
+     * @throws ALException when the capture device could not be started
+     */
+    public synchronized void start() throws ALException {
+	    if (thread != null && thread.isAlive()) {
+	        return;
+	    }
+	    capture.start();
+	    // start with the blocks that arrive from now on
+	    capture.drain(skipper);
+	    failure = null;
+	    running = true;
+	    thread = new Thread(this::run, "OpenAL monitor");
+	    thread.setDaemon(true);
+	    thread.setPriority(Thread.MAX_PRIORITY);
+	    thread.start();
+    }
+
+    /**
+     * Stops playing, the capture device keeps capturing.
+     */
+    public synchronized void stop() {
+	    if (thread == null) {
+	        return;
+	    }
+	    running = false;
+	    boolean interrupted = false;
+	    while (thread.isAlive()) {
+	        try {
+	    		thread.join();
+	        } catch (InterruptedException e) {
+	    		interrupted = true;
+	        }
+	    }
+	    thread = null;
+	    if (interrupted) {
+	        Thread.currentThread().interrupt();
+	    }
+    }
+
+    /**
+     * Is the monitor running?
+     * @return true when the monitor thread is running
+     */
+    public boolean isRunning() {
+	    return running;
+    }
+
+    /**
+     * Sets the processor that runs on every block before it is played.
+     * @param processor the processor, which may change the samples in place, or null
+     */
+    public void setProcessor(BlockConsumer processor) {
+	    this.processor = processor;
+    }
+
+    /**
+     * Gets the failure that stopped the monitor.
+     * @return the failure, or null when the monitor did not fail
+     */
+    public ALException getFailure() {
+	    return failure;
+    }
+
+    /**
+     * Gets the amount of blocks that may currently be queued on the source.
+     * This grows after underruns and shrinks back to two blocks.
+     * @return the amount of blocks
+     */
+    public int getQueueDepth() {
+	    return depth;
+    }
+
+    /**
+     * Gets the amount of times the source ran out of data.
+     * @return the amount of underruns
+     */
+    public int getUnderrunCount() {
+	    return underruns;
+    }
+
+    /**
+     * Gets the amount of blocks that were skipped to catch up with the capture device.
+     * @return the amount of blocks
+     */
+    public long getSkippedBlockCount() {
+	    return skippedBlocks;
+    }
+
+    /**
+     * Gets the round trip of the last played block.
+     * @return the time in nanoseconds between capturing the block and hearing it
+     */
+    public long getLatencyNanos() {
+	    return latencyNanos;
+    }
+
+    /**
+     * Gets the moving average of the round trip.
+     * @return the time in nanoseconds
+     */
+    public long getAverageLatencyNanos() {
+	    return averageLatencyNanos;
+    }
+
+    /**
+     * Gets the longest round trip since the statistics were reset.
+     * @return the time in nanoseconds
+     */
+    public long getMaxLatencyNanos() {
+	    return maxLatencyNanos;
+    }
+
+    /**
+     * Resets the longest round trip and the counters.
+     */
+    public void resetStatistics() {
+	    maxLatencyNanos = 0;
+	    underruns = 0;
+	    skippedBlocks = 0;
+    }
+
+    /**
+     * Moves blocks from the capture device to the source until the monitor is stopped.
+     */
+    private void run() {
+	    try {
+	        while (running) {
+	    		capture.await(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+	    		reclaim();
+	    		// blocks that do not fit in the queue would only add delay
+	    		int room = depth - queuedCount;
+	    		while (capture.getAvailableBlocks() > Math.max(room, 1)) {
+	    		    capture.take(skipper);
+	    		}
+	    		while (queuedCount < depth && capture.take(player)) {
+	    		    if (uploadFailure != null) {
+	    				throw uploadFailure;
+	    		    }
+	    		}
+	    		resume();
+	        }
+	    } catch (ALException e) {
+	        failure = e;
+	    } catch (InterruptedException e) {
+	        // stopped while waiting for a block
+	    } finally {
+	        running = false;
+	        uploadFailure = null;
+	        release();
+	    }
+    }
+
+    /**
+     * Processes a block and queues it on the source.
+     * @param block the captured samples
+     * @param timeNanos the capture time of the first frame
+     */
+    private void play(ByteBuffer block, long timeNanos) {
+	    BlockConsumer current = processor;
+	    if (current != null) {
+	        current.accept(block, timeNanos);
+	        block.clear();
+	    }
+	    Buffer buffer = freeCount > 0 ? free[--freeCount] : null;
+	    try {
+	        if (buffer == null) {
+	    		buffer = new Buffer(source.getFactory());
+	        }
+	        buffer.addBufferData(alFormat, block, sampleRate);
+	        source.queueBuffer(buffer);
+	    } catch (ALException e) {
+	        if (buffer != null) {
+	    		free[freeCount++] = buffer;
+	        }
+	        uploadFailure = e;
+	        return;
+	    }
+	    queue[queueHead] = buffer;
+	    queueHead = (queueHead + 1) % queue.length;
+	    queuedCount++;
+	    measure(timeNanos);
+    }
+
+    /**
+     * Measures the round trip of the block that was queued last.
+     * @param timeNanos the capture time of the first frame of the block
+     */
+    private void measure(long timeNanos) {
+	    // the stamp and the current time come from the same clock, which may step back slightly when its offset is measured again
+	    long age = Math.max(0, capture.currentTime() - timeNanos);
+	    long ahead;
+	    try {
+	        // the end of the queue before this block, minus the moment being heard now
+	        long queuedNanos = TimeUnit.SECONDS.toNanos(processedFrames + (long) (queuedCount - 1) * blockFrames) / sampleRate;
+	        ahead = Math.max(0, queuedNanos - clock.getNanos());
+	    } catch (ALException e) {
+	        return;
+	    }
+	    long latency = age + ahead;
+	    latencyNanos = latency;
+	    long average = averageLatencyNanos;
+	    averageLatencyNanos = average == 0 ? latency : average + (long) ((latency - average) * AVERAGE_WEIGHT);
+	    if (latency > maxLatencyNanos) {
+	        maxLatencyNanos = latency;
+	    }
+    }
+
+    /**
+     * Starts the source when the queue is full, which is at first and after an underrun.
+     * @throws ALException when the source could not be started
+     */
+    private void resume() throws ALException {
+	    SourceState state = source.getSourceState();
+	    if ((state == SourceState.INITIAL || state == SourceState.STOPPED) && queuedCount >= depth) {
+	        source.play();
+	        starved = false;
+	    }
+    }
+
+    /**
+     * Unqueues all buffers the source has finished playing and detects underruns.
+     * @throws ALException when the buffers could not be unqueued
+     */
+    private void reclaim() throws ALException {
+	    if (queuedCount == 0) {
+	        return;
+	    }
+	    int processed = Math.min(source.getProcessedBufferCount(), queuedCount);
+	    if (processed == queuedCount && !starved && source.getSourceState() == SourceState.STOPPED) {
+	        underruns++;
+	        starved = true;
+	        stableFrames = 0;
+	        if (depth < MAX_DEPTH) {
+	    		depth++;
+	        }
+	    }
+	    if (processed == 0) {
+	        return;
+	    }
+	    clock.beginUnqueue();
+	    try {
+	        for (int i = 0; i < processed; i++) {
+	    		Buffer buffer = queue[queueTail];
+	    		source.unqueueBuffer(buffer);
+	    		queue[queueTail] = null;
+	    		queueTail = (queueTail + 1) % queue.length;
+	    		queuedCount--;
+	    		processedFrames += blockFrames;
+	    		stableFrames += blockFrames;
+	    		free[freeCount++] = buffer;
+	        }
+	    } finally {
+	        clock.endUnqueue(processedFrames);
+	    }
+
+	    if (!starved && depth > MIN_DEPTH && stableFrames >= (long) sampleRate * SHRINK_AFTER_SECONDS) {
+	        depth--;
+	        stableFrames = 0;
+	    }
+    }
+
+    /**
+     * Stops the source and moves the queued buffers back to the free buffers.
+     */
+    private void release() {
+	    try {
+	        source.stop();
+	        source.setIntParam(AL.AL_BUFFER, 0);
+	    } catch (ALException e) {
+	        // The source is already gone, the buffers are free either way
+	    }
+	    while (queuedCount > 0) {
+	        free[freeCount++] = queue[queueTail];
+	        queue[queueTail] = null;
+	        queueTail = (queueTail + 1) % queue.length;
+	        queuedCount--;
+	    }
+	    queueHead = queueTail;
+	    starved = false;
+	    try {
+	        source.rewind();
+	    } catch (ALException e) {
+	        // The source is already gone
+	    }
+	    clock.beginUnqueue();
+	    clock.reset(processedFrames);
+	    clock.endUnqueue(processedFrames);
+    }
+
+    /**
+     * Stops the monitor and deletes the buffers. The capture device and the source stay open.
+     */
+    public synchronized void close() {
+	    stop();
+	    for (int i = 0; i < freeCount; i++) {
+	        free[i].close();
+	        free[i] = null;
+	    }
+	    freeCount = 0;
+    }
+}
@@ -0,0 +1,499 @@
+package org.valhalla.openal.stream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.valhalla.openal.intermediate.CaptureDevice;
+import org.valhalla.openal.intermediate.CaptureDevice.BlockConsumer;
+import org.valhalla.openal.util.PcmConverter;
+import org.valhalla.openal.util.WavHeader;
+
+/**
+ * Records captured audio to WAV or raw PCM files.<br>
+ * <br>
+ * Blocks handed to {@link #accept(ByteBuffer, long)} are copied into the current of a small set of direct buffers.
+ * A full buffer is handed to a dedicated writer thread and the next free buffer takes its place, so the thread that
+ * delivers the blocks only ever copies memory and never waits for the disk. When the disk falls so far behind that
+ * no buffer is free, the audio is dropped and counted instead.<br>
+ * <br>
+ * The writer patches the sizes in the WAV header after every buffer, so a file cut short by a crash stays playable,
+ * and once more when the file is finished. With a file length set, the recording rolls over to a new numbered file
+ * whenever the current one is full. WAV files also roll over before they reach the 4 GiB limit of the format.<br>
+ * <br>
+ * A capture device has a single consumer. The recorder can be that consumer, see {@link #start(CaptureDevice)},
+ * or it can be called from another consumer, such as the processor of a {@link CaptureMonitor}.
+ */
+public class CaptureRecorder implements BlockConsumer {
+
+    /**
+     * The kind of file that is written.
+     */
+    public enum FileType {
+	    /**
+	     * A WAV file with a canonical 44 byte header.
+	     */
+	    WAV(".wav"),
+	    /**
+	     * Samples without any header.
+	     */
+	    RAW(".pcm");
+
+	    private final String extension;
+
+	    FileType(String extension) {
+	        this.extension = extension;
+	    }
+
+	    /**
+	     * Gets the extension of files of this type.
+	     * @return the extension, including the dot
+	     */
+	    public String getExtension() {
+	        return extension;
+	    }
+    }
+
+    /**
+     * The default amount of audio every buffer holds, in milliseconds.
+     */
+    public static final int DEFAULT_BUFFER_MILLIS = 500;
+
+    /**
+     * The default amount of buffers.
+     */
+    public static final int DEFAULT_BUFFER_COUNT = 2;
+
+    /**
+     * Marks the end of the recording in the queue of the writer.
+     */
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    /**
+     * The longest time the input thread waits for a block before checking if it should stop.
+     */
+    private static final long WAIT_MILLIS = 20;
+
+    /**
+     * The format of the recorded samples.
+     */
+    private final AudioFormat format;
+
+    /**
+     * The kind of file that is written.
+     */
+    private final FileType type;
+
+    /**
+     * The file of a single recording, or null when the recording rolls over.
+     */
+    private final Path file;
+
+    /**
+     * The directory of the rolling files.
+     */
+    private final Path directory;
+
+    /**
+     * The start of the names of the rolling files.
+     */
+    private final String prefix;
+
+    /**
+     * The largest amount of sample data in a file, a multiple of the frame size.
+     */
+    private final long maxFileBytes;
+
+    /**
+     * Buffers that can be filled.
+     */
+    private final BlockingQueue<ByteBuffer> empty;
+
+    /**
+     * Buffers that wait for the writer.
+     */
+    private final BlockingQueue<ByteBuffer> filled;
+
+    /**
+     * The buffer that is being filled, or null.
+     */
+    private ByteBuffer current;
+
+    /**
+     * The writer thread.
+     */
+    private final Thread writer;
+
+    /**
+     * The thread that takes the blocks from a capture device, or null.
+     */
+    private Thread input;
+
+    /**
+     * Keeps the input thread running.
+     */
+    private volatile boolean capturing = false;
+
+    /**
+     * The file that is being written, only used by the writer.
+     */
+    private FileChannel channel;
+
+    /**
+     * The amount of sample data in the file that is being written, only used by the writer.
+     */
+    private long fileBytes = 0;
+
+    /**
+     * The number of the next rolling file, only used by the writer.
+     */
+    private int fileIndex = 0;
+
+    /**
+     * The amount of sample data written to disk.
+     */
+    private volatile long writtenBytes = 0;
+
+    /**
+     * The amount of sample data dropped because no buffer was free.
+     */
+    private volatile long droppedBytes = 0;
+
+    /**
+     * The amount of files that have been started.
+     */
+    private volatile int fileCount = 0;
+
+    /**
+     * The failure of the writer, or null.
+     */
+    private volatile IOException failure;
+
+    /**
+     * Has the recording been closed?
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a recorder that writes a single file.
+     * @param file the file, which is replaced when it exists
+     * @param format the format of the recorded samples
+     * @param type the kind of file
+     */
+    public CaptureRecorder(Path file, AudioFormat format, FileType type) {
+	    this(file, null, null, format, type, 0, DEFAULT_BUFFER_MILLIS, DEFAULT_BUFFER_COUNT);
+    }
+
+    /**
+     * Creates a recorder that rolls over to a new file when the current one is full.
+     * The files are named after the prefix, a dash, a number starting at 0 and the extension of the type.
+     * @param directory the directory of the files
+     * @param prefix the start of the file names
+     * @param format the format of the recorded samples
+     * @param type the kind of file
+     * @param millisPerFile the length of every file in milliseconds, 0 for a single file
+     * @param bufferMillis the amount of audio every buffer holds, in milliseconds
+     * @param bufferCount the amount of buffers, at least 2, the disk may stall for this many buffers minus one
+     */
+    public CaptureRecorder(Path directory, String prefix, AudioFormat format, FileType type, long millisPerFile, int bufferMillis, int bufferCount) {
+	    this(null, directory, prefix, format, type, millisPerFile, bufferMillis, bufferCount);
+    }
+
+    private CaptureRecorder(Path file, Path directory, String prefix, AudioFormat format, FileType type, long millisPerFile, int bufferMillis, int bufferCount) {
+	    if (!PcmConverter.isNative(format)) {
+	        throw new IllegalArgumentException("Recording format not supported: " + format);
+	    }
+	    if (bufferCount < 2 || bufferMillis < 1 || millisPerFile < 0) {
+	        throw new IllegalArgumentException("Invalid buffering: " + bufferCount + " buffers of " + bufferMillis + " ms, " + millisPerFile + " ms per file");
+	    }
+	    this.file = file;
+	    this.directory = directory;
+	    this.prefix = prefix;
+	    this.format = format;
+	    this.type = type;
+
+	    int frameSize = format.getFrameSize();
+	    long bytesPerSecond = (long) format.getSampleRate() * frameSize;
+	    long limit = millisPerFile == 0 ? Long.MAX_VALUE : Math.max(1, millisPerFile * bytesPerSecond / 1000);
+	    if (type == FileType.WAV) {
+	        limit = Math.min(limit, WavHeader.MAX_DATA_SIZE);
+	    }
+	    this.maxFileBytes = Math.max(frameSize, limit / frameSize * frameSize);
+
+	    int bufferSize = (int) Math.max(frameSize, Math.min(Integer.MAX_VALUE / 2, bufferMillis * bytesPerSecond / 1000) / frameSize * frameSize);
+	    empty = new ArrayBlockingQueue<>(bufferCount);
+	    filled = new ArrayBlockingQueue<>(bufferCount + 1);
+	    for (int i = 0; i < bufferCount; i++) {
+	        empty.add(ByteBuffer.allocateDirect(bufferSize));
+	    }
+
+	    writer = new Thread(this::write, "OpenAL recorder");
+	    writer.setDaemon(true);
+	    writer.start();
+    }
+
+    /**
+     * Takes the blocks of a capture device on a dedicated thread until {@link #stop()} is called.
+     * The capture device has to be started separately.
+     * @param capture the capture device, which may not have another consumer
+     */
+    public synchronized void start(CaptureDevice capture) {
+	    if (input != null || closed) {
+	        return;
+	    }
+	    capturing = true;
+	    input = new Thread(() -> {
+	        try {
+	    		while (capturing) {
+	    		    if (capture.await(WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+	    				capture.drain(this);
+	    		    }
+	    		}
+	        } catch (InterruptedException e) {
+	    		// stopped while waiting for a block
+	        }
+	    }, "OpenAL recorder input");
+	    input.setDaemon(true);
+	    input.start();
+    }
+
+    /**
+     * Stops taking blocks from the capture device.
+     */
+    public synchronized void stop() {
+	    if (input == null) {
+	        return;
+	    }
+	    capturing = false;
+	    boolean interrupted = false;
+	    while (input.isAlive()) {
+	        try {
+	    		input.join();
+	        } catch (InterruptedException e) {
+	    		interrupted = true;
+	        }
+	    }
+	    input = null;
+	    if (interrupted) {
+	        Thread.currentThread().interrupt();
+	    }
+    }
+
+    /**
+     * Copies a block into the current buffer. Never waits for the disk; the block is dropped when no buffer is free.
+     * Must always be called from the same thread.
+     * @param block the samples, from the position to the limit
+     * @param timeNanos the capture time of the block, unused
+     */
+    @Override
+    public void accept(ByteBuffer block, long timeNanos) {
+	    if (closed) {
+	        return;
+	    }
+	    int position = block.position();
+	    while (position < block.limit()) {
+	        if (current == null) {
+	    		current = empty.poll();
+	    		if (current == null) {
+	    		    droppedBytes += block.limit() - position;
+	    		    return;
+	    		}
+	        }
+	        int count = Math.min(current.remaining(), block.limit() - position);
+	        current.put(current.position(), block, position, count);
+	        current.position(current.position() + count);
+	        position += count;
+	        if (!current.hasRemaining()) {
+	    		filled.add(current);
+	    		current = null;
+	        }
+	    }
+    }
+
+    /**
+     * Writes the full buffers to disk until the recording is closed.
+     */
+    private void write() {
+	    try {
+	        while (true) {
+	    		ByteBuffer buffer = filled.take();
+	    		if (buffer == END) {
+	    		    break;
+	    		}
+	    		buffer.flip();
+	    		if (failure == null) {
+	    		    try {
+	    				writeBuffer(buffer);
+	    		    } catch (IOException e) {
+	    				failure = e;
+	    				closeFile();
+	    		    }
+	    		}
+	    		buffer.clear();
+	    		empty.add(buffer);
+	        }
+	    } catch (InterruptedException e) {
+	        // The recording is abandoned, the file is finished below
+	    } finally {
+	        closeFile();
+	    }
+    }
+
+    /**
+     * Writes a buffer, starting new files as the current ones fill up.
+     * @param buffer the data, from the position to the limit
+     * @throws IOException when a file could not be written
+     */
+    private void writeBuffer(ByteBuffer buffer) throws IOException {
+	    int end = buffer.limit();
+	    while (buffer.position() < end) {
+	        if (channel == null) {
+	    		openFile();
+	        }
+	        int count = (int) Math.min(end - buffer.position(), maxFileBytes - fileBytes);
+	        buffer.limit(buffer.position() + count);
+	        while (buffer.hasRemaining()) {
+	    		channel.write(buffer);
+	        }
+	        buffer.limit(end);
+	        fileBytes += count;
+	        writtenBytes += count;
+	        if (fileBytes >= maxFileBytes) {
+	    		finishFile();
+	        } else if (type == FileType.WAV) {
+	    		WavHeader.patch(channel, fileBytes);
+	        }
+	    }
+    }
+
+    /**
+     * Opens the next file and writes its header.
+     * @throws IOException when the file could not be created
+     */
+    private void openFile() throws IOException {
+	    Path target = file != null ? file : directory.resolve(String.format("%s-%04d%s", prefix, fileIndex, type.getExtension()));
+	    fileIndex++;
+	    channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	    fileBytes = 0;
+	    fileCount++;
+	    if (type == FileType.WAV) {
+	        ByteBuffer header = WavHeader.create(format, 0);
+	        while (header.hasRemaining()) {
+	    		channel.write(header);
+	        }
+	    }
+    }
+
+    /**
+     * Patches the header of the current file and closes it.
+     * @throws IOException when the file could not be written
+     */
+    private void finishFile() throws IOException {
+	    FileChannel finished = channel;
+	    channel = null;
+	    try {
+	        if (type == FileType.WAV) {
+	    		WavHeader.patch(finished, fileBytes);
+	        }
+	    } finally {
+	        finished.close();
+	    }
+    }
+
+    /**
+     * Finishes the current file, if any, and keeps the first failure.
+     */
+    private void closeFile() {
+	    if (channel == null) {
+	        return;
+	    }
+	    try {
+	        finishFile();
+	    } catch (IOException e) {
+	        if (failure == null) {
+	    		failure = e;
+	        }
+	    }
+    }
+
+    /**
+     * Gets the format of the recorded samples.
+     * @return the format
+     */
+    public AudioFormat getFormat() {
+	    return format;
+    }
+
+    /**
+     * Gets the amount of sample data that has been written to disk.
+     * @return the amount of bytes
+     */
+    public long getWrittenBytes() {
+	    return writtenBytes;
+    }
+
+    /**
+     * Gets the amount of sample data that was dropped because the disk could not keep up.
+     * @return the amount of bytes
+     */
+    public long getDroppedBytes() {
+	    return droppedBytes;
+    }
+
+    /**
+     * Gets the amount of files that have been started.
+     * @return the amount of files
+     */
+    public int getFileCount() {
+	    return fileCount;
+    }
+
+    /**
+     * Gets the failure that stopped the writer. Blocks that arrive after a failure are discarded.
+     * @return the failure, or null when all data was written
+     */
+    public IOException getFailure() {
+	    return failure;
+    }
+
+    /**
+     * Stops taking blocks, writes the remaining audio and finishes the file.
+     * The thread that called {@link #accept(ByteBuffer, long)} may not call it anymore.
+     * @throws IOException when the audio could not be written
+     */
+    public void close() throws IOException {
+	    synchronized (this) {
+	        if (closed) {
+	    		return;
+	        }
+	        stop();
+	        closed = true;
+	    }
+	    if (current != null) {
+	        filled.add(current);
+	        current = null;
+	    }
+	    filled.add(END);
+	    boolean interrupted = false;
+	    while (writer.isAlive()) {
+	        try {
+	    		writer.join();
+	        } catch (InterruptedException e) {
+	    		interrupted = true;
+	        }
+	    }
+	    if (interrupted) {
+	        Thread.currentThread().interrupt();
+	    }
+	    if (failure != null) {
+	        throw failure;
+	    }
+    }
+}
@@ -0,0 +1,841 @@
+package org.valhalla.openal.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.valhalla.openal.intermediate.Buffer;
+import org.valhalla.openal.intermediate.Source;
+import org.valhalla.openal.jna.AL;
+import org.valhalla.openal.util.ALException;
+import org.valhalla.openal.util.SourceState;
+
+/**
+ * Plays a list of audio files back to back without gaps.<br>
+ * <br>
+ * A decoder thread converts the tracks to 16-bit data at the sample rate of the player, and keeps decoding
+ * into the next track while the current one is still playing. A player thread queues the decoded chunks on the source.
+ * The first chunk of a track is queued right behind the last chunk of the previous track on the same source,
+ * so the transition is sample accurate. Only tracks with the same amount of channels can share a source queue;
+ * a track with a different amount of channels starts when the previous track has stopped.<br>
+ * <br>
+ * When the player is given a second source and a crossfade time, every track is played on the other source instead,
+ * started the crossfade time before the end of the previous track. The gains of both sources are ramped with an
+ * equal-power curve on the player thread, measured by the play position of the incoming track.
+ */
+public class PlaylistPlayer {
+
+    /**
+     * The longest time the player thread sleeps between updates.
+     */
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    /**
+     * The time the player thread sleeps between updates during a crossfade.
+     */
+    private static final long FADE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    /**
+     * The shortest time the player thread sleeps between updates.
+     */
+    private static final long MIN_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+    /**
+     * The sample rate all tracks are converted to.
+     */
+    private final int sampleRate;
+
+    /**
+     * The size of a decoded chunk in bytes.
+     */
+    private final int chunkSize;
+
+    /**
+     * The sources the tracks are played on, one for gapless playback or two for crossfades.
+     */
+    private final Deck[] decks;
+
+    /**
+     * All tracks that have been added, in playing order.
+     */
+    private final List<File> playlist = new CopyOnWriteArrayList<>();
+
+    /**
+     * The tracks that have not been decoded yet.
+     */
+    private final LinkedBlockingQueue<Integer> pending = new LinkedBlockingQueue<>();
+
+    /**
+     * Decoded chunks waiting to be queued, which bounds how far the decoder runs ahead.
+     */
+    private final ArrayBlockingQueue<Chunk> ready;
+
+    /**
+     * Chunks that have been queued and can be decoded into again.
+     */
+    private final ConcurrentLinkedQueue<Chunk> spare = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The length of a crossfade in milliseconds, 0 for gapless playback.
+     */
+    private volatile int crossfade = 0;
+
+    /**
+     * The gain of the music.
+     */
+    private volatile float volume = 1.0f;
+
+    /**
+     * The deck that plays the current track.
+     */
+    private Deck current;
+
+    /**
+     * The deck that receives the chunks of the track that is being queued.
+     */
+    private Deck feeding;
+
+    /**
+     * The deck that waits to start the next track, or null.
+     */
+    private Deck incoming;
+
+    /**
+     * The length of the running crossfade in frames, or -1 when no crossfade is running.
+     */
+    private long fadeFrames = -1;
+
+    /**
+     * The index of the track that is audible.
+     */
+    private volatile int currentTrack = -1;
+
+    /**
+     * The amount of tracks that could not be decoded.
+     */
+    private volatile int failedTracks = 0;
+
+    /**
+     * The amount of times the current source ran out of data.
+     */
+    private volatile int underruns = 0;
+
+    /**
+     * The decoder thread, or null before the player has been started.
+     */
+    private Thread decoder;
+
+    /**
+     * The player thread, or null before the player has been started.
+     */
+    private Thread player;
+
+    /**
+     * Should the player stop?
+     */
+    private volatile boolean stopped = false;
+
+    /**
+     * The failure that stopped the player thread, or null.
+     */
+    private volatile ALException failure;
+
+    /**
+     * Creates a new gapless playlist player on a single source.
+     * @param source the source that plays all tracks
+     * @param sampleRate the sample rate all tracks are converted to, usually the device frequency
+     * @param chunkSize the size of the queued buffers in bytes
+     * @param numberOfBuffers the amount of buffers queued on the source
+     * @param readAheadChunks the amount of chunks the decoder may run ahead of the source queue
+     * @throws ALException when the buffers could not be created
+     */
+    public PlaylistPlayer(Source source, int sampleRate, int chunkSize, int numberOfBuffers, int readAheadChunks) throws ALException {
+	    this(source, null, sampleRate, chunkSize, numberOfBuffers, readAheadChunks);
+    }
+
+    /**
+     * Creates a new playlist player that can crossfade between two sources.
+     * @param source the source that plays the first track
+     * @param crossfadeSource the source the player alternates with for crossfades, or null
+     * @param sampleRate the sample rate all tracks are converted to, usually the device frequency
+     * @param chunkSize the size of the queued buffers in bytes
+     * @param numberOfBuffers the amount of buffers queued on each source
+     * @param readAheadChunks the amount of chunks the decoder may run ahead of the source queues
+     * @throws ALException when the buffers could not be created
+     */
+    public PlaylistPlayer(Source source, Source crossfadeSource, int sampleRate, int chunkSize, int numberOfBuffers, int readAheadChunks) throws ALException {
+	    this.sampleRate = sampleRate;
+	    this.chunkSize = chunkSize;
+	    this.ready = new ArrayBlockingQueue<>(readAheadChunks);
+	    this.decks = crossfadeSource == null
+	    		? new Deck[] { new Deck(source, numberOfBuffers) }
+	    		: new Deck[] { new Deck(source, numberOfBuffers), new Deck(crossfadeSource, numberOfBuffers) };
+    }
+
+    /**
+     * Adds a track to the end of the playlist. Tracks can be added while the player is running.
+     * @param track the audio file
+     */
+    public synchronized void add(File track) {
+	    playlist.add(track);
+	    pending.add(playlist.size() - 1);
+    }
+
+    /**
+     * Gets all tracks that have been added.
+     * @return the tracks in playing order
+     */
+    public List<File> getPlaylist() {
+	    return List.copyOf(playlist);
+    }
+
+    /**
+     * Gets the index of the track that is playing.
+     * @return the index in the playlist, or -1 when nothing has been played yet
+     */
+    public int getCurrentTrack() {
+	    return currentTrack;
+    }
+
+    /**
+     * Sets the length of crossfades. Only has an effect when the player has two sources.
+     * @param millis the crossfade time in milliseconds, 0 for gapless transitions
+     */
+    public void setCrossfade(int millis) {
+	    crossfade = Math.max(0, millis);
+    }
+
+    /**
+     * Gets the length of crossfades.
+     * @return the crossfade time in milliseconds
+     */
+    public int getCrossfade() {
+	    return crossfade;
+    }
+
+    /**
+     * Sets the gain of the music. The gain of the sources is managed by the player.
+     * @param volume the gain
+     */
+    public void setVolume(float volume) {
+	    this.volume = volume;
+    }
+
+    /**
+     * Gets the gain of the music.
+     * @return the gain
+     */
+    public float getVolume() {
+	    return volume;
+    }
+
+    /**
+     * Gets the amount of tracks that were skipped because they could not be decoded.
+     * @return the amount of failed tracks
+     */
+    public int getFailedTrackCount() {
+	    return failedTracks;
+    }
+
+    /**
+     * Gets the amount of times the playing source ran out of data.
+     * @return the amount of underruns
+     */
+    public int getUnderrunCount() {
+	    return underruns;
+    }
+
+    /**
+     * Gets the failure that stopped the player. A player that stopped without a failure
+     * has reached the end of the playlist or was closed.
+     * @return the failure, or null when the player did not fail
+     */
+    public ALException getFailure() {
+	    return failure;
+    }
+
+    /**
+     * Starts the decoder and player threads.
+     */
+    public synchronized void start() {
+	    if (player != null) {
+	        throw new IllegalStateException("Playlist player has already been started");
+	    }
+	    decoder = new Thread(this::decode, "OpenAL playlist decode");
+	    player = new Thread(this::play, "OpenAL playlist player");
+	    decoder.setDaemon(true);
+	    player.setDaemon(true);
+	    decoder.start();
+	    player.start();
+    }
+
+    /**
+     * Stops playback, waits for both threads to end and deletes the buffers.
+     */
+    public void close() {
+	    stopped = true;
+	    Thread[] threads = { decoder, player };
+	    for (Thread thread : threads) {
+	        if (thread == null) {
+	    		continue;
+	        }
+	        thread.interrupt();
+	        try {
+	    		thread.join();
+	        } catch (InterruptedException e) {
+	    		Thread.currentThread().interrupt();
+	        }
+	    }
+	    if (player == null) {
+	        for (Deck deck : decks) {
+	    		deck.release();
+	        }
+	    }
+    }
+
+    /**
+     * Decodes the tracks in order. Runs on the decoder thread.
+     */
+    private void decode() {
+	    while (!stopped) {
+	        Integer track;
+	        try {
+	    		track = pending.poll(MAX_WAIT_NANOS, TimeUnit.NANOSECONDS);
+	        } catch (InterruptedException e) {
+	    		return;
+	        }
+	        if (track == null) {
+	    		continue;
+	        }
+	        try (AudioInputStream input = AudioSystem.getAudioInputStream(playlist.get(track))) {
+	    		ChunkWriter writer = new ChunkWriter(track, input.getFormat().getChannels());
+	    		try (OutputStream output = new ResamplingOutputStream(writer, input.getFormat(), sampleRate)) {
+	    		    input.transferTo(output);
+	    		}
+	        } catch (IOException | UnsupportedAudioFileException | ALException e) {
+	    		if (stopped) {
+	    		    return;
+	    		}
+	    		failedTracks++;
+	        }
+	    }
+    }
+
+    /**
+     * Queues ready chunks and runs the transitions between tracks. Runs on the player thread.
+     */
+    private void play() {
+	    try {
+	        while (!stopped) {
+	    		for (Deck deck : decks) {
+	    		    deck.reclaim();
+	    		}
+	    		feed();
+	    		long wait = transition();
+	    		LockSupport.parkNanos(this, wait);
+	        }
+	    } catch (ALException e) {
+	        // The sources are gone, nothing more can be played
+	        failure = e;
+	    } finally {
+	        stopped = true;
+	        if (decoder != null) {
+	    		decoder.interrupt();
+	        }
+	        for (Deck deck : decks) {
+	    		deck.release();
+	        }
+	    }
+    }
+
+    /**
+     * Moves ready chunks to the deck of their track, as long as it has free buffers.
+     * @throws ALException when a chunk could not be queued
+     */
+    private void feed() throws ALException {
+	    Chunk chunk;
+	    while ((chunk = ready.peek()) != null) {
+	        if (chunk.first) {
+	    		Deck deck = selectDeck(chunk);
+	    		if (deck == null) {
+	    		    return;
+	    		}
+	    		feeding = deck;
+	        }
+	        if (feeding.queuedCount == feeding.buffers.length) {
+	    		return;
+	        }
+	        ready.poll();
+	        feeding.queue(chunk);
+	        spare.add(chunk);
+	    }
+    }
+
+    /**
+     * Selects the deck for a track that is about to be queued.
+     * @param chunk the first chunk of the track
+     * @return the deck, or null when the track has to wait for a deck to become free
+     * @throws ALException when the state of a source could not be read
+     */
+    private Deck selectDeck(Chunk chunk) throws ALException {
+	    if (current == null) {
+	        current = decks[0];
+	        currentTrack = chunk.track;
+	        current.startWhenFilled();
+	        return current;
+	    }
+	    if (incoming != null) {
+	        return null;
+	    }
+	    boolean fade = crossfade > 0 && decks.length > 1;
+	    if (!fade && feeding.channels == chunk.channels && !feeding.isIdle()) {
+	        // Queued right behind the previous track
+	        return feeding;
+	    }
+	    Deck other = decks.length > 1 ? decks[current == decks[0] ? 1 : 0] : current;
+	    if (!other.isIdle()) {
+	        return null;
+	    }
+	    if (other == current) {
+	        currentTrack = chunk.track;
+	        current.startWhenFilled();
+	    } else {
+	        incoming = other;
+	    }
+	    return other;
+    }
+
+    /**
+     * Starts the incoming deck at the right time, ramps the gains of a running crossfade and restarts a starved source.
+     * @return the time in nanoseconds the player thread can sleep
+     * @throws ALException when the sources could not be updated
+     */
+    private long transition() throws ALException {
+	    if (current == null) {
+	        return MAX_WAIT_NANOS;
+	    }
+	    if (incoming != null && fadeFrames < 0) {
+	        long fade = decks.length > 1 ? (long) crossfade * sampleRate / 1000 : 0;
+	        long remaining = current.getRemainingFrames();
+	        if (remaining <= fade || current.isIdle()) {
+	    		fadeFrames = Math.min(fade, remaining);
+	    		incoming.source.setGain(fadeFrames > 0 ? 0.0f : volume);
+	    		incoming.start();
+	        }
+	    }
+	    if (incoming != null && fadeFrames >= 0) {
+	        float t = fadeFrames == 0 ? 1.0f : Math.min(1.0f, (float) incoming.getPosition() / fadeFrames);
+	        incoming.source.setGain(volume * (float) Math.sin(t * Math.PI / 2));
+	        current.source.setGain(volume * (float) Math.cos(t * Math.PI / 2));
+	        if (t < 1.0f) {
+	    		return FADE_WAIT_NANOS;
+	        }
+	        current = incoming;
+	        currentTrack = current.getTrack();
+	        incoming = null;
+	        fadeFrames = -1;
+	    }
+
+	    current.source.setGain(volume);
+	    if (current.restartIfStarved()) {
+	        underruns++;
+	    }
+	    if (current.queuedCount > 0) {
+	        currentTrack = current.getTrack();
+	    }
+	    return current.getWaitTime();
+    }
+
+    /**
+     * A source with its own rotating set of buffers.
+     */
+    private final class Deck {
+
+	    /**
+	     * The source of this deck.
+	     */
+	    private final Source source;
+
+	    /**
+	     * The buffers that are rotated through the queue of the source.
+	     */
+	    private final Buffer[] buffers;
+
+	    /**
+	     * The amount of frames in every buffer.
+	     */
+	    private final int[] bufferFrames;
+
+	    /**
+	     * The track of every buffer.
+	     */
+	    private final int[] bufferTracks;
+
+	    /**
+	     * The index of the next buffer to fill.
+	     */
+	    private int queueHead = 0;
+
+	    /**
+	     * The index of the oldest queued buffer.
+	     */
+	    private int queueTail = 0;
+
+	    /**
+	     * The amount of queued buffers.
+	     */
+	    private int queuedCount = 0;
+
+	    /**
+	     * The amount of frames in all queued buffers.
+	     */
+	    private long queuedFrames = 0;
+
+	    /**
+	     * The amount of frames played since the deck was last started.
+	     */
+	    private long playedFrames = 0;
+
+	    /**
+	     * The amount of channels of the queued data.
+	     */
+	    private int channels = 0;
+
+	    /**
+	     * The track of the last queued buffer.
+	     */
+	    private int lastTrack = -1;
+
+	    /**
+	     * Should the source start as soon as its queue is filled?
+	     */
+	    private boolean autoStart = false;
+
+	    /**
+	     * Has the source been started, and has it not finished playing its queue?
+	     */
+	    private boolean running = false;
+
+	    private Deck(Source source, int numberOfBuffers) throws ALException {
+	        this.source = source;
+	        this.buffers = new Buffer[numberOfBuffers];
+	        this.bufferFrames = new int[numberOfBuffers];
+	        this.bufferTracks = new int[numberOfBuffers];
+	        for (int i = 0; i < numberOfBuffers; i++) {
+	    		buffers[i] = new Buffer(source.getFactory());
+	        }
+	    }
+
+	    /**
+	     * Uploads a chunk into the next buffer and queues it.
+	     * @param chunk the chunk
+	     * @throws ALException when the chunk could not be uploaded
+	     */
+	    private void queue(Chunk chunk) throws ALException {
+	        if (chunk.length > 0) {
+	    		Buffer buffer = buffers[queueHead];
+	    		int format = chunk.channels == 1 ? AL.AL_FORMAT_MONO16 : AL.AL_FORMAT_STEREO16;
+	    		buffer.addBufferData(format, ByteBuffer.wrap(chunk.data, 0, chunk.length), sampleRate);
+	    		source.queueBuffer(buffer);
+	    		int frames = chunk.length / (chunk.channels * 2);
+	    		bufferFrames[queueHead] = frames;
+	    		bufferTracks[queueHead] = chunk.track;
+	    		queueHead = (queueHead + 1) % buffers.length;
+	    		queuedCount++;
+	    		queuedFrames += frames;
+	        }
+	        channels = chunk.channels;
+	        lastTrack = chunk.track;
+	        if (autoStart && queuedCount == 0 && chunk.last) {
+	    		// Nothing to play in this track
+	    		autoStart = false;
+	        } else if (autoStart && (queuedCount == buffers.length || chunk.last)) {
+	    		start();
+	        }
+	    }
+
+	    /**
+	     * Starts the source once its queue has been filled, or the track has been queued completely.
+	     */
+	    private void startWhenFilled() {
+	        autoStart = true;
+	    }
+
+	    /**
+	     * Starts the source right away.
+	     * @throws ALException when the source could not be started
+	     */
+	    private void start() throws ALException {
+	        autoStart = false;
+	        running = true;
+	        playedFrames = 0;
+	        source.play();
+	    }
+
+	    /**
+	     * Unqueues all buffers the source has finished playing, oldest first.
+	     * @throws ALException when the buffers could not be unqueued
+	     */
+	    private void reclaim() throws ALException {
+	        if (queuedCount == 0) {
+	    		return;
+	        }
+	        int processed = Math.min(source.getProcessedBufferCount(), queuedCount);
+	        for (int i = 0; i < processed; i++) {
+	    		source.unqueueBuffer(buffers[queueTail]);
+	    		playedFrames += bufferFrames[queueTail];
+	    		queuedFrames -= bufferFrames[queueTail];
+	    		queueTail = (queueTail + 1) % buffers.length;
+	    		queuedCount--;
+	        }
+	    }
+
+	    /**
+	     * Restarts the source when it ran out of data while more data is queued.
+	     * @return true when the source had stopped
+	     * @throws ALException when the source could not be restarted
+	     */
+	    private boolean restartIfStarved() throws ALException {
+	        if (!running || queuedCount == 0 || source.getSourceState() != SourceState.STOPPED) {
+	    		return false;
+	        }
+	        source.play();
+	        return true;
+	    }
+
+	    /**
+	     * Checks if the deck has played everything and can take a new track.
+	     * @return true when nothing is queued and the source does not play
+	     * @throws ALException when the state of the source could not be read
+	     */
+	    private boolean isIdle() throws ALException {
+	        if (queuedCount > 0 || autoStart) {
+	    		return false;
+	        }
+	        if (running && source.getSourceState() == SourceState.PLAYING) {
+	    		return false;
+	        }
+	        running = false;
+	        return true;
+	    }
+
+	    /**
+	     * Gets the track that is playing, or was queued last when nothing is queued.
+	     * @return the index of the track in the playlist
+	     */
+	    private int getTrack() {
+	        return queuedCount > 0 ? bufferTracks[queueTail] : lastTrack;
+	    }
+
+	    /**
+	     * Gets the amount of queued frames the source has not played yet.
+	     * @return the amount of frames
+	     * @throws ALException when the play position could not be read
+	     */
+	    private long getRemainingFrames() throws ALException {
+	        if (queuedCount == 0) {
+	    		return 0;
+	        }
+	        return Math.max(0, queuedFrames - source.getIntParam(AL.AL_SAMPLE_OFFSET));
+	    }
+
+	    /**
+	     * Gets the amount of frames played since the source was started.
+	     * @return the play position in frames
+	     * @throws ALException when the play position could not be read
+	     */
+	    private long getPosition() throws ALException {
+	        long position = playedFrames;
+	        if (queuedCount > 0) {
+	    		position += source.getIntParam(AL.AL_SAMPLE_OFFSET);
+	        }
+	        return position;
+	    }
+
+	    /**
+	     * Calculates how long the player thread can sleep before the oldest buffer has been played.
+	     * @return the time in nanoseconds
+	     * @throws ALException when the play position could not be read
+	     */
+	    private long getWaitTime() throws ALException {
+	        if (queuedCount == 0 || source.getSourceState() != SourceState.PLAYING) {
+	    		return MIN_WAIT_NANOS * 4;
+	        }
+	        int remaining = bufferFrames[queueTail] - source.getIntParam(AL.AL_SAMPLE_OFFSET);
+	        long nanos = TimeUnit.SECONDS.toNanos(Math.max(remaining, 0)) / sampleRate;
+	        return Math.max(MIN_WAIT_NANOS, Math.min(nanos, MAX_WAIT_NANOS));
+	    }
+
+	    /**
+	     * Stops the source, detaches the buffers and deletes them.
+	     */
+	    private void release() {
+	        try {
+	    		source.stop();
+	    		source.setIntParam(AL.AL_BUFFER, 0);
+	        } catch (ALException e) {
+	    		// The source is already gone, the buffers can be deleted either way
+	        }
+	        for (Buffer buffer : buffers) {
+	    		buffer.close();
+	        }
+	        queuedCount = 0;
+	    }
+    }
+
+    /**
+     * A reusable piece of decoded data.
+     */
+    private static final class Chunk {
+
+	    /**
+	     * The decoded 16-bit data.
+	     */
+	    private final byte[] data;
+
+	    /**
+	     * The amount of valid bytes.
+	     */
+	    private int length;
+
+	    /**
+	     * The index of the track in the playlist.
+	     */
+	    private int track;
+
+	    /**
+	     * The amount of channels of the track.
+	     */
+	    private int channels;
+
+	    /**
+	     * Is this the first chunk of the track?
+	     */
+	    private boolean first;
+
+	    /**
+	     * Is this the last chunk of the track?
+	     */
+	    private boolean last;
+
+	    private Chunk(int size) {
+	        data = new byte[size];
+	    }
+    }
+
+    /**
+     * Cuts the decoded data of a track into chunks and hands them to the player thread.
+     */
+    private final class ChunkWriter extends OutputStream {
+
+	    /**
+	     * The index of the track in the playlist.
+	     */
+	    private final int track;
+
+	    /**
+	     * The amount of channels of the track.
+	     */
+	    private final int channels;
+
+	    /**
+	     * The amount of data in a chunk of this track, a multiple of the frame size.
+	     */
+	    private final int capacity;
+
+	    /**
+	     * The chunk that is being filled, or null.
+	     */
+	    private Chunk chunk;
+
+	    /**
+	     * Has the first chunk been handed over?
+	     */
+	    private boolean started = false;
+
+	    private ChunkWriter(int track, int channels) {
+	        this.track = track;
+	        this.channels = channels;
+	        this.capacity = Math.max(1, chunkSize / (channels * 2)) * channels * 2;
+	    }
+
+	    @Override
+	    public void write(int b) throws IOException {
+	        write(new byte[]{(byte) b}, 0, 1);
+	    }
+
+	    @Override
+	    public void write(byte[] b, int off, int len) throws IOException {
+	        while (len > 0) {
+	    		if (chunk == null) {
+	    		    chunk = next();
+	    		}
+	    		int count = Math.min(len, capacity - chunk.length);
+	    		System.arraycopy(b, off, chunk.data, chunk.length, count);
+	    		chunk.length += count;
+	    		off += count;
+	    		len -= count;
+	    		if (chunk.length == capacity) {
+	    		    publish(false);
+	    		}
+	        }
+	    }
+
+	    /**
+	     * Hands the last chunk of the track over, which may be empty.
+	     * @throws IOException when the thread was interrupted
+	     */
+	    @Override
+	    public void close() throws IOException {
+	        if (chunk == null) {
+	    		chunk = next();
+	        }
+	        publish(true);
+	    }
+
+	    /**
+	     * Takes a spare chunk, or creates one when there is none that is large enough.
+	     * @return an empty chunk for this track
+	     */
+	    private Chunk next() {
+	        Chunk next = spare.poll();
+	        // The capacity depends on the channels, a chunk of a stereo track can be too small for a mono track
+	        if (next == null || next.data.length < capacity) {
+	    		next = new Chunk(capacity);
+	        }
+	        next.length = 0;
+	        next.track = track;
+	        next.channels = channels;
+	        return next;
+	    }
+
+	    /**
+	     * Hands the current chunk over, blocking while the decoder is too far ahead.
+	     * @param last is this the last chunk of the track?
+	     * @throws IOException when the thread was interrupted
+	     */
+	    private void publish(boolean last) throws IOException {
+	        chunk.first = !started;
+	        chunk.last = last;
+	        started = true;
+	        try {
+	    		ready.put(chunk);
+	        } catch (InterruptedException e) {
+	    		throw new IOException("IO Operation interrupted");
+	        }
+	        chunk = null;
+	    }
+    }
+}
@@ -0,0 +1,122 @@
+package org.valhalla.openal.stream;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.valhalla.openal.util.ALException;
+import org.valhalla.openal.util.PcmConverter;
+import org.valhalla.openal.util.Resampler;
+
+/**
+ * An output stream that converts audio data to another sample rate before passing it on.<br>
+ * <br>
+ * This is the streaming counterpart of resampling at load time: wrap a source output stream created with the
+ * format returned by {@link Resampler#getTargetFormat(AudioFormat, int)} to feed it data of any rate and PCM layout.
+ * Writes do not need to be aligned to frames, partial frames are kept until the rest arrives.
+ */
+public class ResamplingOutputStream extends FilterOutputStream {
+
+    /**
+     * The format of the data written to this stream.
+     */
+    private final AudioFormat format;
+
+    /**
+     * The resampler that keeps the filter state between writes.
+     */
+    private final Resampler resampler;
+
+    /**
+     * Bytes of an incomplete frame that have not been converted yet.
+     */
+    private final byte[] partialFrame;
+
+    /**
+     * The amount of bytes stored in {@link #partialFrame}.
+     */
+    private int partialLength = 0;
+
+    /**
+     * Creates a new resampling output stream.
+     * @param out the stream that receives signed little-endian 16-bit data at the target rate
+     * @param format the format of the data that will be written to this stream
+     * @param targetRate the sample rate of the data passed on
+     * @throws ALException when the format cannot be converted
+     */
+    public ResamplingOutputStream(OutputStream out, AudioFormat format, int targetRate) throws ALException {
+	    super(out);
+	    PcmConverter.getTargetFormat(format);
+	    this.format = format;
+	    this.resampler = new Resampler(format.getChannels(), (int) format.getSampleRate(), targetRate);
+	    this.partialFrame = new byte[format.getFrameSize()];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+	    write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+	    int frameSize = partialFrame.length;
+	    if (partialLength > 0) {
+	        int missing = Math.min(frameSize - partialLength, len);
+	        System.arraycopy(b, off, partialFrame, partialLength, missing);
+	        partialLength += missing;
+	        off += missing;
+	        len -= missing;
+	        if (partialLength < frameSize) {
+	    		return;
+	        }
+	        convert(partialFrame, 0, frameSize);
+	        partialLength = 0;
+	    }
+
+	    int whole = (len / frameSize) * frameSize;
+	    if (whole > 0) {
+	        convert(b, off, whole);
+	    }
+	    partialLength = len - whole;
+	    System.arraycopy(b, off + whole, partialFrame, 0, partialLength);
+    }
+
+    /**
+     * Converts whole frames and writes the result to the underlying stream.
+     * @param b the data
+     * @param off the index of the first byte
+     * @param len the amount of bytes, a multiple of the frame size
+     * @throws IOException when the data could not be converted or written
+     */
+    private void convert(byte[] b, int off, int len) throws IOException {
+	    try {
+	        byte[] samples = PcmConverter.normalize(format, b, off, len);
+	        if (format.getSampleSizeInBits() == 8) {
+	    		byte[] wide = new byte[samples.length * 2];
+	    		PcmConverter.pcm8To16(samples, 0, wide, 0, samples.length);
+	    		samples = wide;
+	        }
+	        byte[] result = resampler.process(samples, 0, samples.length);
+	        if (result.length > 0) {
+	    		out.write(result);
+	        }
+	    } catch (ALException e) {
+	        throw new IOException(e);
+	    }
+    }
+
+    /**
+     * Passes the remaining resampled data on and closes the underlying stream.
+     * @throws IOException when the remaining data could not be written
+     */
+    @Override
+    public void close() throws IOException {
+	    byte[] result = resampler.flush();
+	    if (result.length > 0) {
+	        out.write(result);
+	    }
+	    super.close();
+    }
+}
@@ -0,0 +1,279 @@
+package org.valhalla.openal.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Maps sample frames of an audio file to byte offsets in the file.<br>
+ * <br>
+ * The table is built from the RIFF/WAVE or AIFF/AIFC header, which is parsed once. The sample data of these files
+ * has a fixed frame size, so every frame can be found without reading or decoding the data before it.
+ * Tables are cached by path, size and modification time, so seeking again in the same file does not touch the header.
+ */
+public final class SeekTable {
+
+    /**
+     * The amount of tables kept in the cache.
+     */
+    private static final int CACHE_SIZE = 256;
+
+    /**
+     * Tables of recently opened files, the least recently used is dropped first.
+     */
+    private static final Map<String, SeekTable> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+	    @Override
+	    protected boolean removeEldestEntry(Map.Entry<String, SeekTable> eldest) {
+	        return size() > CACHE_SIZE;
+	    }
+    };
+
+    /**
+     * The format of the sample data.
+     */
+    private final AudioFormat format;
+
+    /**
+     * The offset of the first frame in the file.
+     */
+    private final long dataOffset;
+
+    /**
+     * The amount of whole frames in the file.
+     */
+    private final long frameCount;
+
+    private SeekTable(AudioFormat format, long dataOffset, long frameCount) {
+	    this.format = format;
+	    this.dataOffset = dataOffset;
+	    this.frameCount = frameCount;
+    }
+
+    /**
+     * Gets the seek table of a file, parsing its header when it is not cached yet.
+     * @param file a WAV or AIFF file
+     * @return the seek table
+     * @throws IOException when the file could not be read or is not a WAV or AIFF file with fixed size frames
+     */
+    public static SeekTable forFile(File file) throws IOException {
+	    String key = file.getCanonicalPath() + '|' + file.length() + '|' + file.lastModified();
+	    synchronized (CACHE) {
+	        SeekTable table = CACHE.get(key);
+	        if (table != null) {
+	    		return table;
+	        }
+	    }
+	    SeekTable table;
+	    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+	        table = parse(channel);
+	    }
+	    synchronized (CACHE) {
+	        CACHE.put(key, table);
+	    }
+	    return table;
+    }
+
+    /**
+     * Gets the format of the sample data.
+     * @return the format
+     */
+    public AudioFormat getFormat() {
+	    return format;
+    }
+
+    /**
+     * Gets the amount of frames in the file.
+     * @return the amount of frames
+     */
+    public long getFrameCount() {
+	    return frameCount;
+    }
+
+    /**
+     * Gets the offset of the first frame in the file.
+     * @return the offset in bytes
+     */
+    public long getDataOffset() {
+	    return dataOffset;
+    }
+
+    /**
+     * Gets the offset just past the last whole frame in the file.
+     * @return the offset in bytes
+     */
+    public long getDataEnd() {
+	    return getByteOffset(frameCount);
+    }
+
+    /**
+     * Gets the offset of a frame in the file.
+     * @param frame the frame, clamped to the frames in the file
+     * @return the offset in bytes
+     */
+    public long getByteOffset(long frame) {
+	    return dataOffset + Math.max(0, Math.min(frame, frameCount)) * format.getFrameSize();
+    }
+
+    /**
+     * Parses the header of a file.
+     * @param channel the file
+     * @return the seek table
+     * @throws IOException when the file could not be read or has an unsupported format
+     */
+    private static SeekTable parse(FileChannel channel) throws IOException {
+	    ByteBuffer header = read(channel, 0, 12);
+	    String magic = fourCC(header, 0);
+	    String type = fourCC(header, 8);
+	    if (magic.equals("RIFF") && type.equals("WAVE")) {
+	        return parseWave(channel);
+	    }
+	    if (magic.equals("FORM") && (type.equals("AIFF") || type.equals("AIFC"))) {
+	        return parseAiff(channel, type.equals("AIFC"));
+	    }
+	    throw new IOException("Not a WAV or AIFF file");
+    }
+
+    /**
+     * Parses the chunks of a RIFF/WAVE file.
+     * @param channel the file
+     * @return the seek table
+     * @throws IOException when the file could not be read or has an unsupported format
+     */
+    private static SeekTable parseWave(FileChannel channel) throws IOException {
+	    AudioFormat format = null;
+	    long position = 12;
+	    long size = channel.size();
+	    while (position + 8 <= size) {
+	        ByteBuffer chunk = read(channel, position, 8).order(ByteOrder.LITTLE_ENDIAN);
+	        String id = fourCC(chunk, 0);
+	        long length = chunk.getInt(4) & 0xFFFFFFFFL;
+	        if (id.equals("fmt ")) {
+	    		ByteBuffer fmt = read(channel, position + 8, (int) Math.min(length, 40)).order(ByteOrder.LITTLE_ENDIAN);
+	    		int tag = fmt.getShort(0) & 0xFFFF;
+	    		int channels = fmt.getShort(2);
+	    		int rate = fmt.getInt(4);
+	    		int blockAlign = fmt.getShort(12);
+	    		int bits = fmt.getShort(14);
+	    		if (tag == 0xFFFE && length >= 26) {
+	    		    // WAVE_FORMAT_EXTENSIBLE, the actual tag starts the sub format GUID
+	    		    tag = fmt.getShort(24) & 0xFFFF;
+	    		}
+	    		AudioFormat.Encoding encoding;
+	    		if (tag == 1) {
+	    		    encoding = bits == 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED;
+	    		} else if (tag == 3) {
+	    		    encoding = AudioFormat.Encoding.PCM_FLOAT;
+	    		} else {
+	    		    throw new IOException("Unsupported WAV format tag: " + tag);
+	    		}
+	    		format = new AudioFormat(encoding, rate, bits, channels, blockAlign, rate, false);
+	        } else if (id.equals("data")) {
+	    		if (format == null) {
+	    		    throw new IOException("WAV data chunk before the fmt chunk");
+	    		}
+	    		long dataOffset = position + 8;
+	    		// Streamed files may leave the size at 0 or at its maximum
+	    		long available = size - dataOffset;
+	    		long dataLength = length == 0 || length > available ? available : length;
+	    		return new SeekTable(format, dataOffset, dataLength / format.getFrameSize());
+	        }
+	        position += 8 + length + (length & 1);
+	    }
+	    throw new IOException("WAV file without a data chunk");
+    }
+
+    /**
+     * Parses the chunks of an AIFF or AIFC file.
+     * @param channel the file
+     * @param compressed is this an AIFC file with a compression type?
+     * @return the seek table
+     * @throws IOException when the file could not be read or has an unsupported format
+     */
+    private static SeekTable parseAiff(FileChannel channel, boolean compressed) throws IOException {
+	    AudioFormat format = null;
+	    long frames = 0;
+	    long position = 12;
+	    long size = channel.size();
+	    while (position + 8 <= size) {
+	        ByteBuffer chunk = read(channel, position, 8);
+	        String id = fourCC(chunk, 0);
+	        long length = chunk.getInt(4) & 0xFFFFFFFFL;
+	        if (id.equals("COMM")) {
+	    		ByteBuffer comm = read(channel, position + 8, (int) Math.min(length, 22));
+	    		int channels = comm.getShort(0);
+	    		frames = comm.getInt(2) & 0xFFFFFFFFL;
+	    		int bits = comm.getShort(6);
+	    		float rate = (float) extendedToDouble(comm, 8);
+	    		String compression = compressed && length >= 22 ? fourCC(comm, 18) : "NONE";
+	    		int frameSize = channels * ((bits + 7) / 8);
+	    		format = switch (compression) {
+	    		    case "NONE", "twos" -> new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, rate, bits, channels, frameSize, rate, true);
+	    		    case "sowt" -> new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, rate, bits, channels, frameSize, rate, false);
+	    		    case "fl32", "FL32" -> new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, rate, 32, channels, channels * 4, rate, true);
+	    		    default -> throw new IOException("Unsupported AIFC compression type: " + compression);
+	    		};
+	        } else if (id.equals("SSND")) {
+	    		if (format == null) {
+	    		    throw new IOException("AIFF sound data chunk before the common chunk");
+	    		}
+	    		long dataOffset = position + 16 + (read(channel, position + 8, 4).getInt(0) & 0xFFFFFFFFL);
+	    		long available = (size - dataOffset) / format.getFrameSize();
+	    		return new SeekTable(format, dataOffset, Math.min(frames, available));
+	        }
+	        position += 8 + length + (length & 1);
+	    }
+	    throw new IOException("AIFF file without a sound data chunk");
+    }
+
+    /**
+     * Reads a part of a file.
+     * @param channel the file
+     * @param position the offset of the part
+     * @param length the length of the part
+     * @return a big-endian buffer holding the part
+     * @throws IOException when the part could not be read completely
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+	    ByteBuffer buffer = ByteBuffer.allocate(length);
+	    while (buffer.hasRemaining()) {
+	        if (channel.read(buffer, position + buffer.position()) < 0) {
+	    		throw new IOException("Unexpected end of file at offset " + (position + buffer.position()));
+	        }
+	    }
+	    return buffer;
+    }
+
+    /**
+     * Reads a four character code.
+     * @param buffer the buffer
+     * @param index the index of the code
+     * @return the code as string
+     */
+    private static String fourCC(ByteBuffer buffer, int index) {
+	    char[] code = new char[4];
+	    for (int i = 0; i < 4; i++) {
+	        code[i] = (char) (buffer.get(index + i) & 0xFF);
+	    }
+	    return new String(code);
+    }
+
+    /**
+     * Converts an 80-bit IEEE 754 extended precision number, as used for the sample rate of AIFF files.
+     * @param buffer the buffer
+     * @param index the index of the number
+     * @return the number
+     */
+    private static double extendedToDouble(ByteBuffer buffer, int index) {
+	    int exponent = buffer.getShort(index) & 0x7FFF;
+	    long mantissa = buffer.getLong(index + 2);
+	    double value = (mantissa >>> 1) * Math.pow(2, exponent - 16383 - 62);
+	    return (buffer.get(index) & 0x80) != 0 ? -value : value;
+    }
+}
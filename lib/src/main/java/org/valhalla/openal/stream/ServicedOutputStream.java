@@ -0,0 +1,588 @@
+package org.valhalla.openal.stream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.valhalla.openal.intermediate.Buffer;
+import org.valhalla.openal.intermediate.PlaybackClock;
+import org.valhalla.openal.intermediate.Source;
+import org.valhalla.openal.jna.AL;
+import org.valhalla.openal.util.ALException;
+import org.valhalla.openal.util.PcmConverter;
+import org.valhalla.openal.util.SourceState;
+
+/**
+ * An output stream to a source whose buffer queue is kept filled by a {@link StreamingService}.<br>
+ * <br>
+ * Written data is converted to an OpenAL format and collected into chunks of the buffer size.
+ * Full chunks are handed over to the service, which uploads them into the buffers the source has finished playing.
+ * When as many chunks are pending as the source has buffers, writing blocks until the service takes one,
+ * so a producer can never run further ahead than the queue.<br>
+ * <br>
+ * Closing the stream hands over the last partial chunk and waits until everything has been played.
+ * Create instances with {@link StreamingService#createStream(Source, AudioFormat, int, int)}.
+ */
+public class ServicedOutputStream extends OutputStream {
+
+    /**
+     * The service that fills the buffer queue.
+     */
+    private final StreamingService service;
+
+    /**
+     * The source that plays the stream.
+     */
+    private final Source source;
+
+    /**
+     * The format of the data written to this stream.
+     */
+    private final AudioFormat format;
+
+    /**
+     * The OpenAL format enum of the buffers.
+     */
+    private final int alFormat;
+
+    /**
+     * The sample rate of the buffers.
+     */
+    private final int sampleRate;
+
+    /**
+     * The size of a frame in the buffers, in bytes.
+     */
+    private final int frameSize;
+
+    /**
+     * The size of a chunk in bytes, a multiple of the frame size.
+     */
+    private final int chunkSize;
+
+    /**
+     * The buffers that are rotated through the queue of the source.
+     */
+    private final Buffer[] buffers;
+
+    /**
+     * The amount of frames in every buffer, by buffer index. Only used by the service thread.
+     */
+    private final int[] bufferFrames;
+
+    /**
+     * The indices of the queued buffers, in the order they are played. Only used by the service thread.
+     */
+    private final int[] queue;
+
+    /**
+     * The index into {@link #queue} of the buffer that is playing. Only used by the service thread.
+     */
+    private int queueHead = 0;
+
+    /**
+     * The amount of queued buffers. Only used by the service thread.
+     */
+    private int queuedCount = 0;
+
+    /**
+     * Guards the chunks shared between the producer and the service.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when the service has taken a pending chunk.
+     */
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * Signalled when the stream has been released.
+     */
+    private final Condition released = lock.newCondition();
+
+    /**
+     * The chunks waiting to be uploaded, in order.
+     */
+    private final ArrayDeque<Chunk> pending = new ArrayDeque<>();
+
+    /**
+     * Uploaded chunks that can be filled again.
+     */
+    private final ArrayDeque<Chunk> spare = new ArrayDeque<>();
+
+    /**
+     * The chunk the producer is filling.
+     */
+    private Chunk current;
+
+    /**
+     * Bytes of an incomplete input frame that have not been converted yet.
+     */
+    private final byte[] partialFrame;
+
+    /**
+     * The amount of bytes stored in {@link #partialFrame}.
+     */
+    private int partialLength = 0;
+
+    /**
+     * Has the producer finished writing?
+     */
+    private volatile boolean finished = false;
+
+    /**
+     * Should the stream stop right away?
+     */
+    private volatile boolean aborted = false;
+
+    /**
+     * Have the buffers been deleted?
+     */
+    private boolean isReleased = false;
+
+    /**
+     * The error the service ran into, or null.
+     */
+    private volatile ALException failure;
+
+    /**
+     * The clock that combines the processed frames with the play offset and latency of the source.
+     */
+    private final PlaybackClock clock;
+
+    /**
+     * Total amount of frames played by the source.
+     */
+    private volatile long samplesProcessed = 0;
+
+    /**
+     * The amount of times the source ran out of data.
+     */
+    private volatile int underruns = 0;
+
+    /**
+     * Creates a new serviced output stream.
+     * @param service the service that fills the buffer queue
+     * @param source the source that plays the stream
+     * @param format the format of the data that will be written to the stream
+     * @param numberOfBuffers the amount of buffers that are queued on the source
+     * @param bufferSize the size of every buffer in bytes of converted data
+     * @throws ALException when the format is unsupported or the buffers could not be created
+     */
+    ServicedOutputStream(StreamingService service, Source source, AudioFormat format, int numberOfBuffers, int bufferSize) throws ALException {
+	    AudioFormat target = PcmConverter.getTargetFormat(format);
+	    this.service = service;
+	    this.source = source;
+	    this.format = format;
+	    this.alFormat = PcmConverter.getALFormat(target);
+	    this.sampleRate = (int) target.getSampleRate();
+	    this.clock = new PlaybackClock(source, sampleRate);
+	    this.frameSize = target.getFrameSize();
+	    this.chunkSize = Math.max(frameSize, bufferSize / frameSize * frameSize);
+	    this.partialFrame = new byte[format.getFrameSize()];
+	    this.bufferFrames = new int[numberOfBuffers];
+	    this.queue = new int[numberOfBuffers];
+	    this.buffers = new Buffer[numberOfBuffers];
+	    for (int i = 0; i < numberOfBuffers; i++) {
+	        buffers[i] = new Buffer(source.getFactory());
+	    }
+    }
+
+    /**
+     * Gets the amount of samples that have been played by the source.
+     * @return the amount of played sample frames
+     */
+    public long getSamplesProcessed() {
+	    return samplesProcessed;
+    }
+
+    /**
+     * Gets the amount of times the source ran out of data and had to be restarted.
+     * @return the amount of underruns
+     */
+    public int getUnderrunCount() {
+	    return underruns;
+    }
+
+    /**
+     * Gets the clock that tells which moment of the stream is being heard right now.
+     * @return the playback clock of the stream
+     */
+    public PlaybackClock getClock() {
+	    return clock;
+    }
+
+    /**
+     * Gets the amount of buffers rotated through the queue of the source.
+     * @return the amount of buffers
+     */
+    public int getNumberOfBuffers() {
+	    return buffers.length;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+	    write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+	    checkState();
+	    int inputFrameSize = partialFrame.length;
+	    try {
+	        if (partialLength > 0) {
+	    		int missing = Math.min(inputFrameSize - partialLength, len);
+	    		System.arraycopy(b, off, partialFrame, partialLength, missing);
+	    		partialLength += missing;
+	    		off += missing;
+	    		len -= missing;
+	    		if (partialLength < inputFrameSize) {
+	    		    return;
+	    		}
+	    		byte[] samples = PcmConverter.normalize(format, partialFrame, 0, inputFrameSize);
+	    		append(samples, 0, samples.length);
+	    		partialLength = 0;
+	        }
+
+	        int whole = (len / inputFrameSize) * inputFrameSize;
+	        if (whole > 0) {
+	    		if (PcmConverter.isNative(format)) {
+	    		    append(b, off, whole);
+	    		} else {
+	    		    byte[] samples = PcmConverter.normalize(format, b, off, whole);
+	    		    append(samples, 0, samples.length);
+	    		}
+	        }
+	        partialLength = len - whole;
+	        System.arraycopy(b, off + whole, partialFrame, 0, partialLength);
+	    } catch (ALException e) {
+	        throw new IOException(e);
+	    }
+    }
+
+    /**
+     * Copies converted data into chunks, handing every full chunk over to the service.
+     * @param samples the converted data
+     * @param off the index of the first byte
+     * @param len the amount of bytes
+     * @throws IOException when the stream has failed or the thread was interrupted
+     */
+    private void append(byte[] samples, int off, int len) throws IOException {
+	    while (len > 0) {
+	        if (current == null) {
+	    		current = takeSpare();
+	        }
+	        int count = Math.min(len, chunkSize - current.length);
+	        System.arraycopy(samples, off, current.data, current.length, count);
+	        current.length += count;
+	        off += count;
+	        len -= count;
+	        if (current.length == chunkSize) {
+	    		handOver(current);
+	    		current = null;
+	        }
+	    }
+    }
+
+    /**
+     * Gets an empty chunk, reusing one that has been uploaded when possible.
+     * @return an empty chunk
+     */
+    private Chunk takeSpare() {
+	    lock.lock();
+	    try {
+	        Chunk chunk = spare.poll();
+	        return chunk != null ? chunk : new Chunk(chunkSize);
+	    } finally {
+	        lock.unlock();
+	    }
+    }
+
+    /**
+     * Hands a chunk over to the service, blocking while all buffers are already spoken for.
+     * @param chunk the chunk
+     * @throws IOException when the stream has failed or the thread was interrupted
+     */
+    private void handOver(Chunk chunk) throws IOException {
+	    lock.lock();
+	    try {
+	        while (pending.size() >= buffers.length && !aborted) {
+	    		notFull.await();
+	        }
+	        checkState();
+	        pending.add(chunk);
+	    } catch (InterruptedException e) {
+	        Thread.currentThread().interrupt();
+	        throw new IOException("IO Operation interrupted", e);
+	    } finally {
+	        lock.unlock();
+	    }
+	    service.wakeUp();
+    }
+
+    /**
+     * Throws when the stream can no longer be written to.
+     * @throws IOException when the stream has failed or was aborted
+     */
+    private void checkState() throws IOException {
+	    if (failure != null) {
+	        throw new IOException(failure);
+	    }
+	    if (aborted || finished) {
+	        throw new IOException("Stream has been closed");
+	    }
+    }
+
+    /**
+     * Hands the last partial chunk over to the service.
+     * @throws IOException when the stream has failed or the thread was interrupted
+     */
+    @Override
+    public void flush() throws IOException {
+	    if (current != null && current.length > 0) {
+	        handOver(current);
+	        current = null;
+	    }
+    }
+
+    /**
+     * Flushes the stream and waits until all data has been played, after which the buffers are deleted.
+     * @throws IOException when the stream has failed or the thread was interrupted while waiting
+     */
+    @Override
+    public void close() throws IOException {
+	    if (finished || aborted) {
+	        return;
+	    }
+	    try {
+	        flush();
+	    } finally {
+	        finished = true;
+	        service.wakeUp();
+	    }
+	    try {
+	        awaitRelease();
+	    } catch (InterruptedException e) {
+	        Thread.currentThread().interrupt();
+	        abort();
+	        throw new IOException("IO Operation interrupted", e);
+	    }
+	    if (failure != null) {
+	        throw new IOException(failure);
+	    }
+    }
+
+    /**
+     * Stops the stream right away, dropping all data that has not been played yet.
+     */
+    public void abort() {
+	    aborted = true;
+	    lock.lock();
+	    try {
+	        notFull.signalAll();
+	    } finally {
+	        lock.unlock();
+	    }
+	    service.wakeUp();
+    }
+
+    /**
+     * Stops the stream right away like {@link #abort()}, and waits until the service has detached the buffers
+     * from the source and deleted them, so the source can be used for something else.
+     * @throws InterruptedException when the thread was interrupted while waiting
+     */
+    public void abortAndWait() throws InterruptedException {
+	    abort();
+	    awaitRelease();
+    }
+
+    /**
+     * Waits until the service has released the stream. {@link StreamingService#close()} releases every stream
+     * the service still owns before it returns, and no stream is created after that, so the wait always ends.
+     * @throws InterruptedException when the thread was interrupted while waiting
+     */
+    private void awaitRelease() throws InterruptedException {
+	    lock.lock();
+	    try {
+	        while (!isReleased) {
+	    		released.await();
+	        }
+	    } finally {
+	        lock.unlock();
+	    }
+    }
+
+    /**
+     * Unqueues played buffers, refills them with pending chunks and starts the source. Called by the service thread.
+     * @return the time in nanoseconds until the buffer that is playing has finished
+     */
+    long service() {
+	    if (isReleased) {
+	        return Long.MAX_VALUE;
+	    }
+	    try {
+	        if (aborted) {
+	    		release();
+	    		return Long.MAX_VALUE;
+	        }
+
+	        int processed = Math.min(source.getProcessedBufferCount(), queuedCount);
+	        if (processed > 0) {
+	    		clock.beginUnqueue();
+	    		try {
+	    		    for (int i = 0; i < processed; i++) {
+	    			int index = queue[queueHead];
+	    			source.unqueueBuffer(buffers[index]);
+	    			samplesProcessed += bufferFrames[index];
+	    			queueHead = (queueHead + 1) % queue.length;
+	    			queuedCount--;
+	    		    }
+	    		} finally {
+	    		    clock.endUnqueue(samplesProcessed);
+	    		}
+	        }
+
+	        while (queuedCount < buffers.length) {
+	    		Chunk chunk = pollPending();
+	    		if (chunk == null) {
+	    		    break;
+	    		}
+	    		int index = queue[(queueHead + queuedCount) % queue.length] = findFreeBuffer();
+	    		buffers[index].addBufferData(alFormat, ByteBuffer.wrap(chunk.data, 0, chunk.length), sampleRate);
+	    		source.queueBuffer(buffers[index]);
+	    		bufferFrames[index] = chunk.length / frameSize;
+	    		queuedCount++;
+	    		recycle(chunk);
+	        }
+
+	        // Queried after queueing, so a source that ran dry is never left stopped with unheard buffers,
+	        // which it would report as processed on the next tick
+	        SourceState state = source.getSourceState();
+	        if (queuedCount > 0 && state == SourceState.INITIAL) {
+	    		source.play();
+	    		state = SourceState.PLAYING;
+	        } else if (queuedCount > 0 && state == SourceState.STOPPED) {
+	    		// The source ran dry before the producer handed over more data
+	    		underruns++;
+	    		source.play();
+	    		state = SourceState.PLAYING;
+	        }
+	        if (queuedCount == 0 && finished && pendingIsEmpty()) {
+	    		release();
+	    		return Long.MAX_VALUE;
+	        }
+	        if (queuedCount == 0 || state != SourceState.PLAYING) {
+	    		return Long.MAX_VALUE;
+	        }
+
+	        int remaining = bufferFrames[queue[queueHead]] - source.getIntParam(AL.AL_SAMPLE_OFFSET);
+	        return TimeUnit.SECONDS.toNanos(Math.max(remaining, 0)) / sampleRate;
+	    } catch (ALException e) {
+	        failure = e;
+	        release();
+	        return Long.MAX_VALUE;
+	    }
+    }
+
+    /**
+     * Finds a buffer that is not queued. Only called while fewer buffers than available are queued.
+     * @return the index of the buffer
+     */
+    private int findFreeBuffer() {
+	    for (int index = 0; index < buffers.length; index++) {
+	        boolean queued = false;
+	        for (int i = 0; i < queuedCount && !queued; i++) {
+	    		queued = queue[(queueHead + i) % queue.length] == index;
+	        }
+	        if (!queued) {
+	    		return index;
+	        }
+	    }
+	    throw new IllegalStateException("All buffers are queued");
+    }
+
+    /**
+     * Takes the oldest pending chunk.
+     * @return the chunk, or null when none is pending
+     */
+    private Chunk pollPending() {
+	    lock.lock();
+	    try {
+	        return pending.poll();
+	    } finally {
+	        lock.unlock();
+	    }
+    }
+
+    /**
+     * Checks if chunks are waiting to be uploaded.
+     * @return true when no chunk is pending
+     */
+    private boolean pendingIsEmpty() {
+	    lock.lock();
+	    try {
+	        return pending.isEmpty();
+	    } finally {
+	        lock.unlock();
+	    }
+    }
+
+    /**
+     * Returns an uploaded chunk to the producer and wakes it up.
+     * @param chunk the chunk
+     */
+    private void recycle(Chunk chunk) {
+	    lock.lock();
+	    try {
+	        chunk.length = 0;
+	        spare.add(chunk);
+	        notFull.signal();
+	    } finally {
+	        lock.unlock();
+	    }
+    }
+
+    /**
+     * Stops the source, deletes the buffers and stops servicing the stream.
+     */
+    private void release() {
+	    try {
+	        source.stop();
+	        source.setIntParam(AL.AL_BUFFER, 0);
+	    } catch (ALException e) {
+	        // The source is already gone, the buffers can be deleted either way
+	    }
+	    for (Buffer buffer : buffers) {
+	        buffer.close();
+	    }
+	    service.remove(this);
+	    lock.lock();
+	    try {
+	        isReleased = true;
+	        pending.clear();
+	        released.signalAll();
+	        notFull.signalAll();
+	    } finally {
+	        lock.unlock();
+	    }
+    }
+
+    /**
+     * Converted data on its way from the producer to a buffer.
+     */
+    private static final class Chunk {
+
+	    private final byte[] data;
+	    private int length = 0;
+
+	    private Chunk(int size) {
+	        data = new byte[size];
+	    }
+    }
+}
@@ -1,6 +1,9 @@
 package org.valhalla.openal.stream;
 
 import java.io.BufferedOutputStream;
+import java.io.IOException;
+
+import org.valhalla.openal.util.ALException;
 
 /**
  * A wrapper class for {@link SourceOutputStream} that makes use of {@link BufferedOutputStream}.
@@ -32,4 +35,43 @@ public class SourceBufferedOutputStream extends BufferedOutputStream {
     public long getSamplesProcessed() {
 	    return sourceOutputStream.getSamplesProcessed();
     }
+
+    /**
+     * Drops all data that has not been played yet, including the data held in the buffer of this stream.
+     * @param sampleOffset the frame of the stream the next written data starts at
+     * @throws IOException when the queued buffers could not be dropped
+     * @see SourceOutputStream#seek(long)
+     */
+    public synchronized void seek(long sampleOffset) throws IOException {
+	    count = 0;
+	    sourceOutputStream.seek(sampleOffset);
+    }
+
+    /**
+     * Gets the moment of the stream that is being heard right now, corrected for the output latency.
+     * Data still held in the buffer of this stream has not been queued and does not move the clock.
+     * @return the playback position in nanoseconds, which never goes backwards
+     * @throws ALException when the play offset could not be read
+     */
+    public long getPlaybackNanos() throws ALException {
+	    return sourceOutputStream.getPlaybackNanos();
+    }
+
+    /**
+     * Gets the amount of times the associated source ran out of data.
+     * @return the amount of underruns
+     */
+    public int getUnderrunCount() {
+	    return sourceOutputStream.getUnderrunCount();
+    }
+
+    /**
+     * Gets the amount of audio that is queued on the associated source and has not been played yet.
+     * Data still held in the buffer of this stream is not included.
+     * @return the buffered audio in milliseconds
+     * @throws ALException when the play position could not be read
+     */
+    public long getBufferedMillis() throws ALException {
+	    return sourceOutputStream.getBufferedMillis();
+    }
 }
@@ -0,0 +1,659 @@
+package org.valhalla.openal.stream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.valhalla.openal.intermediate.Buffer;
+import org.valhalla.openal.intermediate.PlaybackClock;
+import org.valhalla.openal.intermediate.Source;
+import org.valhalla.openal.jna.AL;
+import org.valhalla.openal.util.ALException;
+import org.valhalla.openal.util.PcmConverter;
+import org.valhalla.openal.util.SourceState;
+
+/**
+ * A channel for streaming audio data to an OpenAL source.<br>
+ * <br>
+ * Data of any size and alignment, in heap or direct byte buffers, is cut into chunks of a fixed size
+ * that are queued on the source in a rotating set of buffers. Whole chunks of data that OpenAL can play natively
+ * are uploaded straight from the caller's byte buffer; only the remainder that does not fill a chunk
+ * is copied into a staging buffer. Data in other formats is converted first, see {@link PcmConverter}.<br>
+ * <br>
+ * Writes block while all buffers are queued, until the source has finished playing the oldest one.
+ * When the writer cannot keep up and the source runs dry, the underrun is counted, one more buffer is allowed
+ * in the queue and the source is restarted as soon as half of the queue has been refilled.
+ * After a long stretch without underruns the queue shrinks back to the depth of the target latency.<br>
+ * <br>
+ * Because this is a regular {@link WritableByteChannel}, NIO code such as {@code FileChannel.transferTo}
+ * can feed a source directly.
+ */
+public class SourceChannel implements WritableByteChannel {
+
+    /**
+     * The longest time to sleep while waiting for a buffer, used while the source is paused.
+     */
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    /**
+     * The shortest time to sleep while waiting for a buffer.
+     */
+    private static final long MIN_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+    /**
+     * The smallest queue depth the target latency can ask for.
+     */
+    private static final int MIN_BUFFERS = 2;
+
+    /**
+     * How many times the initial amount of buffers the queue may grow to after underruns.
+     */
+    private static final int MAX_GROWTH = 4;
+
+    /**
+     * The amount of seconds that must be played without an underrun before the queue shrinks by one buffer.
+     */
+    private static final int SHRINK_AFTER_SECONDS = 10;
+
+    /**
+     * The source that plays the stream.
+     */
+    private final Source source;
+
+    /**
+     * The format of the data written to this channel.
+     */
+    private final AudioFormat format;
+
+    /**
+     * Can the written data be uploaded without conversion?
+     */
+    private final boolean nativeFormat;
+
+    /**
+     * The OpenAL format enum of the buffers.
+     */
+    private final int alFormat;
+
+    /**
+     * The sample rate of the buffers.
+     */
+    private final int sampleRate;
+
+    /**
+     * The size of a frame in the buffers, in bytes.
+     */
+    private final int frameSize;
+
+    /**
+     * The size of a chunk in bytes, a multiple of the frame size.
+     */
+    private final int chunkSize;
+
+    /**
+     * The buffers queued on the source, oldest first from {@link #queueTail}.
+     */
+    private final Buffer[] queue;
+
+    /**
+     * The amount of frames in every queued buffer.
+     */
+    private final int[] bufferFrames;
+
+    /**
+     * Buffers that are not queued and can be filled.
+     */
+    private final ArrayDeque<Buffer> free = new ArrayDeque<>();
+
+    /**
+     * The amount of buffers that have been created and not yet deleted.
+     */
+    private int bufferCount = 0;
+
+    /**
+     * The amount of buffers that may currently be queued.
+     */
+    private int depth;
+
+    /**
+     * The queue depth of the target latency.
+     */
+    private int targetDepth;
+
+    /**
+     * The index of the next queue slot to fill.
+     */
+    private int queueHead = 0;
+
+    /**
+     * The index of the oldest queued buffer.
+     */
+    private int queueTail = 0;
+
+    /**
+     * The amount of queued buffers.
+     */
+    private int queuedCount = 0;
+
+    /**
+     * Converted data that does not fill a whole chunk yet.
+     */
+    private final ByteBuffer staging;
+
+    /**
+     * Bytes of an incomplete input frame, only used for data that needs conversion.
+     */
+    private final byte[] partialFrame;
+
+    /**
+     * The amount of bytes stored in {@link #partialFrame}.
+     */
+    private int partialLength = 0;
+
+    /**
+     * Temporary storage for converting data that is not held in a heap array.
+     */
+    private byte[] conversion = new byte[0];
+
+    /**
+     * The clock that combines the processed frames with the play offset and latency of the source.
+     */
+    private final PlaybackClock clock;
+
+    /**
+     * Total amount of frames played by the source.
+     */
+    private volatile long samplesProcessed = 0;
+
+    /**
+     * The amount of frames in all queued buffers.
+     */
+    private volatile long queuedFrames = 0;
+
+    /**
+     * The amount of frames played since the last underrun or change of the queue depth.
+     */
+    private long stableFrames = 0;
+
+    /**
+     * The amount of times the source ran out of data.
+     */
+    private volatile int underruns = 0;
+
+    /**
+     * Did the source run out of data, and has it not been restarted yet?
+     */
+    private boolean starved = false;
+
+    /**
+     * Is the channel playing its remaining data before closing?
+     */
+    private boolean draining = false;
+
+    /**
+     * Is the channel open?
+     */
+    private boolean open = true;
+
+    /**
+     * Creates a new source channel.
+     * @param source the source that plays the stream
+     * @param format the format of the data that will be written to the channel
+     * @param numberOfBuffers the amount of buffers that are queued on the source, which sets the target latency
+     * @param chunkSize the size of every buffer in bytes of converted data
+     * @throws ALException when the format is unsupported or the buffers could not be created
+     */
+    public SourceChannel(Source source, AudioFormat format, int numberOfBuffers, int chunkSize) throws ALException {
+	    AudioFormat target = PcmConverter.getTargetFormat(format);
+	    this.source = source;
+	    this.format = format;
+	    this.nativeFormat = PcmConverter.isNative(format);
+	    this.alFormat = PcmConverter.getALFormat(target);
+	    this.sampleRate = (int) target.getSampleRate();
+	    this.clock = new PlaybackClock(source, sampleRate);
+	    this.frameSize = target.getFrameSize();
+	    this.chunkSize = Math.max(frameSize, chunkSize / frameSize * frameSize);
+	    this.staging = ByteBuffer.allocateDirect(this.chunkSize);
+	    this.partialFrame = new byte[format.getFrameSize()];
+	    this.depth = numberOfBuffers;
+	    this.targetDepth = numberOfBuffers;
+	    int maxBuffers = Math.max(numberOfBuffers * MAX_GROWTH, MIN_BUFFERS);
+	    this.queue = new Buffer[maxBuffers];
+	    this.bufferFrames = new int[maxBuffers];
+	    for (int i = 0; i < numberOfBuffers; i++) {
+	        free.push(new Buffer(source.getFactory()));
+	        bufferCount++;
+	    }
+    }
+
+    /**
+     * Gets the amount of samples that have been played by the source.
+     * @return the amount of played sample frames
+     */
+    public long getSamplesProcessed() {
+	    return samplesProcessed;
+    }
+
+    /**
+     * Gets the clock that tells which moment of the stream is being heard right now.
+     * @return the playback clock of the stream
+     */
+    public PlaybackClock getClock() {
+	    return clock;
+    }
+
+    /**
+     * Gets the amount of buffers that may currently be queued on the source.
+     * This grows after underruns and shrinks back towards the target latency.
+     * @return the amount of buffers
+     */
+    public int getNumberOfBuffers() {
+	    return depth;
+    }
+
+    /**
+     * Gets the amount of times the source ran out of data before the channel was closed.
+     * @return the amount of underruns
+     */
+    public int getUnderrunCount() {
+	    return underruns;
+    }
+
+    /**
+     * Gets the amount of queued audio that the source has not played yet.
+     * @return the buffered audio in milliseconds
+     * @throws ALException when the play position could not be read
+     */
+    public long getBufferedMillis() throws ALException {
+	    long frames = queuedFrames;
+	    if (frames > 0) {
+	        frames -= source.getIntParam(AL.AL_SAMPLE_OFFSET);
+	    }
+	    return Math.max(frames, 0) * 1000 / sampleRate;
+    }
+
+    /**
+     * Gets the latency the queue depth shrinks back to when there are no underruns.
+     * @return the target latency in milliseconds
+     */
+    public int getTargetLatency() {
+	    return (int) ((long) targetDepth * (chunkSize / frameSize) * 1000 / sampleRate);
+    }
+
+    /**
+     * Sets the latency the queue depth shrinks back to when there are no underruns.
+     * A higher latency survives longer stalls of the writer. The queue grows right away,
+     * and shrinks as the buffers that are no longer needed finish playing.
+     * @param millis the target latency in milliseconds
+     */
+    public void setTargetLatency(int millis) {
+	    long chunkMillis = Math.max(1, (long) (chunkSize / frameSize) * 1000 / sampleRate);
+	    int buffers = (int) ((millis + chunkMillis - 1) / chunkMillis);
+	    targetDepth = Math.max(MIN_BUFFERS, Math.min(buffers, queue.length));
+	    depth = targetDepth;
+	    stableFrames = 0;
+    }
+
+    /**
+     * Gets the size of the chunks queued on the source.
+     * @return the chunk size in bytes
+     */
+    public int getChunkSize() {
+	    return chunkSize;
+    }
+
+    @Override
+    public boolean isOpen() {
+	    return open;
+    }
+
+    /**
+     * Writes all remaining bytes of the buffer, blocking while all buffers are queued.
+     * @param src the data, from its position to its limit
+     * @return the amount of bytes written, always all remaining bytes
+     * @throws IOException when the data could not be converted or uploaded, or the thread was interrupted
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+	    if (!open) {
+	        throw new ClosedChannelException();
+	    }
+	    int length = src.remaining();
+	    try {
+	        if (nativeFormat) {
+	    		append(src);
+	        } else {
+	    		convert(src);
+	        }
+	    } catch (ALException e) {
+	        throw new IOException(e);
+	    }
+	    return length;
+    }
+
+    /**
+     * Converts data to an OpenAL format and appends it, keeping incomplete frames for the next write.
+     * @param src the data
+     * @throws ALException when the data could not be converted or uploaded
+     * @throws IOException when the thread was interrupted
+     */
+    private void convert(ByteBuffer src) throws ALException, IOException {
+	    int inputFrameSize = partialFrame.length;
+	    if (partialLength > 0) {
+	        int missing = Math.min(inputFrameSize - partialLength, src.remaining());
+	        src.get(partialFrame, partialLength, missing);
+	        partialLength += missing;
+	        if (partialLength < inputFrameSize) {
+	    		return;
+	        }
+	        append(ByteBuffer.wrap(PcmConverter.normalize(format, partialFrame, 0, inputFrameSize)));
+	        partialLength = 0;
+	    }
+
+	    int whole = (src.remaining() / inputFrameSize) * inputFrameSize;
+	    if (whole > 0) {
+	        byte[] data;
+	        int offset;
+	        if (src.hasArray()) {
+	    		data = src.array();
+	    		offset = src.arrayOffset() + src.position();
+	        } else {
+	    		if (conversion.length < whole) {
+	    		    conversion = new byte[whole];
+	    		}
+	    		src.get(src.position(), conversion, 0, whole);
+	    		data = conversion;
+	    		offset = 0;
+	        }
+	        src.position(src.position() + whole);
+	        append(ByteBuffer.wrap(PcmConverter.normalize(format, data, offset, whole)));
+	    }
+	    partialLength = src.remaining();
+	    src.get(partialFrame, 0, partialLength);
+    }
+
+    /**
+     * Cuts converted data into chunks and queues every full chunk.
+     * @param data the converted data
+     * @throws ALException when a chunk could not be uploaded
+     * @throws IOException when the thread was interrupted
+     */
+    private void append(ByteBuffer data) throws ALException, IOException {
+	    boolean readable = data.isDirect() || data.hasArray();
+	    while (data.hasRemaining()) {
+	        if (staging.position() == 0 && data.remaining() >= chunkSize && readable) {
+	    		queue(data.slice(data.position(), chunkSize));
+	    		data.position(data.position() + chunkSize);
+	    		continue;
+	        }
+	        int count = Math.min(staging.remaining(), data.remaining());
+	        staging.put(staging.position(), data, data.position(), count);
+	        staging.position(staging.position() + count);
+	        data.position(data.position() + count);
+	        if (!staging.hasRemaining()) {
+	    		queueStaging(chunkSize);
+	        }
+	    }
+    }
+
+    /**
+     * Queues the first bytes of the staging buffer and keeps the rest.
+     * @param length the amount of bytes to queue, a multiple of the frame size
+     * @throws ALException when the chunk could not be uploaded
+     * @throws IOException when the thread was interrupted
+     */
+    private void queueStaging(int length) throws ALException, IOException {
+	    int staged = staging.position();
+	    staging.flip().limit(length);
+	    try {
+	        queue(staging);
+	    } catch (ALException | IOException e) {
+	        staging.limit(staging.capacity()).position(staged);
+	        throw e;
+	    }
+	    staging.limit(staged).position(length);
+	    staging.compact();
+    }
+
+    /**
+     * Uploads a chunk into a free buffer and queues it, waiting for the oldest buffer to finish when none is free.
+     * @param chunk the chunk, from its position to its limit
+     * @throws ALException when the chunk could not be uploaded or queued
+     * @throws IOException when the thread was interrupted
+     */
+    private void queue(ByteBuffer chunk) throws ALException, IOException {
+	    reclaim();
+	    while (queuedCount >= depth) {
+	        waitForBuffer();
+	        reclaim();
+	    }
+
+	    Buffer buffer;
+	    if (free.isEmpty()) {
+	        buffer = new Buffer(source.getFactory());
+	        bufferCount++;
+	    } else {
+	        buffer = free.pop();
+	    }
+	    try {
+	        buffer.addBufferData(alFormat, chunk, sampleRate);
+	        source.queueBuffer(buffer);
+	    } catch (ALException e) {
+	        free.push(buffer);
+	        throw e;
+	    }
+	    int frames = chunk.remaining() / frameSize;
+	    queue[queueHead] = buffer;
+	    bufferFrames[queueHead] = frames;
+	    queueHead = (queueHead + 1) % queue.length;
+	    queuedCount++;
+	    queuedFrames += frames;
+
+	    start(false);
+    }
+
+    /**
+     * Starts the source when it has not played yet, or restarts it after an underrun once enough data is queued.
+     * @param force restart the source no matter how much data is queued
+     * @throws ALException when the source could not be started
+     */
+    private void start(boolean force) throws ALException {
+	    SourceState state = source.getSourceState();
+	    if (state == SourceState.INITIAL) {
+	        source.play();
+	    } else if (state == SourceState.STOPPED && queuedCount > 0 && (force || queuedCount >= (depth + 1) / 2)) {
+	        source.play();
+	        starved = false;
+	    }
+    }
+
+    /**
+     * Unqueues all buffers the source has finished playing, oldest first, and detects underruns.
+     * @throws ALException when the buffers could not be unqueued
+     */
+    private void reclaim() throws ALException {
+	    if (queuedCount == 0) {
+	        return;
+	    }
+	    int processed = Math.min(source.getProcessedBufferCount(), queuedCount);
+	    if (processed == queuedCount && !starved && !draining && source.getSourceState() == SourceState.STOPPED) {
+	        underrun();
+	    }
+	    if (processed == 0) {
+	        return;
+	    }
+	    clock.beginUnqueue();
+	    try {
+	        for (int i = 0; i < processed; i++) {
+	    		Buffer buffer = queue[queueTail];
+	    		source.unqueueBuffer(buffer);
+	    		samplesProcessed += bufferFrames[queueTail];
+	    		stableFrames += bufferFrames[queueTail];
+	    		queuedFrames -= bufferFrames[queueTail];
+	    		queue[queueTail] = null;
+	    		queueTail = (queueTail + 1) % queue.length;
+	    		queuedCount--;
+	    		if (bufferCount > depth) {
+	    		    buffer.close();
+	    		    bufferCount--;
+	    		} else {
+	    		    free.push(buffer);
+	    		}
+	        }
+	    } finally {
+	        clock.endUnqueue(samplesProcessed);
+	    }
+
+	    if (!starved && depth > targetDepth && stableFrames >= (long) sampleRate * SHRINK_AFTER_SECONDS) {
+	        depth--;
+	        stableFrames = 0;
+	    }
+    }
+
+    /**
+     * Records that the source ran out of data and allows one more buffer in the queue.
+     */
+    private void underrun() {
+	    underruns++;
+	    starved = true;
+	    stableFrames = 0;
+	    if (depth < queue.length) {
+	        depth++;
+	    }
+    }
+
+    /**
+     * Sleeps until the buffer that is playing should have finished.
+     * @throws ALException when the play position could not be read
+     * @throws IOException when the thread was interrupted
+     */
+    private void waitForBuffer() throws ALException, IOException {
+	    long nanos = MAX_WAIT_NANOS;
+	    if (source.getSourceState() == SourceState.PLAYING) {
+	        int remaining = bufferFrames[queueTail] - source.getIntParam(AL.AL_SAMPLE_OFFSET);
+	        nanos = Math.min(nanos, TimeUnit.SECONDS.toNanos(Math.max(remaining, 0)) / sampleRate);
+	    }
+	    LockSupport.parkNanos(Math.max(nanos, MIN_WAIT_NANOS));
+	    if (Thread.interrupted()) {
+	        throw new IOException("IO Operation interrupted");
+	    }
+    }
+
+    /**
+     * Queues the staged data that does not fill a whole chunk.
+     * @throws IOException when the data could not be uploaded or the thread was interrupted
+     */
+    public void flush() throws IOException {
+	    int length = staging.position() / frameSize * frameSize;
+	    if (length == 0) {
+	        return;
+	    }
+	    try {
+	        queueStaging(length);
+	    } catch (ALException e) {
+	        throw new IOException(e);
+	    }
+    }
+
+    /**
+     * Drops all queued and staged data and moves the clock to another position of the stream.
+     * The data written next is played from that position, as soon as it fills a chunk or is flushed.
+     * @param sampleOffset the frame of the stream the next written data starts at
+     * @throws IOException when the queued buffers could not be dropped
+     */
+    public void seek(long sampleOffset) throws IOException {
+	    if (!open) {
+	        throw new ClosedChannelException();
+	    }
+	    staging.clear();
+	    partialLength = 0;
+	    clock.beginUnqueue();
+	    try {
+	        source.stop();
+	        while (queuedCount > 0) {
+	    		Buffer buffer = queue[queueTail];
+	    		source.unqueueBuffer(buffer);
+	    		queuedFrames -= bufferFrames[queueTail];
+	    		queue[queueTail] = null;
+	    		queueTail = (queueTail + 1) % queue.length;
+	    		queuedCount--;
+	    		free.push(buffer);
+	        }
+	        // Back to the initial state, so the source is started again as soon as a chunk is queued
+	        source.rewind();
+	        samplesProcessed = sampleOffset;
+	        stableFrames = 0;
+	        starved = false;
+	        clock.reset(sampleOffset);
+	    } catch (ALException e) {
+	        throw new IOException(e);
+	    } finally {
+	        clock.endUnqueue(samplesProcessed);
+	    }
+    }
+
+    /**
+     * Flushes the channel, waits until the source has played everything and deletes the buffers.
+     * @throws IOException when the staged data could not be uploaded or the thread was interrupted while waiting
+     */
+    @Override
+    public void close() throws IOException {
+	    if (!open) {
+	        return;
+	    }
+	    try {
+	        flush();
+	        draining = true;
+	        start(true);
+	        while (queuedCount > 0 && source.getSourceState() == SourceState.PLAYING) {
+	    		waitForBuffer();
+	    		reclaim();
+	        }
+	    } catch (ALException e) {
+	        throw new IOException(e);
+	    } finally {
+	        open = false;
+	        release();
+	    }
+    }
+
+    /**
+     * Closes the channel right away, dropping all staged and queued data that has not been played yet.
+     * Unlike {@link #close()}, this does not wait for the source.
+     */
+    public void abort() {
+	    if (!open) {
+	        return;
+	    }
+	    open = false;
+	    release();
+    }
+
+    /**
+     * Stops the source, detaches the buffers and deletes them.
+     */
+    private void release() {
+	    try {
+	        source.stop();
+	        source.setIntParam(AL.AL_BUFFER, 0);
+	    } catch (ALException e) {
+	        // The source is already gone, the buffers can be deleted either way
+	    }
+	    for (int i = 0; i < queuedCount; i++) {
+	        queue[(queueTail + i) % queue.length].close();
+	    }
+	    for (Buffer buffer : free) {
+	        buffer.close();
+	    }
+	    free.clear();
+	    queuedCount = 0;
+	    queuedFrames = 0;
+	    bufferCount = 0;
+    }
+}
@@ -2,114 +2,101 @@ package org.valhalla.openal.stream;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import javax.sound.sampled.AudioFormat;
 
-import org.valhalla.openal.intermediate.Buffer;
+import org.valhalla.openal.intermediate.PlaybackClock;
 import org.valhalla.openal.intermediate.Source;
-import org.valhalla.openal.jna.AL;
 import org.valhalla.openal.util.ALException;
-import org.valhalla.openal.util.SourceState;
 
 /**
  * An output stream for easily streaming audio data to OpenAL source.
  * You can create a SourceOutputStream object by calling the createOutputStream() method of the relevant Source object.
- * The underlying implementation uses a cyclic buffer array for streaming the incoming audio data into the given OpenAL source.
+ * The underlying implementation uses a cyclic buffer array for streaming the incoming audio data into the given OpenAL source.<br>
+ * <br>
+ * Written data is cut into chunks of the streaming buffer size of the source by a {@link SourceChannel},
+ * so writes of any offset and length are accepted. Data that does not fill a whole chunk is queued on {@link #flush()}.
+ * {@link #close()} blocks until the source has played everything, use {@link #abort()} to stop right away.
  * @author Uri Shaked
  */
 public class SourceOutputStream extends OutputStream {
 
     /**
-     * The amount of cyclic buffers that will be rotated.
+     * The channel that cuts the data into chunks and rotates the buffers.
      */
-    private int CYCLIC_BUFFER_COUNT = 3;
+    private final SourceChannel channel;
 
     /**
-     * The source associated with the source output stream.
-     */
-    private final Source source;
-    
-    /**
-     * The audio format of the input data.
-     */
-    private final AudioFormat format;
-    
-    /**
-     * The array of buffers that will be rotated in and out of use.
+     * Creates a new source output stream that will manage the creation and rotation of buffers
+     * @param source the source for which the buffers will be managed
+     * @param format the format of the buffer data
+     * @param numberOfBuffer the amount of buffers
+     * @throws ALException when there is an error setting up an output stream
      */
-    private Buffer[] buffers;
+    public SourceOutputStream(Source source, AudioFormat format, int numberOfBuffer) throws ALException {
+	    super();
+	    this.channel = new SourceChannel(source, format, numberOfBuffer, source.getStreamingBufferSize());
+    }
 
     /**
-     * The current position/ array-index of the queue head
-     */
-    private int queueHead = 0;
-    
-    /**
-     * The current position/ array-index of the queue tail
+     * Gets the amount of buffers in the circular buffer
+     * @return The number of buffers
      */
-    private int queueTail = 0;
+    public int getNumberOfBuffer() {
+	    return channel.getNumberOfBuffers();
+    }
 
     /**
-     * The amount of samples that have been processed/ played
+	 * Gets the amount of samples that have been processed/ played.
+     * @return the amount of processed sample frames
      */
-    private long samplesProcessed = 0;
+    public long getSamplesProcessed() {
+	    return channel.getSamplesProcessed();
+    }
 
     /**
-     * Link to the AL interface.<br>
-     * The AL interface should be the interface on which the Buffer exists.
+     * Gets the amount of times the source ran out of data because the stream was not written to fast enough.
+     * @return the amount of underruns
      */
-    private final AL al;
-
-    /**
-     * Creates a new source output stream that will manage the creation and rotation of buffers
-	 * @param al the OpenAL interface on which the output stream will be created
-     * @param source the source for which the buffers will be managed
-     * @param format the format of the buffer data
-     * @param numberOfBuffer the amount of buffers
-     * @throws ALException when there is an error setting up an output stream
-     */
-    public SourceOutputStream(AL al, Source source, AudioFormat format, int numberOfBuffer) throws ALException {	
-	    super();
-	    this.al = al;
-	    this.source = source;
-	    this.format = format;
-
-	    setNumberOfBuffer(numberOfBuffer);
+    public int getUnderrunCount() {
+	    return channel.getUnderrunCount();
     }
 
     /**
-     * Set the number of buffers and initialize them.
-     * @param numberOfBuffer the new number of buffers
+     * Gets the amount of queued audio that the source has not played yet.
+     * @return the buffered audio in milliseconds
+     * @throws ALException when the play position could not be read
      */
-    private void setNumberOfBuffer(int numberOfBuffer) throws ALException {
-	    CYCLIC_BUFFER_COUNT = numberOfBuffer;
-	    initBuffers();
+    public long getBufferedMillis() throws ALException {
+	    return channel.getBufferedMillis();
     }
-    
+
     /**
-     * Gets the amount of buffers in the circular buffer
-     * @return The number of buffers
+     * Sets the latency the amount of queued buffers shrinks back to when there are no underruns.
+     * @param millis the target latency in milliseconds
      */
-    public int getNumberOfBuffer() {
-	    return CYCLIC_BUFFER_COUNT;
+    public void setTargetLatency(int millis) {
+	    channel.setTargetLatency(millis);
     }
-    
+
     /**
-     * Initialize buffers (empty buffers)
+     * Gets the moment of the stream that is being heard right now, corrected for the output latency.
+     * This is cheap enough to be called for every video frame.
+     * @return the playback position in nanoseconds, which never goes backwards
+     * @throws ALException when the play offset could not be read
+     * @see PlaybackClock#getNanos()
      */
-    private void initBuffers() throws ALException {
-	    buffers = new Buffer[CYCLIC_BUFFER_COUNT];
-	    for (int i = 0; i < buffers.length; i++) {
-	        buffers[i] = new Buffer(al);
-	    }
+    public long getPlaybackNanos() throws ALException {
+	    return channel.getClock().getNanos();
     }
-    
+
     /**
-	 * Gets the amount of buffers that have been processed/ played.
-     * @return the amount of processed buffers
+     * Gets the channel this stream writes to.
+     * @return the source channel
      */
-    public long getSamplesProcessed() {
-	    return this.samplesProcessed;
+    public SourceChannel getChannel() {
+	    return channel;
     }
 
     @Override
@@ -124,43 +111,44 @@ public class SourceOutputStream extends OutputStream {
 
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
-	    try {
-	        int queueSize = source.getQueuedBufferCount();
-	        if (queueSize >= buffers.length) {
-	    		while (source.getProcessedBufferCount() == 0) {
-	    	    	try {
-	    				Thread.sleep(20);
-	    	    	} catch (InterruptedException e) {
-	    				throw new IOException("IO Operation interrupted", e);
-	    	    	}
-	    		}
-	    		source.unqueueBuffer(buffers[queueTail]);
-
-	    		samplesProcessed += buffers[queueTail].getIntParam(AL.AL_SIZE) / (buffers[queueTail].getIntParam(AL.AL_BITS) / 8);
-
-	    		queueTail = (queueTail + 1) % buffers.length;
-	        }
-
-	        if (off != 0) {
-	    		throw new IOException("Offsets other than 0 are not currently supported");
-	        }
-
-	        buffers[queueHead].addBufferData(format, b);
-	        source.queueBuffer(buffers[queueHead]);
-	        queueHead = (queueHead + 1) % buffers.length;
-
-	        if (source.getSourceState() == SourceState.INITIAL) {
-	    		source.play();
-	        }
-	    }catch (ALException e) {
-	        throw new IOException(e);
-	    }
+	    channel.write(ByteBuffer.wrap(b, off, len));
     }
 
+    /**
+     * Drops all data that has not been played yet, so the data written next is played right away.
+     * Used to seek: reposition the decoder that writes to this stream, then call this method with the new position.
+     * @param sampleOffset the frame of the stream the next written data starts at
+     * @throws IOException when the queued buffers could not be dropped
+     */
+    public void seek(long sampleOffset) throws IOException {
+	    channel.seek(sampleOffset);
+    }
+
+    /**
+     * Queues the data that does not fill a whole buffer yet.
+     * @throws IOException when the data could not be queued
+     */
+    @Override
+    public void flush() throws IOException {
+	    channel.flush();
+    }
+
+    /**
+     * Queues the remaining data, waits until it has been played and deletes the buffers.
+     * This blocks for as long as the queued audio takes to play.
+     * @throws IOException when the remaining data could not be queued or the thread was interrupted while waiting
+     * @see #abort()
+     */
     @Override
-    public void close() {
-	    for (Buffer buffer : buffers) {
-	        buffer.close();
-	    }
+    public void close() throws IOException {
+	    channel.close();
+    }
+
+    /**
+     * Stops the source and deletes the buffers right away, dropping the data that has not been played yet.
+     * Use this instead of {@link #close()} when the stream has to end without waiting for playback.
+     */
+    public void abort() {
+	    channel.abort();
     }
 }
@@ -0,0 +1,335 @@
+package org.valhalla.openal.stream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.valhalla.openal.intermediate.Buffer;
+import org.valhalla.openal.intermediate.Source;
+import org.valhalla.openal.jna.AL;
+import org.valhalla.openal.jna.ALExt;
+import org.valhalla.openal.util.ALException;
+import org.valhalla.openal.util.PcmConverter;
+import org.valhalla.openal.util.SourceState;
+import org.valhalla.openal.util.Util;
+
+/**
+ * An output stream that streams audio data through a single looping buffer.<br>
+ * <br>
+ * The source loops over one buffer, while this stream overwrites the part that has already been played
+ * using {@link ALExt#alBufferSubDataSOFT(int, int, ByteBuffer, int, int)}.
+ * The play cursor is read from {@link AL#AL_SAMPLE_OFFSET}, so no buffers are ever queued or unqueued.<br>
+ * <br>
+ * The data written ahead of the play cursor is bounded by the ring size, which makes it the upper bound of the latency.
+ * Every write also overwrites the frames the cursor has played since the previous write with silence, so when the writer
+ * falls behind, the looping source plays silence instead of repeating old audio. The next write then restarts right
+ * after the cursor. Writes should happen at least once per ring period, otherwise played loops cannot be counted.
+ */
+public class SourceRingOutputStream extends OutputStream {
+
+    /**
+     * The source that loops over the ring buffer.
+     */
+    private final Source source;
+
+    /**
+     * Link to the AL extension interface, used for overwriting the ring buffer.
+     */
+    private final ALExt alext;
+
+    /**
+     * Link to the AL interface.
+     */
+    private final AL al;
+
+    /**
+     * The format of the data written to this stream.
+     */
+    private final AudioFormat format;
+
+    /**
+     * The OpenAL format enum of the ring buffer.
+     */
+    private final int alFormat;
+
+    /**
+     * The size of a frame in the ring buffer, in bytes.
+     */
+    private final int frameSize;
+
+    /**
+     * The buffer that is looped by the source.
+     */
+    private final Buffer ring;
+
+    /**
+     * The size of the ring buffer in frames.
+     */
+    private final int ringFrames;
+
+    /**
+     * Frames just behind the write position that are never overwritten,
+     * because the mixer may already have read them ahead of the reported play cursor.
+     */
+    private final int guardFrames;
+
+    /**
+     * A ring worth of silence, used to overwrite played frames.
+     */
+    private final byte[] silence;
+
+    /**
+     * Frames before this one have been overwritten with silence after they were played.
+     */
+    private long framesSilenced = 0;
+
+    /**
+     * Bytes of an incomplete frame that have not been written yet.
+     */
+    private final byte[] partialFrame;
+
+    /**
+     * The amount of bytes stored in {@link #partialFrame}.
+     */
+    private int partialLength = 0;
+
+    /**
+     * Total amount of frames written into the ring.
+     */
+    private long framesWritten = 0;
+
+    /**
+     * Total amount of frames played by the source.
+     */
+    private long framesPlayed = 0;
+
+    /**
+     * The play cursor inside the ring when it was last read.
+     */
+    private int lastOffset = 0;
+
+    /**
+     * The amount of times the play cursor overtook the written data.
+     */
+    private int underruns = 0;
+
+    /**
+     * Creates a new ring buffer output stream and attaches the ring buffer to the source.
+     * @param al the OpenAL interface on which the output stream will be created
+     * @param alext the OpenAL extension interface
+     * @param source the source that will play the ring buffer
+     * @param format the format of the data that will be written to the stream
+     * @param ringSize the size of the ring buffer in bytes
+     * @throws ALException when AL_SOFT_buffer_sub_data is missing or the ring buffer could not be created
+     */
+    public SourceRingOutputStream(AL al, ALExt alext, Source source, AudioFormat format, int ringSize) throws ALException {
+	    if (!al.alIsExtensionPresent(ALExt.AL_SOFT_BUFFER_SUB_DATA_NAME)) {
+	        throw new ALException("Ring buffer streaming requires " + ALExt.AL_SOFT_BUFFER_SUB_DATA_NAME);
+	    }
+	    this.al = al;
+	    this.alext = alext;
+	    this.source = source;
+	    this.format = format;
+
+	    AudioFormat target = PcmConverter.getTargetFormat(format);
+	    this.alFormat = PcmConverter.getALFormat(target);
+	    this.frameSize = target.getFrameSize();
+	    this.ringFrames = ringSize / frameSize;
+	    this.guardFrames = Math.max(1, ringFrames / 8);
+	    this.partialFrame = new byte[format.getFrameSize()];
+	    if (ringFrames < 16) {
+	        throw new ALException("Ring buffer of " + ringSize + " bytes is too small");
+	    }
+
+	    ring = new Buffer(al);
+	    silence = new byte[ringFrames * frameSize];
+	    if (target.getSampleSizeInBits() == 8) {
+	        Arrays.fill(silence, (byte) 0x80);
+	    }
+	    ring.addBufferData(target, silence);
+	    source.setBuffer(ring);
+	    source.setLooping(true);
+    }
+
+    /**
+     * Gets the amount of samples that have been played by the source.
+     * @return the amount of played sample frames
+     */
+    public long getSamplesProcessed() {
+	    return framesPlayed;
+    }
+
+    /**
+     * Gets the amount of times the writer fell behind the play cursor.
+     * @return the amount of underruns
+     */
+    public int getUnderrunCount() {
+	    return underruns;
+    }
+
+    /**
+     * Gets the size of the ring in sample frames.
+     * @return the size of the ring
+     */
+    public int getRingFrames() {
+	    return ringFrames;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+	    write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+	    int inputFrameSize = partialFrame.length;
+	    try {
+	        if (partialLength > 0) {
+	    		int missing = Math.min(inputFrameSize - partialLength, len);
+	    		System.arraycopy(b, off, partialFrame, partialLength, missing);
+	    		partialLength += missing;
+	    		off += missing;
+	    		len -= missing;
+	    		if (partialLength < inputFrameSize) {
+	    		    return;
+	    		}
+	    		writeFrames(PcmConverter.normalize(format, partialFrame, 0, inputFrameSize));
+	    		partialLength = 0;
+	        }
+
+	        int whole = (len / inputFrameSize) * inputFrameSize;
+	        if (whole > 0) {
+	    		writeFrames(PcmConverter.normalize(format, b, off, whole));
+	        }
+	        partialLength = len - whole;
+	        System.arraycopy(b, off + whole, partialFrame, 0, partialLength);
+	    } catch (ALException e) {
+	        throw new IOException(e);
+	    }
+    }
+
+    /**
+     * Copies converted frames into the ring, waiting for the play cursor to free up space when needed.
+     * @param samples the converted sample data
+     * @throws ALException when the ring could not be updated
+     * @throws IOException when the thread was interrupted while waiting
+     */
+    private void writeFrames(byte[] samples) throws ALException, IOException {
+	    int frames = samples.length / frameSize;
+	    int done = 0;
+	    while (done < frames) {
+	        updatePlayed();
+	        silencePlayed();
+	        if (framesWritten < framesPlayed) {
+	    		underruns++;
+	    		framesWritten = framesPlayed + guardFrames;
+	        }
+
+	        long free = ringFrames - guardFrames - (framesWritten - framesPlayed);
+	        if (free <= 0) {
+	    		if (source.getSourceState() == SourceState.INITIAL) {
+	    		    source.play();
+	    		}
+	    		waitFrames(-free + guardFrames);
+	    		continue;
+	        }
+
+	        int count = (int) Math.min(free, frames - done);
+	        int position = (int) (framesWritten % ringFrames);
+	        int first = Math.min(count, ringFrames - position);
+	        upload(samples, done, position, first);
+	        if (first < count) {
+	    		upload(samples, done + first, 0, count - first);
+	        }
+	        framesWritten += count;
+	        done += count;
+
+	        if (source.getSourceState() == SourceState.INITIAL) {
+	    		source.play();
+	        }
+	    }
+    }
+
+    /**
+     * Overwrites a region of the ring.
+     * @param samples the converted sample data
+     * @param frame the index of the first frame in the sample data
+     * @param position the frame position inside the ring
+     * @param count the amount of frames
+     * @throws ALException when the ring could not be updated
+     */
+    private void upload(byte[] samples, int frame, int position, int count) throws ALException {
+	    Util.clearErrors(al);
+	    alext.alBufferSubDataSOFT(ring.getBufferId(), alFormat, ByteBuffer.wrap(samples, frame * frameSize, count * frameSize),
+	    		position * frameSize, count * frameSize);
+	    Util.checkForALError(al);
+    }
+
+    /**
+     * Overwrites the frames played since the last call with silence, so a source that overtakes the written data
+     * loops over silence. Frames that already hold unplayed data and the guard ahead of the cursor are left alone.
+     * @throws ALException when the ring could not be updated
+     */
+    private void silencePlayed() throws ALException {
+	    long from = Math.max(framesSilenced, Math.max(framesWritten, framesPlayed) - ringFrames);
+	    from = Math.max(from, framesPlayed - (ringFrames - guardFrames));
+	    int count = (int) (framesPlayed - from);
+	    if (count <= 0) {
+	        return;
+	    }
+	    int position = (int) (from % ringFrames);
+	    int first = Math.min(count, ringFrames - position);
+	    upload(silence, 0, position, first);
+	    if (first < count) {
+	        upload(silence, 0, 0, count - first);
+	    }
+	    framesSilenced = framesPlayed;
+    }
+
+    /**
+     * Reads the play cursor and advances the amount of played frames.
+     * @throws ALException when the play cursor could not be read
+     */
+    private void updatePlayed() throws ALException {
+	    int offset = source.getIntParam(AL.AL_SAMPLE_OFFSET);
+	    int advanced = offset - lastOffset;
+	    if (advanced < 0) {
+	        advanced += ringFrames;
+	    }
+	    framesPlayed += advanced;
+	    lastOffset = offset;
+    }
+
+    /**
+     * Sleeps for roughly the time it takes to play the given amount of frames.
+     * @param frames the amount of frames
+     * @throws IOException when the thread was interrupted
+     */
+    private void waitFrames(long frames) throws IOException {
+	    long nanos = (long) (frames * 1_000_000_000L / format.getSampleRate());
+	    LockSupport.parkNanos(Math.max(nanos, TimeUnit.MICROSECONDS.toNanos(500)));
+	    if (Thread.interrupted()) {
+	        throw new IOException("IO Operation interrupted");
+	    }
+    }
+
+    /**
+     * Stops the source, detaches the ring buffer and deletes it.
+     */
+    @Override
+    public void close() {
+	    try {
+	        source.stop();
+	        source.setLooping(false);
+	        source.setIntParam(AL.AL_BUFFER, 0);
+	    } catch (ALException e) {
+	        // The source is already gone, the ring buffer can be deleted either way
+	    }
+	    ring.close();
+    }
+}
@@ -0,0 +1,623 @@
+package org.valhalla.openal.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.valhalla.openal.intermediate.Buffer;
+import org.valhalla.openal.intermediate.PlaybackClock;
+import org.valhalla.openal.intermediate.Source;
+import org.valhalla.openal.jna.AL;
+import org.valhalla.openal.util.ALException;
+import org.valhalla.openal.util.PcmConverter;
+import org.valhalla.openal.util.SourceState;
+
+/**
+ * Plays an audio stream on a source with a read-ahead decode pipeline.<br>
+ * <br>
+ * A decoder thread reads and converts the stream ahead of playback into a bounded ring of reusable chunks.
+ * A second thread only uploads chunks that are ready into the buffers the source has finished playing.
+ * Reading and converting chunk N+1 therefore overlaps with uploading and playing chunk N,
+ * and a slow read only drains the read-ahead instead of causing an audible gap.<br>
+ * <br>
+ * The ring is shared by exactly one producer and one consumer and needs no locks.
+ * No memory is allocated per chunk for data that OpenAL can play natively.<br>
+ * <br>
+ * A player started from a WAV or AIFF file can {@link #seek(long)}. The decoder jumps straight to the byte offset
+ * of the {@link SeekTable} of the file, chunks decoded before the seek are dropped, and the queued buffers are flushed.
+ * Playback resumes as soon as the first chunk at the new position has been uploaded.
+ */
+public class StreamPlayer {
+
+    /**
+     * The longest time a thread sleeps before checking for work again.
+     */
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    /**
+     * The shortest time the upload thread sleeps between checks.
+     */
+    private static final long MIN_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+    /**
+     * The source that plays the stream.
+     */
+    private final Source source;
+
+    /**
+     * The format of the stream.
+     */
+    private final AudioFormat format;
+
+    /**
+     * The OpenAL format enum of the buffers.
+     */
+    private final int alFormat;
+
+    /**
+     * The sample rate of the buffers.
+     */
+    private final int sampleRate;
+
+    /**
+     * The size of a frame in the buffers, in bytes.
+     */
+    private final int frameSize;
+
+    /**
+     * The ring of reusable chunks.
+     */
+    private final Chunk[] chunks;
+
+    /**
+     * The amount of chunks the decoder has published.
+     */
+    private final AtomicLong decoded = new AtomicLong();
+
+    /**
+     * The amount of chunks the uploader has consumed.
+     */
+    private final AtomicLong uploaded = new AtomicLong();
+
+    /**
+     * The buffers that are rotated through the queue of the source.
+     */
+    private final Buffer[] buffers;
+
+    /**
+     * The amount of frames in every buffer.
+     */
+    private final int[] bufferFrames;
+
+    /**
+     * The index of the next buffer to fill.
+     */
+    private int queueHead = 0;
+
+    /**
+     * The index of the oldest queued buffer.
+     */
+    private int queueTail = 0;
+
+    /**
+     * The amount of queued buffers.
+     */
+    private int queuedCount = 0;
+
+    /**
+     * The decoder thread, or null before the player has been started.
+     */
+    private Thread decoder;
+
+    /**
+     * The upload thread, or null before the player has been started.
+     */
+    private Thread uploader;
+
+    /**
+     * Has the decoder thread ended?
+     */
+    private volatile boolean endOfStream = false;
+
+    /**
+     * The seek table of the file being played, or null when the stream cannot seek.
+     */
+    private SeekTable table;
+
+    /**
+     * Guards {@link #seekTarget} together with the increment of {@link #generation}.
+     */
+    private final Object seekLock = new Object();
+
+    /**
+     * The frame the decoder has to jump to, or -1.
+     */
+    private long seekTarget = -1;
+
+    /**
+     * The frame of the last seek, where the upload thread restarts the clock.
+     */
+    private volatile long seekPosition = 0;
+
+    /**
+     * Incremented by every seek. Chunks decoded for an older generation are dropped.
+     */
+    private volatile int generation = 0;
+
+    /**
+     * The generation the queued buffers belong to. Only used by the upload thread.
+     */
+    private int uploadGeneration = 0;
+
+    /**
+     * The generation in which the decoder reached the end of the file, or -1.
+     */
+    private volatile int endGeneration = -1;
+
+    /**
+     * Should the player stop?
+     */
+    private volatile boolean stopped = false;
+
+    /**
+     * Has playback finished or been stopped, with all buffers deleted?
+     */
+    private volatile boolean finished = false;
+
+    /**
+     * The error that ended playback, or null.
+     */
+    private volatile Exception failure;
+
+    /**
+     * The clock that combines the processed frames with the play offset and latency of the source.
+     */
+    private final PlaybackClock clock;
+
+    /**
+     * Total amount of frames played by the source.
+     */
+    private volatile long samplesProcessed = 0;
+
+    /**
+     * The amount of times the source ran out of data before the end of the stream.
+     */
+    private volatile int underruns = 0;
+
+    /**
+     * Creates a new stream player.
+     * @param source the source that will play the stream
+     * @param format the format of the stream
+     * @param chunkSize the size of a chunk in bytes of converted data
+     * @param readAheadChunks the amount of chunks the decoder may run ahead of the upload
+     * @param numberOfBuffers the amount of buffers queued on the source
+     * @throws ALException when the format is unsupported or the buffers could not be created
+     */
+    public StreamPlayer(Source source, AudioFormat format, int chunkSize, int readAheadChunks, int numberOfBuffers) throws ALException {
+	    AudioFormat target = PcmConverter.getTargetFormat(format);
+	    this.source = source;
+	    this.format = format;
+	    this.alFormat = PcmConverter.getALFormat(target);
+	    this.sampleRate = (int) target.getSampleRate();
+	    this.clock = new PlaybackClock(source, sampleRate);
+	    this.frameSize = target.getFrameSize();
+
+	    int chunkFrames = Math.max(1, chunkSize / frameSize);
+	    boolean nativeFormat = PcmConverter.isNative(format);
+	    this.chunks = new Chunk[readAheadChunks];
+	    for (int i = 0; i < chunks.length; i++) {
+	        chunks[i] = new Chunk(chunkFrames * format.getFrameSize(), nativeFormat ? 0 : chunkFrames * frameSize);
+	    }
+	    this.bufferFrames = new int[numberOfBuffers];
+	    this.buffers = new Buffer[numberOfBuffers];
+	    for (int i = 0; i < numberOfBuffers; i++) {
+	        buffers[i] = new Buffer(source.getFactory());
+	    }
+    }
+
+    /**
+     * Starts playing an input stream.
+     * @param input the stream, which is closed when playback ends
+     */
+    public void start(InputStream input) {
+	    start(Channels.newChannel(input));
+    }
+
+    /**
+     * Starts playing a channel.
+     * @param input the channel, which is closed when playback ends
+     */
+    public void start(ReadableByteChannel input) {
+	    start(input, null);
+    }
+
+    /**
+     * Starts playing a WAV or AIFF file, which allows seeking.
+     * @param file the file, which must have the format of the player
+     * @throws IOException when the file could not be opened or has another format
+     */
+    public void start(File file) throws IOException {
+	    SeekTable fileTable = SeekTable.forFile(file);
+	    if (!fileTable.getFormat().matches(format)) {
+	        throw new IOException("Format of " + file + " does not match the player format " + format);
+	    }
+	    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+	    channel.position(fileTable.getDataOffset());
+	    start(channel, fileTable);
+    }
+
+    /**
+     * Starts the decoder and upload threads.
+     * @param input the stream
+     * @param seekTable the seek table when the stream is a file channel, or null
+     */
+    private synchronized void start(ReadableByteChannel input, SeekTable seekTable) {
+	    if (decoder != null) {
+	        throw new IllegalStateException("Stream player has already been started");
+	    }
+	    table = seekTable;
+	    uploader = new Thread(this::upload, "OpenAL stream upload");
+	    decoder = new Thread(() -> decode(input), "OpenAL stream decode");
+	    uploader.setDaemon(true);
+	    decoder.setDaemon(true);
+	    decoder.start();
+	    uploader.start();
+    }
+
+    /**
+     * Seeks to a frame of the file. Can be called from any thread until playback has finished.
+     * @param sampleOffset the frame to continue playing at, clamped to the frames of the file
+     * @throws IllegalStateException when the player was not started from a file
+     */
+    public void seek(long sampleOffset) {
+	    if (table == null) {
+	        throw new IllegalStateException("Only a stream player started from a file can seek");
+	    }
+	    long frame = Math.max(0, Math.min(sampleOffset, table.getFrameCount()));
+	    synchronized (seekLock) {
+	        seekTarget = frame;
+	        seekPosition = frame;
+	        generation++;
+	    }
+	    LockSupport.unpark(decoder);
+	    LockSupport.unpark(uploader);
+    }
+
+    /**
+     * Reads and converts the stream into the ring until the end of the stream. Runs on the decoder thread.
+     * A file is kept open at its end, so it can still seek until playback has finished.
+     * @param input the stream
+     */
+    private void decode(ReadableByteChannel input) {
+	    try (ReadableByteChannel channel = input) {
+	        long produced = 0;
+	        long remaining = table != null ? table.getDataEnd() - table.getDataOffset() : Long.MAX_VALUE;
+	        boolean atEnd = false;
+	        while (!stopped) {
+	    		long target;
+	    		int chunkGeneration;
+	    		synchronized (seekLock) {
+	    		    target = seekTarget;
+	    		    seekTarget = -1;
+	    		    chunkGeneration = generation;
+	    		}
+	    		if (target >= 0) {
+	    		    FileChannel file = (FileChannel) channel;
+	    		    file.position(table.getByteOffset(target));
+	    		    remaining = table.getDataEnd() - file.position();
+	    		    atEnd = false;
+	    		}
+	    		if (atEnd || produced - uploaded.get() == chunks.length) {
+	    		    LockSupport.parkNanos(this, MAX_WAIT_NANOS);
+	    		    continue;
+	    		}
+	    		Chunk chunk = chunks[(int) (produced % chunks.length)];
+	    		if (!chunk.fill(channel, remaining)) {
+	    		    endGeneration = chunkGeneration;
+	    		    LockSupport.unpark(uploader);
+	    		    if (table == null) {
+	    			break;
+	    		    }
+	    		    atEnd = true;
+	    		    continue;
+	    		}
+	    		remaining -= chunk.rawLength;
+	    		chunk.generation = chunkGeneration;
+	    		decoded.lazySet(++produced);
+	    		LockSupport.unpark(uploader);
+	        }
+	    } catch (IOException | ALException e) {
+	        failure = e;
+	    } finally {
+	        endOfStream = true;
+	        LockSupport.unpark(uploader);
+	    }
+    }
+
+    /**
+     * Uploads ready chunks into free buffers and keeps the source playing. Runs on the upload thread.
+     */
+    private void upload() {
+	    try {
+	        long consumed = 0;
+	        while (!stopped) {
+	    		int current = generation;
+	    		if (current != uploadGeneration) {
+	    		    flushQueue(seekPosition);
+	    		    uploadGeneration = current;
+	    		}
+	    		reclaim();
+	    		while (queuedCount < buffers.length && consumed < decoded.get()) {
+	    		    Chunk chunk = chunks[(int) (consumed % chunks.length)];
+	    		    if (chunk.generation - uploadGeneration > 0) {
+	    			// Decoded after a seek this thread has not flushed for yet
+	    			break;
+	    		    }
+	    		    if (chunk.generation == uploadGeneration) {
+	    			Buffer buffer = buffers[queueHead];
+	    			buffer.addBufferData(alFormat, ByteBuffer.wrap(chunk.converted(), 0, chunk.length), sampleRate);
+	    			source.queueBuffer(buffer);
+	    			bufferFrames[queueHead] = chunk.length / frameSize;
+	    			queueHead = (queueHead + 1) % buffers.length;
+	    			queuedCount++;
+	    		    }
+	    		    uploaded.lazySet(++consumed);
+	    		    LockSupport.unpark(decoder);
+	    		}
+
+	    		SourceState state = source.getSourceState();
+	    		if (queuedCount > 0 && state == SourceState.INITIAL) {
+	    		    source.play();
+	    		    state = SourceState.PLAYING;
+	    		} else if (queuedCount > 0 && state == SourceState.STOPPED) {
+	    		    // The source ran dry before more data was ready
+	    		    underruns++;
+	    		    source.play();
+	    		    state = SourceState.PLAYING;
+	    		}
+
+	    		boolean ended = endOfStream || (endGeneration == uploadGeneration && generation == uploadGeneration);
+	    		if (ended && consumed == decoded.get() && queuedCount == 0) {
+	    		    break;
+	    		}
+	    		LockSupport.parkNanos(this, waitTime(state));
+	        }
+	    } catch (ALException e) {
+	        failure = e;
+	    } finally {
+	        stopped = true;
+	        LockSupport.unpark(decoder);
+	        release();
+	    }
+    }
+
+    /**
+     * Unqueues all buffers the source has finished playing, oldest first.
+     * @throws ALException when the buffers could not be unqueued
+     */
+    private void reclaim() throws ALException {
+	    int processed = Math.min(source.getProcessedBufferCount(), queuedCount);
+	    if (processed == 0) {
+	        return;
+	    }
+	    clock.beginUnqueue();
+	    try {
+	        for (int i = 0; i < processed; i++) {
+	    		source.unqueueBuffer(buffers[queueTail]);
+	    		samplesProcessed += bufferFrames[queueTail];
+	    		queueTail = (queueTail + 1) % buffers.length;
+	    		queuedCount--;
+	        }
+	    } finally {
+	        clock.endUnqueue(samplesProcessed);
+	    }
+    }
+
+    /**
+     * Stops the source and drops all queued buffers after a seek. Runs on the upload thread.
+     * @param frame the frame the stream continues at
+     * @throws ALException when the buffers could not be unqueued
+     */
+    private void flushQueue(long frame) throws ALException {
+	    clock.beginUnqueue();
+	    try {
+	        source.stop();
+	        while (queuedCount > 0) {
+	    		source.unqueueBuffer(buffers[queueTail]);
+	    		queueTail = (queueTail + 1) % buffers.length;
+	    		queuedCount--;
+	        }
+	        // Back to the initial state, so the source is started again as soon as a buffer is queued
+	        source.rewind();
+	        samplesProcessed = frame;
+	        clock.reset(frame);
+	    } finally {
+	        clock.endUnqueue(samplesProcessed);
+	    }
+    }
+
+    /**
+     * Calculates how long the upload thread can sleep.
+     * @param state the state of the source
+     * @return the time in nanoseconds until the playing buffer has finished
+     * @throws ALException when the play position could not be read
+     */
+    private long waitTime(SourceState state) throws ALException {
+	    if (queuedCount == 0 || state != SourceState.PLAYING) {
+	        return MIN_WAIT_NANOS * 4;
+	    }
+	    int remaining = bufferFrames[queueTail] - source.getIntParam(AL.AL_SAMPLE_OFFSET);
+	    long nanos = TimeUnit.SECONDS.toNanos(Math.max(remaining, 0)) / sampleRate;
+	    return Math.max(MIN_WAIT_NANOS, Math.min(nanos, MAX_WAIT_NANOS));
+    }
+
+    /**
+     * Stops the source and deletes the buffers. Runs on the upload thread.
+     */
+    private void release() {
+	    try {
+	        source.stop();
+	        source.setIntParam(AL.AL_BUFFER, 0);
+	    } catch (ALException e) {
+	        // The source is already gone, the buffers can be deleted either way
+	    }
+	    for (Buffer buffer : buffers) {
+	        buffer.close();
+	    }
+	    finished = true;
+    }
+
+    /**
+     * Stops playback right away. The buffers are deleted by the upload thread shortly after,
+     * or right away when the player was never started.
+     */
+    public synchronized void stop() {
+	    stopped = true;
+	    if (uploader != null) {
+	        LockSupport.unpark(uploader);
+	        LockSupport.unpark(decoder);
+	    } else if (!finished) {
+	        release();
+	    }
+    }
+
+    /**
+     * Waits until the stream has been played to its end or stopped.
+     * @throws InterruptedException when the thread was interrupted while waiting
+     * @throws IOException when playback ended because of an error
+     */
+    public void awaitEnd() throws InterruptedException, IOException {
+	    Thread thread = uploader;
+	    if (thread != null) {
+	        thread.join();
+	    }
+	    if (failure != null) {
+	        throw new IOException(failure);
+	    }
+    }
+
+    /**
+     * Checks if playback has ended.
+     * @return true when the stream has been played to its end or was stopped
+     */
+    public boolean isFinished() {
+	    return finished;
+    }
+
+    /**
+     * Gets the amount of samples that have been played by the source.
+     * After a seek this counts from the frame that was seeked to.
+     * @return the amount of played sample frames
+     */
+    public long getSamplesProcessed() {
+	    return samplesProcessed;
+    }
+
+    /**
+     * Gets the clock that tells which moment of the stream is being heard right now.
+     * @return the playback clock of the stream
+     */
+    public PlaybackClock getClock() {
+	    return clock;
+    }
+
+    /**
+     * Gets the amount of chunks that have been decoded but not yet uploaded.
+     * @return the amount of ready chunks
+     */
+    public int getReadyChunks() {
+	    return (int) (decoded.get() - uploaded.get());
+    }
+
+    /**
+     * Gets the amount of times the source ran out of data before the end of the stream.
+     * @return the amount of underruns
+     */
+    public int getUnderrunCount() {
+	    return underruns;
+    }
+
+    /**
+     * A reusable slot of the ring.
+     */
+    private final class Chunk {
+
+	    /**
+	     * The data as read from the stream.
+	     */
+	    private final byte[] raw;
+
+	    /**
+	     * The converted data, or null when the stream needs no conversion.
+	     */
+	    private final byte[] data;
+
+	    /**
+	     * The amount of valid bytes of converted data.
+	     */
+	    private int length;
+
+	    /**
+	     * The amount of bytes read from the stream.
+	     */
+	    private int rawLength;
+
+	    /**
+	     * The seek generation the chunk was decoded in.
+	     */
+	    private int generation;
+
+	    private Chunk(int rawSize, int convertedSize) {
+	        raw = new byte[rawSize];
+	        data = convertedSize > 0 ? new byte[convertedSize] : null;
+	    }
+
+	    /**
+	     * Reads and converts the next part of the stream.
+	     * @param channel the stream
+	     * @param limit the amount of bytes left in the stream
+	     * @return false when the end of the stream was reached before a whole frame could be read
+	     * @throws IOException when the stream could not be read
+	     * @throws ALException when the data could not be converted
+	     */
+	    private boolean fill(ReadableByteChannel channel, long limit) throws IOException, ALException {
+	        ByteBuffer target = ByteBuffer.wrap(raw, 0, (int) Math.min(raw.length, limit));
+	        while (target.hasRemaining() && !stopped) {
+	    		if (channel.read(target) < 0) {
+	    		    break;
+	    		}
+	        }
+	        int whole = target.position() / format.getFrameSize() * format.getFrameSize();
+	        rawLength = target.position();
+	        if (whole == 0) {
+	    		return false;
+	        }
+	        if (data == null) {
+	    		length = whole;
+	        } else {
+	    		byte[] samples = PcmConverter.normalize(format, raw, 0, whole);
+	    		System.arraycopy(samples, 0, data, 0, samples.length);
+	    		length = samples.length;
+	        }
+	        return true;
+	    }
+
+	    /**
+	     * Gets the data that is uploaded.
+	     * @return the converted data
+	     */
+	    private byte[] converted() {
+	        return data != null ? data : raw;
+	    }
+    }
+}
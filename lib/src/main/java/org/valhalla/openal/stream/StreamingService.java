@@ -0,0 +1,151 @@
+package org.valhalla.openal.stream;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.valhalla.openal.intermediate.Source;
+import org.valhalla.openal.util.ALException;
+
+/**
+ * A single thread that keeps the buffer queues of all streaming sources filled.<br>
+ * <br>
+ * Producers write into a {@link ServicedOutputStream}, which only hands converted chunks over to the service.
+ * Every tick the service unqueues the processed buffers of each stream in the order they were played,
+ * refills them with pending chunks and queues them again. Producers never talk to OpenAL and never poll:
+ * when all chunks of a stream are pending they block until the service frees one up.<br>
+ * <br>
+ * The service sleeps until the earliest moment a queued buffer of any stream can have finished playing,
+ * and is woken up early when a producer hands over a chunk while the queue of its stream has room.
+ */
+public class StreamingService {
+
+    /**
+     * The longest time the service sleeps between ticks.
+     */
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /**
+     * The shortest time the service sleeps between ticks.
+     */
+    private static final long MIN_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+    /**
+     * The streams that are being serviced.
+     */
+    private final List<ServicedOutputStream> streams = new CopyOnWriteArrayList<>();
+
+    /**
+     * The service thread.
+     */
+    private final Thread thread;
+
+    /**
+     * Is the service running?
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Creates and starts a new streaming service.
+     */
+    public StreamingService() {
+	    thread = new Thread(this::run, "OpenAL streaming");
+	    thread.setDaemon(true);
+	    thread.start();
+    }
+
+    /**
+     * Creates a stream to a source that is serviced by this service.
+     * @param source the source that will play the stream
+     * @param format the format of the data that will be written to the stream
+     * @param numberOfBuffers the amount of buffers that are queued on the source
+     * @param bufferSize the size of every buffer in bytes of converted data
+     * @return a new serviced output stream
+     * @throws ALException when the service has been closed or the buffers could not be created
+     */
+    public ServicedOutputStream createStream(Source source, AudioFormat format, int numberOfBuffers, int bufferSize) throws ALException {
+	    ServicedOutputStream stream;
+	    // Registered under the same lock close() stops the service with, so no stream is added after the last pass
+	    synchronized (this) {
+	        if (!running) {
+	    		throw new ALException("Streaming service has been closed");
+	        }
+	        stream = new ServicedOutputStream(this, source, format, numberOfBuffers, bufferSize);
+	        streams.add(stream);
+	    }
+	    return stream;
+    }
+
+    /**
+     * Gets the amount of streams that are currently serviced.
+     * @return the amount of streams
+     */
+    public int getStreamCount() {
+	    return streams.size();
+    }
+
+    /**
+     * Wakes the service thread up, so it services all streams right away.
+     */
+    void wakeUp() {
+	    LockSupport.unpark(thread);
+    }
+
+    /**
+     * Stops servicing a stream.
+     * @param stream the stream
+     */
+    void remove(ServicedOutputStream stream) {
+	    streams.remove(stream);
+    }
+
+    /**
+     * Services all streams until the service is closed.
+     */
+    private void run() {
+	    while (running) {
+	        long wait = MAX_WAIT_NANOS;
+	        for (ServicedOutputStream stream : streams) {
+	    		wait = Math.min(wait, stream.service());
+	        }
+	        LockSupport.parkNanos(this, Math.max(wait, MIN_WAIT_NANOS));
+	    }
+	    // A last pass releases the streams aborted by close, on the thread that owns their buffers
+	    for (ServicedOutputStream stream : streams) {
+	        stream.service();
+	    }
+    }
+
+    /**
+     * Aborts all streams that are still serviced, releases their buffers and stops the service thread.
+     * Producers waiting in {@link ServicedOutputStream#close()} return once their stream is released.
+     */
+    public void close() {
+	    synchronized (this) {
+	        running = false;
+	        for (ServicedOutputStream stream : streams) {
+	    		stream.abort();
+	        }
+	    }
+	    wakeUp();
+	    boolean interrupted = false;
+	    while (thread.isAlive()) {
+	        try {
+	    		thread.join();
+	        } catch (InterruptedException e) {
+	    		interrupted = true;
+	        }
+	    }
+	    // Release whatever the last pass missed on this thread, so no caller keeps waiting for a stream
+	    for (ServicedOutputStream stream : streams) {
+	        stream.service();
+	    }
+	    streams.clear();
+	    if (interrupted) {
+	        Thread.currentThread().interrupt();
+	    }
+    }
+}
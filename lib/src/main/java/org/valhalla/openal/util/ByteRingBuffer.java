@@ -0,0 +1,205 @@
+package org.valhalla.openal.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.sun.jna.Pointer;
+
+/**
+ * A lock-free ring buffer of bytes for exactly one writing thread and one reading thread.<br>
+ * <br>
+ * Neither side takes locks or allocates memory, so the reading side can safely run on an audio thread.
+ * A writer that finds the ring full can wait with {@link #writeFully(byte[], int, int)};
+ * it is woken up by the reader as soon as space has been freed.
+ */
+public class ByteRingBuffer {
+
+	/**
+	 * Upper bound for the time a waiting writer sleeps before checking for space again.
+	 */
+	private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+	/**
+	 * The stored bytes.
+	 */
+	private final byte[] data;
+
+	/**
+	 * Mask that maps a position onto an index into {@link #data}.
+	 */
+	private final int mask;
+
+	/**
+	 * Total amount of bytes written, only modified by the writer.
+	 */
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * Total amount of bytes read, only modified by the reader.
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * The writer thread that is waiting for space, or null.
+	 */
+	private volatile Thread waitingWriter;
+
+	/**
+	 * Creates a new ring buffer.
+	 * @param capacity the minimum capacity in bytes, rounded up to a power of two
+	 */
+	public ByteRingBuffer(int capacity) {
+		if (capacity < 1 || capacity > (1 << 30)) {
+			throw new IllegalArgumentException("Invalid ring buffer capacity: " + capacity);
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		data = new byte[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Gets the capacity of the ring.
+	 * @return the capacity in bytes
+	 */
+	public int capacity() {
+		return data.length;
+	}
+
+	/**
+	 * Gets the amount of bytes that can be read.
+	 * @return the amount of readable bytes
+	 */
+	public int available() {
+		return (int) (head.get() - tail.get());
+	}
+
+	/**
+	 * Gets the amount of bytes that can be written without waiting.
+	 * @return the amount of free bytes
+	 */
+	public int free() {
+		return data.length - available();
+	}
+
+	/**
+	 * Writes as many bytes as fit into the ring, without waiting. Only call this from the writing thread.
+	 * @param src the source array
+	 * @param off the index of the first byte to write
+	 * @param len the amount of bytes to write
+	 * @return the amount of bytes written
+	 */
+	public int write(byte[] src, int off, int len) {
+		long position = head.get();
+		int count = Math.min(len, data.length - (int) (position - tail.get()));
+		if (count <= 0) {
+			return 0;
+		}
+		int index = (int) position & mask;
+		int first = Math.min(count, data.length - index);
+		System.arraycopy(src, off, data, index, first);
+		System.arraycopy(src, off + first, data, 0, count - first);
+		head.lazySet(position + count);
+		return count;
+	}
+
+	/**
+	 * Writes all bytes, waiting for the reader to free up space when the ring is full.
+	 * Only call this from the writing thread.
+	 * @param src the source array
+	 * @param off the index of the first byte to write
+	 * @param len the amount of bytes to write
+	 * @throws InterruptedException when the thread is interrupted while waiting
+	 */
+	public void writeFully(byte[] src, int off, int len) throws InterruptedException {
+		while (len > 0) {
+			int written = write(src, off, len);
+			off += written;
+			len -= written;
+			if (len > 0 && written == 0) {
+				waitingWriter = Thread.currentThread();
+				if (free() == 0) {
+					LockSupport.parkNanos(this, MAX_WAIT_NANOS);
+				}
+				waitingWriter = null;
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads up to the requested amount of bytes. Only call this from the reading thread.
+	 * @param dst the destination array
+	 * @param off the index of the first byte to fill
+	 * @param len the maximum amount of bytes to read
+	 * @return the amount of bytes read
+	 */
+	public int read(byte[] dst, int off, int len) {
+		long position = tail.get();
+		int count = Math.min(len, (int) (head.get() - position));
+		if (count <= 0) {
+			return 0;
+		}
+		int index = (int) position & mask;
+		int first = Math.min(count, data.length - index);
+		System.arraycopy(data, index, dst, off, first);
+		System.arraycopy(data, 0, dst, off + first, count - first);
+		advance(position + count);
+		return count;
+	}
+
+	/**
+	 * Reads up to the requested amount of bytes into native memory. Only call this from the reading thread.
+	 * @param dst the destination memory
+	 * @param off the offset of the first byte to fill
+	 * @param len the maximum amount of bytes to read
+	 * @return the amount of bytes read
+	 */
+	public int read(Pointer dst, long off, int len) {
+		long position = tail.get();
+		int count = Math.min(len, (int) (head.get() - position));
+		if (count <= 0) {
+			return 0;
+		}
+		int index = (int) position & mask;
+		int first = Math.min(count, data.length - index);
+		dst.write(off, data, index, first);
+		if (count > first) {
+			dst.write(off + first, data, 0, count - first);
+		}
+		advance(position + count);
+		return count;
+	}
+
+	/**
+	 * Drops up to the requested amount of readable bytes. Only call this from the reading thread.
+	 * @param len the maximum amount of bytes to drop
+	 * @return the amount of bytes dropped
+	 */
+	public int skip(int len) {
+		long position = tail.get();
+		int count = Math.min(len, (int) (head.get() - position));
+		if (count <= 0) {
+			return 0;
+		}
+		advance(position + count);
+		return count;
+	}
+
+	/**
+	 * Publishes a new read position and wakes up a waiting writer.
+	 * @param position the new read position
+	 */
+	private void advance(long position) {
+		tail.lazySet(position);
+		Thread writer = waitingWriter;
+		if (writer != null) {
+			LockSupport.unpark(writer);
+		}
+	}
+}
@@ -0,0 +1,479 @@
+package org.valhalla.openal.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.valhalla.openal.jna.AL;
+
+/**
+ * Class with static functions to convert PCM sample data into a layout that OpenAL can play.<br>
+ * <br>
+ * OpenAL only accepts unsigned 8-bit samples and signed little-endian 16-bit samples, with one or two channels.
+ * Any other PCM layout that an {@link AudioFormat} can describe is normalised to one of these in a single pass.<br>
+ * The conversion kernels are plain counted loops over primitive arrays, so the JIT can compile them into SIMD code.
+ */
+public class PcmConverter {
+
+	/**
+	 * View of a byte array as little-endian shorts.
+	 */
+	private static final VarHandle SHORT_LE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+
+	/**
+	 * View of a byte array as big-endian shorts.
+	 */
+	private static final VarHandle SHORT_BE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+
+	/**
+	 * View of a byte array as little-endian ints.
+	 */
+	private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+	/**
+	 * View of a byte array as big-endian ints.
+	 */
+	private static final VarHandle INT_BE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+	/**
+	 * View of a byte array as little-endian floats.
+	 */
+	private static final VarHandle FLOAT_LE = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.LITTLE_ENDIAN);
+
+	/**
+	 * View of a byte array as big-endian floats.
+	 */
+	private static final VarHandle FLOAT_BE = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.BIG_ENDIAN);
+
+	/**
+	 * The start of the dither noise sequence. It is fixed, so converting the same data always gives the same bytes.
+	 */
+	private static final int DITHER_SEED = 0x9E3779B9;
+
+	/**
+	 * This class only contains static functions and should not be instantiated.
+	 */
+	private PcmConverter() {
+	}
+
+	/**
+	 * Checks if data in the given format can be handed to OpenAL without any conversion.
+	 * @param format the format of the sample data
+	 * @return if the data is unsigned 8-bit or signed little-endian 16-bit with one or two channels
+	 */
+	public static boolean isNative(AudioFormat format) {
+		if (format.getChannels() != 1 && format.getChannels() != 2) {
+			return false;
+		}
+		if (format.getSampleSizeInBits() == 8) {
+			return AudioFormat.Encoding.PCM_UNSIGNED.equals(format.getEncoding());
+		}
+		return format.getSampleSizeInBits() == 16
+				&& AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding())
+				&& !format.isBigEndian();
+	}
+
+	/**
+	 * Gets the format that data in the given format will have after {@link #normalize(AudioFormat, byte[], int, int)}.<br>
+	 * 8-bit data stays 8-bit, every other sample size becomes 16-bit. The channel count and sample rate are kept.
+	 * @param format the format of the source data
+	 * @return the OpenAL compatible format
+	 * @throws ALException when the format cannot be converted
+	 */
+	public static AudioFormat getTargetFormat(AudioFormat format) throws ALException {
+		return getTargetFormat(format, false);
+	}
+
+	/**
+	 * Gets the format that data in the given format will have after {@link #normalize(AudioFormat, byte[], int, int, boolean)}.
+	 * @param format the format of the source data
+	 * @param mono if stereo data is mixed down to mono
+	 * @return the OpenAL compatible format
+	 * @throws ALException when the format cannot be converted
+	 */
+	public static AudioFormat getTargetFormat(AudioFormat format, boolean mono) throws ALException {
+		checkSupported(format);
+		int channels = mono ? 1 : format.getChannels();
+		if (format.getSampleSizeInBits() == 8) {
+			return new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, format.getSampleRate(), 8,
+					channels, channels, format.getSampleRate(), false);
+		}
+		return new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, format.getSampleRate(), 16,
+				channels, channels * 2, format.getSampleRate(), false);
+	}
+
+	/**
+	 * Gets the OpenAL format enum for data in a native format.
+	 * @param format a format for which {@link #isNative(AudioFormat)} holds
+	 * @return one of AL_FORMAT_MONO8, AL_FORMAT_STEREO8, AL_FORMAT_MONO16 or AL_FORMAT_STEREO16
+	 * @throws ALException when the format is not a native OpenAL format
+	 */
+	public static int getALFormat(AudioFormat format) throws ALException {
+		if (!isNative(format)) {
+			throw new ALException("Unsuppported audio format: " + format);
+		}
+		if (format.getSampleSizeInBits() == 8) {
+			return format.getChannels() == 1 ? AL.AL_FORMAT_MONO8 : AL.AL_FORMAT_STEREO8;
+		}
+		return format.getChannels() == 1 ? AL.AL_FORMAT_MONO16 : AL.AL_FORMAT_STEREO16;
+	}
+
+	/**
+	 * Converts sample data into the format returned by {@link #getTargetFormat(AudioFormat)}.<br>
+	 * <br>
+	 * Trailing bytes that do not make up a whole frame are dropped.
+	 * If the data is already in a native format and covers the whole array, the array itself is returned.
+	 * @param format the format of the source data
+	 * @param data the source data
+	 * @param offset the index of the first byte to convert
+	 * @param length the amount of bytes to convert
+	 * @return the converted sample data
+	 * @throws ALException when the format cannot be converted
+	 */
+	public static byte[] normalize(AudioFormat format, byte[] data, int offset, int length) throws ALException {
+		return normalize(format, data, offset, length, false);
+	}
+
+	/**
+	 * Converts sample data into the format returned by {@link #getTargetFormat(AudioFormat, boolean)}.<br>
+	 * <br>
+	 * When mixing down, native stereo data is mixed straight from the source array into the result,
+	 * other data is mixed in place right after its conversion.
+	 * @param format the format of the source data
+	 * @param data the source data
+	 * @param offset the index of the first byte to convert
+	 * @param length the amount of bytes to convert
+	 * @param mono if stereo data is mixed down to mono, which OpenAL needs to position a source in 3D
+	 * @return the converted sample data
+	 * @throws ALException when the format cannot be converted
+	 * @see #normalize(AudioFormat, byte[], int, int)
+	 */
+	public static byte[] normalize(AudioFormat format, byte[] data, int offset, int length, boolean mono) throws ALException {
+		checkSupported(format);
+		int bytesPerSample = format.getSampleSizeInBits() / 8;
+		int samples = (length / (bytesPerSample * format.getChannels())) * format.getChannels();
+		int usable = samples * bytesPerSample;
+		boolean downmix = mono && format.getChannels() == 2;
+
+		if (isNative(format)) {
+			if (downmix) {
+				byte[] result = new byte[usable / 2];
+				downmix(bytesPerSample, data, offset, result, samples / 2);
+				return result;
+			}
+			if (offset == 0 && usable == data.length) {
+				return data;
+			}
+			return Arrays.copyOfRange(data, offset, offset + usable);
+		}
+		byte[] result = convert(format, data, offset, samples);
+		if (downmix) {
+			downmix(bytesPerSample == 1 ? 1 : 2, result, 0, result, samples / 2);
+			return Arrays.copyOf(result, result.length / 2);
+		}
+		return result;
+	}
+
+	/**
+	 * Mixes stereo data in a native format down to mono.
+	 * @param bytesPerSample 1 for unsigned 8-bit data, 2 for signed little-endian 16-bit data
+	 * @param src the stereo source data
+	 * @param srcOffset the byte index of the first source frame
+	 * @param dst the destination array, may be the same as the source array
+	 * @param frames the amount of frames to convert
+	 */
+	private static void downmix(int bytesPerSample, byte[] src, int srcOffset, byte[] dst, int frames) {
+		if (bytesPerSample == 1) {
+			downmixStereo8(src, srcOffset, dst, 0, frames);
+		} else {
+			downmixStereo16(src, srcOffset, dst, 0, frames);
+		}
+	}
+
+	/**
+	 * Converts data that is not in a native format.
+	 * @param format the format of the source data
+	 * @param data the source data
+	 * @param offset the index of the first byte to convert
+	 * @param samples the amount of samples to convert
+	 * @return the converted sample data
+	 */
+	private static byte[] convert(AudioFormat format, byte[] data, int offset, int samples) {
+		int bytesPerSample = format.getSampleSizeInBits() / 8;
+		boolean bigEndian = format.isBigEndian();
+		AudioFormat.Encoding encoding = format.getEncoding();
+		if (bytesPerSample == 1) {
+			byte[] result = new byte[samples];
+			toggleSign8(data, offset, result, 0, samples);
+			return result;
+		}
+
+		byte[] result = new byte[samples * 2];
+		if (AudioFormat.Encoding.PCM_FLOAT.equals(encoding)) {
+			floatToPcm16(data, offset, bigEndian, result, 0, samples, true);
+		} else if (bytesPerSample == 2) {
+			if (AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding)) {
+				unsigned16ToSigned16(data, offset, bigEndian, result, 0, samples);
+			} else {
+				swapBytes16(data, offset, result, 0, samples);
+			}
+		} else if (bytesPerSample == 3) {
+			pcm24To16(data, offset, bigEndian, AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding), result, 0, samples);
+		} else {
+			pcm32To16(data, offset, bigEndian, AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding), result, 0, samples);
+		}
+		return result;
+	}
+
+	/**
+	 * Checks if a format can be converted by this class.
+	 * @param format the format to be checked
+	 * @throws ALException when the format cannot be converted
+	 */
+	private static void checkSupported(AudioFormat format) throws ALException {
+		AudioFormat.Encoding encoding = format.getEncoding();
+		int bits = format.getSampleSizeInBits();
+		boolean supported;
+		if (AudioFormat.Encoding.PCM_FLOAT.equals(encoding)) {
+			supported = bits == 32;
+		} else if (AudioFormat.Encoding.PCM_SIGNED.equals(encoding) || AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding)) {
+			supported = bits == 8 || bits == 16 || bits == 24 || bits == 32;
+		} else {
+			supported = false;
+		}
+		if (!supported || (format.getChannels() != 1 && format.getChannels() != 2)) {
+			throw new ALException("Unsuppported audio format: " + format);
+		}
+	}
+
+	/**
+	 * Swaps the byte order of 16-bit samples.
+	 * This converts big-endian data to little-endian data and vice versa.
+	 * @param src the source data
+	 * @param srcOffset the byte index of the first source sample
+	 * @param dst the destination array, may be the same as the source array
+	 * @param dstOffset the byte index of the first destination sample
+	 * @param samples the amount of samples to convert
+	 */
+	public static void swapBytes16(byte[] src, int srcOffset, byte[] dst, int dstOffset, int samples) {
+		for (int i = 0; i < samples; i++) {
+			SHORT_LE.set(dst, dstOffset + i * 2, (short) SHORT_BE.get(src, srcOffset + i * 2));
+		}
+	}
+
+	/**
+	 * Converts signed 8-bit samples into unsigned 8-bit samples and vice versa.
+	 * @param src the source data
+	 * @param srcOffset the index of the first source sample
+	 * @param dst the destination array, may be the same as the source array
+	 * @param dstOffset the index of the first destination sample
+	 * @param samples the amount of samples to convert
+	 */
+	public static void toggleSign8(byte[] src, int srcOffset, byte[] dst, int dstOffset, int samples) {
+		for (int i = 0; i < samples; i++) {
+			dst[dstOffset + i] = (byte) (src[srcOffset + i] ^ 0x80);
+		}
+	}
+
+	/**
+	 * Converts unsigned 16-bit samples into signed little-endian 16-bit samples.
+	 * @param src the source data
+	 * @param srcOffset the byte index of the first source sample
+	 * @param bigEndian if the source data is big-endian
+	 * @param dst the destination array, may be the same as the source array
+	 * @param dstOffset the byte index of the first destination sample
+	 * @param samples the amount of samples to convert
+	 */
+	public static void unsigned16ToSigned16(byte[] src, int srcOffset, boolean bigEndian, byte[] dst, int dstOffset, int samples) {
+		VarHandle in = bigEndian ? SHORT_BE : SHORT_LE;
+		for (int i = 0; i < samples; i++) {
+			SHORT_LE.set(dst, dstOffset + i * 2, (short) ((short) in.get(src, srcOffset + i * 2) ^ 0x8000));
+		}
+	}
+
+	/**
+	 * Converts packed 24-bit samples into signed little-endian 16-bit samples by dropping the lowest byte.
+	 * @param src the source data
+	 * @param srcOffset the byte index of the first source sample
+	 * @param bigEndian if the source data is big-endian
+	 * @param unsigned if the source data is unsigned
+	 * @param dst the destination array
+	 * @param dstOffset the byte index of the first destination sample
+	 * @param samples the amount of samples to convert
+	 */
+	public static void pcm24To16(byte[] src, int srcOffset, boolean bigEndian, boolean unsigned, byte[] dst, int dstOffset, int samples) {
+		int high = bigEndian ? 0 : 2;
+		int middle = 1;
+		int sign = unsigned ? 0x80 : 0;
+		for (int i = 0; i < samples; i++) {
+			int in = srcOffset + i * 3;
+			int out = dstOffset + i * 2;
+			dst[out] = src[in + middle];
+			dst[out + 1] = (byte) (src[in + high] ^ sign);
+		}
+	}
+
+	/**
+	 * Converts packed 24-bit samples into signed 32-bit samples.
+	 * The 24 significant bits are stored in the upper bits of the result.
+	 * @param src the source data
+	 * @param srcOffset the byte index of the first source sample
+	 * @param bigEndian if the source data is big-endian
+	 * @param unsigned if the source data is unsigned
+	 * @param dst the destination array
+	 * @param dstOffset the index of the first destination sample
+	 * @param samples the amount of samples to convert
+	 */
+	public static void pcm24To32(byte[] src, int srcOffset, boolean bigEndian, boolean unsigned, int[] dst, int dstOffset, int samples) {
+		int high = bigEndian ? 0 : 2;
+		int low = bigEndian ? 2 : 0;
+		int sign = unsigned ? 0x80000000 : 0;
+		for (int i = 0; i < samples; i++) {
+			int in = srcOffset + i * 3;
+			dst[dstOffset + i] = ((src[in + high] << 24) | ((src[in + 1] & 0xFF) << 16) | ((src[in + low] & 0xFF) << 8)) ^ sign;
+		}
+	}
+
+	/**
+	 * Converts 32-bit integer samples into signed little-endian 16-bit samples by dropping the lowest bytes.
+	 * @param src the source data
+	 * @param srcOffset the byte index of the first source sample
+	 * @param bigEndian if the source data is big-endian
+	 * @param unsigned if the source data is unsigned
+	 * @param dst the destination array
+	 * @param dstOffset the byte index of the first destination sample
+	 * @param samples the amount of samples to convert
+	 */
+	public static void pcm32To16(byte[] src, int srcOffset, boolean bigEndian, boolean unsigned, byte[] dst, int dstOffset, int samples) {
+		VarHandle in = bigEndian ? INT_BE : INT_LE;
+		int sign = unsigned ? 0x80000000 : 0;
+		for (int i = 0; i < samples; i++) {
+			int value = (int) in.get(src, srcOffset + i * 4) ^ sign;
+			SHORT_LE.set(dst, dstOffset + i * 2, (short) (value >> 16));
+		}
+	}
+
+	/**
+	 * Converts unsigned 8-bit samples into signed little-endian 16-bit samples.
+	 * @param src the source data
+	 * @param srcOffset the index of the first source sample
+	 * @param dst the destination array
+	 * @param dstOffset the byte index of the first destination sample
+	 * @param samples the amount of samples to convert
+	 */
+	public static void pcm8To16(byte[] src, int srcOffset, byte[] dst, int dstOffset, int samples) {
+		for (int i = 0; i < samples; i++) {
+			SHORT_LE.set(dst, dstOffset + i * 2, (short) ((src[srcOffset + i] ^ 0x80) << 8));
+		}
+	}
+
+	/**
+	 * Converts signed little-endian 16-bit samples into floats in the range [-1.0, 1.0).
+	 * @param src the source data
+	 * @param srcOffset the byte index of the first source sample
+	 * @param dst the destination array
+	 * @param dstOffset the index of the first destination sample
+	 * @param samples the amount of samples to convert
+	 */
+	public static void pcm16ToFloat(byte[] src, int srcOffset, float[] dst, int dstOffset, int samples) {
+		for (int i = 0; i < samples; i++) {
+			dst[dstOffset + i] = (short) SHORT_LE.get(src, srcOffset + i * 2) * (1.0f / 32768.0f);
+		}
+	}
+
+	/**
+	 * Converts float samples into signed little-endian 16-bit samples.<br>
+	 * Samples outside of the range [-1.0, 1.0] are clipped.
+	 * @param src the source samples
+	 * @param srcOffset the index of the first source sample
+	 * @param dst the destination array
+	 * @param dstOffset the byte index of the first destination sample
+	 * @param samples the amount of samples to convert
+	 * @param dither if triangular dither noise of one LSB should be added to hide quantisation distortion,
+	 *               the noise is the same on every call so the conversion is deterministic
+	 */
+	public static void floatToPcm16(float[] src, int srcOffset, byte[] dst, int dstOffset, int samples, boolean dither) {
+		int seed = DITHER_SEED;
+		for (int i = 0; i < samples; i++) {
+			float noise = 0.0f;
+			if (dither) {
+				seed ^= seed << 13;
+				seed ^= seed >>> 17;
+				seed ^= seed << 5;
+				noise = ((seed & 0xFFFF) - (seed >>> 16)) * (1.0f / 65536.0f);
+			}
+			SHORT_LE.set(dst, dstOffset + i * 2, quantize16(src[srcOffset + i] * 32767.0f + noise));
+		}
+	}
+
+	/**
+	 * Converts packed 32-bit float samples into signed little-endian 16-bit samples.
+	 * @param src the source data
+	 * @param srcOffset the byte index of the first source sample
+	 * @param bigEndian if the source data is big-endian
+	 * @param dst the destination array
+	 * @param dstOffset the byte index of the first destination sample
+	 * @param samples the amount of samples to convert
+	 * @param dither if triangular dither noise of one LSB should be added to hide quantisation distortion
+	 * @see #floatToPcm16(float[], int, byte[], int, int, boolean)
+	 */
+	public static void floatToPcm16(byte[] src, int srcOffset, boolean bigEndian, byte[] dst, int dstOffset, int samples, boolean dither) {
+		VarHandle in = bigEndian ? FLOAT_BE : FLOAT_LE;
+		int seed = DITHER_SEED;
+		for (int i = 0; i < samples; i++) {
+			float noise = 0.0f;
+			if (dither) {
+				seed ^= seed << 13;
+				seed ^= seed >>> 17;
+				seed ^= seed << 5;
+				noise = ((seed & 0xFFFF) - (seed >>> 16)) * (1.0f / 65536.0f);
+			}
+			SHORT_LE.set(dst, dstOffset + i * 2, quantize16((float) in.get(src, srcOffset + i * 4) * 32767.0f + noise));
+		}
+	}
+
+	/**
+	 * Rounds and clips a scaled sample value to the 16-bit range.
+	 * @param value the scaled sample value
+	 * @return the 16-bit sample
+	 */
+	private static short quantize16(float value) {
+		int rounded = Math.round(value);
+		return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, rounded));
+	}
+
+	/**
+	 * Mixes signed little-endian 16-bit stereo frames down to mono by averaging both channels.
+	 * @param src the stereo source data
+	 * @param srcOffset the byte index of the first source frame
+	 * @param dst the destination array, may be the same as the source array
+	 * @param dstOffset the byte index of the first destination sample
+	 * @param frames the amount of frames to convert
+	 */
+	public static void downmixStereo16(byte[] src, int srcOffset, byte[] dst, int dstOffset, int frames) {
+		for (int i = 0; i < frames; i++) {
+			int left = (short) SHORT_LE.get(src, srcOffset + i * 4);
+			int right = (short) SHORT_LE.get(src, srcOffset + i * 4 + 2);
+			SHORT_LE.set(dst, dstOffset + i * 2, (short) ((left + right) >> 1));
+		}
+	}
+
+	/**
+	 * Mixes unsigned 8-bit stereo frames down to mono by averaging both channels.
+	 * @param src the stereo source data
+	 * @param srcOffset the index of the first source frame
+	 * @param dst the destination array, may be the same as the source array
+	 * @param dstOffset the index of the first destination sample
+	 * @param frames the amount of frames to convert
+	 */
+	public static void downmixStereo8(byte[] src, int srcOffset, byte[] dst, int dstOffset, int frames) {
+		for (int i = 0; i < frames; i++) {
+			int left = src[srcOffset + i * 2] & 0xFF;
+			int right = src[srcOffset + i * 2 + 1] & 0xFF;
+			dst[dstOffset + i] = (byte) ((left + right) >> 1);
+		}
+	}
+}
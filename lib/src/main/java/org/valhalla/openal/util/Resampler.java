@@ -0,0 +1,363 @@
+package org.valhalla.openal.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * A polyphase windowed-sinc resampler for signed little-endian 16-bit PCM data.<br>
+ * <br>
+ * The conversion ratio is reduced to a fraction L/M, and one Kaiser windowed sinc filter is precomputed for each of the
+ * (at most {@value #MAX_PHASES}) output phases, so every output sample costs a single dot product.
+ * When downsampling, the cutoff is lowered and the filter widened to suppress aliasing.<br>
+ * <br>
+ * A resampler instance keeps the filter history between calls to {@link #process(byte[], int, int)},
+ * so a stream can be converted one chunk at a time.
+ * Whole buffers can be converted with {@link #resample(AudioFormat, byte[], int)}, which spreads large inputs over all cores.
+ */
+public class Resampler {
+
+	/**
+	 * Amount of zero crossings of the sinc function on each side of the filter center.
+	 */
+	private static final int HALF_TAPS = 16;
+
+	/**
+	 * Maximum amount of precomputed filter phases.
+	 * Ratios that need more phases use the nearest precomputed phase.
+	 */
+	private static final int MAX_PHASES = 1024;
+
+	/**
+	 * Kaiser window shape parameter, gives roughly 90dB stop band attenuation.
+	 */
+	private static final double KAISER_BETA = 9.0;
+
+	/**
+	 * Amount of output frames computed by a single parallel task.
+	 */
+	private static final int PARALLEL_CHUNK_FRAMES = 1 << 16;
+
+	/**
+	 * View of a byte array as little-endian shorts.
+	 */
+	private static final VarHandle SHORT_LE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+
+	/**
+	 * The amount of interleaved channels.
+	 */
+	private final int channels;
+
+	/**
+	 * Upsampling factor of the reduced conversion ratio.
+	 */
+	private final int up;
+
+	/**
+	 * Downsampling factor of the reduced conversion ratio.
+	 */
+	private final int down;
+
+	/**
+	 * The amount of precomputed filter phases.
+	 */
+	private final int phases;
+
+	/**
+	 * Half of the filter length in input frames.
+	 */
+	private final int halfLength;
+
+	/**
+	 * The filter length in input frames.
+	 */
+	private final int taps;
+
+	/**
+	 * The precomputed filter coefficients, {@link #taps} values per phase.
+	 */
+	private final float[] filter;
+
+	/**
+	 * Input frames that are still needed for future output, as interleaved samples.
+	 */
+	private short[] pending;
+
+	/**
+	 * The amount of frames stored in {@link #pending}.
+	 */
+	private int pendingFrames;
+
+	/**
+	 * Time of the next output frame, in units of 1/{@link #up} input frames relative to the start of {@link #pending}.
+	 */
+	private long time;
+
+	/**
+	 * Creates a new resampler.
+	 * @param channels the amount of interleaved channels
+	 * @param sourceRate the sample rate of the input data
+	 * @param targetRate the sample rate of the output data
+	 */
+	public Resampler(int channels, int sourceRate, int targetRate) {
+		if (channels < 1 || sourceRate < 1 || targetRate < 1) {
+			throw new IllegalArgumentException("Invalid resampler configuration: " + channels + " channels, "
+					+ sourceRate + " Hz to " + targetRate + " Hz");
+		}
+		int gcd = gcd(sourceRate, targetRate);
+		this.channels = channels;
+		this.up = targetRate / gcd;
+		this.down = sourceRate / gcd;
+		this.phases = Math.min(up, MAX_PHASES);
+
+		double cutoff = Math.min(1.0, (double) up / down) * 0.97;
+		this.halfLength = (int) Math.ceil(HALF_TAPS / cutoff);
+		this.taps = halfLength * 2;
+		this.filter = createFilter(cutoff);
+
+		this.pending = new short[taps * 2 * channels];
+		this.pendingFrames = halfLength;
+		this.time = (long) halfLength * up;
+	}
+
+	/**
+	 * Computes the coefficient table for all phases.
+	 * @param cutoff the cutoff frequency relative to the input Nyquist frequency
+	 * @return the coefficients of all phases
+	 */
+	private float[] createFilter(double cutoff) {
+		float[] result = new float[phases * taps];
+		double windowNorm = besselI0(KAISER_BETA);
+		for (int phase = 0; phase < phases; phase++) {
+			double fraction = (double) phase / phases;
+			double sum = 0;
+			for (int k = 0; k < taps; k++) {
+				double distance = k - (halfLength - 1) - fraction;
+				double ratio = distance / halfLength;
+				double window = Math.abs(ratio) >= 1.0 ? 0.0 : besselI0(KAISER_BETA * Math.sqrt(1.0 - ratio * ratio)) / windowNorm;
+				double x = Math.PI * cutoff * distance;
+				double sinc = distance == 0 ? 1.0 : Math.sin(x) / x;
+				double value = cutoff * sinc * window;
+				result[phase * taps + k] = (float) value;
+				sum += value;
+			}
+			for (int k = 0; k < taps; k++) {
+				result[phase * taps + k] /= (float) sum;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the format of data produced by a resampler.
+	 * @param format the format of the input data
+	 * @param targetRate the sample rate of the output data
+	 * @return a signed little-endian 16-bit format with the same amount of channels
+	 */
+	public static AudioFormat getTargetFormat(AudioFormat format, int targetRate) {
+		return new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, targetRate, 16,
+				format.getChannels(), format.getChannels() * 2, targetRate, false);
+	}
+
+	/**
+	 * Converts a whole buffer of sample data to another sample rate.<br>
+	 * <br>
+	 * Large inputs are split into independent blocks of output frames that are computed in parallel.
+	 * @param format the format of the data, must be an OpenAL native format
+	 * @param data the sample data
+	 * @param targetRate the sample rate of the output data
+	 * @return the resampled data in the format returned by {@link #getTargetFormat(AudioFormat, int)}
+	 * @throws ALException when the format is not an OpenAL native format
+	 * @see PcmConverter#normalize(AudioFormat, byte[], int, int)
+	 */
+	public static byte[] resample(AudioFormat format, byte[] data, int targetRate) throws ALException {
+		if (!PcmConverter.isNative(format)) {
+			throw new ALException("Unsuppported audio format: " + format);
+		}
+		int channels = format.getChannels();
+		short[] input = toShorts(format, data);
+		int inputFrames = input.length / channels;
+
+		Resampler resampler = new Resampler(channels, (int) format.getSampleRate(), targetRate);
+		long outputFrames = ((long) inputFrames * resampler.up + resampler.down - 1) / resampler.down;
+		if (outputFrames * channels * 2 > Integer.MAX_VALUE - 8) {
+			throw new ALException("Resampled data does not fit into a single buffer");
+		}
+		byte[] output = new byte[(int) outputFrames * channels * 2];
+
+		int chunks = (int) ((outputFrames + PARALLEL_CHUNK_FRAMES - 1) / PARALLEL_CHUNK_FRAMES);
+		IntStream range = IntStream.range(0, chunks);
+		if (chunks > 1) {
+			range = range.parallel();
+		}
+		range.forEach(chunk -> {
+			int first = chunk * PARALLEL_CHUNK_FRAMES;
+			int count = (int) Math.min(PARALLEL_CHUNK_FRAMES, outputFrames - first);
+			resampler.compute(input, inputFrames, (long) first * resampler.down, output, first, count);
+		});
+		return output;
+	}
+
+	/**
+	 * Converts the next chunk of a stream.<br>
+	 * <br>
+	 * The output lags the input by half the filter length, the remainder is returned by {@link #flush()}.
+	 * @param data signed little-endian 16-bit sample data
+	 * @param offset the index of the first byte to convert
+	 * @param length the amount of bytes to convert, must be a multiple of the frame size
+	 * @return the resampled data that could be computed so far
+	 */
+	public byte[] process(byte[] data, int offset, int length) {
+		int frames = length / (channels * 2);
+		ensureCapacity(pendingFrames + frames);
+		for (int i = 0; i < frames * channels; i++) {
+			pending[pendingFrames * channels + i] = (short) SHORT_LE.get(data, offset + i * 2);
+		}
+		pendingFrames += frames;
+		return drain();
+	}
+
+	/**
+	 * Finishes a stream by feeding silence through the filter.
+	 * The resampler can be used for a new stream afterwards.
+	 * @return the remaining resampled data
+	 */
+	public byte[] flush() {
+		ensureCapacity(pendingFrames + halfLength);
+		Arrays.fill(pending, pendingFrames * channels, (pendingFrames + halfLength) * channels, (short) 0);
+		pendingFrames += halfLength;
+		byte[] result = drain();
+
+		pendingFrames = halfLength;
+		Arrays.fill(pending, 0, halfLength * channels, (short) 0);
+		time = (long) halfLength * up;
+		return result;
+	}
+
+	/**
+	 * Computes all output frames for which enough input is pending and drops input that is no longer needed.
+	 * @return the computed output frames
+	 */
+	private byte[] drain() {
+		long lastTime = (long) (pendingFrames - halfLength) * up;
+		int count = 0;
+		if (time < lastTime) {
+			count = (int) ((lastTime - time + down - 1) / down);
+		}
+		byte[] output = new byte[count * channels * 2];
+		compute(pending, pendingFrames, time, output, 0, count);
+		time += (long) count * down;
+
+		int drop = (int) Math.max(0, Math.min(time / up - halfLength + 1, pendingFrames));
+		System.arraycopy(pending, drop * channels, pending, 0, (pendingFrames - drop) * channels);
+		pendingFrames -= drop;
+		time -= (long) drop * up;
+		return output;
+	}
+
+	/**
+	 * Computes a range of output frames.
+	 * Input frames outside of the given input are treated as silence.
+	 * @param input the interleaved input samples
+	 * @param inputFrames the amount of valid input frames
+	 * @param startTime time of the first output frame, in units of 1/{@link #up} input frames
+	 * @param output the output data
+	 * @param firstFrame the index of the first output frame to compute
+	 * @param count the amount of output frames to compute
+	 */
+	private void compute(short[] input, int inputFrames, long startTime, byte[] output, int firstFrame, int count) {
+		float[] accumulators = new float[channels];
+		for (int n = 0; n < count; n++) {
+			long t = startTime + (long) n * down;
+			int position = (int) (t / up);
+			int phase = (int) ((t % up) * phases / up);
+			int filterOffset = phase * taps;
+			int firstInput = position - halfLength + 1;
+
+			int kStart = Math.max(0, -firstInput);
+			int kEnd = Math.min(taps, inputFrames - firstInput);
+			Arrays.fill(accumulators, 0.0f);
+			for (int k = kStart; k < kEnd; k++) {
+				float coefficient = filter[filterOffset + k];
+				int base = (firstInput + k) * channels;
+				for (int c = 0; c < channels; c++) {
+					accumulators[c] += coefficient * input[base + c];
+				}
+			}
+
+			int out = (firstFrame + n) * channels * 2;
+			for (int c = 0; c < channels; c++) {
+				int value = Math.round(accumulators[c]);
+				SHORT_LE.set(output, out + c * 2, (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value)));
+			}
+		}
+	}
+
+	/**
+	 * Grows the pending input storage.
+	 * @param frames the amount of frames that need to fit
+	 */
+	private void ensureCapacity(int frames) {
+		if (frames * channels > pending.length) {
+			pending = Arrays.copyOf(pending, Math.max(frames * channels, pending.length * 2));
+		}
+	}
+
+	/**
+	 * Converts native OpenAL sample data to 16-bit samples.
+	 * @param format the format of the data
+	 * @param data the sample data
+	 * @return the samples
+	 */
+	private static short[] toShorts(AudioFormat format, byte[] data) {
+		byte[] pcm16 = data;
+		int samples = data.length / (format.getSampleSizeInBits() / 8);
+		if (format.getSampleSizeInBits() == 8) {
+			pcm16 = new byte[samples * 2];
+			PcmConverter.pcm8To16(data, 0, pcm16, 0, samples);
+		}
+		short[] result = new short[samples];
+		for (int i = 0; i < samples; i++) {
+			result[i] = (short) SHORT_LE.get(pcm16, i * 2);
+		}
+		return result;
+	}
+
+	/**
+	 * Zeroth order modified Bessel function of the first kind, used for the Kaiser window.
+	 * @param x the function argument
+	 * @return the function value
+	 */
+	private static double besselI0(double x) {
+		double sum = 1.0;
+		double term = 1.0;
+		double half = x / 2.0;
+		for (int k = 1; k < 50; k++) {
+			term *= (half / k) * (half / k);
+			sum += term;
+			if (term < sum * 1e-12) {
+				break;
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Greatest common divisor of two positive numbers.
+	 * @param a the first number
+	 * @param b the second number
+	 * @return the greatest common divisor
+	 */
+	private static int gcd(int a, int b) {
+		while (b != 0) {
+			int t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+}
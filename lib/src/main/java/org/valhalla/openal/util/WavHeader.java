@@ -0,0 +1,126 @@
+package org.valhalla.openal.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Class with static functions to write the header of a canonical PCM WAV file.<br>
+ * <br>
+ * The header is 44 bytes long and is followed directly by the sample data. When the length of the data is not known
+ * in advance, the header is written with a data size of 0 and the sizes are patched in place once the data is written.
+ */
+public class WavHeader {
+
+	/**
+	 * The size of the header in bytes.
+	 */
+	public static final int SIZE = 44;
+
+	/**
+	 * The largest amount of sample data a WAV file can describe, in bytes.
+	 */
+	public static final long MAX_DATA_SIZE = 0xFFFFFFFFL - (SIZE - 8);
+
+	/**
+	 * The offset of the size of the RIFF chunk.
+	 */
+	private static final int RIFF_SIZE_OFFSET = 4;
+
+	/**
+	 * The offset of the size of the data chunk.
+	 */
+	private static final int DATA_SIZE_OFFSET = 40;
+
+	/**
+	 * This class only contains static functions and should not be instantiated.
+	 */
+	private WavHeader() {
+	}
+
+	/**
+	 * Creates a header.
+	 * @param format the format of the samples, see {@link #write(ByteBuffer, AudioFormat, long)}
+	 * @param dataSize the size of the sample data in bytes, 0 when it is not known yet
+	 * @return a buffer with the header from position 0 to its limit
+	 */
+	public static ByteBuffer create(AudioFormat format, long dataSize) {
+		ByteBuffer header = ByteBuffer.allocate(SIZE);
+		write(header, format, dataSize);
+		return header.flip();
+	}
+
+	/**
+	 * Puts a header into a buffer at its position.
+	 * @param target the buffer, with at least {@link #SIZE} bytes remaining
+	 * @param format the format of the samples, unsigned 8-bit, signed little-endian PCM of a larger size
+	 *               or little-endian floating point PCM
+	 * @param dataSize the size of the sample data in bytes, 0 when it is not known yet
+	 * @throws IllegalArgumentException when the format cannot be stored in a PCM WAV file
+	 */
+	public static void write(ByteBuffer target, AudioFormat format, long dataSize) {
+		int bits = format.getSampleSizeInBits();
+		boolean floating = AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding());
+		boolean valid;
+		if (floating) {
+			valid = (bits == 32 || bits == 64) && !format.isBigEndian();
+		} else if (bits == 8) {
+			valid = AudioFormat.Encoding.PCM_UNSIGNED.equals(format.getEncoding());
+		} else {
+			valid = AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding()) && !format.isBigEndian() && bits % 8 == 0;
+		}
+		if (!valid || format.getFrameSize() != format.getChannels() * bits / 8) {
+			throw new IllegalArgumentException("Format cannot be stored in a WAV file: " + format);
+		}
+		long size = Math.min(Math.max(dataSize, 0), MAX_DATA_SIZE);
+		int sampleRate = (int) format.getSampleRate();
+
+		ByteOrder order = target.order();
+		target.order(ByteOrder.LITTLE_ENDIAN);
+		target.putInt(0x46464952); // "RIFF"
+		target.putInt((int) (size + SIZE - 8));
+		target.putInt(0x45564157); // "WAVE"
+		target.putInt(0x20746d66); // "fmt "
+		target.putInt(16);
+		target.putShort((short) (floating ? 3 : 1)); // IEEE float or integer PCM
+		target.putShort((short) format.getChannels());
+		target.putInt(sampleRate);
+		target.putInt(sampleRate * format.getFrameSize());
+		target.putShort((short) format.getFrameSize());
+		target.putShort((short) bits);
+		target.putInt(0x61746164); // "data"
+		target.putInt((int) size);
+		target.order(order);
+	}
+
+	/**
+	 * Patches the sizes in the header at the start of a file, without moving the position of the channel.
+	 * @param channel the file
+	 * @param dataSize the size of the sample data in bytes
+	 * @throws IOException when the file could not be written
+	 */
+	public static void patch(FileChannel channel, long dataSize) throws IOException {
+		long size = Math.min(Math.max(dataSize, 0), MAX_DATA_SIZE);
+		ByteBuffer value = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		value.putInt(0, (int) (size + SIZE - 8));
+		writeFully(channel, value, RIFF_SIZE_OFFSET);
+		value.clear().putInt(0, (int) size);
+		writeFully(channel, value, DATA_SIZE_OFFSET);
+	}
+
+	/**
+	 * Writes all remaining bytes of a buffer at a position of a file.
+	 * @param channel the file
+	 * @param data the bytes
+	 * @param position the position in the file
+	 * @throws IOException when the file could not be written
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer data, long position) throws IOException {
+		while (data.hasRemaining()) {
+			position += channel.write(data, position);
+		}
+	}
+}
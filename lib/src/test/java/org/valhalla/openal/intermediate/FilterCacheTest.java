@@ -0,0 +1,61 @@
+package org.valhalla.openal.intermediate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.valhalla.openal.jna.EFX;
+
+class FilterCacheTest {
+
+    @Test
+    void gainsAreRoundedToTheNearestStep() {
+	    FilterCache cache = new FilterCache(null, 0.25f);
+	    assertEquals(0, cache.quantise(0.1f));
+	    assertEquals(1, cache.quantise(0.2f));
+	    assertEquals(2, cache.quantise(0.5f));
+	    assertEquals(4, cache.quantise(0.95f));
+	    assertEquals(0.5f, cache.value(cache.quantise(0.55f)));
+    }
+
+    @Test
+    void gainsAreClampedToTheUnitRange() {
+	    FilterCache cache = new FilterCache(null);
+	    assertEquals(0, cache.quantise(-3f));
+	    assertEquals(cache.quantise(1f), cache.quantise(7f));
+	    assertEquals(1f, cache.value(cache.quantise(1f)));
+	    assertEquals(1f, new FilterCache(null, 0.3f).value(4));
+    }
+
+    @Test
+    void nearbyGainsShareAKey() {
+	    FilterCache cache = new FilterCache(null);
+	    float step = FilterCache.DEFAULT_STEP;
+	    assertEquals(cache.quantise(0.5f), cache.quantise(0.5f + step * 0.4f));
+	    assertNotEquals(cache.quantise(0.5f), cache.quantise(0.5f + step));
+    }
+
+    @Test
+    void finestStepStillFitsTheKey() {
+	    FilterCache cache = new FilterCache(null, FilterCache.MIN_STEP);
+	    int full = cache.quantise(1f);
+	    assertEquals(0xFFFF, full);
+	    long lowpass = FilterCache.key(EFX.AL_FILTER_LOWPASS, full, 0, full);
+	    long bandpass = FilterCache.key(EFX.AL_FILTER_BANDPASS, full, full, full);
+	    assertEquals(EFX.AL_FILTER_LOWPASS, lowpass >>> 48);
+	    assertEquals(full, (lowpass >>> 32) & 0xFFFF);
+	    assertEquals(0, (lowpass >>> 16) & 0xFFFF);
+	    assertEquals(full, lowpass & 0xFFFF);
+	    assertNotEquals(lowpass, bandpass);
+	    assertNotEquals(FilterCache.key(EFX.AL_FILTER_LOWPASS, 1, 0, 0), FilterCache.key(EFX.AL_FILTER_LOWPASS, 0, 1, 0));
+    }
+
+    @Test
+    void stepsOutOfRangeAreRejected() {
+	    assertThrows(IllegalArgumentException.class, () -> new FilterCache(null, 0f));
+	    assertThrows(IllegalArgumentException.class, () -> new FilterCache(null, FilterCache.MIN_STEP / 2));
+	    assertThrows(IllegalArgumentException.class, () -> new FilterCache(null, 1.5f));
+	    assertThrows(IllegalArgumentException.class, () -> new FilterCache(null, Float.NaN));
+    }
+}
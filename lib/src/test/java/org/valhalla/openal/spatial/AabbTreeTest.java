@@ -0,0 +1,124 @@
+package org.valhalla.openal.spatial;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class AabbTreeTest {
+
+    @Test
+    void segmentsHitTheBoxesBetweenTheirEnds() {
+	    AabbTree<String> tree = new AabbTree<>();
+	    tree.add(new Aabb(4, -1, -1, 5, 1, 1), "wall");
+	    assertEquals(1, tree.countHits(0, 0, 0, 10, 0, 0, 8));
+	    assertEquals(1, tree.countHits(10, 0, 0, 0, 0, 0, 8));
+	    // ends before the wall, starts behind it, passes beside it
+	    assertEquals(0, tree.countHits(0, 0, 0, 3.9f, 0, 0, 8));
+	    assertEquals(0, tree.countHits(5.1f, 0, 0, 10, 0, 0, 8));
+	    assertEquals(0, tree.countHits(0, 2, 0, 10, 2, 0, 8));
+	    // starts inside the wall
+	    assertEquals(1, tree.countHits(4.5f, 0, 0, 10, 0, 0, 8));
+    }
+
+    @Test
+    void axisParallelSegmentsUseTheSlabsOfTheOtherAxes() {
+	    AabbTree<String> tree = new AabbTree<>();
+	    tree.add(new Aabb(-1, -1, -1, 1, 1, 1), "box");
+	    assertEquals(1, tree.countHits(0, -5, 0, 0, 5, 0, 8));
+	    assertEquals(0, tree.countHits(2, -5, 0, 2, 5, 0, 8));
+	    // on the boundary of the slab along which it runs
+	    assertEquals(1, tree.countHits(1, -5, 1, 1, 5, 1, 8));
+	    assertEquals(1, tree.countHits(0, 0, 0, 0, 0, 0, 8));
+    }
+
+    @Test
+    void countingStopsAtTheLimit() {
+	    AabbTree<Integer> tree = new AabbTree<>();
+	    for (int i = 0; i < 20; i++) {
+	        tree.add(new Aabb(i * 2, -1, -1, i * 2 + 1, 1, 1), i);
+	    }
+	    assertEquals(20, tree.countHits(-1, 0, 0, 50, 0, 0, 100));
+	    assertEquals(3, tree.countHits(-1, 0, 0, 50, 0, 0, 3));
+	    assertEquals(0, tree.countHits(-1, 0, 0, 50, 0, 0, 0));
+    }
+
+    @Test
+    void treeAgreesWithTestingEveryBox() {
+	    Random random = new Random(42);
+	    AabbTree<Integer> tree = new AabbTree<>();
+	    List<Aabb> boxes = new ArrayList<>();
+	    for (int i = 0; i < 500; i++) {
+	        Aabb box = Aabb.centered(coordinate(random), coordinate(random), coordinate(random),
+	    		    1 + random.nextFloat() * 5, 1 + random.nextFloat() * 5, 1 + random.nextFloat() * 5);
+	        boxes.add(box);
+	        tree.add(box, i);
+	    }
+	    for (int i = 0; i < 500; i++) {
+	        float x0 = coordinate(random), y0 = coordinate(random), z0 = coordinate(random);
+	        float x1 = coordinate(random), y1 = coordinate(random), z1 = coordinate(random);
+	        int expected = 0;
+	        for (Aabb box : boxes) {
+	    		if (crosses(box, x0, y0, z0, x1, y1, z1)) {
+	    		    expected++;
+	    		}
+	        }
+	        assertEquals(expected, tree.countHits(x0, y0, z0, x1, y1, z1, Integer.MAX_VALUE));
+
+	        List<Integer> found = new ArrayList<>();
+	        tree.query(x0, y0, z0, found);
+	        for (int j = 0; j < boxes.size(); j++) {
+	    		assertEquals(boxes.get(j).contains(x0, y0, z0), found.contains(j));
+	        }
+	    }
+    }
+
+    @Test
+    void changesAreSeenByTheNextQuery() {
+	    AabbTree<String> tree = new AabbTree<>();
+	    tree.add(new Aabb(0, 0, 0, 1, 1, 1), "a");
+	    List<String> found = new ArrayList<>();
+	    tree.query(0.5f, 0.5f, 0.5f, found);
+	    assertEquals(List.of("a"), found);
+
+	    assertTrue(tree.remove("a"));
+	    tree.add(new Aabb(0, 0, 0, 2, 2, 2), "b");
+	    found.clear();
+	    tree.query(0.5f, 0.5f, 0.5f, found);
+	    assertEquals(List.of("b"), found);
+	    assertEquals(1, tree.size());
+    }
+
+    private static float coordinate(Random random) {
+	    return (random.nextFloat() - 0.5f) * 100;
+    }
+
+    /**
+     * Clips the segment against each slab in double precision, the reference for the tree.
+     */
+    private static boolean crosses(Aabb box, double x0, double y0, double z0, double x1, double y1, double z1) {
+	    double[] start = {x0, y0, z0};
+	    double[] delta = {x1 - x0, y1 - y0, z1 - z0};
+	    double[] min = {box.minX, box.minY, box.minZ};
+	    double[] max = {box.maxX, box.maxY, box.maxZ};
+	    double near = 0;
+	    double far = 1;
+	    for (int axis = 0; axis < 3; axis++) {
+	        if (delta[axis] == 0) {
+	    		if (start[axis] < min[axis] || start[axis] > max[axis]) {
+	    		    return false;
+	    		}
+	    		continue;
+	        }
+	        double t1 = (min[axis] - start[axis]) / delta[axis];
+	        double t2 = (max[axis] - start[axis]) / delta[axis];
+	        near = Math.max(near, Math.min(t1, t2));
+	        far = Math.min(far, Math.max(t1, t2));
+	    }
+	    return near <= far;
+    }
+}
@@ -0,0 +1,147 @@
+package org.valhalla.openal.stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import org.junit.jupiter.api.Test;
+import org.valhalla.openal.util.WavHeader;
+
+class SeekTableTest {
+
+    @Test
+    void waveFramesMapToTheirBytes() throws IOException {
+	    AudioFormat format = new AudioFormat(44100, 16, 2, true, false);
+	    byte[] samples = frames(100, 4);
+	    Path file = writeWave(format, samples, 0);
+	    try {
+	        byte[] bytes = Files.readAllBytes(file);
+	        SeekTable table = SeekTable.forFile(file.toFile());
+	        assertEquals(100, table.getFrameCount());
+	        assertEquals(WavHeader.SIZE, table.getDataOffset());
+	        assertEquals(WavHeader.SIZE + 37 * 4, table.getByteOffset(37));
+	        assertEquals(bytes.length, table.getDataEnd());
+	        assertEquals(37, bytes[(int) table.getByteOffset(37)]);
+	        assertEquals(format.getSampleRate(), table.getFormat().getSampleRate());
+	    } finally {
+	        Files.delete(file);
+	    }
+    }
+
+    @Test
+    void offsetsAreClampedToTheFile() throws IOException {
+	    Path file = writeWave(new AudioFormat(8000, 8, 1, false, false), frames(10, 1), 0);
+	    try {
+	        SeekTable table = SeekTable.forFile(file.toFile());
+	        assertEquals(table.getDataOffset(), table.getByteOffset(-5));
+	        assertEquals(table.getDataEnd(), table.getByteOffset(1000));
+	    } finally {
+	        Files.delete(file);
+	    }
+    }
+
+    @Test
+    void chunksBeforeTheDataAreSkipped() throws IOException {
+	    AudioFormat format = new AudioFormat(22050, 16, 1, true, false);
+	    byte[] samples = frames(50, 2);
+	    // an odd sized chunk is followed by a pad byte
+	    Path file = writeWave(format, samples, 5);
+	    try {
+	        SeekTable table = SeekTable.forFile(file.toFile());
+	        assertEquals(50, table.getFrameCount());
+	        assertEquals(WavHeader.SIZE + 8 + 6, table.getDataOffset());
+	        byte[] bytes = Files.readAllBytes(file);
+	        assertEquals(20, bytes[(int) table.getByteOffset(20)]);
+	    } finally {
+	        Files.delete(file);
+	    }
+    }
+
+    @Test
+    void aiffFramesMapToTheirBytes() throws IOException {
+	    AudioFormat format = new AudioFormat(32000, 16, 2, true, true);
+	    byte[] samples = frames(200, 4);
+	    File file = File.createTempFile("seek-table", ".aiff");
+	    try {
+	        AudioInputStream stream = new AudioInputStream(new ByteArrayInputStream(samples), format, 200);
+	        AudioSystem.write(stream, AudioFileFormat.Type.AIFF, file);
+
+	        SeekTable table = SeekTable.forFile(file);
+	        assertEquals(200, table.getFrameCount());
+	        assertEquals(32000f, table.getFormat().getSampleRate());
+	        assertTrue(table.getFormat().isBigEndian());
+	        byte[] bytes = Files.readAllBytes(file.toPath());
+	        assertEquals(bytes.length, table.getDataEnd());
+	        assertEquals(123, bytes[(int) table.getByteOffset(123)]);
+	    } finally {
+	        Files.delete(file.toPath());
+	    }
+    }
+
+    @Test
+    void tablesAreCachedPerFile() throws IOException {
+	    Path file = writeWave(new AudioFormat(8000, 16, 1, true, false), frames(10, 2), 0);
+	    try {
+	        assertSame(SeekTable.forFile(file.toFile()), SeekTable.forFile(file.toFile()));
+	    } finally {
+	        Files.delete(file);
+	    }
+    }
+
+    @Test
+    void otherFilesAreRejected() throws IOException {
+	    Path file = Files.createTempFile("seek-table", ".txt");
+	    try {
+	        Files.write(file, "not an audio file".getBytes());
+	        assertThrows(IOException.class, () -> SeekTable.forFile(file.toFile()));
+	    } finally {
+	        Files.delete(file);
+	    }
+    }
+
+    /**
+     * Creates sample data whose frames start with their own index.
+     */
+    private static byte[] frames(int count, int frameSize) {
+	    byte[] data = new byte[count * frameSize];
+	    for (int i = 0; i < count; i++) {
+	        data[i * frameSize] = (byte) i;
+	    }
+	    return data;
+    }
+
+    /**
+     * Writes a WAV file, with an extra chunk between the fmt and data chunks when a size is given.
+     */
+    private static Path writeWave(AudioFormat format, byte[] samples, int extraChunk) throws IOException {
+	    ByteBuffer header = WavHeader.create(format, samples.length);
+	    int padded = extraChunk == 0 ? 0 : 8 + extraChunk + (extraChunk & 1);
+	    ByteBuffer file = ByteBuffer.allocate(WavHeader.SIZE + padded + samples.length).order(ByteOrder.LITTLE_ENDIAN);
+	    // the extra chunk takes the place of the data chunk header, which moves behind it
+	    file.put(header.array(), 0, WavHeader.SIZE - 8);
+	    if (extraChunk > 0) {
+	        file.putInt(0x5453494C); // "LIST"
+	        file.putInt(extraChunk);
+	        file.position(file.position() + extraChunk + (extraChunk & 1));
+	    }
+	    file.put(header.array(), WavHeader.SIZE - 8, 8);
+	    file.put(samples);
+	    Path path = Files.createTempFile("seek-table", ".wav");
+	    Files.write(path, file.array());
+	    return path;
+    }
+}
@@ -0,0 +1,91 @@
+package org.valhalla.openal.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+class ByteRingBufferTest {
+
+	@Test
+	void capacityIsRoundedUpToAPowerOfTwo() {
+		assertEquals(1, new ByteRingBuffer(1).capacity());
+		assertEquals(1024, new ByteRingBuffer(1000).capacity());
+		assertEquals(1024, new ByteRingBuffer(1024).capacity());
+		assertThrows(IllegalArgumentException.class, () -> new ByteRingBuffer(0));
+	}
+
+	@Test
+	void writeStopsWhenFull() {
+		ByteRingBuffer ring = new ByteRingBuffer(8);
+		assertEquals(8, ring.write(new byte[12], 0, 12));
+		assertEquals(0, ring.free());
+		assertEquals(8, ring.available());
+		assertEquals(0, ring.write(new byte[1], 0, 1));
+	}
+
+	@Test
+	void dataWrapsAroundTheEnd() {
+		ByteRingBuffer ring = new ByteRingBuffer(8);
+		byte[] out = new byte[8];
+		ring.write(new byte[] {1, 2, 3, 4, 5, 6}, 0, 6);
+		assertEquals(4, ring.read(out, 0, 4));
+		assertEquals(6, ring.write(new byte[] {7, 8, 9, 10, 11, 12}, 0, 6));
+		assertEquals(8, ring.read(out, 0, 8));
+		assertArrayEquals(new byte[] {5, 6, 7, 8, 9, 10, 11, 12}, out);
+		assertEquals(0, ring.read(out, 0, 8));
+	}
+
+	@Test
+	void skipDropsReadableBytes() {
+		ByteRingBuffer ring = new ByteRingBuffer(4);
+		ring.write(new byte[] {1, 2, 3}, 0, 3);
+		assertEquals(2, ring.skip(2));
+		assertEquals(1, ring.skip(5));
+		assertEquals(0, ring.skip(1));
+		assertEquals(4, ring.free());
+	}
+
+	@Test
+	void writerAndReaderOnSeparateThreadsSeeEveryByteInOrder() throws Exception {
+		ByteRingBuffer ring = new ByteRingBuffer(64);
+		int total = 1 << 20;
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread writer = new Thread(() -> {
+			byte[] chunk = new byte[37];
+			try {
+				for (int written = 0; written < total; ) {
+					int count = Math.min(chunk.length, total - written);
+					for (int i = 0; i < count; i++) {
+						chunk[i] = (byte) (written + i);
+					}
+					ring.writeFully(chunk, 0, count);
+					written += count;
+				}
+			} catch (Throwable e) {
+				failure.set(e);
+			}
+		});
+		writer.start();
+
+		byte[] chunk = new byte[23];
+		int read = 0;
+		boolean ordered = true;
+		while (read < total && failure.get() == null) {
+			int count = ring.read(chunk, 0, chunk.length);
+			for (int i = 0; i < count; i++) {
+				ordered &= chunk[i] == (byte) (read + i);
+			}
+			read += count;
+		}
+		writer.join();
+		assertNull(failure.get());
+		assertEquals(total, read);
+		assertTrue(ordered, "bytes arrived out of order");
+	}
+}
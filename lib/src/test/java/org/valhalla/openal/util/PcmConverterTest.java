@@ -0,0 +1,165 @@
+package org.valhalla.openal.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.junit.jupiter.api.Test;
+
+class PcmConverterTest {
+
+	private static final AudioFormat SIGNED_16_LE = new AudioFormat(44100, 16, 2, true, false);
+	private static final AudioFormat SIGNED_16_BE = new AudioFormat(44100, 16, 2, true, true);
+	private static final AudioFormat UNSIGNED_8 = new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, 44100, 8, 2, 2, 44100, false);
+
+	@Test
+	void nativeFormats() {
+		assertTrue(PcmConverter.isNative(SIGNED_16_LE));
+		assertTrue(PcmConverter.isNative(UNSIGNED_8));
+		assertFalse(PcmConverter.isNative(SIGNED_16_BE));
+		assertFalse(PcmConverter.isNative(new AudioFormat(44100, 8, 1, true, false)));
+		assertFalse(PcmConverter.isNative(new AudioFormat(44100, 16, 6, true, false)));
+	}
+
+	@Test
+	void nativeDataCoveringTheArrayIsReturnedAsIs() throws ALException {
+		byte[] data = {1, 2, 3, 4};
+		assertSame(data, PcmConverter.normalize(SIGNED_16_LE, data, 0, data.length));
+	}
+
+	@Test
+	void trailingPartialFrameIsDropped() throws ALException {
+		byte[] data = {1, 2, 3, 4, 5, 6, 7};
+		assertArrayEquals(new byte[] {3, 4, 5, 6}, PcmConverter.normalize(new AudioFormat(44100, 16, 1, true, false), data, 2, 5));
+	}
+
+	@Test
+	void bigEndianIsSwapped() throws ALException {
+		byte[] data = {0x12, 0x34, (byte) 0xAB, (byte) 0xCD};
+		assertArrayEquals(new byte[] {0x34, 0x12, (byte) 0xCD, (byte) 0xAB}, PcmConverter.normalize(SIGNED_16_BE, data, 0, data.length));
+	}
+
+	@Test
+	void signed8BitBecomesUnsigned() throws ALException {
+		AudioFormat format = new AudioFormat(44100, 8, 1, true, false);
+		byte[] data = {-128, -1, 0, 127};
+		assertArrayEquals(new byte[] {0, 127, (byte) 128, (byte) 255}, PcmConverter.normalize(format, data, 0, data.length));
+	}
+
+	@Test
+	void unsigned16BecomesSigned() throws ALException {
+		AudioFormat format = new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, 44100, 16, 1, 2, 44100, true);
+		byte[] data = {(byte) 0x80, 0x00, 0x00, 0x00, (byte) 0xFF, (byte) 0xFF};
+		assertArrayEquals(shorts(0, -32768, 32767), PcmConverter.normalize(format, data, 0, data.length));
+	}
+
+	@Test
+	void pcm24KeepsTheUpperBytes() throws ALException {
+		AudioFormat littleEndian = new AudioFormat(44100, 24, 1, true, false);
+		byte[] data = {0x11, 0x22, 0x33, (byte) 0xFF, (byte) 0xFF, (byte) 0x80};
+		assertArrayEquals(shorts(0x3322, 0x80FF), PcmConverter.normalize(littleEndian, data, 0, data.length));
+
+		AudioFormat bigEndian = new AudioFormat(44100, 24, 1, true, true);
+		byte[] swapped = {0x33, 0x22, 0x11, (byte) 0x80, (byte) 0xFF, (byte) 0xFF};
+		assertArrayEquals(shorts(0x3322, 0x80FF), PcmConverter.normalize(bigEndian, swapped, 0, swapped.length));
+	}
+
+	@Test
+	void pcm24To32ShiftsIntoTheUpperBits() {
+		byte[] data = {0x11, 0x22, 0x33, 0x00, 0x00, (byte) 0x80};
+		int[] result = new int[2];
+		PcmConverter.pcm24To32(data, 0, false, false, result, 0, 2);
+		assertEquals(0x33221100, result[0]);
+		assertEquals(Integer.MIN_VALUE, result[1]);
+	}
+
+	@Test
+	void pcm32KeepsTheUpperHalf() throws ALException {
+		AudioFormat format = new AudioFormat(44100, 32, 1, true, false);
+		byte[] data = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putInt(0x12345678).putInt(-1).array();
+		assertArrayEquals(shorts(0x1234, -1), PcmConverter.normalize(format, data, 0, data.length));
+	}
+
+	@Test
+	void floatIsScaledAndClipped() {
+		float[] samples = {0f, 1f, -1f, 2f, -2f, 0.5f};
+		byte[] result = new byte[samples.length * 2];
+		PcmConverter.floatToPcm16(samples, 0, result, 0, samples.length, false);
+		assertArrayEquals(shorts(0, 32767, -32767, 32767, -32768, 16384), result);
+	}
+
+	@Test
+	void ditherIsDeterministicAndSmall() throws ALException {
+		AudioFormat format = new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, 44100, 32, 1, 4, 44100, false);
+		ByteBuffer data = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+		while (data.hasRemaining()) {
+			data.putFloat(0.25f);
+		}
+		byte[] first = PcmConverter.normalize(format, data.array(), 0, data.capacity());
+		byte[] second = PcmConverter.normalize(format, data.array(), 0, data.capacity());
+		assertArrayEquals(first, second);
+
+		ByteBuffer samples = ByteBuffer.wrap(first).order(ByteOrder.LITTLE_ENDIAN);
+		while (samples.hasRemaining()) {
+			assertTrue(Math.abs(samples.getShort() - 0.25f * 32767) <= 1.5f);
+		}
+	}
+
+	@Test
+	void pcm16ToFloatRoundTrips() {
+		byte[] data = shorts(0, 16384, -32768, 32767);
+		float[] samples = new float[4];
+		PcmConverter.pcm16ToFloat(data, 0, samples, 0, 4);
+		byte[] result = new byte[8];
+		PcmConverter.floatToPcm16(samples, 0, result, 0, 4, false);
+		ByteBuffer before = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer after = ByteBuffer.wrap(result).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < 4; i++) {
+			assertTrue(Math.abs(before.getShort() - after.getShort()) <= 1);
+		}
+	}
+
+	@Test
+	void stereoIsMixedDownToMono() throws ALException {
+		byte[] nativeData = shorts(1000, 3000, -2, -4);
+		assertArrayEquals(shorts(2000, -3), PcmConverter.normalize(SIGNED_16_LE, nativeData, 0, nativeData.length, true));
+
+		byte[] bigEndian = {0x03, (byte) 0xE8, 0x0B, (byte) 0xB8};
+		assertArrayEquals(shorts(2000), PcmConverter.normalize(SIGNED_16_BE, bigEndian, 0, bigEndian.length, true));
+
+		byte[] unsigned = {10, 20, (byte) 200, (byte) 250};
+		assertArrayEquals(new byte[] {15, (byte) 225}, PcmConverter.normalize(UNSIGNED_8, unsigned, 0, unsigned.length, true));
+	}
+
+	@Test
+	void targetFormats() throws ALException {
+		AudioFormat target = PcmConverter.getTargetFormat(new AudioFormat(48000, 24, 2, true, true));
+		assertEquals(16, target.getSampleSizeInBits());
+		assertEquals(2, target.getChannels());
+		assertFalse(target.isBigEndian());
+		assertEquals(1, PcmConverter.getTargetFormat(SIGNED_16_LE, true).getChannels());
+		assertEquals(8, PcmConverter.getTargetFormat(UNSIGNED_8).getSampleSizeInBits());
+	}
+
+	@Test
+	void unsupportedFormatsAreRejected() {
+		assertThrows(ALException.class, () -> PcmConverter.getTargetFormat(new AudioFormat(44100, 16, 6, true, false)));
+		assertThrows(ALException.class, () -> PcmConverter.getTargetFormat(new AudioFormat(AudioFormat.Encoding.ULAW, 8000, 8, 1, 1, 8000, false)));
+	}
+
+	private static byte[] shorts(int... values) {
+		ByteBuffer buffer = ByteBuffer.allocate(values.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+		for (int value : values) {
+			buffer.putShort((short) value);
+		}
+		return buffer.array();
+	}
+}
@@ -0,0 +1,106 @@
+package org.valhalla.openal.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.junit.jupiter.api.Test;
+
+class ResamplerTest {
+
+	@Test
+	void outputLengthFollowsTheRatio() throws ALException {
+		AudioFormat format = new AudioFormat(44100, 16, 2, true, false);
+		byte[] output = Resampler.resample(format, new byte[44100 * 4], 48000);
+		assertEquals(48000 * 4, output.length);
+		assertEquals(22050 * 4, Resampler.resample(format, new byte[44100 * 4], 22050).length);
+	}
+
+	@Test
+	void constantSignalKeepsItsLevel() throws ALException {
+		AudioFormat format = new AudioFormat(44100, 16, 1, true, false);
+		short[] output = toShorts(Resampler.resample(format, constant(44100, 10000), 48000));
+		// away from the edges, where the filter reaches into the silence around the input
+		for (int i = 100; i < output.length - 100; i++) {
+			assertEquals(10000, output[i], 10);
+		}
+	}
+
+	@Test
+	void toneKeepsItsFrequencyAndAmplitude() throws ALException {
+		AudioFormat format = new AudioFormat(48000, 16, 1, true, false);
+		ByteBuffer input = ByteBuffer.allocate(48000 * 2).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < 48000; i++) {
+			input.putShort((short) Math.round(Math.sin(2 * Math.PI * 1000 * i / 48000.0) * 16000));
+		}
+		short[] output = toShorts(Resampler.resample(format, input.array(), 44100));
+		for (int i = 1000; i < output.length - 1000; i += 7) {
+			double expected = Math.sin(2 * Math.PI * 1000 * i / 44100.0) * 16000;
+			assertEquals(expected, output[i], 40);
+		}
+	}
+
+	@Test
+	void toneAboveTheTargetNyquistIsRemoved() throws ALException {
+		AudioFormat format = new AudioFormat(48000, 16, 1, true, false);
+		ByteBuffer input = ByteBuffer.allocate(48000 * 2).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < 48000; i++) {
+			input.putShort((short) Math.round(Math.sin(2 * Math.PI * 15000 * i / 48000.0) * 16000));
+		}
+		short[] output = toShorts(Resampler.resample(format, input.array(), 22050));
+		for (int i = 1000; i < output.length - 1000; i++) {
+			assertTrue(Math.abs(output[i]) < 160, "aliasing at frame " + i + ": " + output[i]);
+		}
+	}
+
+	@Test
+	void streamingMatchesTheWholeBuffer() throws ALException {
+		AudioFormat format = new AudioFormat(22050, 16, 2, true, false);
+		ByteBuffer input = ByteBuffer.allocate(10000 * 4).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < 20000; i++) {
+			input.putShort((short) ((i * 7919) % 20000 - 10000));
+		}
+		byte[] data = input.array();
+		byte[] whole = Resampler.resample(format, data, 48000);
+
+		Resampler resampler = new Resampler(2, 22050, 48000);
+		ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+		for (int offset = 0; offset < data.length; offset += 1236) {
+			streamed.writeBytes(resampler.process(data, offset, Math.min(1236, data.length - offset)));
+		}
+		streamed.writeBytes(resampler.flush());
+		byte[] result = streamed.toByteArray();
+		assertTrue(result.length >= whole.length);
+		byte[] head = new byte[whole.length];
+		System.arraycopy(result, 0, head, 0, head.length);
+		assertArrayEquals(whole, head);
+	}
+
+	@Test
+	void invalidConfigurationIsRejected() {
+		assertThrows(IllegalArgumentException.class, () -> new Resampler(0, 44100, 48000));
+		assertThrows(IllegalArgumentException.class, () -> new Resampler(2, 0, 48000));
+		assertThrows(ALException.class, () -> Resampler.resample(new AudioFormat(44100, 16, 1, true, true), new byte[4], 48000));
+	}
+
+	private static byte[] constant(int frames, int value) {
+		ByteBuffer buffer = ByteBuffer.allocate(frames * 2).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < frames; i++) {
+			buffer.putShort((short) value);
+		}
+		return buffer.array();
+	}
+
+	private static short[] toShorts(byte[] data) {
+		short[] samples = new short[data.length / 2];
+		ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples);
+		return samples;
+	}
+}
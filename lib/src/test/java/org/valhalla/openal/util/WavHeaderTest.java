@@ -0,0 +1,80 @@
+package org.valhalla.openal.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.junit.jupiter.api.Test;
+
+class WavHeaderTest {
+
+	@Test
+	void headerDescribesTheFormat() {
+		ByteBuffer header = WavHeader.create(new AudioFormat(48000, 16, 2, true, false), 1000).order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(WavHeader.SIZE, header.remaining());
+		assertEquals(0x46464952, header.getInt(0));
+		assertEquals(1000 + WavHeader.SIZE - 8, header.getInt(4));
+		assertEquals(1, header.getShort(20));
+		assertEquals(2, header.getShort(22));
+		assertEquals(48000, header.getInt(24));
+		assertEquals(48000 * 4, header.getInt(28));
+		assertEquals(4, header.getShort(32));
+		assertEquals(16, header.getShort(34));
+		assertEquals(1000, header.getInt(40));
+	}
+
+	@Test
+	void floatDataIsTaggedAsFloat() {
+		AudioFormat format = new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, 44100, 32, 1, 4, 44100, false);
+		ByteBuffer header = WavHeader.create(format, 0).order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(3, header.getShort(20));
+	}
+
+	@Test
+	void oversizedDataIsClamped() {
+		ByteBuffer header = WavHeader.create(new AudioFormat(44100, 16, 1, true, false), Long.MAX_VALUE).order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals(WavHeader.MAX_DATA_SIZE, header.getInt(40) & 0xFFFFFFFFL);
+		assertEquals(0xFFFFFFFFL, header.getInt(4) & 0xFFFFFFFFL);
+	}
+
+	@Test
+	void formatsWithoutAWavLayoutAreRejected() {
+		assertThrows(IllegalArgumentException.class, () -> WavHeader.create(new AudioFormat(44100, 16, 1, true, true), 0));
+		assertThrows(IllegalArgumentException.class, () -> WavHeader.create(new AudioFormat(44100, 8, 1, true, false), 0));
+	}
+
+	@Test
+	void patchedFileCanBeReadBack() throws IOException, UnsupportedAudioFileException {
+		AudioFormat format = new AudioFormat(22050, 16, 1, true, false);
+		byte[] samples = {1, 0, 2, 0, 3, 0, 4, 0};
+		Path file = Files.createTempFile("wav-header", ".wav");
+		try {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				channel.write(WavHeader.create(format, 0));
+				channel.write(ByteBuffer.wrap(samples));
+				WavHeader.patch(channel, samples.length);
+				assertEquals(WavHeader.SIZE + samples.length, channel.position());
+			}
+			try (AudioInputStream input = AudioSystem.getAudioInputStream(new ByteArrayInputStream(Files.readAllBytes(file)))) {
+				assertEquals(4, input.getFrameLength());
+				assertEquals(22050f, input.getFormat().getSampleRate());
+				assertEquals(samples.length, input.readAllBytes().length);
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+}